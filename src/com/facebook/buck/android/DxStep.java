@@ -19,12 +19,15 @@ package com.facebook.buck.android;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.HasResourceRequirements;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.util.concurrent.ResourceClass;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
@@ -35,7 +38,7 @@ import java.util.Set;
 
 import javax.annotation.CheckForNull;
 
-public class DxStep extends ShellStep {
+public class DxStep extends ShellStep implements HasResourceRequirements {
 
   /**
    */
@@ -204,4 +207,9 @@ public class DxStep extends ShellStep {
     return "dx";
   }
 
+  @Override
+  public ImmutableMap<ResourceClass, Integer> getResourceRequirements() {
+    return ImmutableMap.of(ResourceClass.MEMORY, 1);
+  }
+
 }
@@ -20,8 +20,10 @@ import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.AbstractExecutionStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.HasResourceRequirements;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.TouchStep;
+import com.facebook.buck.util.concurrent.ResourceClass;
 import com.facebook.buck.zip.CustomZipOutputStream;
 import com.facebook.buck.zip.ZipOutputStreams;
 import com.google.common.annotations.VisibleForTesting;
@@ -41,7 +43,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 
-public final class ProGuardObfuscateStep extends ShellStep {
+public final class ProGuardObfuscateStep extends ShellStep implements HasResourceRequirements {
 
   enum SdkProguardType {
     DEFAULT,
@@ -125,6 +127,11 @@ public final class ProGuardObfuscateStep extends ShellStep {
     return "proguard_obfuscation";
   }
 
+  @Override
+  public ImmutableMap<ResourceClass, Integer> getResourceRequirements() {
+    return ImmutableMap.of(ResourceClass.MEMORY, 1);
+  }
+
   @Override
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
     // Run ProGuard as a standalone executable JAR file.
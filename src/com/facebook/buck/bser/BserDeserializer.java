@@ -17,6 +17,8 @@
 package com.facebook.buck.bser;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.io.ByteStreams;
 
 import java.io.InputStream;
@@ -48,6 +50,19 @@ public class BserDeserializer {
       SORTED
   }
 
+  public enum StringInterning {
+      NONE,
+      INTERNED
+  }
+
+  /**
+   * Receives the elements of a top-level BSER array, one at a time, as soon as each one has been
+   * decoded.
+   */
+  public interface ArrayElementHandler {
+    void handleElement(@Nullable Object element) throws IOException;
+  }
+
   /**
    * Exception thrown when BSER parser unexpectedly reaches the end of
    * the input stream.
@@ -63,9 +78,27 @@ public class BserDeserializer {
     }
   }
 
+  /**
+   * Shared by all deserializers so that strings repeated across build files (rule types,
+   * attribute names and build targets) are only held once.
+   */
+  private static final Interner<String> STRING_INTERNER = Interners.newWeakInterner();
+
+  /**
+   * How many bytes of a value are read from the stream at a time. Strings longer than this are
+   * read into a buffer of their own, so that one huge value doesn't leave a huge buffer behind.
+   */
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
   private final KeyOrdering keyOrdering;
+  private final StringInterning stringInterning;
   private final CharsetDecoder utf8Decoder;
 
+  /**
+   * Reused across calls to avoid allocating a new buffer for every value read from a stream.
+   */
+  @Nullable private ByteBuffer readBuffer;
+
   /**
    * If {@code keyOrdering} is {@code SORTED}, any {@code Map} objects
    * in the resulting value will have their keys sorted in natural
@@ -73,7 +106,16 @@ public class BserDeserializer {
    * same order with which they were encoded.
    */
   public BserDeserializer(KeyOrdering keyOrdering) {
+    this(keyOrdering, StringInterning.NONE);
+  }
+
+  /**
+   * If {@code stringInterning} is {@code INTERNED}, every decoded
+   * string, including {@code Map} keys, is interned.
+   */
+  public BserDeserializer(KeyOrdering keyOrdering, StringInterning stringInterning) {
     this.keyOrdering = keyOrdering;
+    this.stringInterning = stringInterning;
     this.utf8Decoder = StandardCharsets.UTF_8
         .newDecoder()
         .onMalformedInput(CodingErrorAction.REPORT);
@@ -108,13 +150,44 @@ public class BserDeserializer {
   @Nullable
   public Object deserializeBserValue(InputStream inputStream) throws IOException {
     try {
-      return deserializeRecursive(readBserBuffer(inputStream));
+      BserInput input = readBserHeader(inputStream);
+      Object value = deserializeRecursive(input);
+      input.skipRemaining();
+      return value;
+    } catch (BufferUnderflowException e) {
+      throw new BserEofException(String.format("Prematurely reached end of BSER buffer"), e);
+    }
+  }
+
+  /**
+   * Deserializes the next BSER-encoded value from the stream, which
+   * must be an array, passing each element to {@code handler} as soon
+   * as it has been decoded rather than collecting them into a
+   * {@link List}. Only a bounded part of the encoded array is held in
+   * memory at a time.
+   */
+  public void deserializeBserArray(
+      InputStream inputStream,
+      ArrayElementHandler handler) throws IOException {
+    try {
+      BserInput input = readBserHeader(inputStream);
+      byte type = input.get();
+      if (type != BSER_ARRAY) {
+        throw new IOException(
+            String.format("Unexpected BSER value type %d, expected array", type));
+      }
+      byte intType = input.get();
+      int numItems = deserializeIntLen(input, intType);
+      for (int i = 0; i < numItems; i++) {
+        handler.handleElement(deserializeRecursive(input));
+      }
+      input.skipRemaining();
     } catch (BufferUnderflowException e) {
       throw new BserEofException(String.format("Prematurely reached end of BSER buffer"), e);
     }
   }
 
-  private ByteBuffer readBserBuffer(InputStream inputStream) throws IOException {
+  private BserInput readBserHeader(InputStream inputStream) throws IOException {
     ByteBuffer sniffBuffer = ByteBuffer.allocate(SNIFF_BUFFER_SIZE).order(ByteOrder.nativeOrder());
     Preconditions.checkState(sniffBuffer.hasArray());
 
@@ -164,29 +237,129 @@ public class BserDeserializer {
     }
     int bytesRemaining = deserializeIntLen(sniffBuffer, lengthType);
 
-    ByteBuffer bserBuffer = ByteBuffer.allocate(bytesRemaining)
-        .order(ByteOrder.nativeOrder());
-    Preconditions.checkState(bserBuffer.hasArray());
+    ByteBuffer buffer = readBuffer;
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(READ_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+      Preconditions.checkState(buffer.hasArray());
+      readBuffer = buffer;
+    }
+    buffer.clear();
+    buffer.limit(0);
+    return new BserInput(inputStream, buffer, bytesRemaining);
+  }
 
-    int remainingBytesRead = ByteStreams.read(
-        inputStream,
-        bserBuffer.array(),
-        0,
-        bytesRemaining);
+  /**
+   * The body of a single BSER value, which is read from the stream as it is decoded, and never
+   * past its end, so that the next value can be read from the same stream.
+   */
+  private static class BserInput {
+    private final InputStream inputStream;
+    private final ByteBuffer buffer;
+    private final int length;
+    private int unread;
 
-    if (remainingBytesRead < bytesRemaining) {
-      throw new IOException(
-          String.format(
-              "Invalid BSER header (expected %d bytes, got %d bytes)",
-              bytesRemaining,
-              remainingBytesRead));
+    public BserInput(InputStream inputStream, ByteBuffer buffer, int length) {
+      this.inputStream = inputStream;
+      this.buffer = buffer;
+      this.length = length;
+      this.unread = length;
     }
 
-    return bserBuffer;
+    /**
+     * Makes sure that the next {@code count} bytes of the value, which must fit in the buffer,
+     * are in the buffer.
+     *
+     * @throws BufferUnderflowException if the value ends before them.
+     */
+    public void require(int count) throws IOException {
+      if (buffer.remaining() >= count) {
+        return;
+      }
+      if (buffer.remaining() + unread < count) {
+        throw new BufferUnderflowException();
+      }
+      buffer.compact();
+      int toRead = Math.min(buffer.remaining(), unread);
+      readFully(buffer.array(), buffer.arrayOffset() + buffer.position(), toRead);
+      buffer.position(buffer.position() + toRead);
+      buffer.flip();
+    }
+
+    /**
+     * Reads the next {@code count} bytes of the value, which need not fit in the buffer, into a
+     * new array.
+     */
+    public byte[] readBytes(int count) throws IOException {
+      if (buffer.remaining() + unread < count) {
+        throw new BufferUnderflowException();
+      }
+      byte[] bytes = new byte[count];
+      int buffered = Math.min(buffer.remaining(), count);
+      buffer.get(bytes, 0, buffered);
+      readFully(bytes, buffered, count - buffered);
+      return bytes;
+    }
+
+    /**
+     * Consumes whatever is left of the value, so that the stream is positioned at the next one.
+     */
+    public void skipRemaining() throws IOException {
+      buffer.position(buffer.limit());
+      ByteStreams.skipFully(inputStream, unread);
+      unread = 0;
+    }
+
+    private void readFully(byte[] bytes, int offset, int count) throws IOException {
+      int read = ByteStreams.read(inputStream, bytes, offset, count);
+      unread -= read;
+      if (read < count) {
+        throw new BserEofException(
+            String.format(
+                "Invalid BSER header (expected %d bytes, got %d bytes)",
+                length,
+                length - unread));
+      }
+    }
+
+    public ByteBuffer getBuffer() {
+      return buffer;
+    }
+
+    public byte get() throws IOException {
+      require(1);
+      return buffer.get();
+    }
+
+    public short getShort() throws IOException {
+      require(2);
+      return buffer.getShort();
+    }
+
+    public int getInt() throws IOException {
+      require(4);
+      return buffer.getInt();
+    }
+
+    public long getLong() throws IOException {
+      require(8);
+      return buffer.getLong();
+    }
+
+    public double getDouble() throws IOException {
+      require(8);
+      return buffer.getDouble();
+    }
   }
 
   private int deserializeIntLen(ByteBuffer buffer, byte type) throws IOException {
-    long value = deserializeNumber(buffer, type).longValue();
+    return checkIntLen(deserializeNumber(buffer, type).longValue());
+  }
+
+  private int deserializeIntLen(BserInput input, byte type) throws IOException {
+    return checkIntLen(deserializeNumber(input, type).longValue());
+  }
+
+  private static int checkIntLen(long value) throws IOException {
     if (value > Integer.MAX_VALUE) {
       throw new IOException(
           String.format(
@@ -217,34 +390,76 @@ public class BserDeserializer {
     }
   }
 
-  private String deserializeString(ByteBuffer buffer) throws IOException {
-    byte intType = buffer.get();
-    int len = deserializeIntLen(buffer, intType);
+  private Number deserializeNumber(BserInput input, byte type) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+        return input.get();
+      case BSER_INT16:
+        return input.getShort();
+      case BSER_INT32:
+        return input.getInt();
+      case BSER_INT64:
+        return input.getLong();
+      default:
+        throw new IOException(String.format("Invalid BSER number encoding %d", type));
+    }
+  }
 
-    // We use a CharsetDecoder here instead of String(byte[], Charset)
-    // because we want it to throw an exception for any non-UTF-8 input.
-    buffer.limit(buffer.position() + len);
+  private String deserializeString(BserInput input) throws IOException {
+    byte intType = input.get();
+    int len = deserializeIntLen(input, intType);
 
-    try {
-      return utf8Decoder.decode(buffer).toString();
-    } finally {
-      buffer.limit(buffer.capacity());
+    byte[] bytes;
+    int offset;
+    if (len <= READ_BUFFER_SIZE) {
+      input.require(len);
+      ByteBuffer buffer = input.getBuffer();
+      bytes = buffer.array();
+      offset = buffer.arrayOffset() + buffer.position();
+      buffer.position(buffer.position() + len);
+    } else {
+      bytes = input.readBytes(len);
+      offset = 0;
+    }
+
+    String result;
+    if (isAscii(bytes, offset, len)) {
+      // Fast path for the common case, which avoids the intermediate CharBuffer.
+      result = new String(bytes, offset, len, StandardCharsets.US_ASCII);
+    } else {
+      // We use a CharsetDecoder here instead of String(byte[], Charset)
+      // because we want it to throw an exception for any non-UTF-8 input.
+      result = utf8Decoder.decode(ByteBuffer.wrap(bytes, offset, len)).toString();
+    }
+
+    if (stringInterning == StringInterning.INTERNED) {
+      return STRING_INTERNER.intern(result);
+    }
+    return result;
+  }
+
+  private static boolean isAscii(byte[] bytes, int offset, int len) {
+    for (int i = offset; i < offset + len; i++) {
+      if (bytes[i] < 0) {
+        return false;
+      }
     }
+    return true;
   }
 
-  private List<Object> deserializeArray(ByteBuffer buffer) throws IOException {
-    byte intType = buffer.get();
-    int numItems = deserializeIntLen(buffer, intType);
+  private List<Object> deserializeArray(BserInput input) throws IOException {
+    byte intType = input.get();
+    int numItems = deserializeIntLen(input, intType);
     ArrayList<Object> list = new ArrayList<>(numItems);
     for (int i = 0; i < numItems; i++) {
-      list.add(deserializeRecursive(buffer));
+      list.add(deserializeRecursive(input));
     }
     return list;
   }
 
-  private Map<String, Object> deserializeObject(ByteBuffer buffer) throws IOException {
-    byte intType = buffer.get();
-    int numItems = deserializeIntLen(buffer, intType);
+  private Map<String, Object> deserializeObject(BserInput input) throws IOException {
+    byte intType = input.get();
+    int numItems = deserializeIntLen(input, intType);
     Map<String, Object> map;
     if (keyOrdering == KeyOrdering.UNSORTED) {
       map = new LinkedHashMap<>(numItems);
@@ -252,7 +467,7 @@ public class BserDeserializer {
       map = new TreeMap<>();
     }
     for (int i = 0; i < numItems; i++) {
-      byte stringType = buffer.get();
+      byte stringType = input.get();
       if (stringType != BSER_STRING) {
         throw new IOException(
             String.format(
@@ -260,24 +475,24 @@ public class BserDeserializer {
                 stringType,
                 BSER_STRING));
       }
-      String key = deserializeString(buffer);
-      Object value = deserializeRecursive(buffer);
+      String key = deserializeString(input);
+      Object value = deserializeRecursive(input);
       map.put(key, value);
     }
     return map;
   }
 
   @Nullable
-  private Object deserializeRecursive(ByteBuffer buffer) throws IOException {
-    byte type = buffer.get();
+  private Object deserializeRecursive(BserInput input) throws IOException {
+    byte type = input.get();
     switch (type) {
       case BSER_INT8:
       case BSER_INT16:
       case BSER_INT32:
       case BSER_INT64:
-        return deserializeNumber(buffer, type);
+        return deserializeNumber(input, type);
       case BSER_REAL:
-        return buffer.getDouble();
+        return input.getDouble();
       case BSER_TRUE:
         return true;
       case BSER_FALSE:
@@ -285,11 +500,11 @@ public class BserDeserializer {
       case BSER_NULL:
         return null;
       case BSER_STRING:
-        return deserializeString(buffer);
+        return deserializeString(input);
       case BSER_ARRAY:
-        return deserializeArray(buffer);
+        return deserializeArray(input);
       case BSER_OBJECT:
-        return deserializeObject(buffer);
+        return deserializeObject(input);
       case BSER_TEMPLATE:
         throw new UnsupportedOperationException("TODO");
       default:
@@ -35,6 +35,7 @@ public class AuditCommand extends AbstractContainerCommand {
       @SubCommand(name = "dependencies", impl = AuditDependenciesCommand.class),
       @SubCommand(name = "input", impl = AuditInputCommand.class),
       @SubCommand(name = "owner", impl = AuditOwnerCommand.class),
+      @SubCommand(name = "rulekey-diff", impl = AuditRuleKeyDiffCommand.class),
       @SubCommand(name = "rules", impl = AuditRulesCommand.class),
       @SubCommand(name = "tests", impl = AuditTestsCommand.class),
   })
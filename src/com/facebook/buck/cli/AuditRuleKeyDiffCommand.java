@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.cli;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.RuleKeyLog;
+import com.facebook.buck.rules.keys.RuleKeyLogDiff;
+import com.facebook.buck.util.HumanReadableException;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+
+import org.kohsuke.args4j.Argument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the rule keys that two builds recorded with {@code [log] record_rule_keys}, and prints
+ * the first input that differs for each rule whose key differs.
+ */
+public class AuditRuleKeyDiffCommand extends AbstractCommand {
+
+  @Argument
+  private List<String> arguments = Lists.newArrayList();
+
+  @Override
+  public int runWithoutHelp(CommandRunnerParams params) throws IOException, InterruptedException {
+    if (arguments.size() != 2) {
+      params.getConsole().printBuildFailure(
+          "Expected the rule key logs or build ids of two builds to compare.");
+      return 1;
+    }
+
+    ProjectFilesystem filesystem = params.getRepository().getFilesystem();
+    RuleKeyLog left = readLog(filesystem, arguments.get(0));
+    RuleKeyLog right = readLog(filesystem, arguments.get(1));
+    ImmutableSortedMap<String, String> differences = RuleKeyLogDiff.diff(left, right);
+
+    PrintStream stdOut = params.getConsole().getStdOut();
+    for (Map.Entry<String, String> difference : differences.entrySet()) {
+      stdOut.println(difference.getKey());
+      stdOut.println("  " + difference.getValue());
+    }
+    params.getConsole().getStdErr().printf(
+        "%d of %d rules have different rule keys.\n",
+        differences.size(),
+        left.getRuleKeys().size());
+    return 0;
+  }
+
+  /**
+   * @param argument the path to a rule key log, or the id of a build whose log is still in
+   *     {@link RuleKeyLog#LOG_DIR}.
+   */
+  private static RuleKeyLog readLog(ProjectFilesystem filesystem, String argument)
+      throws IOException {
+    Path path = Paths.get(argument);
+    if (!Files.isRegularFile(path)) {
+      path = filesystem.resolve(RuleKeyLog.LOG_DIR.resolve(argument + RuleKeyLog.EXTENSION));
+    }
+    if (!Files.isRegularFile(path)) {
+      throw new HumanReadableException("No rule key log found for %s.", argument);
+    }
+    try (InputStream input = Files.newInputStream(path)) {
+      return RuleKeyLog.readFrom(input);
+    }
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return true;
+  }
+
+  @Override
+  public String getShortDescription() {
+    return "explains the differences between the rule keys of two builds";
+  }
+}
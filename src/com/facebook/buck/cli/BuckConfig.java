@@ -27,6 +27,8 @@ import com.facebook.buck.parser.BuildTargetParseException;
 import com.facebook.buck.parser.BuildTargetParser;
 import com.facebook.buck.parser.BuildTargetPatternParser;
 import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.ArtifactCompression;
+import com.facebook.buck.rules.ArtifactUploadQueue;
 import com.facebook.buck.rules.BinaryBuildRule;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleResolver;
@@ -34,6 +36,7 @@ import com.facebook.buck.rules.BuildTargetSourcePath;
 import com.facebook.buck.rules.CachingBuildEngine;
 import com.facebook.buck.rules.DirArtifactCache;
 import com.facebook.buck.rules.HttpArtifactCache;
+import com.facebook.buck.rules.InstrumentedArtifactCache;
 import com.facebook.buck.rules.MultiArtifactCache;
 import com.facebook.buck.rules.NoopArtifactCache;
 import com.facebook.buck.rules.PathSourcePath;
@@ -43,6 +46,7 @@ import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.AnsiEnvironmentChecking;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.concurrent.ResourceClass;
 import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.util.unit.SizeUnit;
 import com.google.common.annotations.Beta;
@@ -109,6 +113,9 @@ public class BuckConfig {
   private static final String DEFAULT_HTTP_URL = "http://localhost:8080";
   private static final String DEFAULT_HTTP_CACHE_MODE = CacheMode.readwrite.name();
   private static final String DEFAULT_HTTP_CACHE_TIMEOUT_SECONDS = "3";
+  private static final long DEFAULT_UPLOAD_THREADS = 2;
+  private static final String DEFAULT_UPLOAD_QUEUE_MAX_SIZE = "512mb";
+  private static final long DEFAULT_HTTP_PREFETCH_BATCH_SIZE = 100;
 
   private static final Function<String, URI> TO_URI = new Function<String, URI>() {
     @Override
@@ -449,6 +456,25 @@ public class BuckConfig {
     return Long.parseLong(getValue("test", "timeout").or("0"));
   }
 
+  /**
+   * @return the number of threads to build with, from {@code [build] threads}, or 1.25 times the
+   *     number of available processors if that is not set.
+   */
+  public int getNumThreads() {
+    Optional<String> threads = getValue("build", "threads");
+    if (!threads.isPresent()) {
+      return (int) (Runtime.getRuntime().availableProcessors() * 1.25);
+    }
+    try {
+      return Integer.parseInt(threads.get());
+    } catch (NumberFormatException e) {
+      throw new HumanReadableException(
+          e,
+          "Unable to determine number of threads to use from building from buck config file. " +
+              "Value used was '%s'", threads.get());
+    }
+  }
+
   public int getMaxTraces() {
     return Integer.parseInt(getValue("log", "max_traces").or(DEFAULT_MAX_TRACES));
   }
@@ -457,6 +483,14 @@ public class BuckConfig {
     return getBooleanValue("log", "compress_traces", false);
   }
 
+  /**
+   * @return whether builds record what goes into each rule key, for
+   *     {@code buck audit rulekey-diff}.
+   */
+  public boolean getRecordRuleKeys() {
+    return getBooleanValue("log", "record_rule_keys", false);
+  }
+
   public boolean getRestartAdbOnFailure() {
     return Boolean.parseBoolean(getValue("adb", "adb_restart_on_failure").or("true"));
   }
@@ -465,6 +499,13 @@ public class BuckConfig {
     return getBooleanValue("daemon", "flush_events_before_exit", false);
   }
 
+  /**
+   * @return whether file hashes should be kept in an index under buck-out between runs.
+   */
+  public boolean getUsePersistentFileHashCache() {
+    return getBooleanValue("build", "persistent_file_hash_cache", false);
+  }
+
   public ImmutableSet<String> getListenerJars() {
     return ImmutableSet.copyOf(getListWithoutComments("extensions", "listeners"));
   }
@@ -523,14 +564,24 @@ public class BuckConfig {
       for (String mode : modes) {
         switch (ArtifactCacheNames.valueOf(mode)) {
         case dir:
-          ArtifactCache dirArtifactCache = createDirArtifactCache();
+          ArtifactCache dirArtifactCache = createDirArtifactCache(buckEventBus);
           buckEventBus.register(dirArtifactCache);
-          builder.add(dirArtifactCache);
+          builder.add(
+              new InstrumentedArtifactCache(
+                  dirArtifactCache,
+                  mode,
+                  projectFilesystem,
+                  buckEventBus));
           break;
         case http:
           if (useDistributedCache) {
             ArtifactCache httpArtifactCache = createHttpArtifactCache(buckEventBus);
-            builder.add(httpArtifactCache);
+            builder.add(
+                new InstrumentedArtifactCache(
+                    httpArtifactCache,
+                    mode,
+                    projectFilesystem,
+                    buckEventBus));
           }
           break;
         }
@@ -543,7 +594,9 @@ public class BuckConfig {
       // Don't bother wrapping a single artifact cache in MultiArtifactCache.
       return artifactCaches.get(0);
     } else {
-      return new MultiArtifactCache(artifactCaches);
+      return new MultiArtifactCache(
+          artifactCaches,
+          getBooleanValue("cache", "parallel_fetch", false));
     }
   }
 
@@ -589,7 +642,39 @@ public class BuckConfig {
         });
   }
 
-  private ArtifactCache createDirArtifactCache() {
+  /**
+   * @return a queue that runs artifact cache uploads on their own threads, or absent if
+   *     {@code [cache] upload_threads} is zero, in which case uploads run on the build threads.
+   */
+  public Optional<ArtifactUploadQueue> createArtifactUploadQueue(BuckEventBus buckEventBus) {
+    long threads = getLong("cache", "upload_threads").or(DEFAULT_UPLOAD_THREADS);
+    if (threads <= 0) {
+      return Optional.absent();
+    }
+    long maxQueuedBytes = SizeUnit.parseBytes(
+        getValue("cache", "upload_queue_max_size").or(DEFAULT_UPLOAD_QUEUE_MAX_SIZE));
+    return Optional.of(
+        new ArtifactUploadQueue(
+            buckEventBus,
+            (int) threads,
+            maxQueuedBytes,
+            getEnum("cache", "upload_queue_full_policy", ArtifactUploadQueue.FullQueuePolicy.class)
+                .or(ArtifactUploadQueue.FullQueuePolicy.WAIT)));
+  }
+
+  /**
+   * @return how many rule keys to look up in one request when prefetching artifacts, or zero if
+   *     artifacts should not be prefetched. Prefetching is on by default when the http cache is.
+   */
+  public int getArtifactPrefetchBatchSize() {
+    long defaultBatchSize =
+        getArtifactCacheModes().contains(ArtifactCacheNames.http.name()) ?
+            DEFAULT_HTTP_PREFETCH_BATCH_SIZE :
+            0;
+    return (int) Math.max(0, getLong("cache", "prefetch_batch_size").or(defaultBatchSize));
+  }
+
+  private ArtifactCache createDirArtifactCache(BuckEventBus buckEventBus) {
     Path cacheDir = getCacheDir();
     boolean doStore = readCacheMode("dir_mode", DEFAULT_DIR_CACHE_MODE);
     try {
@@ -598,7 +683,9 @@ public class BuckConfig {
           projectFilesystem,
           cacheDir,
           doStore,
-          getCacheDirMaxSizeBytes());
+          getCacheDirMaxSizeBytes(),
+          getArtifactCompression("dir_compression"),
+          Optional.of(buckEventBus));
     } catch (IOException e) {
       throw new HumanReadableException(
           "Failure initializing artifact cache directory: %s",
@@ -678,7 +765,15 @@ public class BuckConfig {
         doStore,
         projectFilesystem,
         buckEventBus,
-        Hashing.crc32());
+        Hashing.crc32(),
+        getArtifactCompression("http_compression"));
+  }
+
+  /**
+   * @return how the artifacts stored in a cache are compressed, as set by {@code [cache] field}.
+   */
+  private ArtifactCompression getArtifactCompression(String field) {
+    return getEnum("cache", field, ArtifactCompression.class).or(ArtifactCompression.DEFAULT);
   }
 
   private boolean readCacheMode(String fieldName, String defaultValue) {
@@ -772,6 +867,28 @@ public class BuckConfig {
   /**
    * @return the mode with which to run the build engine.
    */
+  /**
+   * @return how many tokens of each {@link ResourceClass} the steps running at once may hold
+   *     between them, from the {@code [resources]} section.
+   */
+  public ImmutableMap<ResourceClass, Integer> getResourceLimits() {
+    ImmutableMap.Builder<ResourceClass, Integer> limits = ImmutableMap.builder();
+    for (ResourceClass resourceClass : ResourceClass.values()) {
+      Optional<Long> limit = getLong("resources", resourceClass.getConfigName());
+      if (!limit.isPresent()) {
+        continue;
+      }
+      if (limit.get() <= 0 || limit.get() > Integer.MAX_VALUE) {
+        throw new HumanReadableException(
+            "[resources] %s must be a positive number, not %d.",
+            resourceClass.getConfigName(),
+            limit.get());
+      }
+      limits.put(resourceClass, limit.get().intValue());
+    }
+    return limits.build();
+  }
+
   public CachingBuildEngine.DepFiles getBuildDepFiles() {
     return getBooleanValue("build", "depfiles", true) ?
         CachingBuildEngine.DepFiles.ENABLED :
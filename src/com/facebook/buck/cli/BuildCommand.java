@@ -19,8 +19,12 @@ package com.facebook.buck.cli;
 import com.facebook.buck.android.AndroidPlatformTarget;
 import com.facebook.buck.command.Build;
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.io.PathListing;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetException;
 import com.facebook.buck.model.HasBuildTarget;
@@ -30,14 +34,18 @@ import com.facebook.buck.parser.BuildTargetPatternParser;
 import com.facebook.buck.parser.ParserConfig;
 import com.facebook.buck.rules.ActionGraph;
 import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.ArtifactUploadQueue;
 import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.CachingBuildEngine;
+import com.facebook.buck.rules.RuleDurationHistory;
+import com.facebook.buck.rules.RuleKeyLog;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetGraphToActionGraph;
+import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.rules.keys.DependencyFileRuleKeyBuilderFactory;
 import com.facebook.buck.rules.keys.InputBasedRuleKeyBuilderFactory;
 import com.facebook.buck.step.AdbOptions;
@@ -66,13 +74,17 @@ import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
 public class BuildCommand extends AbstractCommand {
 
+  private static final Logger LOG = Logger.get(BuildCommand.class);
+
   private static final String NUM_THREADS_LONG_ARG = "--num-threads";
   private static final String KEEP_GOING_LONG_ARG = "--keep-going";
   private static final String BUILD_REPORT_LONG_ARG = "--build-report";
@@ -161,19 +173,7 @@ public class BuildCommand extends AbstractCommand {
 
   int getNumThreads(BuckConfig buckConfig) {
     if (numThreads == null) {
-      ImmutableMap<String, String> build = buckConfig.getEntriesForSection("build");
-      if (build.containsKey("threads")) {
-        try {
-          numThreads = Integer.parseInt(build.get("threads"));
-        } catch (NumberFormatException e) {
-          throw new HumanReadableException(
-              e,
-              "Unable to determine number of threads to use from building from buck config file. " +
-                  "Value used was '%s'", build.get("threads"));
-        }
-      } else {
-        numThreads = (int) (Runtime.getRuntime().availableProcessors() * 1.25);
-      }
+      numThreads = buckConfig.getNumThreads();
     }
     return numThreads;
   }
@@ -206,7 +206,10 @@ public class BuildCommand extends AbstractCommand {
   }
 
   public ConcurrencyLimit getConcurrencyLimit(BuckConfig buckConfig) {
-    return new ConcurrencyLimit(getNumThreads(buckConfig), getLoadLimit(buckConfig));
+    return new ConcurrencyLimit(
+        getNumThreads(buckConfig),
+        getLoadLimit(buckConfig),
+        buckConfig.getResourceLimits());
   }
 
   /**
@@ -236,6 +239,9 @@ public class BuildCommand extends AbstractCommand {
     if (console.getVerbosity() == Verbosity.ALL) {
       console.getStdErr().printf("Creating a build with %d threads.\n", numThreads);
     }
+    Optional<ArtifactUploadQueue> artifactUploadQueue = artifactCache.isStoreSupported() ?
+        buckConfig.createArtifactUploadQueue(eventBus) :
+        Optional.<ArtifactUploadQueue>absent();
     return new Build(
         graph,
         targetDevice,
@@ -243,6 +249,8 @@ public class BuildCommand extends AbstractCommand {
         androidPlatformTargetSupplier,
         buildEngine,
         artifactCache,
+        artifactUploadQueue,
+        buckConfig.getArtifactPrefetchBatchSize(),
         buckConfig.createDefaultJavaPackageFinder(),
         console,
         buckConfig.getDefaultTestTimeoutMillis(),
@@ -291,6 +299,10 @@ public class BuildCommand extends AbstractCommand {
       params.getBuckEventBus().post(started);
     }
 
+    Optional<RuleKeyLog> ruleKeyLog = params.getBuckConfig().getRecordRuleKeys() ?
+        Optional.of(new RuleKeyLog()) :
+        Optional.<RuleKeyLog>absent();
+
     // Parse the build files to create a ActionGraph.
     ActionGraph actionGraph;
     BuildRuleResolver resolver;
@@ -307,11 +319,13 @@ public class BuildCommand extends AbstractCommand {
               params.getEnvironment(),
               getEnableProfiling());
       buildTargets = result.getFirst();
+      prefetchInputHashes(params, result.getSecond());
       TargetGraphToActionGraph targetGraphToActionGraph =
           new TargetGraphToActionGraph(
               params.getBuckEventBus(),
               new BuildTargetNodeToBuildRuleTransformer(),
-              params.getFileHashCache());
+              params.getFileHashCache(),
+              ruleKeyLog);
       actionGraph = targetGraphToActionGraph.apply(result.getSecond());
       resolver = targetGraphToActionGraph.getRuleResolver();
     } catch (BuildTargetException | BuildFileParseException e) {
@@ -352,7 +366,10 @@ public class BuildCommand extends AbstractCommand {
                      new SourcePathResolver(resolver)),
                  new DependencyFileRuleKeyBuilderFactory(
                      params.getFileHashCache(),
-                     new SourcePathResolver(resolver))),
+                     new SourcePathResolver(resolver)),
+                 RuleDurationHistory.readFrom(
+                     params.getRepository().getFilesystem(),
+                     params.getObjectMapper())),
              artifactCache,
              params.getConsole(),
              params.getBuckEventBus(),
@@ -370,11 +387,74 @@ public class BuildCommand extends AbstractCommand {
           params.getBuckEventBus(),
           params.getConsole().getAnsi(),
           getPathToBuildReport(params.getBuckConfig()));
+      if (ruleKeyLog.isPresent()) {
+        writeRuleKeyLog(params, actionGraph, ruleKeyLog.get());
+      }
       params.getBuckEventBus().post(BuildEvent.finished(started, exitCode));
       return exitCode;
     }
   }
 
+  /**
+   * Writes what went into the rule keys of this build to {@link RuleKeyLog#LOG_DIR}, keeping as
+   * many logs there as {@code [log] max_traces} keeps traces.
+   */
+  private void writeRuleKeyLog(
+      CommandRunnerParams params,
+      ActionGraph actionGraph,
+      RuleKeyLog ruleKeyLog) {
+    for (BuildRule rule : actionGraph.getNodes()) {
+      ruleKeyLog.recordRule(rule.getFullyQualifiedName(), rule.getRuleKey());
+    }
+    ProjectFilesystem filesystem = params.getRepository().getFilesystem();
+    Path path = RuleKeyLog.LOG_DIR.resolve(
+        params.getBuckEventBus().getBuildId() + RuleKeyLog.EXTENSION);
+    try {
+      filesystem.mkdirs(RuleKeyLog.LOG_DIR);
+      try (OutputStream output = filesystem.newFileOutputStream(path)) {
+        ruleKeyLog.writeTo(output);
+      }
+      for (Path old : PathListing.listMatchingPathsWithFilters(
+               filesystem.resolve(RuleKeyLog.LOG_DIR),
+               "*" + RuleKeyLog.EXTENSION,
+               PathListing.GET_PATH_MODIFIED_TIME,
+               PathListing.FilterMode.EXCLUDE,
+               Optional.of(params.getBuckConfig().getMaxTraces()),
+               Optional.<Long>absent())) {
+        filesystem.deleteFileAtPath(old);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Could not write the rule key log to %s.", path);
+    }
+  }
+
+  /**
+   * Hashes the inputs of every node in {@code targetGraph} on a bounded pool before any rule keys
+   * are computed, so that a cold file hash cache is not filled one file at a time.
+   */
+  private void prefetchInputHashes(CommandRunnerParams params, TargetGraph targetGraph)
+      throws InterruptedException {
+    ImmutableSet.Builder<Path> inputs = ImmutableSet.builder();
+    for (TargetNode<?> node : targetGraph.getNodes()) {
+      inputs.addAll(node.getInputs());
+    }
+    ImmutableSet<Path> paths = inputs.build();
+
+    try (SimplePerfEvent.Scope scope =
+             SimplePerfEvent.scope(params.getBuckEventBus(), PerfEventId.of("FileHashPrefetch"))) {
+      long start = System.nanoTime();
+      long bytesRead = params.getFileHashCache().prefetch(
+          paths,
+          getConcurrencyLimit(params.getBuckConfig()).threadLimit);
+      long elapsedMillis = Math.max(
+          1,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      scope.appendFinishedInfo("files", paths.size());
+      scope.appendFinishedInfo("bytes_read", bytesRead);
+      scope.appendFinishedInfo("bytes_per_second", bytesRead * 1000 / elapsedMillis);
+    }
+  }
+
   @Override
   public boolean isReadOnly() {
     return false;
@@ -25,11 +25,13 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.listener.AbstractConsoleEventBusListener;
+import com.facebook.buck.event.listener.ArtifactCacheReportListener;
 import com.facebook.buck.event.listener.ChromeTraceBuildListener;
 import com.facebook.buck.event.listener.FileSerializationEventBusListener;
 import com.facebook.buck.event.listener.JavaUtilsLoggingBuildListener;
 import com.facebook.buck.event.listener.LoggingBuildListener;
 import com.facebook.buck.event.listener.RemoteLogUploaderEventListener;
+import com.facebook.buck.event.listener.RuleDurationHistoryListener;
 import com.facebook.buck.event.listener.SimpleConsoleEventBusListener;
 import com.facebook.buck.event.listener.SuperConsoleEventBusListener;
 import com.facebook.buck.httpserver.WebServer;
@@ -69,7 +71,7 @@ import com.facebook.buck.util.cache.DefaultFileHashCache;
 import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.MoreFunctions;
 import com.facebook.buck.util.cache.MultiProjectFileHashCache;
-import com.facebook.buck.util.cache.ProjectFileHashCache;
+import com.facebook.buck.util.cache.PersistentFileHashIndex;
 import com.facebook.buck.util.concurrent.TimeSpan;
 import com.facebook.buck.util.environment.BuildEnvironmentDescription;
 import com.facebook.buck.util.environment.DefaultExecutionEnvironment;
@@ -192,7 +194,7 @@ public final class Main {
       this.repository = repository;
       this.clock = clock;
       this.objectMapper = objectMapper;
-      this.hashCache = new DefaultFileHashCache(repository.getFilesystem());
+      this.hashCache = createRepoFileHashCache(repository);
       this.processExecutor = processExecutor;
       ParserConfig parserConfig = new ParserConfig(repository.getBuckConfig());
       PythonBuckConfig pythonBuckConfig = new PythonBuckConfig(
@@ -584,11 +586,11 @@ public final class Main {
         // TODO(user): Thread through properties from client environment.
         System.getProperties());
 
-    ProjectFileHashCache repoHashCache;
+    DefaultFileHashCache repoHashCache;
     if (isDaemon) {
       repoHashCache = getFileHashCacheFromDaemon(rootRepository, clock, processExecutor);
     } else {
-      repoHashCache = new DefaultFileHashCache(rootRepository.getFilesystem());
+      repoHashCache = createRepoFileHashCache(rootRepository);
     }
 
     // Build up the hash cache, which is a collection of the stateful repo cache and some per-run
@@ -738,6 +740,7 @@ public final class Main {
               webServer,
               buckConfig,
               fileHashCache));
+      repoHashCache.savePersistentIndex();
       parser.cleanCache();
       buildEventBus.post(CommandEvent.finished(startedEvent, exitCode));
     } catch (Throwable t) {
@@ -862,6 +865,14 @@ public final class Main {
     return daemon.getParser();
   }
 
+  private static DefaultFileHashCache createRepoFileHashCache(Repository repository) {
+    Optional<PersistentFileHashIndex> persistentIndex = Optional.absent();
+    if (repository.getBuckConfig().getUsePersistentFileHashCache()) {
+      persistentIndex = Optional.of(new PersistentFileHashIndex(repository.getFilesystem()));
+    }
+    return new DefaultFileHashCache(repository.getFilesystem(), persistentIndex);
+  }
+
   private DefaultFileHashCache getFileHashCacheFromDaemon(
       Repository repository,
       Clock clock,
@@ -964,6 +975,9 @@ public final class Main {
     } catch (IOException e) {
       LOG.error("Unable to create ChromeTrace listener!");
     }
+    eventListenersBuilder.add(
+        new ArtifactCacheReportListener(buckEvents, projectFilesystem, objectMapper));
+    eventListenersBuilder.add(new RuleDurationHistoryListener(projectFilesystem, objectMapper));
     if (webServer.isPresent()) {
       eventListenersBuilder.add(webServer.get().createListener());
     }
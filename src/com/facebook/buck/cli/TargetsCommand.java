@@ -36,6 +36,8 @@ import com.facebook.buck.parser.TargetNodePredicateSpec;
 import com.facebook.buck.rules.ActionGraph;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleType;
+import com.facebook.buck.rules.ParallelRuleKeyCalculator;
+import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetGraphAndTargets;
 import com.facebook.buck.rules.TargetGraphHashing;
@@ -615,6 +617,17 @@ public class TargetsCommand extends AbstractCommand {
         actionGraph = Optional.absent();
       }
 
+      ImmutableMap<BuildRule, RuleKey> ruleKeys = ImmutableMap.of();
+      if (actionGraph.isPresent() && isShowRuleKey()) {
+        List<BuildRule> matchingRules = Lists.newArrayList();
+        for (BuildTarget target : matchingBuildTargets) {
+          matchingRules.add(
+              Preconditions.checkNotNull(actionGraph.get().findBuildRuleByTarget(target)));
+        }
+        ruleKeys = new ParallelRuleKeyCalculator(params.getBuckConfig().getNumThreads())
+            .calculate(params.getBuckEventBus(), matchingRules);
+      }
+
       for (BuildTarget target : ImmutableSortedSet.copyOf(matchingBuildTargets)) {
         ImmutableList.Builder<String> builder = ImmutableList.builder();
         builder.add(target.getFullyQualifiedName());
@@ -622,7 +635,7 @@ public class TargetsCommand extends AbstractCommand {
           BuildRule rule = Preconditions.checkNotNull(
               actionGraph.get().findBuildRuleByTarget(target));
           if (isShowRuleKey()) {
-            builder.add(rule.getRuleKey().toString());
+            builder.add(Preconditions.checkNotNull(ruleKeys.get(rule)).toString());
           }
           if (isShowOutput()) {
             Path outputPath = rule.getPathToOutput();
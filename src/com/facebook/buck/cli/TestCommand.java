@@ -29,6 +29,7 @@ import com.facebook.buck.rules.ActionGraph;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.CachingBuildEngine;
 import com.facebook.buck.rules.Label;
+import com.facebook.buck.rules.RuleDurationHistory;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetGraphToActionGraph;
@@ -346,7 +347,10 @@ public class TestCommand extends BuildCommand {
                   new SourcePathResolver(targetGraphToActionGraph.getRuleResolver())),
               new DependencyFileRuleKeyBuilderFactory(
                   params.getFileHashCache(),
-                  new SourcePathResolver(targetGraphToActionGraph.getRuleResolver())));
+                  new SourcePathResolver(targetGraphToActionGraph.getRuleResolver())),
+              RuleDurationHistory.readFrom(
+                  params.getRepository().getFilesystem(),
+                  params.getObjectMapper()));
       try (Build build = createBuild(
           params.getBuckConfig(),
           graph,
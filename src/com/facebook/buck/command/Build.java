@@ -22,16 +22,20 @@ import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.ThrowableConsoleEvent;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.java.JavaPackageFinder;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.HasBuildTarget;
 import com.facebook.buck.rules.ActionGraph;
 import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.ArtifactUploadQueue;
 import com.facebook.buck.rules.BuildContext;
 import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildResult;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.ImmutableBuildContext;
+import com.facebook.buck.rules.ParallelRuleKeyCalculator;
+import com.facebook.buck.rules.PrefetchingArtifactCache;
 import com.facebook.buck.step.AdbOptions;
 import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
@@ -76,6 +80,8 @@ import javax.annotation.Nullable;
 
 public class Build implements Closeable {
 
+  private static final Logger LOG = Logger.get(Build.class);
+
   private static final Predicate<Optional<BuildResult>> RULES_FAILED_PREDICATE =
       new Predicate<Optional<BuildResult>>() {
         @Override
@@ -90,6 +96,14 @@ public class Build implements Closeable {
 
   private final ArtifactCache artifactCache;
 
+  private final Optional<ArtifactUploadQueue> artifactUploadQueue;
+
+  private final int prefetchBatchSize;
+
+  /** Not set until {@link #executeBuild(Iterable, boolean)} is invoked. */
+  @Nullable
+  private PrefetchingArtifactCache prefetchingArtifactCache;
+
   private final BuildEngine buildEngine;
 
   private final DefaultStepRunner stepRunner;
@@ -109,6 +123,8 @@ public class Build implements Closeable {
       Supplier<AndroidPlatformTarget> androidPlatformTargetSupplier,
       BuildEngine buildEngine,
       ArtifactCache artifactCache,
+      Optional<ArtifactUploadQueue> artifactUploadQueue,
+      int prefetchBatchSize,
       JavaPackageFinder javaPackageFinder,
       Console console,
       long defaultTestTimeoutMillis,
@@ -142,6 +158,8 @@ public class Build implements Closeable {
         .setTargetDeviceOptions(targetDeviceOptions)
         .build();
     this.artifactCache = artifactCache;
+    this.artifactUploadQueue = artifactUploadQueue;
+    this.prefetchBatchSize = prefetchBatchSize;
     this.buildEngine = buildEngine;
     this.stepRunner = new DefaultStepRunner(executionContext);
     this.javaPackageFinder = javaPackageFinder;
@@ -175,22 +193,6 @@ public class Build implements Closeable {
       Iterable<? extends HasBuildTarget> targetish,
       boolean isKeepGoing)
       throws IOException, StepFailedException, ExecutionException, InterruptedException {
-    buildContext = ImmutableBuildContext.builder()
-        .setActionGraph(actionGraph)
-        .setStepRunner(stepRunner)
-        .setProjectFilesystem(executionContext.getProjectFilesystem())
-        .setClock(clock)
-        .setArtifactCache(artifactCache)
-        .setJavaPackageFinder(javaPackageFinder)
-        .setEventBus(executionContext.getBuckEventBus())
-        .setAndroidBootclasspathSupplier(
-            BuildContext.createBootclasspathSupplier(
-                executionContext.getAndroidPlatformTargetSupplier()))
-        .setBuildId(executionContext.getBuildId())
-        .putAllEnvironment(executionContext.getEnvironment())
-        .setKeepGoing(isKeepGoing)
-        .build();
-
     ImmutableSet<BuildTarget> targetsToBuild = FluentIterable.from(targetish)
         .transform(HasBuildTarget.TO_TARGET)
         .toSet();
@@ -210,6 +212,45 @@ public class Build implements Closeable {
                        })
             .toSet());
 
+    // Key every rule up front so that cache fetches can start as soon as the build does. A rule
+    // whose key cannot be computed fails when the build engine reaches it, with the usual context.
+    boolean ruleKeysCalculated = false;
+    try {
+      new ParallelRuleKeyCalculator(executionContext.getConcurrencyLimit().threadLimit)
+          .calculate(executionContext.getBuckEventBus(), rulesToBuild);
+      ruleKeysCalculated = true;
+    } catch (RuntimeException e) {
+      LOG.debug(e, "Failed to calculate rule keys up front.");
+    }
+
+    // With every key known, cache lookups can be batched and hits downloaded ahead of the engine.
+    ArtifactCache buildArtifactCache = artifactCache;
+    if (ruleKeysCalculated && prefetchBatchSize > 0) {
+      prefetchingArtifactCache = new PrefetchingArtifactCache(
+          artifactCache,
+          executionContext.getProjectFilesystem(),
+          prefetchBatchSize);
+      prefetchingArtifactCache.prefetch(rulesToBuild);
+      buildArtifactCache = prefetchingArtifactCache;
+    }
+
+    buildContext = ImmutableBuildContext.builder()
+        .setActionGraph(actionGraph)
+        .setStepRunner(stepRunner)
+        .setProjectFilesystem(executionContext.getProjectFilesystem())
+        .setClock(clock)
+        .setArtifactCache(buildArtifactCache)
+        .setArtifactUploadQueue(artifactUploadQueue)
+        .setJavaPackageFinder(javaPackageFinder)
+        .setEventBus(executionContext.getBuckEventBus())
+        .setAndroidBootclasspathSupplier(
+            BuildContext.createBootclasspathSupplier(
+                executionContext.getAndroidPlatformTargetSupplier()))
+        .setBuildId(executionContext.getBuildId())
+        .putAllEnvironment(executionContext.getEnvironment())
+        .setKeepGoing(isKeepGoing)
+        .build();
+
     // Calculate and post the number of rules that need to built.
     int numRules = getNumRulesToBuild(targetsToBuild, actionGraph);
     getExecutionContext().getBuckEventBus().post(
@@ -218,6 +259,7 @@ public class Build implements Closeable {
             numRules));
 
     final BuildContext currentBuildContext = buildContext;
+    buildEngine.prepare(currentBuildContext, rulesToBuild);
     List<ListenableFuture<BuildResult>> futures = FluentIterable.from(rulesToBuild)
         .transform(
         new Function<BuildRule, ListenableFuture<BuildResult>>() {
@@ -333,6 +375,13 @@ public class Build implements Closeable {
 
   @Override
   public void close() throws IOException {
+    // Let queued uploads finish now that the build is over.
+    if (artifactUploadQueue.isPresent()) {
+      artifactUploadQueue.get().close();
+    }
+    if (prefetchingArtifactCache != null) {
+      prefetchingArtifactCache.close();
+    }
     executionContext.close();
   }
 
@@ -18,10 +18,13 @@ package com.facebook.buck.cxx;
 
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.HasResourceRequirements;
 import com.facebook.buck.util.MoreIterables;
+import com.facebook.buck.util.concurrent.ResourceClass;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 
@@ -29,7 +32,7 @@ import java.nio.file.Path;
 
 import javax.annotation.Nullable;
 
-public class CxxLinkStep extends ShellStep {
+public class CxxLinkStep extends ShellStep implements HasResourceRequirements {
 
   private final ImmutableList<String> linker;
   private final Path output;
@@ -84,4 +87,9 @@ public class CxxLinkStep extends ShellStep {
     return "c++ link";
   }
 
+  @Override
+  public ImmutableMap<ResourceClass, Integer> getResourceRequirements() {
+    return ImmutableMap.of(ResourceClass.MEMORY, 1);
+  }
+
 }
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventListener;
+import com.facebook.buck.event.EventKey;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.rules.ArtifactCacheEvent;
+import com.facebook.buck.rules.ArtifactCacheLayerEvent;
+import com.facebook.buck.rules.ArtifactCacheLayerReport;
+import com.facebook.buck.rules.ArtifactCacheReport;
+import com.facebook.buck.rules.ArtifactCacheReportEvent;
+import com.facebook.buck.rules.ArtifactUploadEvent;
+import com.facebook.buck.rules.BuildEvent;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleSuccessType;
+import com.facebook.buck.rules.CacheResult;
+import com.facebook.buck.rules.RuleKey;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers what each cache did during a build into an {@link ArtifactCacheReport}, which is posted
+ * as an {@link ArtifactCacheReportEvent} and written to {@link ArtifactCacheReport#PATH} once the
+ * build has finished and everything that it stores has been stored.
+ */
+public class ArtifactCacheReportListener implements BuckEventListener {
+
+  private static final Logger LOG = Logger.get(ArtifactCacheReportListener.class);
+
+  private final BuckEventBus eventBus;
+  private final ProjectFilesystem projectFilesystem;
+  private final ObjectMapper objectMapper;
+
+  private final Map<String, LayerStats> layers = Maps.newLinkedHashMap();
+  private final Map<EventKey, Long> startedNanos = Maps.newHashMap();
+  private final Map<RuleKey, String> rulesBuiltAfterMiss = Maps.newHashMap();
+  private final Set<RuleKey> reusedPayloads = Sets.newHashSet();
+  private long compressNanos;
+  private long decompressNanos;
+  private int outstandingUploads;
+  private boolean buildFinished;
+
+  public ArtifactCacheReportListener(
+      BuckEventBus eventBus,
+      ProjectFilesystem projectFilesystem,
+      ObjectMapper objectMapper) {
+    this.eventBus = eventBus;
+    this.projectFilesystem = projectFilesystem;
+    this.objectMapper = objectMapper;
+  }
+
+  @Subscribe
+  public synchronized void buildStarted(BuildEvent.Started started) {
+    reset();
+  }
+
+  @Subscribe
+  public synchronized void fetched(ArtifactCacheLayerEvent.Fetched fetched) {
+    LayerStats stats = getLayer(fetched.getCacheName());
+    stats.fetchNanos.add(fetched.getDurationNanos());
+    for (CacheResult result : fetched.getResults()) {
+      stats.fetches++;
+      switch (result.getType()) {
+        case HIT:
+          stats.hits++;
+          stats.bytesFetched += result.getArtifactSizeBytes().or(0L);
+          break;
+        case ERROR:
+          stats.errors++;
+          break;
+        // $CASES-OMITTED$
+        default:
+          stats.misses++;
+          break;
+      }
+    }
+  }
+
+  @Subscribe
+  public synchronized void stored(ArtifactCacheLayerEvent.Stored stored) {
+    LayerStats stats = getLayer(stored.getCacheName());
+    stats.stores++;
+    stats.bytesStored += stored.getSizeBytes();
+    stats.storeNanos.add(stored.getDurationNanos());
+  }
+
+  @Subscribe
+  public synchronized void payloadReused(ArtifactCacheLayerEvent.PayloadReused reused) {
+    reusedPayloads.addAll(reused.getRuleKeys());
+  }
+
+  @Subscribe
+  public synchronized void artifactCacheStarted(ArtifactCacheEvent.Started started) {
+    if (isCompression(started)) {
+      startedNanos.put(started.getEventKey(), started.getNanoTime());
+    }
+  }
+
+  @Subscribe
+  public synchronized void artifactCacheFinished(ArtifactCacheEvent.Finished finished) {
+    if (!isCompression(finished)) {
+      return;
+    }
+    Long start = startedNanos.remove(finished.getEventKey());
+    if (start == null) {
+      return;
+    }
+    long durationNanos = finished.getNanoTime() - start;
+    if (finished.getOperation() == ArtifactCacheEvent.Operation.COMPRESS) {
+      compressNanos += durationNanos;
+    } else {
+      decompressNanos += durationNanos;
+    }
+  }
+
+  private static boolean isCompression(ArtifactCacheEvent event) {
+    return event.getOperation() == ArtifactCacheEvent.Operation.COMPRESS ||
+        event.getOperation() == ArtifactCacheEvent.Operation.DECOMPRESS;
+  }
+
+  @Subscribe
+  public synchronized void buildRuleFinished(BuildRuleEvent.Finished finished) {
+    Optional<BuildRuleSuccessType> successType = finished.getSuccessType();
+    if (successType.isPresent() &&
+        successType.get() == BuildRuleSuccessType.BUILT_LOCALLY &&
+        finished.getCacheResult().getType() == CacheResult.Type.MISS) {
+      rulesBuiltAfterMiss.put(
+          finished.getBuildRule().getRuleKey(),
+          finished.getBuildRule().getFullyQualifiedName());
+    }
+  }
+
+  @Subscribe
+  public synchronized void uploadScheduled(ArtifactUploadEvent.Scheduled scheduled) {
+    outstandingUploads++;
+  }
+
+  @Subscribe
+  public synchronized void uploadFinished(ArtifactUploadEvent.Finished finished) {
+    outstandingUploads--;
+    maybeReport();
+  }
+
+  @Subscribe
+  public synchronized void buildFinished(BuildEvent.Finished finished) {
+    buildFinished = true;
+    maybeReport();
+  }
+
+  /**
+   * Reports once the build is over, which for the caches is only once the uploads that it left
+   * behind are done.
+   */
+  private void maybeReport() {
+    if (!buildFinished || outstandingUploads > 0) {
+      return;
+    }
+    ArtifactCacheReport report = createReport();
+    eventBus.post(new ArtifactCacheReportEvent(report));
+    try {
+      projectFilesystem.createParentDirs(ArtifactCacheReport.PATH);
+      try (OutputStream output = projectFilesystem.newFileOutputStream(ArtifactCacheReport.PATH)) {
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(output, report);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Could not write %s.", ArtifactCacheReport.PATH);
+    }
+    reset();
+  }
+
+  @VisibleForTesting
+  synchronized ArtifactCacheReport createReport() {
+    ImmutableList.Builder<ArtifactCacheLayerReport> layerReports = ImmutableList.builder();
+    for (LayerStats stats : layers.values()) {
+      layerReports.add(stats.toReport());
+    }
+    SortedSet<String> missesWithCachedOutputs = Sets.newTreeSet();
+    for (Map.Entry<RuleKey, String> rule : rulesBuiltAfterMiss.entrySet()) {
+      if (reusedPayloads.contains(rule.getKey())) {
+        missesWithCachedOutputs.add(rule.getValue());
+      }
+    }
+    return ArtifactCacheReport.builder()
+        .setLayers(layerReports.build())
+        .setCompressMillis(TimeUnit.NANOSECONDS.toMillis(compressNanos))
+        .setDecompressMillis(TimeUnit.NANOSECONDS.toMillis(decompressNanos))
+        .setMissesWithCachedOutputs(missesWithCachedOutputs)
+        .build();
+  }
+
+  private void reset() {
+    layers.clear();
+    startedNanos.clear();
+    rulesBuiltAfterMiss.clear();
+    reusedPayloads.clear();
+    compressNanos = 0;
+    decompressNanos = 0;
+    outstandingUploads = 0;
+    buildFinished = false;
+  }
+
+  private LayerStats getLayer(String name) {
+    LayerStats stats = layers.get(name);
+    if (stats == null) {
+      stats = new LayerStats(name);
+      layers.put(name, stats);
+    }
+    return stats;
+  }
+
+  /**
+   * @return the smallest of {@code sortedNanos} that is at least as large as {@code percentile}
+   *     percent of them, in milliseconds, or zero if there are none.
+   */
+  @VisibleForTesting
+  static double percentileMillis(List<Long> sortedNanos, int percentile) {
+    if (sortedNanos.isEmpty()) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(percentile / 100.0 * sortedNanos.size());
+    long nanos = sortedNanos.get(Math.max(rank, 1) - 1);
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public void outputTrace(BuildId buildId) {
+    // The report is written as soon as the build's uploads are done.
+  }
+
+  private static class LayerStats {
+    private final String name;
+    private final List<Long> fetchNanos = Lists.newArrayList();
+    private final List<Long> storeNanos = Lists.newArrayList();
+    private int fetches;
+    private int hits;
+    private int misses;
+    private int errors;
+    private long bytesFetched;
+    private int stores;
+    private long bytesStored;
+
+    private LayerStats(String name) {
+      this.name = name;
+    }
+
+    private ArtifactCacheLayerReport toReport() {
+      Collections.sort(fetchNanos);
+      Collections.sort(storeNanos);
+      return ArtifactCacheLayerReport.builder()
+          .setName(name)
+          .setFetches(fetches)
+          .setHits(hits)
+          .setMisses(misses)
+          .setErrors(errors)
+          .setBytesFetched(bytesFetched)
+          .setFetchP50Millis(percentileMillis(fetchNanos, 50))
+          .setFetchP95Millis(percentileMillis(fetchNanos, 95))
+          .setFetchP99Millis(percentileMillis(fetchNanos, 99))
+          .setStores(stores)
+          .setBytesStored(bytesStored)
+          .setStoreP50Millis(percentileMillis(storeNanos, 50))
+          .setStoreP95Millis(percentileMillis(storeNanos, 95))
+          .setStoreP99Millis(percentileMillis(storeNanos, 99))
+          .build();
+    }
+  }
+}
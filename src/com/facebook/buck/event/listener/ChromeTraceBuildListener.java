@@ -41,6 +41,7 @@ import com.facebook.buck.rules.ArtifactCacheEvent;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.CriticalPathEvent;
 import com.facebook.buck.rules.TestSummaryEvent;
 import com.facebook.buck.step.StepEvent;
 import com.facebook.buck.timing.Clock;
@@ -315,6 +316,18 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         suspended);
   }
 
+  @Subscribe
+  public void criticalPath(CriticalPathEvent criticalPath) {
+    writeChromeTraceEvent("buck",
+        "critical_path",
+        ChromeTraceEvent.Phase.IMMEDIATE,
+        ImmutableMap.of(
+            "target", criticalPath.getTarget().getFullyQualifiedName(),
+            "estimated_millis", String.valueOf(criticalPath.getEstimatedMillis()),
+            "path", Joiner.on(" -> ").join(criticalPath.getPath())),
+        criticalPath);
+  }
+
   @Subscribe
   public void stepStarted(StepEvent.Started started) {
     writeChromeTraceEvent("buck",
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.event.BuckEventListener;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.BuildEvent;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleSuccessType;
+import com.facebook.buck.rules.RuleDurationHistory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long each rule that is built locally spends running, leaving out the time it
+ * spends waiting for its deps, and adds it to the {@link RuleDurationHistory} once the build has
+ * finished.
+ */
+public class RuleDurationHistoryListener implements BuckEventListener {
+
+  private static final Logger LOG = Logger.get(RuleDurationHistoryListener.class);
+
+  private final ProjectFilesystem projectFilesystem;
+  private final ObjectMapper objectMapper;
+
+  private final Map<BuildTarget, Long> runningSinceNanos = Maps.newHashMap();
+  private final Map<BuildTarget, Long> runningNanos = Maps.newHashMap();
+  private final Map<String, Long> measuredMillis = Maps.newHashMap();
+
+  public RuleDurationHistoryListener(
+      ProjectFilesystem projectFilesystem,
+      ObjectMapper objectMapper) {
+    this.projectFilesystem = projectFilesystem;
+    this.objectMapper = objectMapper;
+  }
+
+  @Subscribe
+  public synchronized void buildStarted(BuildEvent.Started started) {
+    reset();
+  }
+
+  @Subscribe
+  public synchronized void ruleStarted(BuildRuleEvent.Started started) {
+    startRunning(started);
+  }
+
+  @Subscribe
+  public synchronized void ruleResumed(BuildRuleEvent.Resumed resumed) {
+    startRunning(resumed);
+  }
+
+  @Subscribe
+  public synchronized void ruleSuspended(BuildRuleEvent.Suspended suspended) {
+    stopRunning(suspended);
+  }
+
+  @Subscribe
+  public synchronized void ruleFinished(BuildRuleEvent.Finished finished) {
+    stopRunning(finished);
+    BuildTarget target = finished.getBuildRule().getBuildTarget();
+    Long nanos = runningNanos.remove(target);
+    Optional<BuildRuleSuccessType> successType = finished.getSuccessType();
+    if (nanos != null &&
+        successType.isPresent() &&
+        successType.get() == BuildRuleSuccessType.BUILT_LOCALLY) {
+      measuredMillis.put(target.getFullyQualifiedName(), TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+  }
+
+  private void startRunning(BuildRuleEvent event) {
+    runningSinceNanos.put(event.getBuildRule().getBuildTarget(), event.getNanoTime());
+  }
+
+  private void stopRunning(BuildRuleEvent event) {
+    BuildTarget target = event.getBuildRule().getBuildTarget();
+    Long since = runningSinceNanos.remove(target);
+    if (since == null) {
+      return;
+    }
+    Long nanos = runningNanos.get(target);
+    runningNanos.put(target, (nanos == null ? 0 : nanos) + event.getNanoTime() - since);
+  }
+
+  @Subscribe
+  public synchronized void buildFinished(BuildEvent.Finished finished) {
+    if (!measuredMillis.isEmpty()) {
+      try {
+        RuleDurationHistory.readFrom(projectFilesystem, objectMapper)
+            .update(measuredMillis)
+            .writeTo(projectFilesystem, objectMapper);
+      } catch (IOException e) {
+        LOG.warn(e, "Could not write %s.", RuleDurationHistory.PATH);
+      }
+    }
+    reset();
+  }
+
+  @VisibleForTesting
+  synchronized ImmutableMap<String, Long> getMeasuredMillis() {
+    return ImmutableMap.copyOf(measuredMillis);
+  }
+
+  private void reset() {
+    runningSinceNanos.clear();
+    runningNanos.clear();
+    measuredMillis.clear();
+  }
+
+  @Override
+  public void outputTrace(BuildId buildId) {
+    // The history is written as soon as the build has finished.
+  }
+}
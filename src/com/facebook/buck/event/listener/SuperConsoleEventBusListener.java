@@ -22,6 +22,7 @@ import com.facebook.buck.httpserver.WebServer;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.rules.ArtifactCacheEvent;
+import com.facebook.buck.rules.ArtifactUploadEvent;
 import com.facebook.buck.rules.BuildRuleEvent;
 import com.facebook.buck.rules.BuildRuleStatus;
 import com.facebook.buck.rules.CacheResult;
@@ -36,6 +37,7 @@ import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.MoreIterables;
 import com.facebook.buck.util.environment.ExecutionEnvironment;
+import com.facebook.buck.util.unit.SizeUnit;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
@@ -103,6 +105,16 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
   private final AtomicInteger cacheHits = new AtomicInteger(0);
   private final AtomicInteger cacheErrors = new AtomicInteger(0);
 
+  // Tracks uploads that run on their own threads, which may outlast the build.
+  private final AtomicReference<ArtifactUploadEvent.Scheduled> firstUploadScheduled =
+      new AtomicReference<>();
+  private final AtomicReference<ArtifactUploadEvent.Finished> lastUploadFinished =
+      new AtomicReference<>();
+  private final AtomicInteger uploadsScheduled = new AtomicInteger(0);
+  private final AtomicInteger uploadsFinished = new AtomicInteger(0);
+  private final AtomicInteger uploadsDropped = new AtomicInteger(0);
+  private final AtomicLong uploadBytesQueued = new AtomicLong(0);
+
   private final ConcurrentLinkedQueue<ConsoleEvent> logEvents;
 
   private final ScheduledExecutorService renderScheduler;
@@ -298,6 +310,8 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
         renderRules(currentTimeMillis, lines);
       }
 
+      renderUploads(currentTimeMillis, lines);
+
       long testRunTime = logEventPair(
           "TESTING",
           renderTestSuffix(),
@@ -416,6 +430,36 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     }
   }
 
+  /**
+   * Adds a line summarizing the artifact uploads, if there have been any.
+   * @param currentMillis The time in ms to use when computing elapsed times.
+   * @param lines Builder of lines to render this frame.
+   */
+  private void renderUploads(long currentMillis, ImmutableList.Builder<String> lines) {
+    ArtifactUploadEvent.Scheduled firstScheduled = firstUploadScheduled.get();
+    if (firstScheduled == null) {
+      return;
+    }
+    int scheduled = uploadsScheduled.get();
+    int finished = uploadsFinished.get();
+    List<String> columns = Lists.newArrayList();
+    columns.add(String.format("%d/%d UPLOADED", finished, scheduled));
+    if (finished < scheduled) {
+      columns.add(String.format("%s QUEUED", SizeUnit.formatBytes(uploadBytesQueued.get())));
+    }
+    if (uploadsDropped.get() > 0) {
+      columns.add(String.format("%d DROPPED", uploadsDropped.get()));
+    }
+    logEventPair(
+        "UPLOADING ARTIFACTS",
+        Optional.of("(" + Joiner.on(", ").join(columns) + ")"),
+        currentMillis,
+        0L,
+        firstScheduled,
+        finished == scheduled ? lastUploadFinished.get() : null,
+        lines);
+  }
+
   /**
    * Adds lines for rendering the rules that are currently running.
    * @param currentMillis The time in ms to use when computing elapsed times.
@@ -586,6 +630,25 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     threadsToRunningStep.put(finished.getThreadId(), Optional.<StepEvent>absent());
   }
 
+  @Subscribe
+  public void artifactUploadScheduled(ArtifactUploadEvent.Scheduled scheduled) {
+    firstUploadScheduled.compareAndSet(null, scheduled);
+    uploadBytesQueued.addAndGet(scheduled.getSizeBytes());
+    uploadsScheduled.incrementAndGet();
+  }
+
+  @Subscribe
+  public void artifactUploadFinished(ArtifactUploadEvent.Finished finished) {
+    lastUploadFinished.set(finished);
+    uploadBytesQueued.addAndGet(-finished.getSizeBytes());
+    uploadsFinished.incrementAndGet();
+  }
+
+  @Subscribe
+  public void artifactUploadDropped(ArtifactUploadEvent.Dropped dropped) {
+    uploadsDropped.incrementAndGet();
+  }
+
   @Subscribe
   public void testRunStarted(TestRunEvent.Started event) {
     boolean set = testRunStarted.compareAndSet(null, event);
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.httpserver;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.ArtifactCacheReport;
+import com.google.common.base.Optional;
+import com.google.common.net.MediaType;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * HTTP handler for requests to the {@code /cachereport} path, which serves the
+ * {@link ArtifactCacheReport} of the last build as JSON.
+ */
+class ArtifactCacheReportHandler extends AbstractHandler {
+
+  private final ProjectFilesystem projectFilesystem;
+
+  ArtifactCacheReportHandler(ProjectFilesystem projectFilesystem) {
+    this.projectFilesystem = projectFilesystem;
+  }
+
+  @Override
+  public void handle(String target,
+      Request baseRequest,
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws IOException, ServletException {
+    Optional<String> report = Optional.absent();
+    if ("GET".equals(baseRequest.getMethod())) {
+      report = projectFilesystem.readFileIfItExists(ArtifactCacheReport.PATH);
+    }
+    if (report.isPresent()) {
+      Responses.writeSuccessfulResponse(
+          report.get(),
+          MediaType.JSON_UTF_8,
+          baseRequest,
+          response);
+    } else {
+      Responses.writeFailedResponse(baseRequest, response);
+    }
+  }
+}
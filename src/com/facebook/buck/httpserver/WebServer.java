@@ -41,6 +41,7 @@ import java.util.Map;
 public class WebServer {
 
   private static final String INDEX_CONTEXT_PATH = "/";
+  private static final String CACHE_REPORT_CONTEXT_PATH = "/cachereport";
   private static final String STATIC_CONTEXT_PATH = "/static";
   private static final String TRACE_CONTEXT_PATH = "/trace";
   private static final String TRACES_CONTEXT_PATH = "/traces";
@@ -126,6 +127,10 @@ public class WebServer {
         new TracesHandlerDelegate(tracesHelper)));
     contextPathToHandler.put(TRACE_DATA_CONTEXT_PATH, new TraceDataHandler(tracesHelper));
 
+    contextPathToHandler.put(
+        CACHE_REPORT_CONTEXT_PATH,
+        new ArtifactCacheReportHandler(projectFilesystem));
+
     ImmutableList.Builder<ContextHandler> handlers = ImmutableList.builder();
     for (Map.Entry<String, Handler> entry : contextPathToHandler.entrySet()) {
       String contextPath = entry.getKey();
@@ -21,6 +21,7 @@ import com.facebook.buck.event.InstallEvent;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.parser.ParseEvent;
 import com.facebook.buck.rules.ArtifactCacheEvent;
+import com.facebook.buck.rules.ArtifactCacheReportEvent;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRuleEvent;
 import com.facebook.buck.rules.IndividualTestEvent;
@@ -69,6 +70,11 @@ public class WebServerBuckEventListener implements BuckEventListener {
     streamingWebSocketServlet.tellClients(finished);
   }
 
+  @Subscribe
+  public void artifactCacheReported(ArtifactCacheReportEvent reported) {
+    streamingWebSocketServlet.tellClients(reported);
+  }
+
   @Subscribe
   public void stepStarted(StepEvent.Started started) {
     streamingWebSocketServlet.tellClients(started);
@@ -27,6 +27,7 @@ import com.facebook.buck.zip.ZipOutputStreams;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
@@ -39,7 +40,10 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
 
 import java.io.BufferedInputStream;
@@ -56,7 +60,9 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.CopyOption;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
@@ -83,6 +89,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
 
 import okio.BufferedSource;
 import okio.Okio;
@@ -92,6 +100,8 @@ import okio.Okio;
  */
 public class ProjectFilesystem {
 
+  private static final int HASHING_BUFFER_SIZE_BYTES = 64 * 1024;
+
   /**
    * Controls the behavior of how the source should be treated when copying.
    */
@@ -763,8 +773,25 @@ public class ProjectFilesystem {
   }
 
   public String computeSha1(Path pathRelativeToProjectRoot) throws IOException {
+    return computeSha1HashCode(pathRelativeToProjectRoot).toString();
+  }
+
+  /**
+   * Hashes the contents of a file by streaming it through a {@link FileChannel} into one reused
+   * read buffer.
+   */
+  public HashCode computeSha1HashCode(Path pathRelativeToProjectRoot) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    byte[] chunk = new byte[HASHING_BUFFER_SIZE_BYTES];
+    ByteBuffer buffer = ByteBuffer.wrap(chunk);
     Path fileToHash = getPathForRelativePath(pathRelativeToProjectRoot);
-    return Hashing.sha1().hashBytes(Files.readAllBytes(fileToHash)).toString();
+    try (FileChannel channel = FileChannel.open(fileToHash)) {
+      while (channel.read(buffer) != -1) {
+        hasher.putBytes(chunk, 0, buffer.position());
+        buffer.clear();
+      }
+    }
+    return hasher.hash();
   }
 
   /**
@@ -859,8 +886,25 @@ public class ProjectFilesystem {
       Collection<Path> pathsToIncludeInZip,
       Path out,
       ImmutableMap<Path, String> additionalFileContents) throws IOException {
+    createZip(
+        pathsToIncludeInZip,
+        out,
+        additionalFileContents,
+        Functions.constant(Deflater.DEFAULT_COMPRESSION));
+  }
+
+  /**
+   * Similar to {@link #createZip(Collection, Path, ImmutableMap)}, but writes each of
+   * {@code pathsToIncludeInZip} at the {@link Deflater} level that {@code compressionLevels} gives
+   * for it. Files written with {@link Deflater#NO_COMPRESSION} are stored, rather than deflated.
+   */
+  public void createZip(
+      Collection<Path> pathsToIncludeInZip,
+      Path out,
+      ImmutableMap<Path, String> additionalFileContents,
+      Function<? super Path, Integer> compressionLevels) throws IOException {
     try (CustomZipOutputStream zip = ZipOutputStreams.newOutputStream(out)) {
-      for (Path path : pathsToIncludeInZip) {
+      for (final Path path : pathsToIncludeInZip) {
         boolean isDirectory = isDirectory(path);
 
         String entryName = path.toString();
@@ -872,6 +916,24 @@ public class ProjectFilesystem {
         // We want deterministic ZIPs, so avoid mtimes.
         entry.setTime(0);
 
+        int compressionLevel = compressionLevels.apply(path);
+        if (compressionLevel != Deflater.DEFAULT_COMPRESSION) {
+          entry.setCompressionLevel(compressionLevel);
+        }
+        // Stored entries need their size and CRC up front, as they go in the local file header.
+        if (entry.getMethod() == ZipEntry.STORED && !isDirectory) {
+          long size = getFileSize(path);
+          entry.setSize(size);
+          entry.setCompressedSize(size);
+          entry.setCrc(
+              new ByteSource() {
+                @Override
+                public InputStream openStream() throws IOException {
+                  return newFileInputStream(path);
+                }
+              }.hash(Hashing.crc32()).padToLong());
+        }
+
         // Support executable files.  If we detect this file is executable, store this
         // information as 0100 in the field typically used in zip implementations for
         // POSIX file permissions.  We'll use this information when unzipping.
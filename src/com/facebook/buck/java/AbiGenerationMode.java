@@ -0,0 +1,30 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+/**
+ * Where the ABI jars that java libraries compile against come from.
+ */
+public enum AbiGenerationMode {
+  /** Stub the classes that javac writes, once the library is compiled. */
+  CLASS,
+  /**
+   * Stub the sources of the library in a rule of its own, so that dependents can start compiling
+   * before the library itself is.
+   */
+  SOURCE,
+}
@@ -75,6 +75,24 @@ abstract class AbstractJavacOptions implements RuleKeyAppendable {
   protected abstract Optional<String> getBootclasspath();
   protected abstract Map<String, String> getSourceToBootclasspath();
 
+  /**
+   * How much memory the in-process javac may spend on keeping classpath jars open and indexed
+   * between compilations, where zero turns that off.
+   */
+  @Value.Default
+  protected long getClasspathJarCacheSizeBytes() {
+    return ClasspathJarCache.DEFAULT_MAX_BYTES;
+  }
+
+  /**
+   * Whether java libraries get rules of their own that write their ABI jars from their sources,
+   * which their dependents can compile against before the libraries are compiled.
+   */
+  @Value.Default
+  public AbiGenerationMode getAbiGenerationMode() {
+    return AbiGenerationMode.CLASS;
+  }
+
   protected boolean isDebug() {
     return !isProductionBuild();
   }
@@ -93,7 +111,7 @@ abstract class AbstractJavacOptions implements RuleKeyAppendable {
           ImmutableSet.of(javacJarPath.get()));
     }
 
-    return new JdkProvidedInMemoryJavac();
+    return new JdkProvidedInMemoryJavac(getClasspathJarCacheSizeBytes());
   }
 
   public void appendOptionsToList(
@@ -226,6 +244,8 @@ abstract class AbstractJavacOptions implements RuleKeyAppendable {
     builder.setSourceLevel(options.getSourceLevel());
     builder.setTargetLevel(options.getTargetLevel());
     builder.addAllExtraArguments(options.getExtraArguments());
+    builder.setClasspathJarCacheSizeBytes(options.getClasspathJarCacheSizeBytes());
+    builder.setAbiGenerationMode(options.getAbiGenerationMode());
 
     return builder;
   }
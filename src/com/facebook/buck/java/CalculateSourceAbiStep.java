@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.java.abi.SourceStubJar;
+import com.facebook.buck.rules.AbiRule;
+import com.facebook.buck.rules.BuildableContext;
+import com.facebook.buck.rules.Sha1HashCode;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Writes the ABI jar of a library from its sources, and records the ABI key of the library as
+ * {@link CalculateAbiStep} does for the ABI jar that it writes from the compiled classes.
+ */
+public class CalculateSourceAbiStep implements Step {
+
+  private final BuildableContext buildableContext;
+  private final ImmutableSortedSet<Path> javaSrcs;
+  private final ImmutableSet<Path> classpathEntries;
+  private final JavacOptions javacOptions;
+  private final Path abiJar;
+
+  public CalculateSourceAbiStep(
+      BuildableContext buildableContext,
+      ImmutableSortedSet<Path> javaSrcs,
+      ImmutableSet<Path> classpathEntries,
+      JavacOptions javacOptions,
+      Path abiJar) {
+    this.buildableContext = buildableContext;
+    this.javaSrcs = javaSrcs;
+    this.classpathEntries = classpathEntries;
+    this.javacOptions = javacOptions;
+    this.abiJar = abiJar;
+  }
+
+  @Override
+  public int execute(ExecutionContext context) {
+    ProjectFilesystem filesystem = context.getProjectFilesystem();
+    Function<Path, Path> absolutifier = filesystem.getAbsolutifier();
+
+    String fileSha1;
+    try {
+      new SourceStubJar(FluentIterable.from(javaSrcs).transform(absolutifier), getOptions(context))
+          .writeTo(filesystem, abiJar);
+      fileSha1 = filesystem.computeSha1(abiJar);
+    } catch (IOException e) {
+      context.logError(e, "Failed to calculate ABI from the sources in %s.", abiJar);
+      return 1;
+    }
+
+    buildableContext.recordArtifact(abiJar);
+    Sha1HashCode abiKey = Sha1HashCode.of(fileSha1);
+    buildableContext.addMetadata(AbiRule.ABI_KEY_ON_DISK_METADATA, abiKey.getHash());
+
+    return 0;
+  }
+
+  ImmutableList<String> getOptions(ExecutionContext context) {
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+
+    Function<Path, Path> absolutifier = context.getProjectFilesystem().getAbsolutifier();
+    javacOptions.appendOptionsToList(builder, absolutifier);
+
+    // As in JavacStep, an empty classpath has to be spelled out so javac doesn't fall back on its
+    // own.
+    if (!classpathEntries.isEmpty()) {
+      builder.add(
+          "-classpath",
+          Joiner.on(File.pathSeparator).join(
+              FluentIterable.from(classpathEntries).transform(absolutifier)));
+    } else {
+      builder.add("-classpath", "''");
+    }
+
+    return builder.build();
+  }
+
+  @Override
+  public String getShortName() {
+    return "calculate_source_abi";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format("%s %s", getShortName(), abiJar);
+  }
+}
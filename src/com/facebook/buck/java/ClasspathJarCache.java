@@ -0,0 +1,252 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Keeps classpath jars open, along with an index of the entries in each of their packages, so that
+ * compilations in the same process, which for buckd is every build until it is killed, do not have
+ * to open a jar and read its central directory again to find the classes in it.
+ * <p>
+ * A jar is only reused while its file key, modification time and size are unchanged. Hashing the
+ * contents of the jars instead would cost more than reading the central directories that this
+ * saves. The least recently used jars are closed once their indexes take up more memory than the
+ * budget passed to {@link #acquire(Path, long)}, as soon as no compilation is using them.
+ */
+class ClasspathJarCache {
+
+  private static final Logger LOG = Logger.get(ClasspathJarCache.class);
+
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  /** A rough estimate of what an open jar costs, on top of the names of its entries. */
+  private static final long JAR_OVERHEAD_BYTES = 1024;
+  private static final long ENTRY_OVERHEAD_BYTES = 48;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<Path, IndexedJar> jars =
+      new LinkedHashMap<>(16, 0.75f, /* accessOrder */ true);
+
+  @GuardedBy("this")
+  private long totalBytes = 0;
+
+  /**
+   * @return the indexed {@code jar}, which must be given back with {@link IndexedJar#release()}
+   *     once the compilation is over, or absent if the jar does not exist or cannot be read, in
+   *     which case javac should be left to deal with it.
+   */
+  public Optional<IndexedJar> acquire(Path jar, long maxBytes) {
+    Optional<ImmutableList<Object>> state = getFileState(jar);
+    if (!state.isPresent()) {
+      return Optional.absent();
+    }
+
+    synchronized (this) {
+      IndexedJar cached = jars.get(jar);
+      if (cached != null) {
+        if (cached.state.equals(state.get())) {
+          cached.users++;
+          return Optional.of(cached);
+        }
+        LOG.debug("Closing %s, which has changed since it was indexed.", jar);
+        evict(cached);
+      }
+    }
+
+    // Index the jar without holding the lock, so that compilations running in parallel can index
+    // different jars at the same time.
+    IndexedJar indexed;
+    try {
+      indexed = new IndexedJar(jar, state.get());
+    } catch (IOException e) {
+      LOG.debug(e, "Unable to index %s.", jar);
+      return Optional.absent();
+    }
+
+    synchronized (this) {
+      IndexedJar cached = jars.get(jar);
+      if (cached != null && cached.state.equals(state.get())) {
+        // Another compilation indexed the same jar in the meantime.
+        indexed.close();
+        cached.users++;
+        return Optional.of(cached);
+      }
+      if (cached != null) {
+        evict(cached);
+      }
+      jars.put(jar, indexed);
+      totalBytes += indexed.sizeBytes;
+
+      Iterator<IndexedJar> leastRecentlyUsed = jars.values().iterator();
+      while (totalBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+        IndexedJar candidate = leastRecentlyUsed.next();
+        if (candidate != indexed) {
+          leastRecentlyUsed.remove();
+          markEvicted(candidate);
+        }
+      }
+      return Optional.of(indexed);
+    }
+  }
+
+  @VisibleForTesting
+  synchronized long getSizeBytes() {
+    return totalBytes;
+  }
+
+  @GuardedBy("this")
+  private void evict(IndexedJar jar) {
+    jars.remove(jar.path);
+    markEvicted(jar);
+  }
+
+  @GuardedBy("this")
+  private void markEvicted(IndexedJar jar) {
+    totalBytes -= jar.sizeBytes;
+    jar.evicted = true;
+    if (jar.users == 0) {
+      jar.close();
+    }
+  }
+
+  private synchronized void release(IndexedJar jar) {
+    jar.users--;
+    if (jar.evicted && jar.users == 0) {
+      jar.close();
+    }
+  }
+
+  /**
+   * @return what identifies the current contents of {@code path}, or absent if there is no such
+   *     file.
+   */
+  static Optional<ImmutableList<Object>> getFileState(Path path) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      return Optional.<ImmutableList<Object>>of(
+          ImmutableList.<Object>of(
+              String.valueOf(attributes.fileKey()),
+              attributes.lastModifiedTime(),
+              attributes.size()));
+    } catch (IOException e) {
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * An open jar and the names of the entries in each of its packages.
+   */
+  public class IndexedJar {
+    private final Path path;
+    private final ImmutableList<Object> state;
+    private final ZipFile zipFile;
+    private final ImmutableListMultimap<String, String> entriesByPackage;
+    private final ImmutableSortedSet<String> packages;
+    private final long sizeBytes;
+
+    @GuardedBy("ClasspathJarCache.this")
+    private int users = 1;
+
+    @GuardedBy("ClasspathJarCache.this")
+    private boolean evicted = false;
+
+    private IndexedJar(Path path, ImmutableList<Object> state) throws IOException {
+      this.path = path;
+      this.state = state;
+      this.zipFile = new ZipFile(path.toFile());
+
+      ImmutableListMultimap.Builder<String, String> entriesByPackage =
+          ImmutableListMultimap.builder();
+      long sizeBytes = JAR_OVERHEAD_BYTES;
+      for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+           entries.hasMoreElements();
+          ) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.isDirectory()) {
+          continue;
+        }
+        String name = entry.getName();
+        int lastSlash = name.lastIndexOf('/');
+        String packageName = lastSlash == -1 ? "" : name.substring(0, lastSlash).replace('/', '.');
+        entriesByPackage.put(packageName, name);
+        sizeBytes += ENTRY_OVERHEAD_BYTES + 2 * name.length();
+      }
+      this.entriesByPackage = entriesByPackage.build();
+      this.packages = ImmutableSortedSet.copyOf(this.entriesByPackage.keySet());
+      this.sizeBytes = sizeBytes;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    public ZipFile getZipFile() {
+      return zipFile;
+    }
+
+    /**
+     * @return the names of the entries in the jar, keyed by the name of their package.
+     */
+    public ImmutableListMultimap<String, String> getEntriesByPackage() {
+      return entriesByPackage;
+    }
+
+    /**
+     * @return the names of the packages with entries in the jar, sorted so that the subpackages of
+     *     a package can be found without going through all of them.
+     */
+    public ImmutableSortedSet<String> getPackages() {
+      return packages;
+    }
+
+    public void release() {
+      ClasspathJarCache.this.release(this);
+    }
+
+    private void close() {
+      try {
+        zipFile.close();
+      } catch (IOException e) {
+        LOG.warn(e, "Unable to close %s. We may be leaking memory.", path);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  synchronized Map<Path, IndexedJar> getJars() {
+    return new LinkedHashMap<>(jars);
+  }
+}
@@ -39,6 +39,7 @@ import com.facebook.buck.rules.BuildTargetSourcePath;
 import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.rules.BuildableProperties;
 import com.facebook.buck.rules.ExportDependencies;
+import com.facebook.buck.rules.HasBuildDeps;
 import com.facebook.buck.rules.InitializableFromDisk;
 import com.facebook.buck.rules.OnDiskBuildInfo;
 import com.facebook.buck.rules.Sha1HashCode;
@@ -51,13 +52,13 @@ import com.facebook.buck.step.fs.MkdirStep;
 import com.facebook.buck.step.fs.TouchStep;
 import com.facebook.buck.util.HumanReadableException;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableSortedMap;
@@ -74,9 +75,9 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
@@ -100,7 +101,7 @@ import javax.annotation.Nullable;
  * from the {@code //src/com/facebook/feed/model:model} rule.
  */
 public class DefaultJavaLibrary extends AbstractBuildRule
-    implements JavaLibrary, AbiRule, HasClasspathEntries, ExportDependencies,
+    implements JavaLibrary, AbiRule, HasBuildDeps, HasClasspathEntries, ExportDependencies,
     InitializableFromDisk<JavaLibrary.Data>, AndroidPackageable, MavenPublishable {
 
   private static final BuildableProperties OUTPUT_TYPE = new BuildableProperties(LIBRARY);
@@ -131,6 +132,9 @@ public class DefaultJavaLibrary extends AbstractBuildRule
   private final Supplier<ImmutableSetMultimap<JavaLibrary, Path>>
       declaredClasspathEntriesSupplier;
   private final BuildOutputInitializer<Data> buildOutputInitializer;
+  // The rules that write the ABI jars of the libraries on the classpath from their sources, which
+  // this compiles against instead of the outputs of those libraries.
+  private final ImmutableMap<BuildTarget, JavaSourceAbi> sourceAbis;
 
 
   // TODO(jacko): This really should be final, but we need to refactor how we get the
@@ -187,6 +191,40 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       JavacOptions javacOptions,
       Optional<Path> resourcesRoot,
       Optional<String> mavenCoords) {
+    this(
+        params,
+        resolver,
+        srcs,
+        resources,
+        proguardConfig,
+        postprocessClassesCommands,
+        exportedDeps,
+        providedDeps,
+        additionalClasspathEntries,
+        javacOptions,
+        resourcesRoot,
+        mavenCoords,
+        ImmutableMap.<BuildTarget, JavaSourceAbi>of());
+  }
+
+  /**
+   * @param sourceAbis the {@link JavaSourceAbi}s of the libraries on the classpath that have one,
+   *     by the targets of those libraries.
+   */
+  public DefaultJavaLibrary(
+      BuildRuleParams params,
+      SourcePathResolver resolver,
+      Set<? extends SourcePath> srcs,
+      Set<? extends SourcePath> resources,
+      Optional<SourcePath> proguardConfig,
+      ImmutableList<String> postprocessClassesCommands,
+      ImmutableSortedSet<BuildRule> exportedDeps,
+      ImmutableSortedSet<BuildRule> providedDeps,
+      ImmutableSet<Path> additionalClasspathEntries,
+      JavacOptions javacOptions,
+      Optional<Path> resourcesRoot,
+      Optional<String> mavenCoords,
+      ImmutableMap<BuildTarget, JavaSourceAbi> sourceAbis) {
     super(params, resolver);
 
     // Exported deps are meant to be forwarded onto the CLASSPATH for dependents,
@@ -210,6 +248,7 @@ public class DefaultJavaLibrary extends AbstractBuildRule
     this.javacOptions = javacOptions;
     this.resourcesRoot = resourcesRoot;
     this.mavenCoords = mavenCoords;
+    this.sourceAbis = sourceAbis;
 
     if (!srcs.isEmpty() || !resources.isEmpty()) {
       this.outputJar = Optional.of(getOutputJarPath(getBuildTarget()));
@@ -388,7 +427,7 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       }
 
       if (candidate instanceof HasJavaAbi) {
-        Sha1HashCode abiKey = ((HasJavaAbi) candidate).getAbiKey();
+        Sha1HashCode abiKey = getAbi((HasJavaAbi) candidate).getAbiKey();
         hasher.putUnencodedChars(abiKey.getHash());
       } else if (candidate instanceof BuildRule) {
         HashCode hashCode = ((BuildRule) candidate).getRuleKey().getHashCode();
@@ -399,6 +438,62 @@ public class DefaultJavaLibrary extends AbstractBuildRule
     return hasher;
   }
 
+  /**
+   * @return the {@link JavaSourceAbi} of {@code rule}, if this compiles against it, or else
+   *     {@code rule}.
+   */
+  private HasJavaAbi getAbi(HasJavaAbi rule) {
+    JavaSourceAbi sourceAbi = sourceAbis.get(rule.getBuildTarget());
+    return sourceAbi == null ? rule : sourceAbi;
+  }
+
+  /**
+   * Swaps the deps whose ABI jars this compiles against for the {@link JavaSourceAbi}s that write
+   * them, so that this can be compiled before those deps are.
+   */
+  @Override
+  public ImmutableSortedSet<BuildRule> getBuildDeps() {
+    if (sourceAbis.isEmpty()) {
+      return getDeps();
+    }
+    ImmutableSortedSet.Builder<BuildRule> buildDeps = ImmutableSortedSet.naturalOrder();
+    for (BuildRule dep : getDeps()) {
+      JavaSourceAbi sourceAbi = sourceAbis.get(dep.getBuildTarget());
+      buildDeps.add(sourceAbi == null ? dep : sourceAbi);
+    }
+    return buildDeps.build();
+  }
+
+  /**
+   * @return the classpath that javac compiles the sources against: the declared and provided deps,
+   *     with the ABI jars of those that have a {@link JavaSourceAbi} instead of their outputs.
+   */
+  ImmutableSet<Path> getCompileTimeClasspathEntries() {
+    ImmutableSet.Builder<Path> classpath = ImmutableSet.builder();
+    addCompileTimeClasspathEntries(classpath, getDeclaredClasspathEntries());
+    classpath.addAll(additionalClasspathEntries);
+
+    // We don't want to add these to the declared or transitive deps, since they're only used at
+    // compile time.
+    for (JavaLibrary provided : JavaLibraryClasspathProvider.getJavaLibraryDeps(providedDeps)) {
+      addCompileTimeClasspathEntries(classpath, provided.getOutputClasspathEntries());
+    }
+    return classpath.build();
+  }
+
+  private void addCompileTimeClasspathEntries(
+      ImmutableSet.Builder<Path> classpath,
+      ImmutableSetMultimap<JavaLibrary, Path> classpathEntries) {
+    for (Map.Entry<JavaLibrary, Path> entry : classpathEntries.entries()) {
+      JavaSourceAbi sourceAbi = sourceAbis.get(entry.getKey().getBuildTarget());
+      if (sourceAbi != null) {
+        classpath.add(sourceAbi.getPathToOutput());
+      } else {
+        classpath.add(entry.getValue());
+      }
+    }
+  }
+
   @Override
   public BuildableProperties getProperties() {
     return OUTPUT_TYPE;
@@ -495,28 +590,10 @@ public class DefaultJavaLibrary extends AbstractBuildRule
             declaredClasspathEntries,
             JAR_RESOLVER);
 
-    // We don't want to add these to the declared or transitive deps, since they're only used at
-    // compile time.
-    Collection<Path> provided = JavaLibraryClasspathProvider.getJavaLibraryDeps(providedDeps)
-        .transformAndConcat(
-            new Function<JavaLibrary, Collection<Path>>() {
-              @Override
-              public Collection<Path> apply(JavaLibrary input) {
-                return input.getOutputClasspathEntries().values();
-              }
-            })
-        .filter(Predicates.notNull())
-        .toSet();
-
-    ImmutableSet<Path> declared = ImmutableSet.<Path>builder()
-        .addAll(declaredClasspathEntries.values())
-        .addAll(provided)
-        .build();
-
     // This adds the javac command, along with any supporting commands.
     createCommandsForJavac(
         outputDirectory,
-        declared,
+        getCompileTimeClasspathEntries(),
         javacOptions,
         suggestBuildRule,
         steps,
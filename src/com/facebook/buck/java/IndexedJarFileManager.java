@@ -0,0 +1,279 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * A {@link JavaFileManager} that lists the classes on the classpath of a compilation from the
+ * indexes kept by a {@link ClasspathJarCache}, rather than having the standard file manager open
+ * every jar and read its central directory again.
+ * <p>
+ * Only a classpath made up entirely of jars is served from the cache. Anything else, such as a
+ * classpath with a directory on it, is left to the standard file manager, which keeps the order
+ * in which javac finds classes the same. The platform classpath is always left to the standard
+ * file manager, as javac puts the endorsed and extension directories on it as well as the
+ * bootclasspath.
+ */
+class IndexedJarFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+  private static final ImmutableMap<String, StandardLocation> JAR_LOCATIONS = ImmutableMap.of(
+      "-classpath", StandardLocation.CLASS_PATH,
+      "-cp", StandardLocation.CLASS_PATH);
+
+  private final ImmutableMap<Location, ImmutableList<ClasspathJarCache.IndexedJar>> jars;
+  private boolean released = false;
+
+  private IndexedJarFileManager(
+      StandardJavaFileManager fileManager,
+      ImmutableMap<Location, ImmutableList<ClasspathJarCache.IndexedJar>> jars) {
+    super(fileManager);
+    this.jars = jars;
+  }
+
+  /**
+   * @param options the options that the compilation passes to javac, which name the jars. As with
+   *     javac, the last of several options for the same location is the one that counts.
+   * @param absolutifier resolves the entries on the classpaths in {@code options}.
+   * @param maxBytes how much memory {@code cache} may use.
+   */
+  public static IndexedJarFileManager create(
+      StandardJavaFileManager fileManager,
+      ClasspathJarCache cache,
+      long maxBytes,
+      List<String> options,
+      Function<Path, Path> absolutifier) {
+    Map<Location, ImmutableList<ClasspathJarCache.IndexedJar>> jars = new HashMap<>();
+    Iterator<String> iterator = options.iterator();
+    while (iterator.hasNext()) {
+      StandardLocation location = JAR_LOCATIONS.get(iterator.next());
+      if (location == null || !iterator.hasNext()) {
+        continue;
+      }
+      Optional<ImmutableList<ClasspathJarCache.IndexedJar>> indexed =
+          acquireAll(cache, maxBytes, iterator.next(), absolutifier);
+      ImmutableList<ClasspathJarCache.IndexedJar> replaced = indexed.isPresent() ?
+          jars.put(location, indexed.get()) :
+          jars.remove(location);
+      if (replaced != null) {
+        releaseAll(replaced);
+      }
+    }
+    return new IndexedJarFileManager(fileManager, ImmutableMap.copyOf(jars));
+  }
+
+  /**
+   * @return the indexed jars on {@code classpath}, or absent if any of its entries is something
+   *     other than a jar that can be indexed.
+   */
+  private static Optional<ImmutableList<ClasspathJarCache.IndexedJar>> acquireAll(
+      ClasspathJarCache cache,
+      long maxBytes,
+      String classpath,
+      Function<Path, Path> absolutifier) {
+    List<Path> paths = new ArrayList<>();
+    for (String entry : Splitter.on(File.pathSeparator).omitEmptyStrings().split(classpath)) {
+      Path path = absolutifier.apply(Paths.get(entry));
+      if (Files.isRegularFile(path)) {
+        paths.add(path);
+      } else if (Files.exists(path)) {
+        return Optional.absent();
+      }
+      // Otherwise, javac ignores classpath entries that do not exist, and so can we.
+    }
+
+    List<ClasspathJarCache.IndexedJar> acquired = new ArrayList<>();
+    for (Path path : paths) {
+      Optional<ClasspathJarCache.IndexedJar> jar = cache.acquire(path, maxBytes);
+      if (!jar.isPresent()) {
+        releaseAll(acquired);
+        return Optional.absent();
+      }
+      acquired.add(jar.get());
+    }
+    return Optional.of(ImmutableList.copyOf(acquired));
+  }
+
+  private static void releaseAll(List<ClasspathJarCache.IndexedJar> toRelease) {
+    for (ClasspathJarCache.IndexedJar jar : toRelease) {
+      jar.release();
+    }
+  }
+
+  @Override
+  public Iterable<JavaFileObject> list(
+      Location location,
+      String packageName,
+      Set<JavaFileObject.Kind> kinds,
+      boolean recurse) throws IOException {
+    ImmutableList<ClasspathJarCache.IndexedJar> indexedJars = jars.get(location);
+    if (indexedJars == null ||
+        kinds.contains(JavaFileObject.Kind.HTML) ||
+        kinds.contains(JavaFileObject.Kind.OTHER)) {
+      return super.list(location, packageName, kinds, recurse);
+    }
+
+    List<JavaFileObject> files = Lists.newArrayList();
+    for (ClasspathJarCache.IndexedJar jar : indexedJars) {
+      Iterable<String> packages;
+      if (!recurse) {
+        packages = ImmutableList.of(packageName);
+      } else if (packageName.isEmpty()) {
+        packages = jar.getPackages();
+      } else {
+        // The subpackages sort right after the package itself, up to the first name with a
+        // character after '.' in its place.
+        packages = jar.getPackages().subSet(packageName, true, packageName + '/', false);
+      }
+      for (String entryPackage : packages) {
+        if (!entryPackage.equals(packageName) && !entryPackage.startsWith(packageName + ".")) {
+          continue;
+        }
+        for (String entryName : jar.getEntriesByPackage().get(entryPackage)) {
+          JavaFileObject.Kind kind = getKind(entryName);
+          if (kinds.contains(kind)) {
+            files.add(new JarEntryJavaFileObject(jar, entryName, kind));
+          }
+        }
+      }
+    }
+    return files;
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof JarEntryJavaFileObject) {
+      return ((JarEntryJavaFileObject) file).getBinaryName();
+    }
+    return super.inferBinaryName(location, file);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof JarEntryJavaFileObject || b instanceof JarEntryJavaFileObject) {
+      return a.toUri().equals(b.toUri());
+    }
+    return super.isSameFile(a, b);
+  }
+
+  /**
+   * Gives the jars back to the cache. Unlike {@link ForwardingJavaFileManager#close()}, this does
+   * not close the standard file manager, which belongs to whoever created this one.
+   */
+  @Override
+  public void close() {
+    if (released) {
+      return;
+    }
+    released = true;
+    for (ImmutableList<ClasspathJarCache.IndexedJar> indexedJars : jars.values()) {
+      for (ClasspathJarCache.IndexedJar jar : indexedJars) {
+        jar.release();
+      }
+    }
+  }
+
+  private static JavaFileObject.Kind getKind(String entryName) {
+    for (JavaFileObject.Kind kind : JavaFileObject.Kind.values()) {
+      if (kind != JavaFileObject.Kind.OTHER && entryName.endsWith(kind.extension)) {
+        return kind;
+      }
+    }
+    return JavaFileObject.Kind.OTHER;
+  }
+
+  /**
+   * A class or source file in one of the indexed jars, which is only read if javac needs it.
+   */
+  private static class JarEntryJavaFileObject extends SimpleJavaFileObject {
+    private final ClasspathJarCache.IndexedJar jar;
+    private final String entryName;
+
+    private JarEntryJavaFileObject(
+        ClasspathJarCache.IndexedJar jar,
+        String entryName,
+        Kind kind) {
+      super(createUri(jar.getPath(), entryName), kind);
+      this.jar = jar;
+      this.entryName = entryName;
+    }
+
+    /**
+     * Creates a hierarchical {@code jar:} URI, as {@link SimpleJavaFileObject} needs a URI with a
+     * path, which the {@code jar:file:...!/} URIs used elsewhere do not have.
+     */
+    private static URI createUri(Path jar, String entryName) {
+      try {
+        return new URI("jar", null, jar.toUri().getPath() + "!/" + entryName, null);
+      } catch (URISyntaxException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public String getBinaryName() {
+      return entryName.substring(0, entryName.length() - kind.extension.length())
+          .replace('/', '.');
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      ZipEntry entry = jar.getZipFile().getEntry(entryName);
+      if (entry == null) {
+        throw new IOException(String.format("%s not found in %s", entryName, jar.getPath()));
+      }
+      return jar.getZipFile().getInputStream(entry);
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+      try (InputStream inputStream = openInputStream()) {
+        return new String(ByteStreams.toByteArray(inputStream), Charsets.UTF_8);
+      }
+    }
+  }
+}
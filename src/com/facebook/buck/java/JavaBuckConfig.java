@@ -19,6 +19,7 @@ package com.facebook.buck.java;
 import com.facebook.buck.cli.BuckConfig;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.unit.SizeUnit;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
@@ -62,6 +63,10 @@ public class JavaBuckConfig {
         .setTargetLevel(targetLevel.or(TARGETED_JAVA_VERSION))
         .putAllSourceToBootclasspath(bootclasspaths.build())
         .addAllExtraArguments(extraArguments)
+        .setClasspathJarCacheSizeBytes(getClasspathJarCacheSizeBytes())
+        .setAbiGenerationMode(
+            delegate.getEnum("java", "abi_generation_mode", AbiGenerationMode.class)
+                .or(AbiGenerationMode.CLASS))
         .build();
   }
 
@@ -85,6 +90,21 @@ public class JavaBuckConfig {
     return delegate.getSourcePath("tools", "javac_jar");
   }
 
+  @VisibleForTesting
+  long getClasspathJarCacheSizeBytes() {
+    Optional<String> size = delegate.getValue("java", "classpath_jar_cache_size");
+    if (!size.isPresent()) {
+      return ClasspathJarCache.DEFAULT_MAX_BYTES;
+    }
+    try {
+      return SizeUnit.parseBytes(size.get());
+    } catch (NumberFormatException e) {
+      throw new HumanReadableException(
+          "Invalid [java] classpath_jar_cache_size: %s",
+          size.get());
+    }
+  }
+
   public boolean getSkipCheckingMissingDeps() {
     return delegate.getBooleanValue("java", "skip_checking_missing_deps", false);
   }
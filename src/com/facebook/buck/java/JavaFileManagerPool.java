@@ -0,0 +1,292 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Keeps the file managers of finished compilations so that later compilations in the same process,
+ * which for buckd is every build until it is killed, can reuse them along with the classpath jars
+ * that they have already opened and indexed.
+ * <p>
+ * javac keeps reading from the jars that a file manager opened first, so a file manager is only
+ * handed out again while none of the jars on the classpaths that it has been used with have
+ * changed. A file manager also remembers the locations of the compilations that it was used for,
+ * so the output directories and the paths which differ from one rule to the next are set from the
+ * options of each compilation when it is handed out, and reset when it is given back. Any other
+ * option could change how the file manager behaves too, so it is only reused by compilations
+ * passing the same ones.
+ */
+class JavaFileManagerPool {
+
+  private static final Logger LOG = Logger.get(JavaFileManagerPool.class);
+
+  private static final ImmutableSet<String> CLASSPATH_OPTIONS =
+      ImmutableSet.of("-bootclasspath", "-classpath", "-cp", "-sourcepath");
+
+  /**
+   * The locations which are set from the options of each compilation, by the options that name
+   * them.
+   */
+  private static final ImmutableMap<String, StandardLocation> LOCATION_OPTIONS =
+      ImmutableMap.<String, StandardLocation>builder()
+          .put("-d", StandardLocation.CLASS_OUTPUT)
+          .put("-s", StandardLocation.SOURCE_OUTPUT)
+          .put("-classpath", StandardLocation.CLASS_PATH)
+          .put("-cp", StandardLocation.CLASS_PATH)
+          .put("-sourcepath", StandardLocation.SOURCE_PATH)
+          .put("-processorpath", StandardLocation.ANNOTATION_PROCESSOR_PATH)
+          .build();
+
+  private final int maxIdlePerKey;
+
+  /** Idle file managers, most recently released last. */
+  private final ListMultimap<ImmutableList<Object>, PooledFileManager> idle =
+      LinkedListMultimap.create();
+
+  JavaFileManagerPool(int maxIdlePerKey) {
+    this.maxIdlePerKey = maxIdlePerKey;
+  }
+
+  /**
+   * @param options the options that the compilation passes to javac.
+   * @param absolutifier resolves the entries on the classpath in {@code options}.
+   * @return a file manager for {@code compiler}, which must be given back with
+   *     {@link PooledFileManager#release()} once the compilation is over.
+   */
+  public PooledFileManager acquire(
+      JavaCompiler compiler,
+      List<String> options,
+      Function<Path, Path> absolutifier) {
+    ImmutableList<Object> key = getKey(compiler, options);
+    ImmutableMap<Path, ImmutableList<Object>> jars = getJarStates(options, absolutifier);
+    Map<StandardLocation, List<File>> locations = getLocations(options, absolutifier);
+
+    while (true) {
+      PooledFileManager candidate;
+      synchronized (this) {
+        List<PooledFileManager> candidates = idle.get(key);
+        if (candidates.isEmpty()) {
+          break;
+        }
+        candidate = candidates.remove(candidates.size() - 1);
+      }
+      if (!candidate.isUpToDate()) {
+        LOG.debug("Discarding a file manager whose classpath jars have changed.");
+        candidate.close();
+        continue;
+      }
+      try {
+        candidate.setLocations(locations);
+      } catch (IOException | IllegalArgumentException e) {
+        LOG.debug(e, "Discarding a file manager whose locations could not be set.");
+        candidate.close();
+        continue;
+      }
+      candidate.jars.putAll(jars);
+      return candidate;
+    }
+
+    PooledFileManager fileManager = new PooledFileManager(
+        key,
+        compiler.getStandardFileManager(null, null, null),
+        new HashMap<>(jars));
+    try {
+      fileManager.setLocations(locations);
+    } catch (IOException | IllegalArgumentException e) {
+      // javac sets the locations from the options itself, and reports the problem if it still
+      // can't.
+      LOG.debug(e, "Unable to set the locations of a new file manager.");
+    }
+    return fileManager;
+  }
+
+  private void release(PooledFileManager fileManager) {
+    try {
+      fileManager.resetLocations();
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.debug(e, "Closing a file manager whose locations could not be reset.");
+      fileManager.close();
+      return;
+    }
+    synchronized (this) {
+      List<PooledFileManager> candidates = idle.get(fileManager.key);
+      if (candidates.size() < maxIdlePerKey) {
+        candidates.add(fileManager);
+        return;
+      }
+    }
+    fileManager.close();
+  }
+
+  @VisibleForTesting
+  synchronized int getIdleCount() {
+    return idle.size();
+  }
+
+  /**
+   * @return what a file manager must have been used with to be reused: everything in
+   *     {@code options} but the paths of the locations that are set for each compilation.
+   */
+  private static ImmutableList<Object> getKey(JavaCompiler compiler, List<String> options) {
+    ImmutableList.Builder<Object> key = ImmutableList.builder();
+    key.add(compiler.getClass());
+    Iterator<String> iterator = options.iterator();
+    while (iterator.hasNext()) {
+      String option = iterator.next();
+      key.add(option);
+      if (LOCATION_OPTIONS.containsKey(option) && iterator.hasNext()) {
+        iterator.next();
+      }
+    }
+    return key.build();
+  }
+
+  /**
+   * @return the locations named by {@code options}, with the last option winning as it does in
+   *     javac, and the ones that they don't name mapped to null, which restores their defaults.
+   */
+  private static Map<StandardLocation, List<File>> getLocations(
+      List<String> options,
+      Function<Path, Path> absolutifier) {
+    Map<StandardLocation, List<File>> locations = new EnumMap<>(StandardLocation.class);
+    for (StandardLocation location : LOCATION_OPTIONS.values()) {
+      locations.put(location, null);
+    }
+    Iterator<String> iterator = options.iterator();
+    while (iterator.hasNext()) {
+      StandardLocation location = LOCATION_OPTIONS.get(iterator.next());
+      if (location == null || !iterator.hasNext()) {
+        continue;
+      }
+      List<File> files = new ArrayList<>();
+      for (String entry : Splitter.on(File.pathSeparator).omitEmptyStrings().split(
+          iterator.next())) {
+        files.add(absolutifier.apply(Paths.get(entry)).toFile());
+      }
+      locations.put(location, files);
+    }
+    return locations;
+  }
+
+  private static ImmutableMap<Path, ImmutableList<Object>> getJarStates(
+      List<String> options,
+      Function<Path, Path> absolutifier) {
+    Map<Path, ImmutableList<Object>> jars = new HashMap<>();
+    Iterator<String> iterator = options.iterator();
+    while (iterator.hasNext()) {
+      if (!CLASSPATH_OPTIONS.contains(iterator.next()) || !iterator.hasNext()) {
+        continue;
+      }
+      for (String entry : Splitter.on(File.pathSeparator).omitEmptyStrings().split(
+          iterator.next())) {
+        Path jar = absolutifier.apply(Paths.get(entry));
+        if (!jar.toString().endsWith(".jar") && !jar.toString().endsWith(".zip")) {
+          continue;
+        }
+        Optional<ImmutableList<Object>> state = ClasspathJarCache.getFileState(jar);
+        if (state.isPresent()) {
+          jars.put(jar, state.get());
+        }
+      }
+    }
+    return ImmutableMap.copyOf(jars);
+  }
+
+  /**
+   * A file manager on loan from the pool, along with the state of the jars that it may have open.
+   */
+  public class PooledFileManager {
+    private final ImmutableList<Object> key;
+    private final StandardJavaFileManager fileManager;
+    private final Map<Path, ImmutableList<Object>> jars;
+
+    private PooledFileManager(
+        ImmutableList<Object> key,
+        StandardJavaFileManager fileManager,
+        Map<Path, ImmutableList<Object>> jars) {
+      this.key = key;
+      this.fileManager = fileManager;
+      this.jars = jars;
+    }
+
+    public StandardJavaFileManager getFileManager() {
+      return fileManager;
+    }
+
+    /**
+     * Hands the file manager back to the pool, or closes it if the pool already has enough idle
+     * ones.
+     */
+    public void release() {
+      JavaFileManagerPool.this.release(this);
+    }
+
+    private void setLocations(Map<StandardLocation, List<File>> locations) throws IOException {
+      for (Map.Entry<StandardLocation, List<File>> location : locations.entrySet()) {
+        fileManager.setLocation(location.getKey(), location.getValue());
+      }
+    }
+
+    private void resetLocations() throws IOException {
+      for (StandardLocation location : LOCATION_OPTIONS.values()) {
+        fileManager.setLocation(location, null);
+      }
+    }
+
+    private boolean isUpToDate() {
+      for (Map.Entry<Path, ImmutableList<Object>> jar : jars.entrySet()) {
+        if (!ClasspathJarCache.getFileState(jar.getKey()).equals(Optional.of(jar.getValue()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void close() {
+      try {
+        fileManager.close();
+      } catch (IOException e) {
+        LOG.warn(e, "Unable to close java filemanager. We may be leaking memory.");
+      }
+    }
+  }
+}
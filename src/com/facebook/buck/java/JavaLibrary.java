@@ -55,6 +55,12 @@ public interface JavaLibrary extends BuildRule, HasClasspathEntries,
    */
   public static final Flavor SRC_JAR = ImmutableFlavor.of("src");
 
+  /**
+   * The flavor of the {@link JavaSourceAbi} that writes the ABI jar of a {@link JavaLibrary} from
+   * its sources.
+   */
+  public static final Flavor SOURCE_ABI_FLAVOR = ImmutableFlavor.of("source_abi");
+
   // TODO(natthu): This can probably be avoided by using a JavaPackageable interface similar to
   // AndroidPackageable.
   public ImmutableSortedSet<BuildRule> getDepsForTransitiveClasspathEntries();
@@ -44,11 +44,14 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 
 import java.nio.file.Path;
+import java.util.Map;
 
 public class JavaLibraryDescription implements Description<JavaLibraryDescription.Arg>,
     FlavorableDescription<JavaLibraryDescription.Arg>, Flavored {
@@ -114,27 +117,66 @@ public class JavaLibraryDescription implements Description<JavaLibraryDescriptio
     JavacOptions javacOptions = javacOptionsBuilder.build();
 
     ImmutableSortedSet<BuildRule> exportedDeps = resolver.getAllRules(args.exportedDeps.get());
-    return new DefaultJavaLibrary(
+    ImmutableSortedSet<BuildRule> providedDeps = resolver.getAllRules(args.providedDeps.get());
+    BuildRuleParams javaLibraryParams =
         params.appendExtraDeps(
             Iterables.concat(
                 BuildRules.getExportedRules(
                     Iterables.concat(
                         params.getDeclaredDeps(),
                         exportedDeps,
-                        resolver.getAllRules(args.providedDeps.get()))),
+                        providedDeps)),
                 pathResolver.filterBuildRuleInputs(
-                    javacOptions.getInputs(pathResolver)))),
+                    javacOptions.getInputs(pathResolver))));
+    return new DefaultJavaLibrary(
+        javaLibraryParams,
         pathResolver,
         args.srcs.get(),
         validateResources(pathResolver, args, params.getProjectFilesystem()),
         args.proguardConfig.transform(SourcePaths.toSourcePath(params.getProjectFilesystem())),
         args.postprocessClassesCommands.get(),
         exportedDeps,
-        resolver.getAllRules(args.providedDeps.get()),
+        providedDeps,
         /* additionalClasspathEntries */ ImmutableSet.<Path>of(),
         javacOptions,
         args.resourcesRoot,
-        args.mavenCoords);
+        args.mavenCoords,
+        getSourceAbis(
+            resolver,
+            javacOptions,
+            Iterables.concat(javaLibraryParams.getDeps(), providedDeps)));
+  }
+
+  /**
+   * @return the {@link JavaSourceAbi}s of the libraries that {@code deps} put on the classpath, by
+   *     the targets of those libraries, if {@code javacOptions} ask for ABI jars from sources.
+   */
+  private static ImmutableMap<BuildTarget, JavaSourceAbi> getSourceAbis(
+      BuildRuleResolver resolver,
+      JavacOptions javacOptions,
+      Iterable<BuildRule> deps) {
+    if (javacOptions.getAbiGenerationMode() != AbiGenerationMode.SOURCE) {
+      return ImmutableMap.of();
+    }
+
+    Map<BuildTarget, JavaSourceAbi> sourceAbis = Maps.newHashMap();
+    for (JavaLibrary dep : JavaLibraryClasspathProvider.getJavaLibraryDeps(deps)) {
+      for (JavaLibrary library : dep.getOutputClasspathEntries().keySet()) {
+        BuildTarget target = library.getBuildTarget();
+        if (target.isFlavored()) {
+          continue;
+        }
+        Optional<JavaSourceAbi> sourceAbi = resolver.getRuleOptionalWithType(
+            BuildTargets.createFlavoredBuildTarget(
+                target.getUnflavoredBuildTarget(),
+                JavaLibrary.SOURCE_ABI_FLAVOR),
+            JavaSourceAbi.class);
+        if (sourceAbi.isPresent()) {
+          sourceAbis.put(target, sourceAbi.get());
+        }
+      }
+    }
+    return ImmutableMap.copyOf(sourceAbis);
   }
 
   // TODO(natthu): Consider adding a validateArg() method on Description which gets called before
@@ -216,7 +258,8 @@ public class JavaLibraryDescription implements Description<JavaLibraryDescriptio
 
   /**
    * A {@link JavaLibrary} registers the ability to create {@link JavaLibrary#SRC_JAR}s when source
-   * is present and also {@link JavaLibrary#GWT_MODULE_FLAVOR}, if appropriate.
+   * is present and also {@link JavaLibrary#GWT_MODULE_FLAVOR} and
+   * {@link JavaLibrary#SOURCE_ABI_FLAVOR}, if appropriate.
    */
   @Override
   public void registerFlavors(
@@ -233,12 +276,69 @@ public class JavaLibraryDescription implements Description<JavaLibraryDescriptio
         projectFilesystem,
         ruleKeyBuilderFactory,
         arg);
-    if (!gwtModuleOptional.isPresent()) {
-      return;
+    if (gwtModuleOptional.isPresent()) {
+      ruleResolver.addToIndex(gwtModuleOptional.get());
+    }
+
+    Optional<JavaSourceAbi> sourceAbiOptional = tryCreateSourceAbi(
+        new SourcePathResolver(ruleResolver),
+        buildRule,
+        projectFilesystem,
+        ruleKeyBuilderFactory,
+        arg);
+    if (sourceAbiOptional.isPresent()) {
+      ruleResolver.addToIndex(sourceAbiOptional.get());
+    }
+  }
+
+  /**
+   * Creates a {@link JavaSourceAbi} with the {@link JavaLibrary#SOURCE_ABI_FLAVOR}, if the
+   * {@link JavacOptions} of {@code buildRule} ask for one, and nothing but the sources decides
+   * what its ABI is: annotation processors or postprocessing commands could change the classes,
+   * and sources that aren't .java files can't be read without compiling them. The stubs are read
+   * from the sources by the system Java compiler, so libraries compiled by any other javac keep
+   * their ABI from their classes.
+   */
+  @VisibleForTesting
+  static Optional<JavaSourceAbi> tryCreateSourceAbi(
+      SourcePathResolver resolver,
+      BuildRule buildRule,
+      ProjectFilesystem projectFilesystem,
+      RuleKeyBuilderFactory ruleKeyBuilderFactory,
+      Arg arg) {
+    if (!(buildRule instanceof DefaultJavaLibrary)) {
+      return Optional.absent();
+    }
+    DefaultJavaLibrary javaLibrary = (DefaultJavaLibrary) buildRule;
+    JavacOptions javacOptions = javaLibrary.getJavacOptions();
+    if (javacOptions.getAbiGenerationMode() != AbiGenerationMode.SOURCE ||
+        !(javacOptions.getJavac() instanceof JdkProvidedInMemoryJavac) ||
+        !javacOptions.getAnnotationProcessingParams().isEmpty() ||
+        !arg.postprocessClassesCommands.get().isEmpty() ||
+        arg.srcs.get().isEmpty()) {
+      return Optional.absent();
+    }
+    for (Path src : resolver.getAllPaths(arg.srcs.get())) {
+      if (!src.toString().endsWith(".java")) {
+        return Optional.absent();
+      }
     }
 
-    GwtModule gwtModule = gwtModuleOptional.get();
-    ruleResolver.addToIndex(gwtModule);
+    BuildTarget sourceAbiBuildTarget = BuildTargets.createFlavoredBuildTarget(
+        buildRule.getBuildTarget().getUnflavoredBuildTarget(),
+        JavaLibrary.SOURCE_ABI_FLAVOR);
+    return Optional.of(
+        new JavaSourceAbi(
+            new BuildRuleParams(
+                sourceAbiBuildTarget,
+                Suppliers.ofInstance(javaLibrary.getBuildDeps()),
+                /* inferredDeps */ Suppliers.ofInstance(ImmutableSortedSet.<BuildRule>of()),
+                projectFilesystem,
+                ruleKeyBuilderFactory),
+            resolver,
+            arg.srcs.get(),
+            javacOptions,
+            javaLibrary.getCompileTimeClasspathEntries()));
   }
 
   /**
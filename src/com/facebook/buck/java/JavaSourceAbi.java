@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargets;
+import com.facebook.buck.rules.AbiRule;
+import com.facebook.buck.rules.AbstractBuildRule;
+import com.facebook.buck.rules.AddToRuleKey;
+import com.facebook.buck.rules.BuildContext;
+import com.facebook.buck.rules.BuildOutputInitializer;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleParams;
+import com.facebook.buck.rules.BuildableContext;
+import com.facebook.buck.rules.InitializableFromDisk;
+import com.facebook.buck.rules.OnDiskBuildInfo;
+import com.facebook.buck.rules.Sha1HashCode;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.file.Path;
+
+/**
+ * Writes the ABI jar of a {@link DefaultJavaLibrary} straight from its sources, so that the
+ * libraries that depend on it can be compiled against that jar while it is still being compiled.
+ * Its deps are the rules that the library has to wait for before it can be compiled, so chains of
+ * these rules, which are much quicker to build than the libraries, are all that stand between a
+ * library and the start of its compilation.
+ */
+public class JavaSourceAbi extends AbstractBuildRule
+    implements HasJavaAbi, AbiRule, InitializableFromDisk<Sha1HashCode> {
+
+  @AddToRuleKey
+  private final ImmutableSortedSet<SourcePath> srcs;
+  @AddToRuleKey
+  private final JavacOptions javacOptions;
+  private final ImmutableSet<Path> classpathEntries;
+  private final Path output;
+  private final BuildOutputInitializer<Sha1HashCode> buildOutputInitializer;
+
+  /**
+   * @param classpathEntries what the library compiles against, which should only be the outputs of
+   *     the deps of this rule.
+   */
+  public JavaSourceAbi(
+      BuildRuleParams params,
+      SourcePathResolver resolver,
+      ImmutableSortedSet<SourcePath> srcs,
+      JavacOptions javacOptions,
+      ImmutableSet<Path> classpathEntries) {
+    super(params, resolver);
+    this.srcs = srcs;
+    this.javacOptions = javacOptions;
+    this.classpathEntries = classpathEntries;
+    this.output = getOutputPath(params.getBuildTarget());
+    this.buildOutputInitializer = new BuildOutputInitializer<>(params.getBuildTarget(), this);
+  }
+
+  private static Path getOutputPath(BuildTarget target) {
+    return BuildTargets.getGenPath(target, "lib__%s__output")
+        .resolve(String.format("%s-abi.jar", target.getShortNameAndFlavorPostfix()));
+  }
+
+  @Override
+  public ImmutableList<Step> getBuildSteps(
+      BuildContext context,
+      BuildableContext buildableContext) {
+    return ImmutableList.of(
+        new MakeCleanDirectoryStep(output.getParent()),
+        new CalculateSourceAbiStep(
+            buildableContext,
+            ImmutableSortedSet.copyOf(getResolver().getAllPaths(srcs)),
+            classpathEntries,
+            javacOptions,
+            output));
+  }
+
+  @Override
+  public Path getPathToOutput() {
+    return output;
+  }
+
+  /**
+   * Finds the ABI keys of the deps, which are what the sources were stubbed against, and hashes
+   * them together.
+   */
+  @Override
+  public Sha1HashCode getAbiKeyForDeps() {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (BuildRule dep : getDeps()) {
+      if (dep instanceof HasJavaAbi) {
+        hasher.putUnencodedChars(((HasJavaAbi) dep).getAbiKey().getHash());
+      } else {
+        hasher.putBytes(dep.getRuleKey().getHashCode().asBytes());
+      }
+    }
+    return Sha1HashCode.of(hasher.hash().toString());
+  }
+
+  @Override
+  public Sha1HashCode getAbiKey() {
+    return buildOutputInitializer.getBuildOutput();
+  }
+
+  @Override
+  public Sha1HashCode initializeFromDisk(OnDiskBuildInfo onDiskBuildInfo) {
+    Optional<Sha1HashCode> abiKey = onDiskBuildInfo.getHash(AbiRule.ABI_KEY_ON_DISK_METADATA);
+    if (!abiKey.isPresent()) {
+      throw new IllegalStateException(String.format(
+          "Should not be initializing %s from disk if the ABI key is not written.",
+          getBuildTarget()));
+    }
+    return abiKey.get();
+  }
+
+  @Override
+  public BuildOutputInitializer<Sha1HashCode> getBuildOutputInitializer() {
+    return buildOutputInitializer;
+  }
+}
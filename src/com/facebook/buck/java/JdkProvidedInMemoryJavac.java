@@ -22,16 +22,41 @@ import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.util.HumanReadableException;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableSortedSet;
 
+import java.nio.file.Path;
+import java.util.List;
+
 import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
 import javax.tools.ToolProvider;
 
 public class JdkProvidedInMemoryJavac extends Jsr199Javac {
 
+  /**
+   * The system compiler is loaded once per process, so its file managers, and the classpath jars
+   * that they hold open, can be shared by every build that buckd runs.
+   */
+  private static final JavaFileManagerPool FILE_MANAGERS =
+      new JavaFileManagerPool(Runtime.getRuntime().availableProcessors());
+
+  private static final ClasspathJarCache CLASSPATH_JARS = new ClasspathJarCache();
+
+  private final long classpathJarCacheSizeBytes;
+
   JdkProvidedInMemoryJavac() {
-    // only here to limit this to package-level visibility
+    this(ClasspathJarCache.DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param classpathJarCacheSizeBytes how much memory to spend on keeping the classpath jars of
+   *     compilations open and indexed until later ones need them.
+   */
+  JdkProvidedInMemoryJavac(long classpathJarCacheSizeBytes) {
+    this.classpathJarCacheSizeBytes = classpathJarCacheSizeBytes;
   }
 
   @Override
@@ -69,4 +94,26 @@ public class JdkProvidedInMemoryJavac extends Jsr199Javac {
 
     return compiler;
   }
+
+  @Override
+  protected Optional<JavaFileManagerPool> getFileManagerPool() {
+    return Optional.of(FILE_MANAGERS);
+  }
+
+  @Override
+  protected Optional<IndexedJarFileManager> getIndexedJarFileManager(
+      StandardJavaFileManager fileManager,
+      List<String> options,
+      Function<Path, Path> absolutifier) {
+    if (classpathJarCacheSizeBytes <= 0) {
+      return Optional.absent();
+    }
+    return Optional.of(
+        IndexedJarFileManager.create(
+            fileManager,
+            CLASSPATH_JARS,
+            classpathJarCacheSizeBytes,
+            options,
+            absolutifier));
+  }
 }
@@ -109,6 +109,25 @@ public abstract class Jsr199Javac implements Javac {
       ExecutionContext context,
       SourcePathResolver resolver);
 
+  /**
+   * @return the pool to take the file managers for compilations from, if the compilers returned
+   *     by {@link #createCompiler} live long enough for their file managers to be reused.
+   */
+  protected Optional<JavaFileManagerPool> getFileManagerPool() {
+    return Optional.absent();
+  }
+
+  /**
+   * @return a view of {@code fileManager} that finds the classes in the classpath jars named by
+   *     {@code options} without reopening them, or absent if {@code fileManager} should open them.
+   */
+  protected Optional<IndexedJarFileManager> getIndexedJarFileManager(
+      StandardJavaFileManager fileManager,
+      List<String> options,
+      Function<Path, Path> absolutifier) {
+    return Optional.absent();
+  }
+
   @Override
   public int buildWithClasspath(
       ExecutionContext context,
@@ -120,7 +139,19 @@ public abstract class Jsr199Javac implements Javac {
       Optional<Path> workingDirectory) {
     JavaCompiler compiler = createCompiler(context, resolver);
 
-    StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+    Optional<JavaFileManagerPool> fileManagerPool = getFileManagerPool();
+    Optional<JavaFileManagerPool.PooledFileManager> pooledFileManager = Optional.absent();
+    StandardJavaFileManager fileManager;
+    if (fileManagerPool.isPresent()) {
+      pooledFileManager = Optional.of(
+          fileManagerPool.get().acquire(
+              compiler,
+              options,
+              context.getProjectFilesystem().getAbsolutifier()));
+      fileManager = pooledFileManager.get().getFileManager();
+    } else {
+      fileManager = compiler.getStandardFileManager(null, null, null);
+    }
     Iterable<? extends JavaFileObject> compilationUnits = ImmutableSet.of();
     try {
       compilationUnits = createCompilationUnits(
@@ -128,7 +159,7 @@ public abstract class Jsr199Javac implements Javac {
           context.getProjectFilesystem().getAbsolutifier(),
           javaSourceFilePaths);
     } catch (IOException e) {
-      close(fileManager, compilationUnits);
+      close(fileManager, pooledFileManager, compilationUnits);
       e.printStackTrace(context.getStdErr());
       return 1;
     }
@@ -144,7 +175,7 @@ public abstract class Jsr199Javac implements Javac {
                 .transform(ARGFILES_ESCAPER),
             pathToSrcsList.get());
       } catch (IOException e) {
-        close(fileManager, compilationUnits);
+        close(fileManager, pooledFileManager, compilationUnits);
         context.logError(
             e,
             "Cannot write list of .java files to compile to %s file! Terminating compilation.",
@@ -156,9 +187,13 @@ public abstract class Jsr199Javac implements Javac {
     DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
     List<String> classNamesForAnnotationProcessing = ImmutableList.of();
     Writer compilerOutputWriter = new PrintWriter(context.getStdErr());
+    Optional<IndexedJarFileManager> indexedJarFileManager = getIndexedJarFileManager(
+        fileManager,
+        options,
+        context.getProjectFilesystem().getAbsolutifier());
     JavaCompiler.CompilationTask compilationTask = compiler.getTask(
         compilerOutputWriter,
-        fileManager,
+        indexedJarFileManager.isPresent() ? indexedJarFileManager.get() : fileManager,
         diagnostics,
         options,
         classNamesForAnnotationProcessing,
@@ -190,7 +225,10 @@ public abstract class Jsr199Javac implements Javac {
       } catch (IOException e) {
         LOG.warn(e, "Unable to close annotation processor class loader. We may be leaking memory.");
       } finally {
-        close(fileManager, compilationUnits);
+        if (indexedJarFileManager.isPresent()) {
+          indexedJarFileManager.get().close();
+        }
+        close(fileManager, pooledFileManager, compilationUnits);
       }
     } finally {
       // Clear the tracing interface so we have no chance of leaking it to code that shouldn't
@@ -231,11 +269,16 @@ public abstract class Jsr199Javac implements Javac {
 
   private void close(
       JavaFileManager fileManager,
+      Optional<JavaFileManagerPool.PooledFileManager> pooledFileManager,
       Iterable<? extends JavaFileObject> compilationUnits) {
-    try {
-      fileManager.close();
-    } catch (IOException e) {
-      LOG.warn(e, "Unable to close java filemanager. We may be leaking memory.");
+    if (pooledFileManager.isPresent()) {
+      pooledFileManager.get().release();
+    } else {
+      try {
+        fileManager.close();
+      } catch (IOException e) {
+        LOG.warn(e, "Unable to close java filemanager. We may be leaking memory.");
+      }
     }
 
     for (JavaFileObject unit : compilationUnits) {
@@ -0,0 +1,850 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java.abi;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteSource;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.Trees;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.signature.SignatureVisitor;
+import org.objectweb.asm.signature.SignatureWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Writes the same kind of stub jar as {@link StubJar}, but from the sources of a library rather
+ * than from the classes compiled out of them. javac only parses and enters the sources, resolving
+ * the signatures of their members against the classpath, and is stopped before it attributes or
+ * generates code for any method body, so the stubs are ready long before the library itself
+ * would be.
+ * <p>
+ * The sources are always read with the system Java compiler, so the stubs only match the classes
+ * of libraries that are compiled with it too.
+ */
+public class SourceStubJar {
+
+  private static final int DEFAULT_CLASS_VERSION = Opcodes.V1_7;
+
+  private final ImmutableSortedSet<Path> sources;
+  private final ImmutableList<String> javacOptions;
+
+  /**
+   * @param sources absolute paths of the .java files to stub.
+   * @param javacOptions the options, such as {@code -classpath} and {@code -source}, that the
+   *     sources would be compiled with.
+   */
+  public SourceStubJar(Iterable<Path> sources, List<String> javacOptions) {
+    this.sources = ImmutableSortedSet.copyOf(sources);
+    this.javacOptions = ImmutableList.copyOf(javacOptions);
+  }
+
+  /**
+   * @throws IOException if the stubs could not be written or javac reported errors in the sources,
+   *     in which case the message lists those errors.
+   */
+  public void writeTo(ProjectFilesystem filesystem, Path path) throws IOException {
+    Preconditions.checkState(!filesystem.exists(path), "Output file already exists: %s)", path);
+
+    if (path.getParent() != null && !filesystem.exists(path.getParent())) {
+      filesystem.createParentDirs(path);
+    }
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      throw new IOException("No system Java compiler is available to read the sources with.");
+    }
+
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    SortedMap<String, byte[]> classes = Maps.newTreeMap();
+    Set<String> unresolved = Sets.newTreeSet();
+    try (StandardJavaFileManager fileManager =
+             compiler.getStandardFileManager(diagnostics, null, Charsets.UTF_8)) {
+      List<File> files = Lists.newArrayList();
+      for (Path source : sources) {
+        files.add(source.toFile());
+      }
+      List<String> options = Lists.newArrayList(javacOptions);
+      options.add("-proc:none");
+      JavacTask task = (JavacTask) compiler.getTask(
+          /* out */ null,
+          fileManager,
+          diagnostics,
+          options,
+          /* classes */ null,
+          fileManager.getJavaFileObjectsFromFiles(files));
+      StubbingTaskListener listener = new StubbingTaskListener(
+          task.parse(),
+          Trees.instance(task),
+          new Stubber(
+              task.getElements(),
+              task.getTypes(),
+              getClassVersion(javacOptions),
+              unresolved),
+          classes);
+      task.setTaskListener(listener);
+      try {
+        task.analyze();
+      } catch (RuntimeException e) {
+        if (!Iterables.any(
+            Throwables.getCausalChain(e),
+            Predicates.instanceOf(StopCompilation.class))) {
+          throw e;
+        }
+      }
+
+      // javac skips straight to the end when entering the sources fails, in which case the errors
+      // are reported below. Otherwise, make sure that there are stubs even for sources that have
+      // nothing for javac to analyze.
+      listener.stubOnce();
+    }
+
+    List<String> errors = Lists.newArrayList();
+    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+      if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+        errors.add(diagnostic.toString());
+      }
+    }
+    if (errors.isEmpty() && !unresolved.isEmpty()) {
+      errors.add("Could not resolve the types used by " + Joiner.on(", ").join(unresolved));
+    }
+    if (!errors.isEmpty()) {
+      throw new IOException(Joiner.on('\n').join(errors));
+    }
+
+    try (
+        OutputStream fos = filesystem.newFileOutputStream(path);
+        JarOutputStream jar = new JarOutputStream(fos)) {
+      for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+        JarEntry jarEntry = new JarEntry(entry.getKey());
+        jarEntry.setTime(0);
+        jar.putNextEntry(jarEntry);
+        ByteSource.wrap(entry.getValue()).copyTo(jar);
+        jar.closeEntry();
+      }
+    }
+  }
+
+  /**
+   * @return the class file version for the {@code -target} in {@code javacOptions}, so that the
+   *     stubs look like the classes that javac would have written.
+   */
+  static int getClassVersion(List<String> javacOptions) {
+    int index = javacOptions.lastIndexOf("-target");
+    if (index < 0 || index + 1 >= javacOptions.size()) {
+      return DEFAULT_CLASS_VERSION;
+    }
+    String target = javacOptions.get(index + 1);
+    if (target.startsWith("1.")) {
+      target = target.substring("1.".length());
+    }
+    try {
+      // Java 5 is class file version 49, and every release since has added one.
+      return 44 + Integer.parseInt(target);
+    } catch (NumberFormatException e) {
+      return DEFAULT_CLASS_VERSION;
+    }
+  }
+
+  /**
+   * Writes the stubs as soon as javac has entered every source and is about to analyze the first of
+   * them, and then stops it, so that no method body is ever attributed.
+   */
+  private static class StubbingTaskListener implements TaskListener {
+
+    private final Iterable<? extends CompilationUnitTree> units;
+    private final Trees trees;
+    private final Stubber stubber;
+    private final Map<String, byte[]> classes;
+    private boolean stubbed;
+
+    public StubbingTaskListener(
+        Iterable<? extends CompilationUnitTree> units,
+        Trees trees,
+        Stubber stubber,
+        Map<String, byte[]> classes) {
+      this.units = units;
+      this.trees = trees;
+      this.stubber = stubber;
+      this.classes = classes;
+    }
+
+    @Override
+    public void started(TaskEvent event) {
+      if (event.getKind() == TaskEvent.Kind.ANALYZE) {
+        stubOnce();
+        throw new StopCompilation();
+      }
+    }
+
+    @Override
+    public void finished(TaskEvent event) {
+    }
+
+    public void stubOnce() {
+      if (stubbed) {
+        return;
+      }
+      stubbed = true;
+
+      for (CompilationUnitTree unit : units) {
+        for (Tree declaration : unit.getTypeDecls()) {
+          Element element = trees.getElement(TreePath.getPath(unit, declaration));
+          if (element instanceof TypeElement) {
+            stubber.stub((TypeElement) element, classes);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Thrown out of javac to stop it once the stubs have been written.
+   */
+  @SuppressWarnings("serial")
+  private static class StopCompilation extends RuntimeException {
+  }
+
+  /**
+   * Turns the elements that javac entered into stub classes, leaving out everything private as
+   * {@link ClassMirror} does.
+   */
+  private static class Stubber {
+
+    private final Elements elements;
+    private final Types types;
+    private final int version;
+    private final Set<String> unresolved;
+
+    public Stubber(Elements elements, Types types, int version, Set<String> unresolved) {
+      this.elements = elements;
+      this.types = types;
+      this.version = version;
+      this.unresolved = unresolved;
+    }
+
+    public void stub(TypeElement type, Map<String, byte[]> classes) {
+      if (type.getModifiers().contains(Modifier.PRIVATE)) {
+        return;
+      }
+
+      String name = getInternalName(type);
+      ClassWriter writer = new ClassWriter(0);
+      writer.visit(
+          version,
+          getClassAccess(type),
+          name,
+          getClassSignature(type),
+          getSuperName(type),
+          getInterfaceNames(type));
+
+      // javac expects every nested class to name itself and the classes enclosing it.
+      for (TypeElement nested = type;
+           nested.getNestingKind() == NestingKind.MEMBER;
+           nested = (TypeElement) nested.getEnclosingElement()) {
+        visitInnerClass(writer, nested);
+      }
+
+      SortedMap<String, TypeElement> memberTypes = Maps.newTreeMap();
+      SortedMap<String, VariableElement> fields = Maps.newTreeMap();
+      SortedMap<String, ExecutableElement> methods = Maps.newTreeMap();
+      for (Element member : type.getEnclosedElements()) {
+        if (member.getModifiers().contains(Modifier.PRIVATE)) {
+          continue;
+        }
+        switch (member.getKind()) {
+          case ANNOTATION_TYPE:
+          case CLASS:
+          case ENUM:
+          case INTERFACE:
+            memberTypes.put(member.getSimpleName().toString(), (TypeElement) member);
+            break;
+
+          case ENUM_CONSTANT:
+          case FIELD:
+            fields.put(member.getSimpleName().toString(), (VariableElement) member);
+            break;
+
+          case CONSTRUCTOR:
+            // The constructors of an enum are private, whether they say so or not.
+            if (type.getKind() == ElementKind.ENUM) {
+              break;
+            }
+            // $FALL-THROUGH$
+          case METHOD:
+            ExecutableElement method = (ExecutableElement) member;
+            methods.put(
+                method.getSimpleName() + getMethodDescriptor(type, method),
+                method);
+            break;
+
+          // $CASES-OMITTED$
+          default:
+            break;
+        }
+      }
+
+      for (TypeElement memberType : memberTypes.values()) {
+        visitInnerClass(writer, memberType);
+      }
+
+      for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+        RetentionPolicy retention = getRetention(annotation);
+        if (retention != RetentionPolicy.SOURCE) {
+          writeAnnotation(
+              writer.visitAnnotation(
+                  getDescriptor(annotation.getAnnotationType()),
+                  retention == RetentionPolicy.RUNTIME),
+              annotation);
+        }
+      }
+
+      for (VariableElement field : fields.values()) {
+        writeField(writer, field);
+      }
+
+      for (ExecutableElement method : methods.values()) {
+        writeMethod(writer, type, method);
+      }
+
+      writer.visitEnd();
+      classes.put(name + ".class", writer.toByteArray());
+
+      for (TypeElement memberType : memberTypes.values()) {
+        stub(memberType, classes);
+      }
+    }
+
+    private void visitInnerClass(ClassWriter writer, TypeElement nested) {
+      writer.visitInnerClass(
+          getInternalName(nested),
+          getInternalName((TypeElement) nested.getEnclosingElement()),
+          nested.getSimpleName().toString(),
+          getKindAccess(nested) | getAccess(nested.getModifiers()));
+    }
+
+    private void writeField(ClassWriter writer, VariableElement field) {
+      int access = getAccess(field.getModifiers());
+      if (field.getKind() == ElementKind.ENUM_CONSTANT) {
+        access |= Opcodes.ACC_ENUM;
+      }
+      TypeMirror type = field.asType();
+      FieldVisitor visitor = writer.visitField(
+          access,
+          field.getSimpleName().toString(),
+          getDescriptor(type),
+          needsSignature(type) ? getTypeSignature(type) : null,
+          getConstantValue(field));
+      for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+        RetentionPolicy retention = getRetention(annotation);
+        if (retention != RetentionPolicy.SOURCE) {
+          writeAnnotation(
+              visitor.visitAnnotation(
+                  getDescriptor(annotation.getAnnotationType()),
+                  retention == RetentionPolicy.RUNTIME),
+              annotation);
+        }
+      }
+      visitor.visitEnd();
+    }
+
+    private void writeMethod(ClassWriter writer, TypeElement owner, ExecutableElement method) {
+      int access = getAccess(method.getModifiers());
+      if (method.isVarArgs()) {
+        access |= Opcodes.ACC_VARARGS;
+      }
+
+      List<String> exceptions = Lists.newArrayList();
+      for (TypeMirror thrown : method.getThrownTypes()) {
+        exceptions.add(getInternalName(thrown));
+      }
+
+      MethodVisitor visitor = writer.visitMethod(
+          access,
+          method.getSimpleName().toString(),
+          getMethodDescriptor(owner, method),
+          getMethodSignature(method),
+          exceptions.isEmpty() ? null : exceptions.toArray(new String[exceptions.size()]));
+
+      for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+        RetentionPolicy retention = getRetention(annotation);
+        if (retention != RetentionPolicy.SOURCE) {
+          writeAnnotation(
+              visitor.visitAnnotation(
+                  getDescriptor(annotation.getAnnotationType()),
+                  retention == RetentionPolicy.RUNTIME),
+              annotation);
+        }
+      }
+
+      // The enclosing instance that javac passes to the constructors of inner classes comes first.
+      int firstParameter = hasOuterInstance(owner, method) ? 1 : 0;
+      List<? extends VariableElement> parameters = method.getParameters();
+      for (int i = 0; i < parameters.size(); i++) {
+        for (AnnotationMirror annotation : parameters.get(i).getAnnotationMirrors()) {
+          RetentionPolicy retention = getRetention(annotation);
+          if (retention != RetentionPolicy.SOURCE) {
+            writeAnnotation(
+                visitor.visitParameterAnnotation(
+                    firstParameter + i,
+                    getDescriptor(annotation.getAnnotationType()),
+                    retention == RetentionPolicy.RUNTIME),
+                annotation);
+          }
+        }
+      }
+
+      AnnotationValue defaultValue = method.getDefaultValue();
+      if (defaultValue != null) {
+        AnnotationVisitor defaultVisitor = visitor.visitAnnotationDefault();
+        writeAnnotationValue(defaultVisitor, null, defaultValue);
+        defaultVisitor.visitEnd();
+      }
+
+      visitor.visitEnd();
+    }
+
+    private void writeAnnotation(AnnotationVisitor visitor, AnnotationMirror annotation) {
+      for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+          annotation.getElementValues().entrySet()) {
+        writeAnnotationValue(visitor, entry.getKey().getSimpleName().toString(), entry.getValue());
+      }
+      visitor.visitEnd();
+    }
+
+    private void writeAnnotationValue(
+        AnnotationVisitor visitor,
+        String name,
+        AnnotationValue annotationValue) {
+      Object value = annotationValue.getValue();
+      if (value instanceof TypeMirror) {
+        visitor.visit(name, Type.getType(getDescriptor((TypeMirror) value)));
+      } else if (value instanceof VariableElement) {
+        VariableElement constant = (VariableElement) value;
+        visitor.visitEnum(
+            name,
+            getDescriptor(constant.getEnclosingElement().asType()),
+            constant.getSimpleName().toString());
+      } else if (value instanceof AnnotationMirror) {
+        AnnotationMirror annotation = (AnnotationMirror) value;
+        writeAnnotation(
+            visitor.visitAnnotation(name, getDescriptor(annotation.getAnnotationType())),
+            annotation);
+      } else if (value instanceof List) {
+        AnnotationVisitor array = visitor.visitArray(name);
+        for (Object element : (List<?>) value) {
+          writeAnnotationValue(array, null, (AnnotationValue) element);
+        }
+        array.visitEnd();
+      } else {
+        visitor.visit(name, value);
+      }
+    }
+
+    private RetentionPolicy getRetention(AnnotationMirror annotation) {
+      Retention retention =
+          annotation.getAnnotationType().asElement().getAnnotation(Retention.class);
+      return retention == null ? RetentionPolicy.CLASS : retention.value();
+    }
+
+    private Object getConstantValue(VariableElement field) {
+      Object value = field.getConstantValue();
+      // The constant pool holds the narrower primitives as ints.
+      if (value instanceof Character) {
+        return (int) (Character) value;
+      } else if (value instanceof Boolean) {
+        return (Boolean) value ? 1 : 0;
+      } else if (value instanceof Byte || value instanceof Short) {
+        return ((Number) value).intValue();
+      }
+      return value;
+    }
+
+    private int getClassAccess(TypeElement type) {
+      Set<Modifier> modifiers = type.getModifiers();
+      // Nested classes are either public or package private in their own class file.
+      int access = modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.PROTECTED) ?
+          Opcodes.ACC_PUBLIC :
+          0;
+      if (modifiers.contains(Modifier.FINAL)) {
+        access |= Opcodes.ACC_FINAL;
+      }
+      if (modifiers.contains(Modifier.ABSTRACT)) {
+        access |= Opcodes.ACC_ABSTRACT;
+      }
+      if (!type.getKind().isInterface()) {
+        access |= Opcodes.ACC_SUPER;
+      }
+      return access | getKindAccess(type);
+    }
+
+    private int getKindAccess(TypeElement type) {
+      switch (type.getKind()) {
+        case ANNOTATION_TYPE:
+          return Opcodes.ACC_ANNOTATION | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT;
+        case INTERFACE:
+          return Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT;
+        case ENUM:
+          return Opcodes.ACC_ENUM;
+        // $CASES-OMITTED$
+        default:
+          return 0;
+      }
+    }
+
+    private int getAccess(Set<Modifier> modifiers) {
+      int access = 0;
+      for (Modifier modifier : modifiers) {
+        switch (modifier) {
+          case PUBLIC:
+            access |= Opcodes.ACC_PUBLIC;
+            break;
+          case PROTECTED:
+            access |= Opcodes.ACC_PROTECTED;
+            break;
+          case PRIVATE:
+            access |= Opcodes.ACC_PRIVATE;
+            break;
+          case STATIC:
+            access |= Opcodes.ACC_STATIC;
+            break;
+          case FINAL:
+            access |= Opcodes.ACC_FINAL;
+            break;
+          case ABSTRACT:
+            access |= Opcodes.ACC_ABSTRACT;
+            break;
+          case SYNCHRONIZED:
+            access |= Opcodes.ACC_SYNCHRONIZED;
+            break;
+          case NATIVE:
+            access |= Opcodes.ACC_NATIVE;
+            break;
+          case TRANSIENT:
+            access |= Opcodes.ACC_TRANSIENT;
+            break;
+          case VOLATILE:
+            access |= Opcodes.ACC_VOLATILE;
+            break;
+          case STRICTFP:
+            access |= Opcodes.ACC_STRICT;
+            break;
+          // $CASES-OMITTED$
+          default:
+            break;
+        }
+      }
+      return access;
+    }
+
+    private String getSuperName(TypeElement type) {
+      TypeMirror superclass = type.getSuperclass();
+      if (superclass.getKind() == TypeKind.NONE) {
+        return "java/lang/Object";
+      }
+      return getInternalName(superclass);
+    }
+
+    private String[] getInterfaceNames(TypeElement type) {
+      List<? extends TypeMirror> interfaces = type.getInterfaces();
+      String[] names = new String[interfaces.size()];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = getInternalName(interfaces.get(i));
+      }
+      return names;
+    }
+
+    private boolean hasOuterInstance(TypeElement owner, ExecutableElement method) {
+      return method.getKind() == ElementKind.CONSTRUCTOR &&
+          owner.getNestingKind() == NestingKind.MEMBER &&
+          owner.getKind() == ElementKind.CLASS &&
+          !owner.getModifiers().contains(Modifier.STATIC);
+    }
+
+    private String getMethodDescriptor(TypeElement owner, ExecutableElement method) {
+      StringBuilder descriptor = new StringBuilder("(");
+      if (hasOuterInstance(owner, method)) {
+        descriptor.append(getDescriptor(owner.getEnclosingElement().asType()));
+      }
+      for (VariableElement parameter : method.getParameters()) {
+        descriptor.append(getDescriptor(parameter.asType()));
+      }
+      return descriptor.append(')').append(getDescriptor(method.getReturnType())).toString();
+    }
+
+    private String getInternalName(TypeElement type) {
+      return elements.getBinaryName(type).toString().replace('.', '/');
+    }
+
+    private String getInternalName(TypeMirror type) {
+      TypeMirror erased = types.erasure(type);
+      if (erased.getKind() != TypeKind.DECLARED) {
+        unresolved.add(type.toString());
+        return "java/lang/Object";
+      }
+      return getInternalName((TypeElement) ((DeclaredType) erased).asElement());
+    }
+
+    private String getDescriptor(TypeMirror type) {
+      TypeMirror erased = types.erasure(type);
+      switch (erased.getKind()) {
+        case BOOLEAN:
+          return "Z";
+        case BYTE:
+          return "B";
+        case CHAR:
+          return "C";
+        case SHORT:
+          return "S";
+        case INT:
+          return "I";
+        case LONG:
+          return "J";
+        case FLOAT:
+          return "F";
+        case DOUBLE:
+          return "D";
+        case VOID:
+          return "V";
+        case ARRAY:
+          return "[" + getDescriptor(((ArrayType) erased).getComponentType());
+        case DECLARED:
+          return "L" + getInternalName(erased) + ";";
+        // $CASES-OMITTED$
+        default:
+          unresolved.add(type.toString());
+          return "Ljava/lang/Object;";
+      }
+    }
+
+    private String getClassSignature(TypeElement type) {
+      boolean needsSignature = !type.getTypeParameters().isEmpty() ||
+          needsSignature(type.getSuperclass());
+      for (TypeMirror anInterface : type.getInterfaces()) {
+        needsSignature |= needsSignature(anInterface);
+      }
+      if (!needsSignature) {
+        return null;
+      }
+
+      SignatureWriter writer = new SignatureWriter();
+      writeTypeParameters(writer, type.getTypeParameters());
+      if (type.getSuperclass().getKind() == TypeKind.NONE) {
+        SignatureVisitor superclass = writer.visitSuperclass();
+        superclass.visitClassType("java/lang/Object");
+        superclass.visitEnd();
+      } else {
+        writeType(writer.visitSuperclass(), type.getSuperclass());
+      }
+      for (TypeMirror anInterface : type.getInterfaces()) {
+        writeType(writer.visitInterface(), anInterface);
+      }
+      return writer.toString();
+    }
+
+    private String getMethodSignature(ExecutableElement method) {
+      boolean thrownTypeVariables = false;
+      for (TypeMirror thrown : method.getThrownTypes()) {
+        thrownTypeVariables |= thrown.getKind() == TypeKind.TYPEVAR;
+      }
+      boolean needsSignature = thrownTypeVariables ||
+          !method.getTypeParameters().isEmpty() ||
+          needsSignature(method.getReturnType());
+      for (VariableElement parameter : method.getParameters()) {
+        needsSignature |= needsSignature(parameter.asType());
+      }
+      if (!needsSignature) {
+        return null;
+      }
+
+      SignatureWriter writer = new SignatureWriter();
+      writeTypeParameters(writer, method.getTypeParameters());
+      for (VariableElement parameter : method.getParameters()) {
+        writeType(writer.visitParameterType(), parameter.asType());
+      }
+      writeType(writer.visitReturnType(), method.getReturnType());
+      if (thrownTypeVariables) {
+        for (TypeMirror thrown : method.getThrownTypes()) {
+          writeType(writer.visitExceptionType(), thrown);
+        }
+      }
+      return writer.toString();
+    }
+
+    private String getTypeSignature(TypeMirror type) {
+      SignatureWriter writer = new SignatureWriter();
+      writeType(writer, type);
+      return writer.toString();
+    }
+
+    private boolean needsSignature(TypeMirror type) {
+      switch (type.getKind()) {
+        case TYPEVAR:
+          return true;
+        case ARRAY:
+          return needsSignature(((ArrayType) type).getComponentType());
+        case DECLARED:
+          return isParameterized((DeclaredType) type);
+        // $CASES-OMITTED$
+        default:
+          return false;
+      }
+    }
+
+    private boolean isParameterized(DeclaredType type) {
+      if (!type.getTypeArguments().isEmpty()) {
+        return true;
+      }
+      TypeMirror enclosing = type.getEnclosingType();
+      return enclosing.getKind() == TypeKind.DECLARED && isParameterized((DeclaredType) enclosing);
+    }
+
+    private void writeTypeParameters(
+        SignatureVisitor visitor,
+        List<? extends TypeParameterElement> typeParameters) {
+      for (TypeParameterElement typeParameter : typeParameters) {
+        visitor.visitFormalTypeParameter(typeParameter.getSimpleName().toString());
+        List<? extends TypeMirror> bounds = typeParameter.getBounds();
+        for (int i = 0; i < bounds.size(); i++) {
+          TypeMirror bound = bounds.get(i);
+          boolean isInterface = bound.getKind() == TypeKind.DECLARED &&
+              ((DeclaredType) bound).asElement().getKind().isInterface();
+          writeType(
+              i == 0 && !isInterface ? visitor.visitClassBound() : visitor.visitInterfaceBound(),
+              bound);
+        }
+      }
+    }
+
+    private void writeType(SignatureVisitor visitor, TypeMirror type) {
+      switch (type.getKind()) {
+        case BOOLEAN:
+        case BYTE:
+        case CHAR:
+        case SHORT:
+        case INT:
+        case LONG:
+        case FLOAT:
+        case DOUBLE:
+        case VOID:
+          visitor.visitBaseType(getDescriptor(type).charAt(0));
+          break;
+        case ARRAY:
+          writeType(visitor.visitArrayType(), ((ArrayType) type).getComponentType());
+          break;
+        case TYPEVAR:
+          visitor.visitTypeVariable(((TypeVariable) type).asElement().getSimpleName().toString());
+          break;
+        case DECLARED:
+          writeClassType(visitor, (DeclaredType) type);
+          visitor.visitEnd();
+          break;
+        // $CASES-OMITTED$
+        default:
+          unresolved.add(type.toString());
+          visitor.visitClassType("java/lang/Object");
+          visitor.visitEnd();
+          break;
+      }
+    }
+
+    private void writeClassType(SignatureVisitor visitor, DeclaredType type) {
+      TypeMirror enclosing = type.getEnclosingType();
+      if (enclosing.getKind() == TypeKind.DECLARED &&
+          isParameterized((DeclaredType) enclosing)) {
+        writeClassType(visitor, (DeclaredType) enclosing);
+        visitor.visitInnerClassType(type.asElement().getSimpleName().toString());
+      } else {
+        visitor.visitClassType(getInternalName((TypeElement) type.asElement()));
+      }
+
+      for (TypeMirror argument : type.getTypeArguments()) {
+        if (argument.getKind() != TypeKind.WILDCARD) {
+          writeType(visitor.visitTypeArgument(SignatureVisitor.INSTANCEOF), argument);
+          continue;
+        }
+        TypeMirror extendsBound = ((WildcardType) argument).getExtendsBound();
+        TypeMirror superBound = ((WildcardType) argument).getSuperBound();
+        if (extendsBound != null) {
+          writeType(visitor.visitTypeArgument(SignatureVisitor.EXTENDS), extendsBound);
+        } else if (superBound != null) {
+          writeType(visitor.visitTypeArgument(SignatureVisitor.SUPER), superBound);
+        } else {
+          visitor.visitTypeArgument();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuckVersion;
+import com.facebook.buck.util.BuckConstant;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * An on-disk cache of the raw rules produced by evaluating build files, stored under
+ * {@code buck-out} so that it survives daemon restarts and runs without a daemon.
+ * <p>
+ * Each build file gets one entry, holding its rules and meta rules and the files that were
+ * executed to produce them. An entry is only used if the SHA-1 of every one of those files, the
+ * environment, the default includes and the Buck version all match the values recorded when the
+ * entry was written, so entries are loaded lazily and validated against the current tree.
+ * <p>
+ * Build files that call {@code glob()} also depend on which files exist, so the entry records the
+ * include patterns of those calls, and the key also covers the names and types of every entry
+ * under the build file's directory that the patterns can reach. Adding, removing or renaming a
+ * file there invalidates the entry, while editing one does not. The patterns are not evaluated
+ * again here, so the matching rules of buck.py and watchman need not be duplicated.
+ */
+public class PersistentBuildFileParseCache {
+
+  private static final Logger LOG = Logger.get(PersistentBuildFileParseCache.class);
+
+  private static final Path CACHE_DIR =
+      BuckConstant.BUCK_OUTPUT_PATH.resolve("cache").resolve("parser");
+
+  private static final String KEY_FIELD = "key";
+  private static final String FILES_FIELD = "files";
+  private static final String GLOBS_FIELD = "globs";
+  private static final String RULES_FIELD = "rules";
+
+  private final ProjectFilesystem filesystem;
+  private final Gson gson;
+
+  public PersistentBuildFileParseCache(ProjectFilesystem filesystem) {
+    this.filesystem = filesystem;
+    // Null attribute values are significant to the marshaller, so keep them.
+    this.gson = new GsonBuilder().serializeNulls().create();
+  }
+
+  /**
+   * @param buildFile the absolute path of the build file.
+   * @return the cached rules and meta rules for {@code buildFile}, or absent if there is no entry
+   *     or any of its inputs have changed.
+   */
+  @SuppressWarnings("unchecked")
+  public Optional<List<Map<String, Object>>> get(
+      Path buildFile,
+      ImmutableMap<String, String> environment,
+      Iterable<String> defaultIncludes) {
+    Path entryPath = getEntryPath(buildFile);
+    Optional<Reader> reader = filesystem.getReaderIfFileExists(entryPath);
+    if (!reader.isPresent()) {
+      return Optional.absent();
+    }
+
+    try (Reader entryReader = reader.get()) {
+      JsonObject entry = gson.fromJson(entryReader, JsonObject.class);
+      if (entry == null ||
+          !entry.has(KEY_FIELD) ||
+          !entry.has(FILES_FIELD) ||
+          !entry.has(GLOBS_FIELD) ||
+          !entry.has(RULES_FIELD)) {
+        return Optional.absent();
+      }
+
+      List<Path> files = Lists.newArrayList();
+      for (JsonElement file : entry.getAsJsonArray(FILES_FIELD)) {
+        files.add(Paths.get(file.getAsString()));
+      }
+      List<String> globs = Lists.newArrayList();
+      for (JsonElement glob : entry.getAsJsonArray(GLOBS_FIELD)) {
+        globs.add(glob.getAsString());
+      }
+      Optional<HashCode> key = computeKey(buildFile, environment, defaultIncludes, files, globs);
+      if (!key.isPresent() || !key.get().toString().equals(entry.get(KEY_FIELD).getAsString())) {
+        LOG.verbose("Persistent parse cache entry for %s is stale.", buildFile);
+        return Optional.absent();
+      }
+
+      JsonArray rules = entry.getAsJsonArray(RULES_FIELD);
+      List<Map<String, Object>> result = Lists.newArrayListWithCapacity(rules.size());
+      for (JsonElement rule : rules) {
+        result.add((Map<String, Object>) RawParser.toRawTypes(rule));
+      }
+      return Optional.of(result);
+    } catch (IOException | JsonParseException | IllegalStateException | ClassCastException e) {
+      LOG.warn(e, "Ignoring unreadable persistent parse cache entry %s.", entryPath);
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * Records the result of evaluating {@code buildFile}.  Failures to write are logged and
+   * otherwise ignored, since the cache is only an optimization.
+   *
+   * @param buildFile the absolute path of the build file.
+   * @param files the absolute paths of every file executed to evaluate {@code buildFile},
+   *     including the build file itself.
+   * @param globs the include patterns of every {@code glob()} call made while evaluating
+   *     {@code buildFile}.
+   * @param rulesAndMetaRules the output of buck.py for {@code buildFile}.
+   */
+  public void put(
+      Path buildFile,
+      ImmutableMap<String, String> environment,
+      Iterable<String> defaultIncludes,
+      Iterable<Path> files,
+      Iterable<String> globs,
+      List<Map<String, Object>> rulesAndMetaRules) {
+    ImmutableList<Path> filesList = ImmutableList.copyOf(files);
+    ImmutableList<String> globsList = ImmutableList.copyOf(globs);
+    Path entryPath = getEntryPath(buildFile);
+    try {
+      // Create the directory before listing the files that the globs can match, which it may be
+      // among.
+      filesystem.mkdirs(CACHE_DIR);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to create the persistent parse cache directory %s.", CACHE_DIR);
+      return;
+    }
+    Optional<HashCode> key =
+        computeKey(buildFile, environment, defaultIncludes, filesList, globsList);
+    if (!key.isPresent()) {
+      return;
+    }
+
+    JsonObject entry = new JsonObject();
+    entry.addProperty(KEY_FIELD, key.get().toString());
+    JsonArray filesArray = new JsonArray();
+    for (Path file : filesList) {
+      filesArray.add(gson.toJsonTree(file.toString()));
+    }
+    entry.add(FILES_FIELD, filesArray);
+    entry.add(GLOBS_FIELD, gson.toJsonTree(globsList));
+    entry.add(RULES_FIELD, gson.toJsonTree(rulesAndMetaRules));
+
+    try {
+      // Write to a temporary file and move it into place so that concurrent readers never see a
+      // partially written entry.
+      Path tempPath = filesystem.createTempFile(
+          filesystem.resolve(CACHE_DIR),
+          entryPath.getFileName().toString(),
+          ".tmp");
+      filesystem.writeContentsToPath(gson.toJson(entry), tempPath);
+      filesystem.move(tempPath, entryPath, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to write persistent parse cache entry %s.", entryPath);
+    }
+  }
+
+  private Path getEntryPath(Path buildFile) {
+    return CACHE_DIR.resolve(
+        Hashing.sha1().hashString(buildFile.toString(), UTF_8).toString() + ".json");
+  }
+
+  /**
+   * @return the key for an entry, or absent if an input is missing or a glob pattern reaches
+   *     outside of the build file's directory.
+   */
+  private Optional<HashCode> computeKey(
+      Path buildFile,
+      ImmutableMap<String, String> environment,
+      Iterable<String> defaultIncludes,
+      List<Path> files,
+      List<String> globs) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putString(BuckVersion.getVersion(), UTF_8);
+    hasher.putString(buildFile.toString(), UTF_8);
+    for (Map.Entry<String, String> entry :
+             ImmutableSortedMap.copyOf(environment).entrySet()) {
+      hasher.putString(entry.getKey(), UTF_8);
+      hasher.putByte((byte) 0);
+      hasher.putString(entry.getValue(), UTF_8);
+      hasher.putByte((byte) 0);
+    }
+    for (String include : defaultIncludes) {
+      hasher.putString(include, UTF_8);
+      hasher.putByte((byte) 0);
+    }
+    for (Path file : files) {
+      HashCode contents;
+      try {
+        contents = Hashing.sha1().hashBytes(Files.readAllBytes(file));
+      } catch (NoSuchFileException e) {
+        return Optional.absent();
+      } catch (IOException e) {
+        LOG.debug(e, "Could not read %s while computing persistent parse cache key.", file);
+        return Optional.absent();
+      }
+      hasher.putString(file.toString(), UTF_8);
+      hasher.putBytes(contents.asBytes());
+    }
+    if (!globs.isEmpty()) {
+      Optional<Integer> depth = getGlobDepth(globs);
+      if (!depth.isPresent()) {
+        LOG.verbose("Not caching %s since its globs reach outside of its directory.", buildFile);
+        return Optional.absent();
+      }
+      try {
+        putDirectoryListing(hasher, buildFile.getParent(), depth.get());
+      } catch (IOException e) {
+        LOG.debug(e, "Could not list the files that %s globs.", buildFile);
+        return Optional.absent();
+      }
+    }
+    return Optional.of(hasher.hash());
+  }
+
+  /**
+   * @return how many levels below the build file's directory {@code globs} can match files at,
+   *     which is unbounded for patterns containing {@code **}, or absent if a pattern can match
+   *     files outside of that directory.
+   */
+  @VisibleForTesting
+  static Optional<Integer> getGlobDepth(Iterable<String> globs) {
+    int depth = 0;
+    for (String glob : globs) {
+      if (glob.startsWith("/")) {
+        return Optional.absent();
+      }
+      List<String> segments = Splitter.on('/').omitEmptyStrings().splitToList(glob);
+      if (segments.contains("..")) {
+        return Optional.absent();
+      }
+      for (String segment : segments) {
+        if (segment.contains("**")) {
+          return Optional.of(Integer.MAX_VALUE);
+        }
+      }
+      depth = Math.max(depth, segments.size());
+    }
+    return Optional.of(depth);
+  }
+
+  /**
+   * Adds the path and type of every entry up to {@code depth} levels below {@code directory} to
+   * {@code hasher}, in a stable order. Symlinks are followed, as they are when globbing.
+   */
+  private void putDirectoryListing(Hasher hasher, final Path directory, int depth)
+      throws IOException {
+    final Path cacheDir = filesystem.resolve(CACHE_DIR);
+    final SortedMap<String, Character> entries = Maps.newTreeMap();
+    Files.walkFileTree(
+        directory,
+        EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+        depth,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            // The entries written by this cache would otherwise invalidate the ones that glob a
+            // directory above buck-out.
+            if (dir.equals(cacheDir)) {
+              return FileVisitResult.SKIP_SUBTREE;
+            }
+            entries.put(directory.relativize(dir).toString(), 'd');
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            entries.put(
+                directory.relativize(file).toString(),
+                attrs.isDirectory() ? 'd' : attrs.isRegularFile() ? 'f' : 'o');
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+            if (e instanceof FileSystemLoopException) {
+              entries.put(directory.relativize(file).toString(), 'l');
+              return FileVisitResult.CONTINUE;
+            }
+            throw e;
+          }
+        });
+    for (Map.Entry<String, Character> entry : entries.entrySet()) {
+      hasher.putString(entry.getKey(), UTF_8);
+      hasher.putChar(entry.getValue());
+    }
+  }
+}
@@ -41,6 +41,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.io.Resources;
 
 import java.io.BufferedReader;
@@ -123,7 +124,9 @@ public class ProjectBuildFileParser implements AutoCloseable {
     this.environment = environment;
     this.buckEventBus = buckEventBus;
     this.processExecutor = processExecutor;
-    this.bserDeserializer = new BserDeserializer(BserDeserializer.KeyOrdering.SORTED);
+    this.bserDeserializer = new BserDeserializer(
+        BserDeserializer.KeyOrdering.SORTED,
+        BserDeserializer.StringInterning.INTERNED);
   }
 
   public void setEnableProfiling(boolean enableProfiling) {
@@ -303,13 +306,26 @@ public class ProjectBuildFileParser implements AutoCloseable {
     buckPyStdinWriter.flush();
 
     LOG.debug("Parsing output of process %s using format %s...", buckPyProcess, buckPyOutputFormat);
-    List<Map<String, Object>> result;
+    final List<Map<String, Object>> result;
     if (buckPyOutputFormat == BuckPyOutputFormat.BSER) {
+      result = Lists.newArrayList();
       try {
-        Object deserializedValue = bserDeserializer.deserializeBserValue(
-            buckPyProcess.getInputStream());
-        Preconditions.checkState(deserializedValue instanceof List<?>);
-        result = (List<Map<String, Object>>) deserializedValue;
+        // Decode rules one at a time straight into the result, rather than materializing the
+        // whole array first and then checking and casting each element.
+        //
+        // The rules are still collected rather than handed on as they are decoded: the meta rules
+        // that say which files the build file includes come last, and both the parser's state and
+        // the persistent parse cache need them before any of the rules can be used. A build file
+        // that fails partway through must also leave none of its rules behind.
+        bserDeserializer.deserializeBserArray(
+            buckPyProcess.getInputStream(),
+            new BserDeserializer.ArrayElementHandler() {
+              @Override
+              public void handleElement(@Nullable Object element) {
+                Preconditions.checkState(element instanceof Map<?, ?>);
+                result.add((Map<String, Object>) element);
+              }
+            });
       } catch (BserDeserializer.BserEofException e) {
         LOG.warn(e, "Parser exited while decoding BSER data");
         throw new IOException("Parser exited unexpectedly", e);
@@ -72,6 +72,9 @@ class BuildFileContext(object):
         self.watchman_project_prefix = watchman_project_prefix
         self.sync_cookie_state = sync_cookie_state
         self.rules = {}
+        # The include patterns of every glob() call, which the persistent
+        # parse cache uses to tell which directories the rules depend on.
+        self.glob_includes = set()
 
 
 class IncludeContext(object):
@@ -169,6 +172,8 @@ def glob(includes, excludes=[], include_dotfiles=False, build_env=None):
     assert not isinstance(excludes, basestring), \
         "The excludes argument must be a list of strings."
 
+    build_env.glob_includes.update(includes)
+
     if not includes:
         results = []
     elif build_env.watchman_client:
@@ -534,7 +539,10 @@ class BuildFileProcessor(object):
             os.path.join(self._project_root, path),
             implicit_includes=self._implicit_includes)
         values = build_env.rules.values()
-        values.append({"__includes": [path] + sorted(build_env.includes)})
+        values.append({
+            "__includes": [path] + sorted(build_env.includes),
+            "__globs": sorted(build_env.glob_includes),
+        })
         return values
 
 
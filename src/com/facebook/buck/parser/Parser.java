@@ -30,6 +30,7 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.BuildFileParseException;
 import com.facebook.buck.json.DefaultProjectBuildFileParserFactory;
 import com.facebook.buck.json.JsonObjectHashing;
+import com.facebook.buck.json.PersistentBuildFileParseCache;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.json.ProjectBuildFileParserFactory;
 import com.facebook.buck.json.ProjectBuildFileParserOptions;
@@ -55,16 +56,20 @@ import com.facebook.buck.rules.Repository;
 import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.util.Console;
+import com.facebook.buck.util.ExceptionWithHumanReadableMessage;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.concurrent.MoreExecutors;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -84,12 +89,21 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
@@ -109,6 +123,7 @@ public class Parser {
   private final Repository repository;
   private final String buildFileName;
   private final ProjectBuildFileParserFactory buildFileParserFactory;
+  private final PersistentBuildFileParseCache persistentParseCache;
 
   /**
    * Key of the meta-rule that lists the build files executed while reading rules.
@@ -117,6 +132,12 @@ public class Parser {
    */
   private static final String INCLUDES_META_RULE = "__includes";
 
+  /**
+   * The include patterns of every glob() call made while evaluating the build file, which are
+   * stored in the same map as the {@link #INCLUDES_META_RULE}.
+   */
+  private static final String GLOBS_META_RULE = "__globs";
+
   /**
    * A map from absolute included files ({@code /jimp/BUILD_DEFS}, for example) to the build files
    * that depend on them (typically {@code /jimp/BUCK} files).
@@ -133,6 +154,14 @@ public class Parser {
    */
   private Optional<BuckEvent> parseStartEvent = Optional.absent();
 
+  /**
+   * The most recently built {@link TargetGraph} and the targets it was built for. As long as none
+   * of its nodes are invalidated, a later request for targets it already contains is answered from
+   * it without traversing the build files again.
+   */
+  @Nullable private TargetGraph lastTargetGraph;
+  private ImmutableSet<BuildTarget> lastTargetGraphRoots = ImmutableSet.of();
+
   private static final Logger LOG = Logger.get(Parser.class);
 
   private static final ConstructorArgMarshaller marshaller = new ConstructorArgMarshaller();
@@ -250,6 +279,7 @@ public class Parser {
     this.buildFileName = buildFileName;
     this.buildFileTreeCache = new BuildFileTreeCache(buildFileTreeSupplier);
     this.buildFileParserFactory = buildFileParserFactory;
+    this.persistentParseCache = new PersistentBuildFileParseCache(repository.getFilesystem());
     this.enforceBuckPackageBoundary = enforceBuckPackageBoundary;
     this.buildFileDependents = ArrayListMultimap.create();
     this.tempFilePatterns = tempFilePatterns;
@@ -297,10 +327,32 @@ public class Parser {
   }
 
   /**
+   * @return the absolute paths of the build files that {@code spec} refers to.
+   */
+  private ImmutableSet<Path> findBuildFiles(TargetNodeSpec spec)
+      throws BuildTargetException, IOException, InterruptedException {
+    ImmutableSet.Builder<Path> buildFiles = ImmutableSet.builder();
+    for (Path buildFile : spec.getBuildFileSpec().findBuildFiles(
+        repository.getFilesystem(),
+        buildFileName)) {
+
+      // Format a proper error message for non-existent build files.
+      if (!repository.getFilesystem().isFile(buildFile)) {
+        throw new MissingBuildFileException(spec, buildFile);
+      }
+
+      buildFiles.add(repository.getFilesystem().resolve(buildFile));
+    }
+    return buildFiles.build();
+  }
+
+  /**
+   * @param buildFiles the build files that {@code spec} refers to, from {@link #findBuildFiles}.
    * @return a set of {@link BuildTarget} objects that this {@link TargetNodeSpec} refers to.
    */
   private ImmutableSet<BuildTarget> resolveTargetSpec(
       TargetNodeSpec spec,
+      Iterable<Path> buildFiles,
       ParserConfig parserConfig,
       ProjectBuildFileParser buildFileParser,
       ImmutableMap<String, String> environment)
@@ -309,18 +361,11 @@ public class Parser {
     ImmutableSet.Builder<BuildTarget> targets = ImmutableSet.builder();
 
     // Iterate over the build files the given target node spec returns.
-    for (Path buildFile : spec.getBuildFileSpec().findBuildFiles(
-        repository.getFilesystem(),
-        buildFileName)) {
-
-      // Format a proper error message for non-existent build files.
-      if (!repository.getFilesystem().isFile(buildFile)) {
-        throw new MissingBuildFileException(spec, buildFile);
-      }
+    for (Path buildFile : buildFiles) {
 
       // Build up a list of all target nodes from the build file.
       List<Map<String, Object>> parsed = parseBuildFile(
-          repository.getFilesystem().resolve(buildFile),
+          buildFile,
           parserConfig,
           buildFileParser,
           environment);
@@ -355,22 +400,42 @@ public class Parser {
         eventBus);
     buildFileParser.setEnableProfiling(enableProfiling);
 
-    return resolveTargetSpec(spec, parserConfig, buildFileParser, environment);
+    return resolveTargetSpec(
+        spec,
+        findBuildFiles(spec),
+        parserConfig,
+        buildFileParser,
+        environment);
   }
 
+  /**
+   * @param parallelParse if present, used to parse all the build files that {@code specs} refer to
+   *     before they are resolved.
+   */
   private ImmutableSet<BuildTarget> resolveTargetSpecs(
       Iterable<? extends TargetNodeSpec> specs,
       ParserConfig parserConfig,
       ProjectBuildFileParser buildFileParser,
-      ImmutableMap<String, String> environment)
+      ImmutableMap<String, String> environment,
+      Optional<ParallelParse> parallelParse)
       throws BuildFileParseException, BuildTargetException, IOException, InterruptedException {
 
+    Map<TargetNodeSpec, ImmutableSet<Path>> buildFiles = Maps.newLinkedHashMap();
+    for (TargetNodeSpec spec : specs) {
+      buildFiles.put(spec, findBuildFiles(spec));
+    }
+
+    if (parallelParse.isPresent()) {
+      parallelParse.get().parseBuildFiles(Iterables.concat(buildFiles.values()));
+    }
+
     ImmutableSet.Builder<BuildTarget> targets = ImmutableSet.builder();
 
-    for (TargetNodeSpec spec : specs) {
+    for (Map.Entry<TargetNodeSpec, ImmutableSet<Path>> entry : buildFiles.entrySet()) {
       targets.addAll(
           resolveTargetSpec(
-              spec,
+              entry.getKey(),
+              entry.getValue(),
               parserConfig,
               buildFileParser,
               environment));
@@ -400,7 +465,10 @@ public class Parser {
     try (ProjectBuildFileParser buildFileParser = buildFileParserFactory.createParser(
         console,
         environment,
-        eventBus)) {
+        eventBus);
+         ParallelParse parallelParse = parserConfig.getNumParsingThreads() > 1 ?
+             new ParallelParse(parserConfig, environment, console, eventBus, enableProfiling) :
+             null) {
       buildFileParser.setEnableProfiling(enableProfiling);
 
       // Resolve the target node specs to the build targets the represent.
@@ -408,11 +476,15 @@ public class Parser {
           targetNodeSpecs,
           parserConfig,
           buildFileParser,
-          environment);
+          environment,
+          Optional.fromNullable(parallelParse));
 
       ParseEvent.Started parseStart = postParseStartEvent(buildTargets, eventBus);
 
       try {
+        if (parallelParse != null) {
+          parallelParse.parseTargets(buildTargets);
+        }
         graph = buildTargetGraph(
             buildTargets,
             parserConfig,
@@ -483,6 +555,12 @@ public class Parser {
       final ImmutableMap<String, String> environment,
       final BuckEventBus eventBus) throws IOException, InterruptedException {
 
+    ImmutableSet<BuildTarget> roots = ImmutableSet.copyOf(toExplore);
+    Optional<TargetGraph> reusableGraph = getReusableTargetGraph(roots);
+    if (reusableGraph.isPresent()) {
+      return reusableGraph.get();
+    }
+
     final MutableDirectedGraph<TargetNode<?>> graph = new MutableDirectedGraph<>();
 
     final Optional<BuckEventBus> eventBusOptional = Optional.of(eventBus);
@@ -577,12 +655,373 @@ public class Parser {
         };
 
     try {
-      traversal.traverse(toExplore);
+      traversal.traverse(roots);
     } catch (AbstractAcyclicDepthFirstPostOrderTraversal.CycleException e) {
       throw new HumanReadableException(e.getMessage());
     }
 
-    return new TargetGraph(graph);
+    TargetGraph targetGraph = new TargetGraph(graph);
+    lastTargetGraph = targetGraph;
+    lastTargetGraphRoots = roots;
+    return targetGraph;
+  }
+
+  /**
+   * @return the part of the last built {@link TargetGraph} reachable from {@code roots}, if that
+   *     graph is still valid and contains all of them.
+   */
+  private synchronized Optional<TargetGraph> getReusableTargetGraph(
+      ImmutableSet<BuildTarget> roots) {
+    TargetGraph targetGraph = lastTargetGraph;
+    if (targetGraph == null) {
+      return Optional.absent();
+    }
+    if (roots.equals(lastTargetGraphRoots)) {
+      LOG.debug("Reusing unchanged target graph.");
+      return Optional.of(targetGraph);
+    }
+    List<TargetNode<?>> rootNodes = Lists.newArrayListWithCapacity(roots.size());
+    for (BuildTarget root : roots) {
+      TargetNode<?> node = targetGraph.get(root);
+      if (node == null) {
+        return Optional.absent();
+      }
+      rootNodes.add(node);
+    }
+    LOG.debug("Reusing subgraph of unchanged target graph.");
+    return Optional.of(targetGraph.getSubgraph(rootNodes));
+  }
+
+  /**
+   * Drops the last built {@link TargetGraph} if any of {@code targets} are part of it.
+   */
+  private synchronized void invalidateLastTargetGraph(Iterable<BuildTarget> targets) {
+    TargetGraph targetGraph = lastTargetGraph;
+    if (targetGraph == null) {
+      return;
+    }
+    for (BuildTarget target : targets) {
+      if (targetGraph.get(target) != null) {
+        LOG.debug("Discarding last target graph, which contains invalidated target %s.", target);
+        lastTargetGraph = null;
+        lastTargetGraphRoots = ImmutableSet.of();
+        return;
+      }
+    }
+  }
+
+  /**
+   * The result of work done on the pool of a {@link ParallelParse}, which is applied to the
+   * {@link CachedState} by the thread that holds the parser lock.
+   */
+  private interface ParallelParseResult {
+    void apply()
+        throws BuildFileParseException, BuildTargetException, IOException, InterruptedException;
+  }
+
+  /**
+   * Parses build files using a pool of buck.py processes, and creates their target nodes on the
+   * same pool, so that {@link #resolveTargetSpec} and the serial traversal in
+   * {@link #buildTargetGraph} find every file already cached and every node already memoized.
+   * <p>
+   * Build files are handed to the pool as soon as they are known, and targets as soon as their
+   * build file has been parsed. Only the buck.py evaluation and the marshalling of raw rules into
+   * target nodes run on the pool: their results are merged into the {@link CachedState} on the
+   * calling thread, which holds the parser lock. Targets that cannot be resolved here are skipped
+   * and left to the serial traversal. Errors raised on the pool are reported on the calling thread
+   * with the target that pulled in the failing dependency, as the serial traversal would.
+   * <p>
+   * The buck.py processes are kept until the {@link ParallelParse} is closed, so that the spec
+   * resolution and the traversal of the dependencies share them.
+   */
+  private class ParallelParse implements AutoCloseable {
+
+    private final ParserConfig parserConfig;
+    private final ImmutableMap<String, String> environment;
+    private final Optional<BuckEventBus> eventBus;
+    private final BlockingQueue<ProjectBuildFileParser> buildFileParsers;
+    private final List<ProjectBuildFileParser> allBuildFileParsers;
+    private final ExecutorService executor;
+    private final CompletionService<ParallelParseResult> completionService;
+
+    public ParallelParse(
+        ParserConfig parserConfig,
+        ImmutableMap<String, String> environment,
+        Console console,
+        BuckEventBus eventBus,
+        boolean enableProfiling) {
+      int numThreads = parserConfig.getNumParsingThreads();
+      this.parserConfig = parserConfig;
+      this.environment = environment;
+      this.eventBus = Optional.of(eventBus);
+      this.buildFileParsers = new ArrayBlockingQueue<>(numThreads);
+      this.allBuildFileParsers = Lists.newArrayList();
+      for (int i = 0; i < numThreads; i++) {
+        ProjectBuildFileParser buildFileParser = buildFileParserFactory.createParser(
+            console,
+            environment,
+            eventBus);
+        buildFileParser.setEnableProfiling(enableProfiling);
+        allBuildFileParsers.add(buildFileParser);
+        buildFileParsers.add(buildFileParser);
+      }
+      this.executor = MoreExecutors.newMultiThreadExecutor(
+          Parser.class.getSimpleName(),
+          numThreads);
+      this.completionService = new ExecutorCompletionService<>(executor);
+    }
+
+    /**
+     * Parses {@code buildFiles} and creates the target nodes of every target that they define,
+     * without following the dependencies of those targets.
+     */
+    public void parseBuildFiles(Iterable<Path> buildFiles)
+        throws BuildFileParseException, BuildTargetException, IOException, InterruptedException {
+      run(buildFiles, ImmutableList.<BuildTarget>of(), /* followDeps */ false);
+    }
+
+    /**
+     * Creates the target nodes of {@code roots} and of everything that they depend on, parsing the
+     * build files that define them.
+     */
+    public void parseTargets(Iterable<BuildTarget> roots)
+        throws BuildFileParseException, BuildTargetException, IOException, InterruptedException {
+      run(ImmutableList.<Path>of(), roots, /* followDeps */ true);
+    }
+
+    private void run(
+        Iterable<Path> buildFiles,
+        Iterable<BuildTarget> roots,
+        final boolean followDeps)
+        throws BuildFileParseException, BuildTargetException, IOException, InterruptedException {
+      Iterable<String> defaultIncludes = parserConfig.getDefaultIncludes();
+
+      // Targets whose build file is still being evaluated, keyed by that build file.
+      final ListMultimap<Path, BuildTarget> waitingTargets = ArrayListMultimap.create();
+      Set<Path> submittedBuildFiles = Sets.newHashSet();
+      final Set<BuildTarget> visitedTargets = Sets.newHashSet();
+      final Deque<BuildTarget> readyTargets = new ArrayDeque<>();
+      Iterables.addAll(readyTargets, roots);
+      // The first target found to depend on each target, for error messages.
+      final Map<BuildTarget, BuildTarget> dependents = Maps.newHashMap();
+      int inFlight = 0;
+
+      for (Path buildFile : buildFiles) {
+        if (isCached(buildFile, defaultIncludes, environment)) {
+          addDefinedTargets(state.getRawRules(buildFile), readyTargets);
+        } else if (submittedBuildFiles.add(buildFile)) {
+          submitBuildFile(
+              buildFile,
+              waitingTargets,
+              visitedTargets,
+              readyTargets,
+              dependents,
+              true);
+          inFlight++;
+        }
+      }
+
+      while (true) {
+        while (!readyTargets.isEmpty()) {
+          final BuildTarget target = readyTargets.pop();
+          if (!visitedTargets.add(target) || target.getRepository().isPresent()) {
+            continue;
+          }
+
+          final Path buildFile;
+          try {
+            buildFile = repository.getAbsolutePathToBuildFile(target);
+          } catch (Repository.MissingBuildFileException e) {
+            continue;
+          }
+
+          if (isCached(buildFile, defaultIncludes, environment)) {
+            TargetNode<?> node = state.getIfMemoized(target);
+            if (node != null) {
+              if (followDeps) {
+                addDeps(node, readyTargets, dependents);
+              }
+              continue;
+            }
+
+            ImmutableList<Map<String, Object>> rawRules =
+                state.getRawRulesDefining(buildFile, target);
+            if (rawRules.size() != 1) {
+              // Missing and duplicate definitions are reported by the serial traversal.
+              continue;
+            }
+            final Map<String, Object> rawRule = rawRules.get(0);
+            completionService.submit(
+                new Callable<ParallelParseResult>() {
+                  @Override
+                  public ParallelParseResult call() {
+                    final TargetNode<?> node;
+                    try {
+                      node = state.createTargetNode(target, buildFile, rawRule, eventBus);
+                    } catch (final HumanReadableException e) {
+                      return new ParallelParseResult() {
+                        @Override
+                        public void apply() {
+                          BuildTarget dependent = dependents.get(target);
+                          if (dependent == null) {
+                            throw e;
+                          }
+                          throw withDependencyContext(e, target, dependent);
+                        }
+                      };
+                    }
+                    return new ParallelParseResult() {
+                      @Override
+                      public void apply() throws IOException {
+                        state.putTargetNode(target, buildFile, rawRule, node);
+                        if (followDeps) {
+                          addDeps(node, readyTargets, dependents);
+                        }
+                      }
+                    };
+                  }
+                });
+            inFlight++;
+            continue;
+          }
+
+          waitingTargets.put(buildFile, target);
+          if (submittedBuildFiles.add(buildFile)) {
+            submitBuildFile(
+                buildFile,
+                waitingTargets,
+                visitedTargets,
+                readyTargets,
+                dependents,
+                false);
+            inFlight++;
+          }
+        }
+
+        if (inFlight == 0) {
+          break;
+        }
+
+        ParallelParseResult result;
+        try {
+          result = completionService.take().get();
+        } catch (ExecutionException e) {
+          Throwables.propagateIfInstanceOf(e.getCause(), BuildFileParseException.class);
+          Throwables.propagateIfInstanceOf(e.getCause(), InterruptedException.class);
+          throw Throwables.propagate(e.getCause());
+        }
+        inFlight--;
+        result.apply();
+      }
+    }
+
+    /**
+     * Evaluates {@code buildFile} on the pool. Once its rules have been merged, the targets that
+     * were waiting for it are retried, and so are all the targets that it defines if
+     * {@code addDefinedTargets} is set. If it fails to parse, the error names the first target
+     * that was waiting for it.
+     */
+    private void submitBuildFile(
+        final Path buildFile,
+        final ListMultimap<Path, BuildTarget> waitingTargets,
+        final Set<BuildTarget> visitedTargets,
+        final Deque<BuildTarget> readyTargets,
+        final Map<BuildTarget, BuildTarget> dependents,
+        final boolean addDefinedTargets) {
+      LOG.debug("Submitting %s file for parallel parse: %s", buildFileName, buildFile);
+      completionService.submit(
+          new Callable<ParallelParseResult>() {
+            @Override
+            public ParallelParseResult call() throws InterruptedException {
+              ProjectBuildFileParser buildFileParser = buildFileParsers.take();
+              final List<Map<String, Object>> rules;
+              try {
+                rules = getAllRulesAndMetaRules(
+                    buildFile,
+                    parserConfig,
+                    buildFileParser,
+                    environment);
+              } catch (final BuildFileParseException | HumanReadableException e) {
+                return new ParallelParseResult() {
+                  @Override
+                  public void apply() throws BuildFileParseException {
+                    List<BuildTarget> targets = waitingTargets.get(buildFile);
+                    if (!targets.isEmpty() && dependents.containsKey(targets.get(0))) {
+                      BuildTarget target = targets.get(0);
+                      throw withDependencyContext(e, target, dependents.get(target));
+                    }
+                    Throwables.propagateIfInstanceOf(e, BuildFileParseException.class);
+                    throw (HumanReadableException) e;
+                  }
+                };
+              } finally {
+                buildFileParsers.add(buildFileParser);
+              }
+              return new ParallelParseResult() {
+                @Override
+                public void apply()
+                    throws BuildTargetException, IOException, InterruptedException {
+                  parseRawRulesInternal(rules);
+                  for (BuildTarget waitingTarget : waitingTargets.removeAll(buildFile)) {
+                    visitedTargets.remove(waitingTarget);
+                    readyTargets.add(waitingTarget);
+                  }
+                  if (addDefinedTargets) {
+                    addDefinedTargets(rules, readyTargets);
+                  }
+                }
+              };
+            }
+          });
+    }
+
+    private void addDeps(
+        TargetNode<?> node,
+        Deque<BuildTarget> readyTargets,
+        Map<BuildTarget, BuildTarget> dependents) {
+      for (BuildTarget dep : node.getDeps()) {
+        if (!dependents.containsKey(dep)) {
+          dependents.put(dep, node.getBuildTarget());
+        }
+        readyTargets.add(dep);
+      }
+    }
+
+    /**
+     * Adds the target that depends on {@code target} to the message of {@code e}, in the form
+     * used by {@link #buildTargetGraph}.
+     */
+    private <E extends Exception & ExceptionWithHumanReadableMessage>
+        HumanReadableException withDependencyContext(
+            E e,
+            BuildTarget target,
+            BuildTarget dependent) {
+      return new HumanReadableException(
+          e,
+          "Couldn't get dependency '%s' of target '%s':\n%s",
+          target,
+          dependent,
+          e.getHumanReadableErrorMessage());
+    }
+
+    private void addDefinedTargets(
+        Iterable<Map<String, Object>> rules,
+        Deque<BuildTarget> readyTargets) {
+      for (Map<String, Object> map : rules) {
+        if (!isMetaRule(map)) {
+          readyTargets.add(parseBuildTargetFromRawRule(map));
+        }
+      }
+    }
+
+    @Override
+    public void close() throws BuildFileParseException, InterruptedException {
+      executor.shutdownNow();
+      MoreExecutors.shutdown(executor);
+      for (ProjectBuildFileParser buildFileParser : allBuildFileParsers) {
+        buildFileParser.close();
+      }
+    }
   }
 
   private synchronized void parseBuildFileContainingTarget(
@@ -643,13 +1082,62 @@ public class Parser {
 
     if (!isCached(buildFile, parserConfig.getDefaultIncludes(), environment)) {
       LOG.debug("Parsing %s file: %s", buildFileName, buildFile);
-      parseRawRulesInternal(buildFileParser.getAllRulesAndMetaRules(buildFile));
+      parseRawRulesInternal(
+          getAllRulesAndMetaRules(buildFile, parserConfig, buildFileParser, environment));
     } else {
       LOG.debug("Not parsing %s file (already in cache)", buildFileName);
     }
     return state.getRawRules(buildFile);
   }
 
+  /**
+   * Evaluates {@code buildFile}, consulting the {@link PersistentBuildFileParseCache} first if it
+   * is enabled.  This does not touch the {@link CachedState}, so it is safe to call without
+   * holding the parser lock.
+   *
+   * @return the raw rules and meta rules defined by {@code buildFile}.
+   */
+  private List<Map<String, Object>> getAllRulesAndMetaRules(
+      Path buildFile,
+      ParserConfig parserConfig,
+      ProjectBuildFileParser buildFileParser,
+      ImmutableMap<String, String> environment)
+      throws BuildFileParseException, InterruptedException {
+    if (!parserConfig.getUsePersistentParseCache()) {
+      return buildFileParser.getAllRulesAndMetaRules(buildFile);
+    }
+
+    Iterable<String> defaultIncludes = parserConfig.getDefaultIncludes();
+    Optional<List<Map<String, Object>>> cached =
+        persistentParseCache.get(buildFile, environment, defaultIncludes);
+    if (cached.isPresent()) {
+      LOG.debug("Read %s file from persistent parse cache: %s", buildFileName, buildFile);
+      return cached.get();
+    }
+
+    List<Map<String, Object>> rules = buildFileParser.getAllRulesAndMetaRules(buildFile);
+    ImmutableList.Builder<Path> files = ImmutableList.builder();
+    ImmutableList.Builder<String> globs = ImmutableList.builder();
+    for (Map<String, Object> map : rules) {
+      if (isMetaRule(map)) {
+        for (Object fileName : (List<?>) Preconditions.checkNotNull(map.get(INCLUDES_META_RULE))) {
+          files.add(normalize(Paths.get((String) fileName)));
+        }
+        for (Object glob : (List<?>) Preconditions.checkNotNull(map.get(GLOBS_META_RULE))) {
+          globs.add((String) glob);
+        }
+      }
+    }
+    persistentParseCache.put(
+        buildFile,
+        environment,
+        defaultIncludes,
+        files.build(),
+        globs.build(),
+        rules);
+    return rules;
+  }
+
   /**
    * @param rules the raw rule objects to parse.
    */
@@ -992,6 +1480,8 @@ public class Parser {
       targetsToFile.clear();
       pathsToBuildTargets.clear();
       buildTargetHashCodeCache.invalidateAll();
+      lastTargetGraph = null;
+      lastTargetGraphRoots = ImmutableSet.of();
     }
 
     @Override
@@ -1082,6 +1572,7 @@ public class Parser {
       for (BuildTarget target : targetsToRemove) {
         memoizedTargetNodes.remove(target);
       }
+      invalidateLastTargetGraph(targetsToRemove);
       buildTargetHashCodeCache.invalidateAll(targetsToRemove);
       pathsToBuildTargets.removeAll(path);
 
@@ -1125,7 +1616,6 @@ public class Parser {
     }
 
     @Nullable
-    @SuppressWarnings({"rawtypes", "unchecked"})
     public TargetNode<?> get(
         BuildTarget buildTarget,
         Optional<BuckEventBus> eventBus) throws IOException, InterruptedException {
@@ -1147,118 +1637,156 @@ public class Parser {
       } catch (Repository.MissingBuildFileException e) {
         throw new HumanReadableException(e);
       }
-      UnflavoredBuildTarget unflavored = buildTarget.getUnflavoredBuildTarget();
-      List<Map<String, Object>> rules = state.getRawRules(buildFilePath);
-      for (Map<String, Object> map : rules) {
+      for (Map<String, Object> map : getRawRulesDefining(buildFilePath, buildTarget)) {
+        TargetNode<?> targetNode = createTargetNode(buildTarget, buildFilePath, map, eventBus);
+        putTargetNode(buildTarget, buildFilePath, map, targetNode);
+      }
 
-        if (!buildTarget.getShortName().equals(map.get("name"))) {
-          continue;
-        }
+      return memoizedTargetNodes.get(buildTarget);
+    }
 
-        BuildRuleType buildRuleType = parseBuildRuleTypeFromRawRule(map);
-        targetsToFile.put(
-            BuildTarget.of(unflavored),
-            normalize(Paths.get((String) map.get("buck.base_path")))
-                .resolve(buildFile).toAbsolutePath());
+    @Nullable
+    public TargetNode<?> getIfMemoized(BuildTarget buildTarget) {
+      return memoizedTargetNodes.get(buildTarget);
+    }
 
-        Description<?> description = repository.getDescription(buildRuleType);
-        if (description == null) {
-          throw new HumanReadableException("Unrecognized rule %s while parsing %s%s.",
-              buildRuleType,
-              UnflavoredBuildTarget.BUILD_TARGET_PREFIX,
-              MorePaths.pathWithUnixSeparators(unflavored.getBasePath().resolve(buildFile)));
+    /**
+     * @return the raw rules in the parsed {@code buildFilePath} that define {@code buildTarget}.
+     *     There is more than one if the target is defined more than once.
+     */
+    public ImmutableList<Map<String, Object>> getRawRulesDefining(
+        Path buildFilePath,
+        BuildTarget buildTarget) {
+      ImmutableList.Builder<Map<String, Object>> matchingRules = ImmutableList.builder();
+      for (Map<String, Object> map : getRawRules(buildFilePath)) {
+        if (buildTarget.getShortName().equals(map.get("name"))) {
+          matchingRules.add(map);
         }
+      }
+      return matchingRules.build();
+    }
 
-        if (buildTarget.isFlavored()) {
-          if (description instanceof Flavored) {
-            if (!((Flavored) description).hasFlavors(
-                    ImmutableSet.copyOf(buildTarget.getFlavors()))) {
-              throw new HumanReadableException(
-                  "Unrecognized flavor in target %s while parsing %s%s.",
-                  buildTarget,
-                  UnflavoredBuildTarget.BUILD_TARGET_PREFIX,
-                  MorePaths.pathWithUnixSeparators(
-                      buildTarget.getBasePath().resolve(buildFile)));
-            }
-          } else {
-            LOG.warn(
-                "Target %s (type %s) must implement the Flavored interface " +
-                "before we can check if it supports flavors: %s",
-                buildTarget.getUnflavoredBuildTarget(),
-                buildRuleType,
-                buildTarget.getFlavors());
-            throw new HumanReadableException(
-                "Target %s (type %s) does not currently support flavors (tried %s)",
-                buildTarget.getUnflavoredBuildTarget(),
-                buildRuleType,
-                buildTarget.getFlavors());
-          }
-        }
+    /**
+     * Marshals {@code map} into the constructor arg of its {@link Description} and creates the
+     * {@link TargetNode} for {@code buildTarget}.
+     * <p>
+     * This reads no cached state, so it may be called without holding the parser lock. The result
+     * must be recorded with {@link #putTargetNode} by a thread that does hold it.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public TargetNode<?> createTargetNode(
+        BuildTarget buildTarget,
+        Path buildFilePath,
+        Map<String, Object> map,
+        Optional<BuckEventBus> eventBus) {
+      UnflavoredBuildTarget unflavored = buildTarget.getUnflavoredBuildTarget();
+      BuildRuleType buildRuleType = parseBuildRuleTypeFromRawRule(map);
+      Description<?> description = repository.getDescription(buildRuleType);
+      if (description == null) {
+        throw new HumanReadableException("Unrecognized rule %s while parsing %s%s.",
+            buildRuleType,
+            UnflavoredBuildTarget.BUILD_TARGET_PREFIX,
+            MorePaths.pathWithUnixSeparators(unflavored.getBasePath().resolve(buildFile)));
+      }
 
-        this.pathsToBuildTargets.put(buildFilePath, buildTarget);
-
-        BuildRuleFactoryParams factoryParams = new BuildRuleFactoryParams(
-            targetRepo.getFilesystem(),
-            // Although we store the rule by its unflavoured name, when we construct it, we need the
-            // flavour.
-            buildTarget,
-            buildFileTreeCache.get(),
-            enforceBuckPackageBoundary);
-        Object constructorArg = description.createUnpopulatedConstructorArg();
-        TargetNode<?> targetNode;
-        try {
-          ImmutableSet.Builder<BuildTarget> declaredDeps = ImmutableSet.builder();
-          ImmutableSet.Builder<BuildTargetPattern> visibilityPatterns = ImmutableSet.builder();
-          try (SimplePerfEvent.Scope scope = SimplePerfEvent.scope(
-              eventBus, PerfEventId.of("MarshalledConstructorArg"),
-              "target", buildTarget)) {
-            marshaller.populate(
-                targetRepo.getFilesystem(),
-                factoryParams,
-                constructorArg,
-                declaredDeps,
-                visibilityPatterns,
-                map);
-          }
-          try (SimplePerfEvent.Scope scope = SimplePerfEvent.scope(
-              eventBus, PerfEventId.of("CreatedTargetNode"),
-              "target", buildTarget)) {
-            targetNode = new TargetNode(
-                description,
-                constructorArg,
-                factoryParams,
-                declaredDeps.build(),
-                visibilityPatterns.build());
+      if (buildTarget.isFlavored()) {
+        if (description instanceof Flavored) {
+          if (!((Flavored) description).hasFlavors(
+                  ImmutableSet.copyOf(buildTarget.getFlavors()))) {
+            throw new HumanReadableException(
+                "Unrecognized flavor in target %s while parsing %s%s.",
+                buildTarget,
+                UnflavoredBuildTarget.BUILD_TARGET_PREFIX,
+                MorePaths.pathWithUnixSeparators(
+                    buildTarget.getBasePath().resolve(buildFile)));
           }
-        } catch (NoSuchBuildTargetException | TargetNode.InvalidSourcePathInputException e) {
-          throw new HumanReadableException(e);
-        } catch (ConstructorArgMarshalException e) {
-          throw new HumanReadableException("%s: %s", buildTarget, e.getMessage());
+        } else {
+          LOG.warn(
+              "Target %s (type %s) must implement the Flavored interface " +
+              "before we can check if it supports flavors: %s",
+              buildTarget.getUnflavoredBuildTarget(),
+              buildRuleType,
+              buildTarget.getFlavors());
+          throw new HumanReadableException(
+              "Target %s (type %s) does not currently support flavors (tried %s)",
+              buildTarget.getUnflavoredBuildTarget(),
+              buildRuleType,
+              buildTarget.getFlavors());
         }
+      }
 
-        Map<Path, Path> newSymlinksEncountered = Maps.newHashMap();
-        if (inputFilesUnderSymlink(
-                targetNode.getInputs(),
-                targetRepo.getFilesystem(),
-                symlinkExistenceCache,
-                newSymlinksEncountered)) {
-          LOG.warn(
-              "Disabling caching for target %s, because one or more input files are under a " +
-              "symbolic link (%s). This will severely impact performance! To resolve this, use " +
-              "separate rules and declare dependencies instead of using symbolic links.",
-              targetNode.getBuildTarget(),
-              newSymlinksEncountered);
-          buildInputPathsUnderSymlink.add(buildFilePath);
+      BuildRuleFactoryParams factoryParams = new BuildRuleFactoryParams(
+          repository.getFilesystem(),
+          // Although we store the rule by its unflavoured name, when we construct it, we need the
+          // flavour.
+          buildTarget,
+          buildFileTreeCache.get(),
+          enforceBuckPackageBoundary);
+      Object constructorArg = description.createUnpopulatedConstructorArg();
+      try {
+        ImmutableSet.Builder<BuildTarget> declaredDeps = ImmutableSet.builder();
+        ImmutableSet.Builder<BuildTargetPattern> visibilityPatterns = ImmutableSet.builder();
+        try (SimplePerfEvent.Scope scope = SimplePerfEvent.scope(
+            eventBus, PerfEventId.of("MarshalledConstructorArg"),
+            "target", buildTarget)) {
+          marshaller.populate(
+              repository.getFilesystem(),
+              factoryParams,
+              constructorArg,
+              declaredDeps,
+              visibilityPatterns,
+              map);
         }
-        TargetNode<?> existingTargetNode = memoizedTargetNodes.put(buildTarget, targetNode);
-        if (existingTargetNode != null) {
-          throw new HumanReadableException("Duplicate definition for " + unflavored);
+        try (SimplePerfEvent.Scope scope = SimplePerfEvent.scope(
+            eventBus, PerfEventId.of("CreatedTargetNode"),
+            "target", buildTarget)) {
+          return new TargetNode(
+              description,
+              constructorArg,
+              factoryParams,
+              declaredDeps.build(),
+              visibilityPatterns.build());
         }
-
-        // PMD considers it bad form to return while in a loop.
+      } catch (NoSuchBuildTargetException | TargetNode.InvalidSourcePathInputException e) {
+        throw new HumanReadableException(e);
+      } catch (ConstructorArgMarshalException e) {
+        throw new HumanReadableException("%s: %s", buildTarget, e.getMessage());
       }
+    }
 
-      return memoizedTargetNodes.get(buildTarget);
+    /**
+     * Records a {@link TargetNode} created by {@link #createTargetNode} from {@code map}.
+     */
+    public void putTargetNode(
+        BuildTarget buildTarget,
+        Path buildFilePath,
+        Map<String, Object> map,
+        TargetNode<?> targetNode) throws IOException {
+      UnflavoredBuildTarget unflavored = buildTarget.getUnflavoredBuildTarget();
+      targetsToFile.put(
+          BuildTarget.of(unflavored),
+          normalize(Paths.get((String) map.get("buck.base_path")))
+              .resolve(buildFile).toAbsolutePath());
+      this.pathsToBuildTargets.put(buildFilePath, buildTarget);
+
+      Map<Path, Path> newSymlinksEncountered = Maps.newHashMap();
+      if (inputFilesUnderSymlink(
+              targetNode.getInputs(),
+              repository.getFilesystem(),
+              symlinkExistenceCache,
+              newSymlinksEncountered)) {
+        LOG.warn(
+            "Disabling caching for target %s, because one or more input files are under a " +
+            "symbolic link (%s). This will severely impact performance! To resolve this, use " +
+            "separate rules and declare dependencies instead of using symbolic links.",
+            targetNode.getBuildTarget(),
+            newSymlinksEncountered);
+        buildInputPathsUnderSymlink.add(buildFilePath);
+      }
+      TargetNode<?> existingTargetNode = memoizedTargetNodes.put(buildTarget, targetNode);
+      if (existingTargetNode != null) {
+        throw new HumanReadableException("Duplicate definition for " + unflavored);
+      }
     }
 
     public synchronized void cleanCache() {
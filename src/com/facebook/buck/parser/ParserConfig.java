@@ -33,6 +33,7 @@ public class ParserConfig {
   public static final String DEFAULT_BUILD_FILE_NAME = "BUCK";
   public static final String BUILDFILE_SECTION_NAME = "buildfile";
   public static final String INCLUDES_PROPERTY_NAME = "includes";
+  public static final int DEFAULT_NUM_PARSING_THREADS = 1;
 
   public enum GlobHandler {
     PYTHON,
@@ -91,6 +92,25 @@ public class ParserConfig {
         .toSet();
   }
 
+  /**
+   * @return the number of buck.py processes used to evaluate build files concurrently. A value of
+   *     one keeps the original, strictly serial parse.
+   */
+  public int getNumParsingThreads() {
+    return Math.max(
+        1,
+        delegate.getLong("project", "parsing_threads").or((long) DEFAULT_NUM_PARSING_THREADS)
+            .intValue());
+  }
+
+  /**
+   * @return whether the raw rules of build files should be persisted under {@code buck-out} and
+   *     reused across daemon restarts and non-daemon runs while their inputs are unchanged.
+   */
+  public boolean getUsePersistentParseCache() {
+    return delegate.getBooleanValue("project", "persistent_parse_cache", false);
+  }
+
   public GlobHandler getGlobHandler() {
     return delegate.getEnum("project", "glob_handler", GlobHandler.class).or(GlobHandler.PYTHON);
   }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.rules;
+
+import com.facebook.buck.util.immutables.BuckStyleImmutable;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import org.immutables.value.Value;
+
+/**
+ * How one of the caches that make up the {@link ArtifactCache} of a build did during the build.
+ * Latencies are per request, so a multi-fetch of several artifacts counts once.
+ */
+@Value.Immutable
+@BuckStyleImmutable
+abstract class AbstractArtifactCacheLayerReport {
+
+  /** The name of the cache, such as {@code dir} or {@code http}. */
+  @JsonProperty("name") public abstract String getName();
+
+  /** How many artifacts were looked up. */
+  @JsonProperty("fetches") public abstract int getFetches();
+
+  @JsonProperty("hits") public abstract int getHits();
+
+  @JsonProperty("misses") public abstract int getMisses();
+
+  @JsonProperty("errors") public abstract int getErrors();
+
+  @JsonProperty("bytesFetched") public abstract long getBytesFetched();
+
+  @JsonProperty("fetchP50Millis") public abstract double getFetchP50Millis();
+
+  @JsonProperty("fetchP95Millis") public abstract double getFetchP95Millis();
+
+  @JsonProperty("fetchP99Millis") public abstract double getFetchP99Millis();
+
+  /** How many artifacts were stored. */
+  @JsonProperty("stores") public abstract int getStores();
+
+  @JsonProperty("bytesStored") public abstract long getBytesStored();
+
+  @JsonProperty("storeP50Millis") public abstract double getStoreP50Millis();
+
+  @JsonProperty("storeP95Millis") public abstract double getStoreP95Millis();
+
+  @JsonProperty("storeP99Millis") public abstract double getStoreP99Millis();
+
+  /**
+   * @return the share of the artifacts looked up that were hits, or zero if none were.
+   */
+  @JsonProperty("hitRate")
+  public double getHitRate() {
+    return getFetches() == 0 ? 0 : (double) getHits() / getFetches();
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.rules;
+
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.immutables.BuckStyleImmutable;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+
+import org.immutables.value.Value;
+
+import java.nio.file.Path;
+
+/**
+ * What the artifact cache did during a build, cache by cache.
+ */
+@Value.Immutable
+@BuckStyleImmutable
+abstract class AbstractArtifactCacheReport {
+
+  /** Where the report of the last build is written, relative to the project root. */
+  public static final Path PATH = BuckConstant.LOG_PATH.resolve("cache_report.json");
+
+  @JsonProperty("layers") public abstract ImmutableList<ArtifactCacheLayerReport> getLayers();
+
+  /** The time spent zipping up artifacts to store them. */
+  @JsonProperty("compressMillis") public abstract long getCompressMillis();
+
+  /**
+   * The time spent unpacking artifacts that had been fetched to disk. Artifacts that are unpacked
+   * as they are downloaded count towards the fetch latency instead.
+   */
+  @JsonProperty("decompressMillis") public abstract long getDecompressMillis();
+
+  /**
+   * The rules that missed the cache, but whose outputs turned out to be cached already under
+   * another rule key. Their rule keys likely depend on something that does not affect their
+   * outputs.
+   */
+  @JsonProperty("missesWithCachedOutputs")
+  public abstract ImmutableList<String> getMissesWithCachedOutputs();
+}
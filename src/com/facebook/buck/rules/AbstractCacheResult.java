@@ -17,6 +17,7 @@
 package com.facebook.buck.rules;
 
 import com.facebook.buck.util.immutables.BuckStyleImmutable;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -59,6 +60,13 @@ abstract class AbstractCacheResult {
   @Value.Parameter
   @JsonProperty("metadata") protected abstract Optional<ImmutableMap<String, String>> metadata();
 
+  /**
+   * The size of the artifact as it was read from the cache, for hits from caches that know it.
+   * Only the cache report uses it, so it is left out of the serialized events.
+   */
+  @JsonIgnore
+  public abstract Optional<Long> getArtifactSizeBytes();
+
   public String getCacheSource() {
     Preconditions.checkState(getType() == Type.HIT || getType() == Type.ERROR);
     return cacheSource().get();
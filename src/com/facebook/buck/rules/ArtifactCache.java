@@ -16,6 +16,8 @@
 
 package com.facebook.buck.rules;
 
+import com.facebook.buck.io.ProjectFilesystem;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
@@ -34,6 +36,48 @@ public interface ArtifactCache extends Closeable {
    */
   CacheResult fetch(RuleKey ruleKey, Path output) throws InterruptedException;
 
+  /**
+   * Fetch a cached artifact, keyed by ruleKey, and unpack it into the root of {@code filesystem}
+   * as it is read, rather than saving it to a file and unzipping that afterwards.
+   *
+   * @param ruleKey cache fetch key
+   * @param filesystem the filesystem to unpack the artifact into
+   * @param copyTo if present, the artifact is also saved to this path, so that it can be stored in
+   *     other caches
+   * @param unchangedFiles which of the artifact's files are already in {@code filesystem}, and
+   *     should be left as they are
+   * @return whether it was a {@link AbstractCacheResult.Type#MISS} (indicating a failure) or some
+   *     type of hit.
+   */
+  CacheResult fetchAndExtract(
+      RuleKey ruleKey,
+      ProjectFilesystem filesystem,
+      Optional<Path> copyTo,
+      UnchangedFileFilter unchangedFiles)
+      throws InterruptedException;
+
+  /**
+   * Find out which of several artifacts are cached, without fetching any of them. Caches that
+   * have to make a round trip per lookup should answer with as few round trips as they can.
+   *
+   * @param ruleKeys cache fetch keys
+   * @return a {@link AbstractCacheResult.Type#HIT}, {@link AbstractCacheResult.Type#MISS} or
+   *     {@link AbstractCacheResult.Type#ERROR} for each of {@code ruleKeys}. Hits carry no
+   *     metadata.
+   */
+  ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys)
+      throws InterruptedException;
+
+  /**
+   * Fetch several cached artifacts at once, as if by calling {@link #fetch(RuleKey, Path)} for
+   * each of them.
+   *
+   * @param outputs the path to save the artifact of each key to
+   * @return the result of fetching each key in {@code outputs}.
+   */
+  ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, Path> outputs)
+      throws InterruptedException;
+
   /**
    * Store the artifact at path specified by output to cache, such that it can later be fetched
    * using ruleKey as the lookup key.  If any internal errors occur, fail silently and continue
@@ -53,4 +97,10 @@ public interface ArtifactCache extends Closeable {
    * @return whether this{@link ArtifactCache} supports storing artifacts.
    */
   boolean isStoreSupported();
+
+  /**
+   * @return how the files in an artifact should be compressed when it is zipped up to be passed
+   *     to {@link #store(ImmutableSet, ImmutableMap, Path)}.
+   */
+  ArtifactCompression getCompression();
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Events about what a single cache, such as the dir or the http cache, did. Unlike
+ * {@link ArtifactCacheEvent}s, which describe the artifact cache as a whole, these tell the
+ * caches apart, and are posted once an operation is over, so that they can be aggregated into an
+ * {@link ArtifactCacheReport}.
+ */
+public abstract class ArtifactCacheLayerEvent extends AbstractBuckEvent {
+
+  private final String cacheName;
+  @JsonIgnore
+  private final ImmutableSet<RuleKey> ruleKeys;
+
+  protected ArtifactCacheLayerEvent(String cacheName, ImmutableSet<RuleKey> ruleKeys) {
+    this.cacheName = cacheName;
+    this.ruleKeys = ruleKeys;
+  }
+
+  public String getCacheName() {
+    return cacheName;
+  }
+
+  public ImmutableSet<RuleKey> getRuleKeys() {
+    return ruleKeys;
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format("%s:%s", cacheName, Joiner.on(",").join(ruleKeys));
+  }
+
+  /**
+   * @param results the result for each key that was asked for in the request.
+   * @param durationNanos how long the whole request took.
+   */
+  public static Fetched fetched(
+      String cacheName,
+      ImmutableSet<RuleKey> ruleKeys,
+      ImmutableList<CacheResult> results,
+      long durationNanos) {
+    return new Fetched(cacheName, ruleKeys, results, durationNanos);
+  }
+
+  public static Stored stored(
+      String cacheName,
+      ImmutableSet<RuleKey> ruleKeys,
+      long sizeBytes,
+      long durationNanos) {
+    return new Stored(cacheName, ruleKeys, sizeBytes, durationNanos);
+  }
+
+  /**
+   * @param outputHash the {@link BuildInfo#METADATA_KEY_FOR_OUTPUT_HASH} of the artifact, whose
+   *     payload the cache already held under another rule key.
+   */
+  public static PayloadReused payloadReused(
+      String cacheName,
+      ImmutableSet<RuleKey> ruleKeys,
+      String outputHash) {
+    return new PayloadReused(cacheName, ruleKeys, outputHash);
+  }
+
+  /**
+   * A request for one or more artifacts.
+   */
+  public static class Fetched extends ArtifactCacheLayerEvent {
+    private final ImmutableList<CacheResult> results;
+    private final long durationNanos;
+
+    protected Fetched(
+        String cacheName,
+        ImmutableSet<RuleKey> ruleKeys,
+        ImmutableList<CacheResult> results,
+        long durationNanos) {
+      super(cacheName, ruleKeys);
+      this.results = results;
+      this.durationNanos = durationNanos;
+    }
+
+    public ImmutableList<CacheResult> getResults() {
+      return results;
+    }
+
+    public long getDurationNanos() {
+      return durationNanos;
+    }
+
+    @Override
+    public String getEventName() {
+      return "ArtifactCacheLayerFetched";
+    }
+  }
+
+  /**
+   * An artifact that was stored under one or more rule keys.
+   */
+  public static class Stored extends ArtifactCacheLayerEvent {
+    private final long sizeBytes;
+    private final long durationNanos;
+
+    protected Stored(
+        String cacheName,
+        ImmutableSet<RuleKey> ruleKeys,
+        long sizeBytes,
+        long durationNanos) {
+      super(cacheName, ruleKeys);
+      this.sizeBytes = sizeBytes;
+      this.durationNanos = durationNanos;
+    }
+
+    public long getSizeBytes() {
+      return sizeBytes;
+    }
+
+    public long getDurationNanos() {
+      return durationNanos;
+    }
+
+    @Override
+    public String getEventName() {
+      return "ArtifactCacheLayerStored";
+    }
+  }
+
+  /**
+   * An artifact was stored whose payload the cache already had. When the rule keys it was stored
+   * under were cache misses, this suggests that the rule key changed when the outputs did not.
+   */
+  public static class PayloadReused extends ArtifactCacheLayerEvent {
+    private final String outputHash;
+
+    protected PayloadReused(String cacheName, ImmutableSet<RuleKey> ruleKeys, String outputHash) {
+      super(cacheName, ruleKeys);
+      this.outputHash = outputHash;
+    }
+
+    public String getOutputHash() {
+      return outputHash;
+    }
+
+    @Override
+    public String getEventName() {
+      return "ArtifactCacheLayerPayloadReused";
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+
+/**
+ * Carries the {@link ArtifactCacheReport} of a build once everything it stores is stored.
+ */
+public class ArtifactCacheReportEvent extends AbstractBuckEvent {
+
+  private final ArtifactCacheReport report;
+
+  public ArtifactCacheReportEvent(ArtifactCacheReport report) {
+    this.report = report;
+  }
+
+  public ArtifactCacheReport getReport() {
+    return report;
+  }
+
+  @Override
+  public String getEventName() {
+    return "ArtifactCacheReport";
+  }
+
+  @Override
+  protected String getValueString() {
+    return report.toString();
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * How the files in an artifact are compressed when it is zipped up to be stored in an
+ * {@link ArtifactCache}. Any of these can be read back by every cache, so caches that are
+ * configured differently can still share artifacts.
+ * <p>
+ * Whatever the level, files that are already compressed are stored as they are, as deflating
+ * them again costs time and saves next to nothing.
+ */
+public enum ArtifactCompression implements Function<Path, Integer> {
+
+  /** No compression, for caches where the bytes are cheaper to move than to deflate. */
+  STORED(Deflater.NO_COMPRESSION),
+  FAST(Deflater.BEST_SPEED),
+  DEFAULT(Deflater.DEFAULT_COMPRESSION),
+  BEST(Deflater.BEST_COMPRESSION),
+  ;
+
+  private static final ImmutableSet<String> COMPRESSED_EXTENSIONS = ImmutableSet.of(
+      "7z",
+      "aar",
+      "apk",
+      "bz2",
+      "gz",
+      "jar",
+      "jpeg",
+      "jpg",
+      "png",
+      "so",
+      "xz",
+      "zip");
+
+  private final int compressionLevel;
+
+  private ArtifactCompression(int compressionLevel) {
+    this.compressionLevel = compressionLevel;
+  }
+
+  /**
+   * @return the {@link Deflater} level to write {@code path} with, which is
+   *     {@link Deflater#NO_COMPRESSION} for files that are already compressed.
+   */
+  @Override
+  public Integer apply(Path path) {
+    String extension = Files.getFileExtension(path.toString()).toLowerCase(Locale.ROOT);
+    if (COMPRESSED_EXTENSIONS.contains(extension)) {
+      return Deflater.NO_COMPRESSION;
+    }
+    return compressionLevel;
+  }
+
+  /**
+   * @return whichever of {@code first} and {@code second} takes less time to write.
+   */
+  public static ArtifactCompression fastest(
+      ArtifactCompression first,
+      ArtifactCompression second) {
+    // Declared from fastest to slowest.
+    return first.compareTo(second) <= 0 ? first : second;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.LeafEvent;
+
+/**
+ * Events about uploads that go through an {@link ArtifactUploadQueue}.
+ */
+public abstract class ArtifactUploadEvent extends AbstractBuckEvent implements LeafEvent {
+
+  private final long sizeBytes;
+
+  protected ArtifactUploadEvent(long sizeBytes) {
+    this.sizeBytes = sizeBytes;
+  }
+
+  /**
+   * @return the estimated size of the artifact, before it is compressed.
+   */
+  public long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  @Override
+  public String getCategory() {
+    return "artifact_upload";
+  }
+
+  @Override
+  public String getValueString() {
+    return String.valueOf(sizeBytes);
+  }
+
+  public static Scheduled scheduled(long sizeBytes) {
+    return new Scheduled(sizeBytes);
+  }
+
+  public static Dropped dropped(long sizeBytes) {
+    return new Dropped(sizeBytes);
+  }
+
+  public static Finished finished(Scheduled scheduled) {
+    return new Finished(scheduled);
+  }
+
+  public static class Scheduled extends ArtifactUploadEvent {
+    public Scheduled(long sizeBytes) {
+      super(sizeBytes);
+    }
+
+    @Override
+    public String getEventName() {
+      return "ArtifactUploadScheduled";
+    }
+  }
+
+  public static class Dropped extends ArtifactUploadEvent {
+    public Dropped(long sizeBytes) {
+      super(sizeBytes);
+    }
+
+    @Override
+    public String getEventName() {
+      return "ArtifactUploadDropped";
+    }
+  }
+
+  public static class Finished extends ArtifactUploadEvent {
+    public Finished(Scheduled scheduled) {
+      super(scheduled.getSizeBytes());
+      chain(scheduled);
+    }
+
+    @Override
+    public String getEventName() {
+      return "ArtifactUploadFinished";
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Runs artifact cache uploads on a dedicated thread pool, so that zipping and storing the outputs
+ * of a rule does not hold up the threads that are building other rules.
+ * <p>
+ * The total estimated size of the uploads that are queued or running is bounded. An upload that
+ * would exceed the bound is handled according to the {@link FullQueuePolicy}. An upload that is
+ * larger than the bound on its own is still accepted once the queue is empty.
+ * <p>
+ * Closing the queue waits for every queued upload to finish, so uploads keep draining after the
+ * build itself is done.
+ */
+public class ArtifactUploadQueue implements Closeable {
+
+  public enum FullQueuePolicy {
+    /** Block the caller until enough earlier uploads have finished. */
+    WAIT,
+    /** Skip the upload. */
+    DROP,
+  }
+
+  private static final Logger LOG = Logger.get(ArtifactUploadQueue.class);
+
+  private final BuckEventBus eventBus;
+  private final long maxQueuedBytes;
+  private final FullQueuePolicy fullQueuePolicy;
+  private final ExecutorService service;
+
+  @GuardedBy("this")
+  private long queuedBytes;
+
+  public ArtifactUploadQueue(
+      BuckEventBus eventBus,
+      int threads,
+      long maxQueuedBytes,
+      FullQueuePolicy fullQueuePolicy) {
+    Preconditions.checkArgument(threads > 0);
+    Preconditions.checkArgument(maxQueuedBytes > 0);
+    this.eventBus = eventBus;
+    this.maxQueuedBytes = maxQueuedBytes;
+    this.fullQueuePolicy = fullQueuePolicy;
+    this.service = MoreExecutors.newMultiThreadExecutor("ArtifactUpload", threads);
+  }
+
+  /**
+   * Queues {@code upload}, which is expected to handle its own errors.
+   *
+   * @param sizeBytes the estimated size of the artifact that {@code upload} stores.
+   * @return whether the upload was queued, rather than dropped because the queue was full or the
+   *     calling thread was interrupted while waiting for room, in which case its interrupt flag is
+   *     set again.
+   */
+  public boolean enqueue(final long sizeBytes, final Runnable upload) {
+    try {
+      if (!reserve(sizeBytes)) {
+        LOG.debug("Upload queue is full, dropping an upload of %d bytes.", sizeBytes);
+        eventBus.post(ArtifactUploadEvent.dropped(sizeBytes));
+        return false;
+      }
+    } catch (InterruptedException e) {
+      LOG.warn("Interrupted while waiting for room in the upload queue, dropping an upload of " +
+          "%d bytes.", sizeBytes);
+      eventBus.post(ArtifactUploadEvent.dropped(sizeBytes));
+      Thread.currentThread().interrupt();
+      return false;
+    }
+
+    final ArtifactUploadEvent.Scheduled scheduled = ArtifactUploadEvent.scheduled(sizeBytes);
+    eventBus.post(scheduled);
+    service.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              upload.run();
+            } finally {
+              release(sizeBytes);
+              eventBus.post(ArtifactUploadEvent.finished(scheduled));
+            }
+          }
+        });
+    return true;
+  }
+
+  private synchronized boolean reserve(long sizeBytes) throws InterruptedException {
+    while (queuedBytes > 0 && queuedBytes + sizeBytes > maxQueuedBytes) {
+      if (fullQueuePolicy == FullQueuePolicy.DROP) {
+        return false;
+      }
+      wait();
+    }
+    queuedBytes += sizeBytes;
+    return true;
+  }
+
+  private synchronized void release(long sizeBytes) {
+    queuedBytes -= sizeBytes;
+    notifyAll();
+  }
+
+  /**
+   * Waits for every queued upload to finish.
+   */
+  @Override
+  public void close() {
+    try {
+      MoreExecutors.shutdown(service);
+    } catch (InterruptedException e) {
+      LOG.warn("Interrupted while waiting for artifact uploads to finish.");
+      Thread.currentThread().interrupt();
+    }
+  }
+}
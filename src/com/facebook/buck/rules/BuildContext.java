@@ -30,6 +30,7 @@ import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.immutables.DeprecatedBuckStyleImmutable;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
@@ -85,6 +86,13 @@ public abstract class BuildContext {
 
   protected abstract Clock getClock();
   public abstract ArtifactCache getArtifactCache();
+
+  /**
+   * @return the queue to run uploads to {@link #getArtifactCache()} on. If absent, uploads run on
+   *     the thread that finished building the rule.
+   */
+  public abstract Optional<ArtifactUploadQueue> getArtifactUploadQueue();
+
   public abstract JavaPackageFinder getJavaPackageFinder();
   public abstract BuckEventBus getEventBus();
 
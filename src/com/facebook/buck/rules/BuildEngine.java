@@ -27,6 +27,12 @@ import java.util.concurrent.ExecutionException;
  */
 public interface BuildEngine {
 
+  /**
+   * Lets the engine plan the work for all of {@code rules} at once before they are passed to
+   * {@link #build(BuildContext, BuildRule)}, rather than once for each of them.
+   */
+  void prepare(BuildContext context, Iterable<? extends BuildRule> rules);
+
   /**
    * Build the given build rule and return a future to the build rule success.
    */
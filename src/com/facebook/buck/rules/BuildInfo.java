@@ -72,6 +72,20 @@ class BuildInfo {
    */
   static final String METADATA_KEY_FOR_DEPS = "DEPS";
 
+  /**
+   * Key for the metadata of a cached artifact to store the SHA-1 of the bytes of its payload, the
+   * zip of the rule's outputs, which caches use to store the same payload only once. Since it
+   * covers the zip itself, it accounts for the paths, modes and compression of the outputs as
+   * well as their contents.
+   */
+  static final String METADATA_KEY_FOR_OUTPUT_HASH = "OUTPUT_HASH";
+
+  /**
+   * Key for {@link OnDiskBuildInfo} to store the hash of each of the files that a build rule
+   * recorded, as a JSON object keyed by path.
+   */
+  static final String METADATA_KEY_FOR_RECORDED_PATH_HASHES = "RECORDED_PATH_HASHES";
+
   /** Utility class: do not instantiate. */
   private BuildInfo() {}
 
@@ -33,6 +33,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
@@ -42,6 +43,7 @@ import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 
 import java.io.IOException;
@@ -115,6 +117,14 @@ public class BuildInfoRecorder {
     return out.toString();
   }
 
+  private String toJson(Map<String, String> values) {
+    JsonObject out = new JsonObject();
+    for (Map.Entry<String, String> entry : values.entrySet()) {
+      out.addProperty(entry.getKey(), entry.getValue());
+    }
+    return out.toString();
+  }
+
   private String formatAdditionalArtifactInfo(Map<String, String> entries) {
     StringBuilder builder = new StringBuilder();
     for (Map.Entry<String, String> entry : entries.entrySet()) {
@@ -173,6 +183,10 @@ public class BuildInfoRecorder {
     return addBuildMetadata(key, toJson(value));
   }
 
+  public BuildInfoRecorder addBuildMetadata(String key, ImmutableMap<String, String> value) {
+    return addBuildMetadata(key, toJson(value));
+  }
+
   /**
    * This key/value pair is stored in memory until {@link #writeMetadataToDisk(boolean)} is invoked.
    */
@@ -250,6 +264,21 @@ public class BuildInfoRecorder {
     return hasher.hash();
   }
 
+  /**
+   * @return the hash of each of the recorded files, including those in recorded directories,
+   *     keyed by path.
+   */
+  public ImmutableSortedMap<String, String> getRecordedFileHashes(FileHashCache fileHashCache)
+      throws IOException {
+    ImmutableSortedMap.Builder<String, String> hashes = ImmutableSortedMap.naturalOrder();
+    for (Path path : getRecordedDirsAndFiles()) {
+      if (projectFilesystem.isFile(path)) {
+        hashes.put(path.toString(), fileHashCache.get(path).toString());
+      }
+    }
+    return hashes.build();
+  }
+
   public long getOutputSize() throws IOException {
     long size = 0;
     for (Path path : getRecordedDirsAndFiles()) {
@@ -288,8 +317,19 @@ public class BuildInfoRecorder {
       zip = Files.createTempFile(
           "buck_artifact_" + MoreFiles.sanitize(buildTarget.getShortName()),
           ".zip");
-      buildMetadata = getBuildMetadata();
-      projectFilesystem.createZip(pathsToIncludeInZip, zip, ImmutableMap.<Path, String>of());
+      projectFilesystem.createZip(
+          pathsToIncludeInZip,
+          zip,
+          ImmutableMap.<Path, String>of(),
+          artifactCache.getCompression());
+      // Caches store the payloads of artifacts with the same hash only once, so it has to cover
+      // exactly the bytes that they store.
+      buildMetadata = ImmutableMap.<String, String>builder()
+          .putAll(getBuildMetadata())
+          .put(
+              BuildInfo.METADATA_KEY_FOR_OUTPUT_HASH,
+              MorePaths.asByteSource(zip).hash(Hashing.sha1()).toString())
+          .build();
     } catch (IOException e) {
       eventBus.post(ConsoleEvent.info("Failed to create zip for %s containing:\n%s",
           buildTarget,
@@ -309,18 +349,6 @@ public class BuildInfoRecorder {
     }
   }
 
-  /**
-   * Fetches the artifact associated with the {@link #buildTarget} for this class and writes it to
-   * the specified {@code outputFile}.
-   */
-  public CacheResult fetchArtifactForBuildable(
-      RuleKey ruleKey,
-      Path outputFile,
-      ArtifactCache artifactCache)
-      throws InterruptedException {
-    return artifactCache.fetch(ruleKey, outputFile);
-  }
-
   /**
    * @param pathToArtifact Relative path to the project root.
    */
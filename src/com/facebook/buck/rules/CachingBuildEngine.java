@@ -18,7 +18,6 @@ package com.facebook.buck.rules;
 
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.ThrowableConsoleEvent;
-import com.facebook.buck.io.MoreFiles;
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
@@ -30,17 +29,21 @@ import com.facebook.buck.step.StepFailedException;
 import com.facebook.buck.step.StepRunner;
 import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.concurrent.MoreFutures;
-import com.facebook.buck.zip.Unzip;
+import com.facebook.buck.util.concurrent.PrioritizedRunnable;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -51,18 +54,22 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonStreamParser;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -92,6 +99,12 @@ public class CachingBuildEngine implements BuildEngine {
   private final ConcurrentMap<BuildTarget, ListenableFuture<RuleKey>> ruleKeys =
       Maps.newConcurrentMap();
 
+  /**
+   * The {@link CriticalPath#getRemainingMillis() remaining time} of each rule, which is the
+   * priority its work is submitted to the {@link #service} with.
+   */
+  private final ConcurrentMap<BuildTarget, Long> priorities = Maps.newConcurrentMap();
+
   @Nullable
   private volatile Throwable firstFailure = null;
 
@@ -101,6 +114,7 @@ public class CachingBuildEngine implements BuildEngine {
   private final DepFiles depFiles;
   private final RuleKeyBuilderFactory inputBasedRuleKeyBuilderFactory;
   private final RuleKeyBuilderFactory depFileRuleKeyBuilderFactory;
+  private final RuleDurationHistory ruleDurationHistory;
 
   public CachingBuildEngine(
       ListeningExecutorService service,
@@ -109,12 +123,35 @@ public class CachingBuildEngine implements BuildEngine {
       DepFiles depFiles,
       RuleKeyBuilderFactory inputBasedRuleKeyBuilderFactory,
       RuleKeyBuilderFactory depFileRuleKeyBuilderFactory) {
+    this(
+        service,
+        fileHashCache,
+        buildMode,
+        depFiles,
+        inputBasedRuleKeyBuilderFactory,
+        depFileRuleKeyBuilderFactory,
+        RuleDurationHistory.empty());
+  }
+
+  /**
+   * @param ruleDurationHistory how long rules took in previous builds, which decides the order
+   *     that rules which are ready to build at the same time are built in.
+   */
+  public CachingBuildEngine(
+      ListeningExecutorService service,
+      FileHashCache fileHashCache,
+      BuildMode buildMode,
+      DepFiles depFiles,
+      RuleKeyBuilderFactory inputBasedRuleKeyBuilderFactory,
+      RuleKeyBuilderFactory depFileRuleKeyBuilderFactory,
+      RuleDurationHistory ruleDurationHistory) {
     this.service = service;
     this.fileHashCache = fileHashCache;
     this.buildMode = buildMode;
     this.depFiles = depFiles;
     this.inputBasedRuleKeyBuilderFactory = inputBasedRuleKeyBuilderFactory;
     this.depFileRuleKeyBuilderFactory = depFileRuleKeyBuilderFactory;
+    this.ruleDurationHistory = ruleDurationHistory;
   }
 
   @VisibleForTesting
@@ -144,12 +181,26 @@ public class CachingBuildEngine implements BuildEngine {
       BuildRule rule,
       BuildContext context,
       ConcurrentLinkedQueue<ListenableFuture<Void>> asyncCallbacks) {
-    List<ListenableFuture<BuildResult>> depResults =
-        Lists.newArrayListWithExpectedSize(rule.getDeps().size());
-    for (BuildRule dep : rule.getDeps()) {
-      depResults.add(getBuildRuleResultWithRuntimeDeps(dep, context, asyncCallbacks));
+    return getResults(rule.getDeps(), context, asyncCallbacks);
+  }
+
+  private ListenableFuture<List<BuildResult>> getResults(
+      Collection<BuildRule> rules,
+      BuildContext context,
+      ConcurrentLinkedQueue<ListenableFuture<Void>> asyncCallbacks) {
+    List<ListenableFuture<BuildResult>> results = Lists.newArrayListWithExpectedSize(rules.size());
+    for (BuildRule rule : rules) {
+      results.add(getBuildRuleResultWithRuntimeDeps(rule, context, asyncCallbacks));
     }
-    return Futures.allAsList(depResults);
+    return Futures.allAsList(results);
+  }
+
+  // The rules that have to be built before this rule's steps can run.
+  private static ImmutableSortedSet<BuildRule> getBuildDeps(BuildRule rule) {
+    if (rule instanceof HasBuildDeps) {
+      return ((HasBuildDeps) rule).getBuildDeps();
+    }
+    return rule.getDeps();
   }
 
   private ListenableFuture<BuildResult> processBuildRule(
@@ -182,7 +233,6 @@ public class CachingBuildEngine implements BuildEngine {
         tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
             rule,
             rule.getRuleKey(),
-            buildInfoRecorder,
             context.getArtifactCache(),
             context.getProjectFilesystem(),
             context);
@@ -194,9 +244,15 @@ public class CachingBuildEngine implements BuildEngine {
     // Log to the event bus.
     context.getEventBus().logVerboseAndPost(LOG, BuildRuleEvent.suspended(rule));
 
-    // 3. Build deps.
-    return Futures.transform(
-        getDepResults(rule, context, asyncCallbacks),
+    // 3. Build deps. Rules that only need some of them, or stand-ins for them, to build get going
+    // as soon as those are ready, but aren't done before all of their deps are.
+    ImmutableSortedSet<BuildRule> buildDeps = getBuildDeps(rule);
+    ListenableFuture<List<BuildResult>> remainingDepResults = null;
+    if (!buildDeps.equals(rule.getDeps())) {
+      remainingDepResults = getDepResults(rule, context, asyncCallbacks);
+    }
+    ListenableFuture<BuildResult> buildResult = Futures.transform(
+        getResults(buildDeps, context, asyncCallbacks),
         new AsyncFunction<List<BuildResult>, BuildResult>() {
           @Override
           public ListenableFuture<BuildResult> apply(@Nonnull List<BuildResult> depResults)
@@ -268,7 +324,6 @@ public class CachingBuildEngine implements BuildEngine {
                   tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
                       rule,
                       inputRuleKey,
-                      buildInfoRecorder,
                       context.getArtifactCache(),
                       context.getProjectFilesystem(),
                       context);
@@ -325,13 +380,56 @@ public class CachingBuildEngine implements BuildEngine {
             }
 
             // 5. build the rule
-            executeCommandsNowThatDepsAreBuilt(rule, context, buildableContext, buildInfoRecorder);
-
-            return Futures.immediateFuture(
-                BuildResult.success(rule, BuildRuleSuccessType.BUILT_LOCALLY, cacheResult));
+            return Futures.transform(
+                executeCommandsNowThatDepsAreBuilt(
+                    rule,
+                    context,
+                    buildableContext,
+                    buildInfoRecorder),
+                Functions.constant(
+                    BuildResult.success(rule, BuildRuleSuccessType.BUILT_LOCALLY, cacheResult)));
           }
         },
-        service);
+        getExecutor(rule));
+    if (remainingDepResults == null) {
+      return buildResult;
+    }
+    return waitForDeps(rule, remainingDepResults, buildResult);
+  }
+
+  /**
+   * @return a future holding {@code result} once {@code depResults} are in, or the rule canceled
+   *     if any of those deps failed.
+   */
+  private static ListenableFuture<BuildResult> waitForDeps(
+      final BuildRule rule,
+      final ListenableFuture<List<BuildResult>> depResults,
+      ListenableFuture<BuildResult> result) {
+    return Futures.transform(
+        result,
+        new AsyncFunction<BuildResult, BuildResult>() {
+          @Override
+          public ListenableFuture<BuildResult> apply(@Nonnull final BuildResult ruleResult) {
+            if (ruleResult.getStatus() != BuildRuleStatus.SUCCESS) {
+              return Futures.immediateFuture(ruleResult);
+            }
+            return Futures.transform(
+                depResults,
+                new Function<List<BuildResult>, BuildResult>() {
+                  @Override
+                  public BuildResult apply(List<BuildResult> depResults) {
+                    for (BuildResult depResult : depResults) {
+                      if (depResult.getStatus() != BuildRuleStatus.SUCCESS) {
+                        return BuildResult.canceled(
+                            rule,
+                            Preconditions.checkNotNull(depResult.getFailure()));
+                      }
+                    }
+                    return ruleResult;
+                  }
+                });
+          }
+        });
   }
 
   private ListenableFuture<BuildResult> processBuildRule(
@@ -527,22 +625,54 @@ public class CachingBuildEngine implements BuildEngine {
                           BuildInfo.METADATA_KEY_FOR_INPUT_BASED_RULE_KEY).get());
                 }
 
-                // If we have any rule keys to push to the cache with, do the upload now.
-                if (!ruleKeys.isEmpty()) {
-                  try {
-                    buildInfoRecorder.performUploadToArtifactCache(
-                        ImmutableSet.copyOf(ruleKeys),
-                        context.getArtifactCache(),
-                        context.getEventBus());
-                  } catch (Throwable t) {
-                    context.getEventBus().post(
-                        ThrowableConsoleEvent.create(
-                            t,
-                            "Error uploading to cache for %s.",
-                            rule));
-                  }
+                // If we have any rule keys to push to the cache with, do the upload now, or hand it
+                // to the upload queue so that this thread can get on with building.
+                if (ruleKeys.isEmpty()) {
+                  return;
                 }
 
+                // The hashes of the individual files let a later fetch leave those that have not
+                // changed alone.
+                try {
+                  buildInfoRecorder.addBuildMetadata(
+                      BuildInfo.METADATA_KEY_FOR_RECORDED_PATH_HASHES,
+                      buildInfoRecorder.getRecordedFileHashes(fileHashCache));
+                } catch (IOException e) {
+                  LOG.warn(e, "Failed to hash the recorded files of %s.", rule);
+                }
+                final ImmutableSet<RuleKey> uploadRuleKeys = ImmutableSet.copyOf(ruleKeys);
+                Runnable upload = new Runnable() {
+                  @Override
+                  public void run() {
+                    try {
+                      buildInfoRecorder.performUploadToArtifactCache(
+                          uploadRuleKeys,
+                          context.getArtifactCache(),
+                          context.getEventBus());
+                    } catch (Throwable t) {
+                      context.getEventBus().post(
+                          ThrowableConsoleEvent.create(
+                              t,
+                              "Error uploading to cache for %s.",
+                              rule));
+                    }
+                  }
+                };
+
+                Optional<ArtifactUploadQueue> uploadQueue = context.getArtifactUploadQueue();
+                if (!uploadQueue.isPresent() || !context.getArtifactCache().isStoreSupported()) {
+                  upload.run();
+                  return;
+                }
+                try {
+                  uploadQueue.get().enqueue(buildInfoRecorder.getOutputSize(), upload);
+                } catch (IOException e) {
+                  context.getEventBus().post(
+                      ThrowableConsoleEvent.create(
+                          e,
+                          "Error getting output size for %s.",
+                          rule));
+                }
               }
 
               private void handleResult(BuildResult input) {
@@ -565,7 +695,6 @@ public class CachingBuildEngine implements BuildEngine {
                 if (input.getStatus() == BuildRuleStatus.SUCCESS) {
                   BuildRuleSuccessType success = Preconditions.checkNotNull(input.getSuccess());
                   successType = Optional.of(success);
-                  uploadToCache(success);
 
                   // Calculate the hash and size of the rule outputs.
                   try {
@@ -578,6 +707,8 @@ public class CachingBuildEngine implements BuildEngine {
                             "Error getting output hash and size for %s.",
                             rule));
                   }
+
+                  uploadToCache(success);
                 }
 
                 // Log the result to the event bus.
@@ -665,7 +796,7 @@ public class CachingBuildEngine implements BuildEngine {
                 return processBuildRule(rule, context, asyncCallbacks);
               }
             },
-            service);
+            getExecutor(rule));
     results.put(rule.getBuildTarget(), result);
     return result;
   }
@@ -702,7 +833,7 @@ public class CachingBuildEngine implements BuildEngine {
               }
             }
           },
-          service);
+          getExecutor(rule));
 
       // Record the rule key future.
       ruleKeys.put(rule.getBuildTarget(), ruleKey);
@@ -711,8 +842,51 @@ public class CachingBuildEngine implements BuildEngine {
     return ruleKey;
   }
 
+  /**
+   * @return an executor which runs the work for {@code rule} on the {@link #service} ahead of the
+   *     work for rules with shorter chains of rules waiting on them.
+   */
+  private Executor getExecutor(BuildRule rule) {
+    Long priority = priorities.get(rule.getBuildTarget());
+    return PrioritizedRunnable.prioritizedExecutor(service, priority == null ? 0 : priority);
+  }
+
+  /**
+   * Records the priorities of the rules that {@code criticalPath} covers, keeping the higher
+   * priority of the rules that other rules being built also need.
+   */
+  private synchronized void updatePriorities(CriticalPath criticalPath) {
+    for (Map.Entry<BuildTarget, Long> entry : criticalPath.getRemainingMillis().entrySet()) {
+      Long current = priorities.get(entry.getKey());
+      if (current == null || entry.getValue() > current) {
+        priorities.put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Works out the priorities of all the rules that {@code rules} need in one pass, so that
+   * {@link #build(BuildContext, BuildRule)} does not walk the rules they share once for each of
+   * them.
+   */
+  @Override
+  public void prepare(BuildContext context, Iterable<? extends BuildRule> rules) {
+    if (Iterables.isEmpty(rules)) {
+      return;
+    }
+    CriticalPath criticalPath = CriticalPath.of(rules, ruleDurationHistory);
+    updatePriorities(criticalPath);
+    context.getEventBus().post(CriticalPathEvent.of(criticalPath));
+  }
+
   @Override
   public ListenableFuture<BuildResult> build(BuildContext context, BuildRule rule) {
+    // Work out which of the rules this rule needs should go first before dispatching any of them,
+    // unless that was done for the whole build already.
+    if (!priorities.containsKey(rule.getBuildTarget())) {
+      prepare(context, ImmutableList.of(rule));
+    }
+
     // Keep track of all jobs that run asynchronously with respect to the build dep chain.  We want
     // to make sure we wait for these before calling yielding the final build result.
     final ConcurrentLinkedQueue<ListenableFuture<Void>> asyncCallbacks =
@@ -735,85 +909,40 @@ public class CachingBuildEngine implements BuildEngine {
   private CacheResult tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
       BuildRule rule,
       RuleKey ruleKey,
-      BuildInfoRecorder buildInfoRecorder,
       ArtifactCache artifactCache,
       ProjectFilesystem filesystem,
       BuildContext buildContext) throws InterruptedException {
 
-    // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
-    // that we are creating a zip-based FileSystem.
-    Path zipFile;
-    try {
-      zipFile = Files.createTempFile(
-          "buck_artifact_" + MoreFiles.sanitize(rule.getBuildTarget().getShortName()),
-          ".zip");
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
-
-    // TODO(mbolin): Change ArtifactCache.fetch() so that it returns a File instead of takes one.
-    // Then we could download directly from the remote cache into the on-disk cache and unzip it
-    // from there.
+    // The artifact is unpacked into the root of the project directory as it is fetched, rather
+    // than being saved to a temporary zip file and unzipped from there. Files that are already on
+    // disk with the same contents are left as they are, which keeps their modification times.
     CacheResult cacheResult =
-        buildInfoRecorder.fetchArtifactForBuildable(ruleKey, zipFile, artifactCache);
-    if (!cacheResult.getType().isSuccess()) {
-      try {
-        Files.delete(zipFile);
-      } catch (IOException e) {
-        LOG.warn(e, "failed to delete %s", zipFile);
-      }
+        artifactCache.fetchAndExtract(
+            ruleKey,
+            filesystem,
+            Optional.<Path>absent(),
+            new RecordedHashUnchangedFileFilter(filesystem));
+    if (cacheResult.getType() != CacheResult.Type.HIT) {
       return cacheResult;
     }
 
-    // We unzip the file in the root of the project directory.
-    // Ideally, the following would work:
-    //
-    // Path pathToZip = Paths.get(zipFile.getAbsolutePath());
-    // FileSystem fs = FileSystems.newFileSystem(pathToZip, /* loader */ null);
-    // Path root = Iterables.getOnlyElement(fs.getRootDirectories());
-    // MoreFiles.copyRecursively(root, projectRoot);
-    //
-    // Unfortunately, this does not appear to work, in practice, because MoreFiles fails when trying
-    // to resolve a Path for a zip entry against a file Path on disk.
-    ArtifactCacheEvent.Started started = ArtifactCacheEvent.started(
-        ArtifactCacheEvent.Operation.DECOMPRESS,
-        ImmutableSet.of(ruleKey));
-    buildContext.getEventBus().post(started);
+    // If we have a hit, also write out the build metadata.
     try {
-      Unzip.extractZipFile(
-          zipFile.toAbsolutePath(),
-          filesystem,
-          Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
-
-      // We only delete the ZIP file when it has been unzipped successfully. Otherwise, we leave it
-      // around for debugging purposes.
-      Files.delete(zipFile);
-
-      if (cacheResult.getType() == CacheResult.Type.HIT) {
-
-        // If we have a hit, also write out the build metadata.
-        Path metadataDir = BuildInfo.getPathToMetadataDirectory(rule.getBuildTarget());
-        for (Map.Entry<String, String> ent : cacheResult.getMetadata().entrySet()) {
-          Path dest = metadataDir.resolve(ent.getKey());
-          filesystem.createParentDirs(dest);
-          filesystem.writeContentsToPath(ent.getValue(), dest);
-        }
+      Path metadataDir = BuildInfo.getPathToMetadataDirectory(rule.getBuildTarget());
+      for (Map.Entry<String, String> ent : cacheResult.getMetadata().entrySet()) {
+        Path dest = metadataDir.resolve(ent.getKey());
+        filesystem.createParentDirs(dest);
+        filesystem.writeContentsToPath(ent.getValue(), dest);
       }
-
     } catch (IOException e) {
-      // In the wild, we have seen some inexplicable failures during this step. For now, we try to
-      // give the user as much information as we can to debug the issue, but return CacheResult.MISS
-      // so that Buck will fall back on doing a local build.
+      // Return CacheResult.MISS so that Buck will fall back on doing a local build.
       buildContext.getEventBus().post(ConsoleEvent.warning(
-              "Failed to unzip the artifact for %s at %s.\n" +
+              "Failed to write the cached metadata for %s.\n" +
                   "The rule will be built locally, " +
-                  "but here is the stacktrace of the failed unzip call:\n" +
-                  rule.getBuildTarget(),
-              zipFile.toAbsolutePath(),
+                  "but here is the stacktrace of the failure:\n%s",
+              rule.getBuildTarget(),
               Throwables.getStackTraceAsString(e)));
       return CacheResult.miss();
-    } finally {
-      buildContext.getEventBus().post(ArtifactCacheEvent.finished(started));
     }
 
     return cacheResult;
@@ -821,19 +950,21 @@ public class CachingBuildEngine implements BuildEngine {
 
   /**
    * Execute the commands for this build rule. Requires all dependent rules are already built
-   * successfully.
+   * successfully. Commands which have to wait for the resources they need are run on the rule's
+   * executor once those are free, rather than holding on to a thread while they wait.
+   *
+   * @return a future which is set once the rule's commands have run.
    */
-  private void executeCommandsNowThatDepsAreBuilt(
-      BuildRule rule,
+  private ListenableFuture<Void> executeCommandsNowThatDepsAreBuilt(
+      final BuildRule rule,
       BuildContext context,
       BuildableContext buildableContext,
-      BuildInfoRecorder buildInfoRecorder)
-      throws InterruptedException, StepFailedException {
+      BuildInfoRecorder buildInfoRecorder) {
 
     LOG.debug("Building locally: %s", rule);
     // Attempt to get an approximation of how long it takes to actually run the command.
     @SuppressWarnings("PMD.PrematureDeclaration")
-    long start = System.nanoTime();
+    final long start = System.nanoTime();
 
     // Get and run all of the commands.
     List<Step> steps = rule.getBuildSteps(context, buildableContext);
@@ -847,21 +978,19 @@ public class CachingBuildEngine implements BuildEngine {
 
     StepRunner stepRunner = context.getStepRunner();
     Optional<BuildTarget> optionalTarget = Optional.of(rule.getBuildTarget());
-    for (Step step : steps) {
-      stepRunner.runStepForBuildTarget(step, optionalTarget);
-
-      // Check for interruptions that may have been ignored by step.
-      if (Thread.interrupted()) {
-        Thread.currentThread().interrupt();
-        throw new InterruptedException();
-      }
-    }
-
-    long end = System.nanoTime();
-    LOG.debug("Build completed: %s %s (%dns)",
-        rule.getType(),
-        rule.getFullyQualifiedName(),
-        end - start);
+    return Futures.transform(
+        stepRunner.runStepsForBuildTarget(steps, optionalTarget, getExecutor(rule)),
+        new Function<Void, Void>() {
+          @Override
+          public Void apply(Void input) {
+            long end = System.nanoTime();
+            LOG.debug("Build completed: %s %s (%dns)",
+                rule.getType(),
+                rule.getFullyQualifiedName(),
+                end - start);
+            return null;
+          }
+        });
   }
 
   private void executePostBuildSteps(
@@ -953,6 +1082,54 @@ public class CachingBuildEngine implements BuildEngine {
     return Optional.of(builder.build());
   }
 
+  /**
+   * Finds the files of a fetched artifact that are already on disk, by comparing the hashes that
+   * were recorded when it was stored against those of the files. The files are hashed afresh rather
+   * than through the {@link FileHashCache}, as the hashes it would cache go stale as soon as the
+   * files that differ are overwritten.
+   */
+  private class RecordedHashUnchangedFileFilter implements UnchangedFileFilter {
+    private final ProjectFilesystem filesystem;
+
+    public RecordedHashUnchangedFileFilter(ProjectFilesystem filesystem) {
+      this.filesystem = filesystem;
+    }
+
+    @Override
+    public Predicate<Path> getUnchangedFiles(ImmutableMap<String, String> metadata) {
+      String json = metadata.get(BuildInfo.METADATA_KEY_FOR_RECORDED_PATH_HASHES);
+      if (json == null) {
+        return Predicates.alwaysFalse();
+      }
+      final Map<Path, HashCode> recordedHashes = Maps.newHashMap();
+      try {
+        for (Map.Entry<String, JsonElement> entry :
+             new JsonStreamParser(json).next().getAsJsonObject().entrySet()) {
+          recordedHashes.put(
+              Paths.get(entry.getKey()),
+              HashCode.fromString(entry.getValue().getAsString()));
+        }
+      } catch (JsonParseException | IllegalArgumentException | IllegalStateException e) {
+        LOG.warn(e, "Ignoring malformed recorded path hashes.");
+        return Predicates.alwaysFalse();
+      }
+      return new Predicate<Path>() {
+        @Override
+        public boolean apply(Path path) {
+          HashCode recordedHash = recordedHashes.get(path);
+          if (recordedHash == null || !filesystem.isFile(path)) {
+            return false;
+          }
+          try {
+            return recordedHash.equals(filesystem.computeSha1HashCode(path));
+          } catch (IOException e) {
+            return false;
+          }
+        }
+      };
+    }
+  }
+
   /**
    * The mode in which to build rules.
    */
@@ -24,8 +24,9 @@ import com.facebook.buck.parser.NoSuchBuildTargetException;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
-import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
 
 import java.lang.reflect.Field;
@@ -34,8 +35,6 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 
 /**
  * Used to derive information from the constructor args returned by {@link Description} instances.
@@ -46,7 +45,11 @@ import java.util.concurrent.ExecutionException;
 public class ConstructorArgMarshaller {
 
   private final TypeCoercerFactory typeCoercerFactory;
-  private final Cache<Class<?>, ImmutableSet<ParamInfo<?>>> coercedTypes;
+  /**
+   * The {@link ParamInfo}s of each constructor arg class, so that the class is only reflected over
+   * once however many instances of it are populated. Safe to use from multiple threads.
+   */
+  private final LoadingCache<Class<?>, ImmutableSet<ParamInfo<?>>> coercedTypes;
 
   /**
    * Constructor. {@code pathFromProjectRootToBuildFile} is the path relative to the project root to
@@ -56,7 +59,22 @@ public class ConstructorArgMarshaller {
    */
   public ConstructorArgMarshaller() {
     this.typeCoercerFactory = new TypeCoercerFactory();
-    this.coercedTypes = CacheBuilder.newBuilder().build();
+    this.coercedTypes = CacheBuilder.newBuilder().build(
+        new CacheLoader<Class<?>, ImmutableSet<ParamInfo<?>>>() {
+          @Override
+          public ImmutableSet<ParamInfo<?>> load(Class<?> argClass) {
+            ImmutableSet.Builder<ParamInfo<?>> allInfo = ImmutableSet.builder();
+
+            for (Field field : argClass.getFields()) {
+              if (Modifier.isFinal(field.getModifiers())) {
+                continue;
+              }
+              allInfo.add(new ParamInfo<>(typeCoercerFactory, field));
+            }
+
+            return allInfo.build();
+          }
+        });
   }
 
   /**
@@ -160,28 +178,8 @@ public class ConstructorArgMarshaller {
   }
 
   ImmutableSet<ParamInfo<?>> getAllParamInfo(Object dto) {
-    final Class<?> argClass = dto.getClass();
-    try {
-      return coercedTypes.get(argClass, new Callable<ImmutableSet<ParamInfo<?>>>() {
-            @Override
-            public ImmutableSet<ParamInfo<?>> call() {
-              ImmutableSet.Builder<ParamInfo<?>> allInfo = ImmutableSet.builder();
-
-              for (Field field : argClass.getFields()) {
-                if (Modifier.isFinal(field.getModifiers())) {
-                  continue;
-                }
-                allInfo.add(new ParamInfo<>(typeCoercerFactory, field));
-              }
-
-              return allInfo.build();
-            }
-          });
-    } catch (ExecutionException e) {
-      // This gets thrown if we saw an error when loading the value. Nothing sane to do here, and
-      // we (previously, before using a cache), simply allowed a RuntimeException to bubble up.
-      // Maintain that behaviour.
-      throw new RuntimeException(e);
-    }
+    // Errors loading the value surface as unchecked exceptions, which is what we did before using
+    // a cache.
+    return coercedTypes.getUnchecked(dto.getClass());
   }
 }
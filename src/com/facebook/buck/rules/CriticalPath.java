@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.Pair;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The longest chain of rules, going by their {@link RuleDurationHistory}, that has to be built
+ * before a set of rules is built.  For every rule that those rules need, this also estimates how
+ * long it will take from the moment that rule starts building until the rules at the top are
+ * built, which is the priority the {@link CachingBuildEngine} gives the rule: running the rules
+ * with the longest remaining chains first keeps the long chains from being left until the end.
+ */
+public class CriticalPath {
+
+  private final ImmutableMap<BuildTarget, Long> remainingMillis;
+  private final ImmutableList<BuildTarget> path;
+
+  private CriticalPath(
+      ImmutableMap<BuildTarget, Long> remainingMillis,
+      ImmutableList<BuildTarget> path) {
+    this.remainingMillis = remainingMillis;
+    this.path = path;
+  }
+
+  public static CriticalPath of(BuildRule top, RuleDurationHistory history) {
+    return of(ImmutableList.of(top), history);
+  }
+
+  /**
+   * Works out the critical path of all of {@code tops} in a single pass over the rules that they
+   * need, so that the rules they share are only visited once.
+   */
+  public static CriticalPath of(Iterable<? extends BuildRule> tops, RuleDurationHistory history) {
+    Preconditions.checkArgument(!Iterables.isEmpty(tops));
+
+    // Order the rules so that every rule comes before the rules it needs.
+    List<BuildRule> order = Lists.reverse(getPostOrder(tops));
+
+    // Then push the remaining time from each rule down to the rules it needs, remembering which
+    // rule each rule's longest chain continues with.
+    Map<BuildTarget, Long> remaining = Maps.newHashMap();
+    Map<BuildTarget, BuildTarget> next = Maps.newHashMap();
+    for (BuildRule top : tops) {
+      remaining.put(
+          top.getBuildTarget(),
+          history.getEstimatedDurationMillis(top.getBuildTarget()));
+    }
+    BuildTarget start = order.get(0).getBuildTarget();
+    for (BuildRule rule : order) {
+      long ruleRemaining = remaining.get(rule.getBuildTarget());
+      for (BuildRule dep : getRequiredRules(rule)) {
+        long depRemaining =
+            ruleRemaining + history.getEstimatedDurationMillis(dep.getBuildTarget());
+        Long current = remaining.get(dep.getBuildTarget());
+        if (current == null || depRemaining > current) {
+          remaining.put(dep.getBuildTarget(), depRemaining);
+          next.put(dep.getBuildTarget(), rule.getBuildTarget());
+        }
+      }
+      if (ruleRemaining > remaining.get(start)) {
+        start = rule.getBuildTarget();
+      }
+    }
+
+    ImmutableList.Builder<BuildTarget> path = ImmutableList.builder();
+    Set<BuildTarget> onPath = Sets.newHashSet();
+    for (BuildTarget target = start;
+         target != null && onPath.add(target);
+         target = next.get(target)) {
+      path.add(target);
+    }
+    return new CriticalPath(ImmutableMap.copyOf(remaining), path.build());
+  }
+
+  /**
+   * @return the rules that {@code tops} need, and {@code tops} themselves, with every rule after
+   *     the rules it needs. The graph is walked with an explicit stack, as dependency chains can
+   *     be deeper than the call stack allows.
+   */
+  private static List<BuildRule> getPostOrder(Iterable<? extends BuildRule> tops) {
+    List<BuildRule> order = Lists.newArrayList();
+    Set<BuildTarget> seen = Sets.newHashSet();
+    Deque<Pair<BuildRule, Iterator<BuildRule>>> stack = new ArrayDeque<>();
+    for (BuildRule top : tops) {
+      if (!seen.add(top.getBuildTarget())) {
+        continue;
+      }
+      stack.push(new Pair<>(top, getRequiredRules(top).iterator()));
+      while (!stack.isEmpty()) {
+        Iterator<BuildRule> deps = stack.peek().getSecond();
+        if (deps.hasNext()) {
+          BuildRule dep = deps.next();
+          if (seen.add(dep.getBuildTarget())) {
+            stack.push(new Pair<>(dep, getRequiredRules(dep).iterator()));
+          }
+        } else {
+          order.add(stack.pop().getFirst());
+        }
+      }
+    }
+    return order;
+  }
+
+  /**
+   * @return the rules that the {@link CachingBuildEngine} waits for before it builds
+   *     {@code rule} or considers it built.
+   */
+  private static Iterable<BuildRule> getRequiredRules(BuildRule rule) {
+    if (!(rule instanceof HasRuntimeDeps) && !(rule instanceof HasBuildDeps)) {
+      return rule.getDeps();
+    }
+    ImmutableSortedSet.Builder<BuildRule> required =
+        ImmutableSortedSet.<BuildRule>naturalOrder().addAll(rule.getDeps());
+    if (rule instanceof HasBuildDeps) {
+      required.addAll(((HasBuildDeps) rule).getBuildDeps());
+    }
+    if (rule instanceof HasRuntimeDeps) {
+      required.addAll(((HasRuntimeDeps) rule).getRuntimeDeps());
+    }
+    return required.build();
+  }
+
+  /**
+   * @return the rule at the top of the longest chain.
+   */
+  public BuildTarget getTop() {
+    return Iterables.getLast(path);
+  }
+
+  /**
+   * @return for each rule that the top rules need, and the top rules themselves, how long it is
+   *     expected to take from when it starts building until the top rules are built.
+   */
+  public ImmutableMap<BuildTarget, Long> getRemainingMillis() {
+    return remainingMillis;
+  }
+
+  /**
+   * @return the rules on the longest chain, from the first one to build to a top rule.
+   */
+  public ImmutableList<BuildTarget> getPath() {
+    return path;
+  }
+
+  /**
+   * @return how long the rules on the longest chain are expected to take, one after the other.
+   */
+  public long getEstimatedMillis() {
+    return remainingMillis.get(path.get(0));
+  }
+}
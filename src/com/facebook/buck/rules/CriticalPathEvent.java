@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.model.BuildTarget;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Posted by the {@link CachingBuildEngine} with the {@link CriticalPath} of the rules that it is
+ * asked to build, before it starts building them.
+ */
+public class CriticalPathEvent extends AbstractBuckEvent {
+
+  private final BuildTarget target;
+  private final long estimatedMillis;
+  private final ImmutableList<BuildTarget> path;
+
+  protected CriticalPathEvent(
+      BuildTarget target,
+      long estimatedMillis,
+      ImmutableList<BuildTarget> path) {
+    this.target = target;
+    this.estimatedMillis = estimatedMillis;
+    this.path = path;
+  }
+
+  public static CriticalPathEvent of(CriticalPath criticalPath) {
+    return new CriticalPathEvent(
+        criticalPath.getTop(),
+        criticalPath.getEstimatedMillis(),
+        criticalPath.getPath());
+  }
+
+  public BuildTarget getTarget() {
+    return target;
+  }
+
+  public long getEstimatedMillis() {
+    return estimatedMillis;
+  }
+
+  public ImmutableList<BuildTarget> getPath() {
+    return path;
+  }
+
+  @Override
+  public String getEventName() {
+    return "CriticalPath";
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format("%s:%d:%s", target, estimatedMillis, Joiner.on(",").join(path));
+  }
+}
@@ -16,17 +16,21 @@
 
 package com.facebook.buck.rules;
 
+import com.facebook.buck.event.BuckEvent;
+import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.io.MoreFiles;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
-import com.facebook.buck.util.collect.ArrayIterable;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.facebook.buck.zip.Unzip;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
-import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.io.ByteStreams;
 
@@ -37,17 +41,51 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Pattern;
 
+/**
+ * Stores artifacts in a directory, sharded into subdirectories by the first two characters of
+ * their rule keys.
+ * <p>
+ * Artifacts stored with a {@link BuildInfo#METADATA_KEY_FOR_OUTPUT_HASH} keep their payload in a
+ * blob named after that hash, under {@code blobs}, so that rules with byte-for-byte identical
+ * payloads share a single copy of it. The metadata file of each rule key then serves as its
+ * manifest.
+ * <p>
+ * A {@link DirArtifactCacheIndex} keeps track of the size and use of each artifact. Once a build
+ * finishes, the least recently used artifacts are evicted in the background if the cache has a
+ * size limit, and the index is compacted if it has grown too long.
+ */
 public class DirArtifactCache implements ArtifactCache {
 
   private static final Logger LOG = Logger.get(DirArtifactCache.class);
 
+  private static final String METADATA_SUFFIX = ".metadata";
+
+  private static final String BLOBS_DIR = "blobs";
+
+  /** Distinguishes the index entries of blobs from those of rule keys. */
+  private static final String BLOB_INDEX_KEY_PREFIX = "blob:";
+
+  private static final Pattern HASH = Pattern.compile("[0-9a-f]{2,}");
+
+  /** Matches the names of the artifacts and metadata files that the cache holds. */
+  private static final Pattern ENTRY_NAME = Pattern.compile("[0-9a-f]{2,}(\\.metadata)?");
+
   private final String name;
   private final ProjectFilesystem filesystem;
   private final Path cacheDir;
   private final Optional<Long> maxCacheSizeBytes;
   private final boolean doStore;
+  private final ArtifactCompression compression;
+  private final DirArtifactCacheIndex index;
+  private final ExecutorService evictionService;
+  private final Optional<BuckEventBus> eventBus;
 
   public DirArtifactCache(
       String name,
@@ -56,12 +94,77 @@ public class DirArtifactCache implements ArtifactCache {
       boolean doStore,
       Optional<Long> maxCacheSizeBytes)
       throws IOException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        doStore,
+        maxCacheSizeBytes,
+        ArtifactCompression.DEFAULT,
+        Optional.<BuckEventBus>absent());
+  }
+
+  public DirArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      boolean doStore,
+      Optional<Long> maxCacheSizeBytes,
+      ArtifactCompression compression,
+      Optional<BuckEventBus> eventBus)
+      throws IOException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
     this.maxCacheSizeBytes = maxCacheSizeBytes;
     this.doStore = doStore;
+    this.compression = compression;
+    this.index = new DirArtifactCacheIndex(filesystem.resolve(cacheDir));
+    this.evictionService = MoreExecutors.newSingleThreadExecutor("DirArtifactCacheEviction");
+    this.eventBus = eventBus;
     filesystem.mkdirs(cacheDir);
+    if (!index.exists()) {
+      rebuildIndex();
+    }
+  }
+
+  private Path getPathToArtifact(RuleKey ruleKey) {
+    String key = ruleKey.toString();
+    return cacheDir.resolve(key.substring(0, 2)).resolve(key);
+  }
+
+  private Path getPathToMetadata(RuleKey ruleKey) {
+    Path artifact = getPathToArtifact(ruleKey);
+    return artifact.resolveSibling(artifact.getFileName() + METADATA_SUFFIX);
+  }
+
+  private Path getPathToBlob(String hash) {
+    return cacheDir.resolve(BLOBS_DIR).resolve(hash.substring(0, 2)).resolve(hash);
+  }
+
+  /**
+   * @return the hash that the payload of an artifact with {@code metadata} is stored under, if it
+   *     is stored as a blob.
+   */
+  private static Optional<String> getOutputHash(ImmutableMap<String, String> metadata) {
+    String hash = metadata.get(BuildInfo.METADATA_KEY_FOR_OUTPUT_HASH);
+    if (hash == null || !HASH.matcher(hash).matches()) {
+      return Optional.absent();
+    }
+    return Optional.of(hash);
+  }
+
+  private Path getPathToPayload(RuleKey ruleKey, ImmutableMap<String, String> metadata) {
+    Optional<String> outputHash = getOutputHash(metadata);
+    return outputHash.isPresent() ? getPathToBlob(outputHash.get()) : getPathToArtifact(ruleKey);
+  }
+
+  private void recordAccess(RuleKey ruleKey, ImmutableMap<String, String> metadata) {
+    index.recordAccess(ruleKey.toString());
+    Optional<String> outputHash = getOutputHash(metadata);
+    if (outputHash.isPresent()) {
+      index.recordAccess(BLOB_INDEX_KEY_PREFIX + outputHash.get());
+    }
   }
 
   @Override
@@ -70,25 +173,15 @@ public class DirArtifactCache implements ArtifactCache {
     try {
 
       // First, build up the metadata from the metadata file.
-      ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
-      try (DataInputStream in =
-               new DataInputStream(
-                   filesystem.newFileInputStream(
-                       cacheDir.resolve(ruleKey.toString() + ".metadata")))) {
-        int sz = in.readInt();
-        for (int i = 0; i < sz; i++) {
-          String key = in.readUTF();
-          int valSize = in.readInt();
-          byte[] val = new byte[valSize];
-          ByteStreams.readFully(in, val);
-          metadata.put(key, new String(val, Charsets.UTF_8));
-        }
-      }
+      ImmutableMap<String, String> metadata = readMetadata(ruleKey);
 
       // Now copy the artifact out.
-      filesystem.copyFile(cacheDir.resolve(ruleKey.toString()), output);
+      Path payload = getPathToPayload(ruleKey, metadata);
+      filesystem.copyFile(payload, output);
+      recordAccess(ruleKey, metadata);
 
-      result = CacheResult.hit(name, metadata.build());
+      result = CacheResult.hit(name, metadata)
+          .withArtifactSizeBytes(filesystem.getFileSize(payload));
     } catch (NoSuchFileException e) {
       result = CacheResult.miss();
     } catch (IOException e) {
@@ -108,6 +201,100 @@ public class DirArtifactCache implements ArtifactCache {
     return result;
   }
 
+  /**
+   * Unpacks the artifact straight from the cache directory, without copying it out first.
+   */
+  @Override
+  public CacheResult fetchAndExtract(
+      RuleKey ruleKey,
+      ProjectFilesystem outputFilesystem,
+      Optional<Path> copyTo,
+      UnchangedFileFilter unchangedFiles) {
+    CacheResult result;
+    try {
+      ImmutableMap<String, String> metadata = readMetadata(ruleKey);
+      Path artifact = getPathToPayload(ruleKey, metadata);
+      if (copyTo.isPresent()) {
+        filesystem.copyFile(artifact, copyTo.get());
+      }
+      ArtifactCacheEvent.Started started =
+          ArtifactCacheEvent.started(
+              ArtifactCacheEvent.Operation.DECOMPRESS,
+              ImmutableSet.of(ruleKey));
+      postEvent(started);
+      try {
+        Unzip.extractZipFile(
+            filesystem.resolve(artifact),
+            outputFilesystem,
+            Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES,
+            unchangedFiles.getUnchangedFiles(metadata));
+      } finally {
+        postEvent(ArtifactCacheEvent.finished(started));
+      }
+      recordAccess(ruleKey, metadata);
+      result = CacheResult.hit(name, metadata)
+          .withArtifactSizeBytes(filesystem.getFileSize(artifact));
+    } catch (NoSuchFileException e) {
+      result = CacheResult.miss();
+    } catch (IOException e) {
+      LOG.warn(e, "Artifact fetchAndExtract(%s) error", ruleKey);
+      result = CacheResult.error(name, String.format("%s: %s", e.getClass(), e.getMessage()));
+    }
+
+    LOG.debug(
+        "Artifact fetchAndExtract(%s) cache %s",
+        ruleKey,
+        (result.getType().isSuccess() ? "hit" : "miss"));
+    return result;
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      boolean contains;
+      try {
+        contains = filesystem.exists(getPathToPayload(ruleKey, readMetadata(ruleKey)));
+      } catch (IOException e) {
+        contains = false;
+      }
+      results.put(ruleKey, contains ? CacheResult.hit(name) : CacheResult.miss());
+    }
+    return results.build();
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, Path> outputs) {
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (Map.Entry<RuleKey, Path> output : outputs.entrySet()) {
+      results.put(output.getKey(), fetch(output.getKey(), output.getValue()));
+    }
+    return results.build();
+  }
+
+  private ImmutableMap<String, String> readMetadata(RuleKey ruleKey) throws IOException {
+    ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+    try (DataInputStream in =
+             new DataInputStream(
+                 filesystem.newFileInputStream(getPathToMetadata(ruleKey)))) {
+      int sz = in.readInt();
+      for (int i = 0; i < sz; i++) {
+        String key = in.readUTF();
+        int valSize = in.readInt();
+        byte[] val = new byte[valSize];
+        ByteStreams.readFully(in, val);
+        metadata.put(key, new String(val, Charsets.UTF_8));
+      }
+    }
+    return metadata.build();
+  }
+
+  /**
+   * The {@link BuildInfo#METADATA_KEY_FOR_OUTPUT_HASH} of the artifact is trusted rather than
+   * checked against {@code output}: {@link BuildInfoRecorder} computes it in-process over the very
+   * zip that it stores, and the artifacts which {@link MultiArtifactCache} copies between caches
+   * carry the metadata that was recorded with their payload.
+   */
   @Override
   public void store(
       ImmutableSet<RuleKey> ruleKeys,
@@ -120,21 +307,42 @@ public class DirArtifactCache implements ArtifactCache {
 
     try {
 
+      Optional<String> outputHash = getOutputHash(metadata);
+      if (outputHash.isPresent() && storeBlob(outputHash.get(), output)) {
+        postEvent(ArtifactCacheLayerEvent.payloadReused(name, ruleKeys, outputHash.get()));
+      }
+
       for (RuleKey ruleKey : ruleKeys) {
+        Path artifact = getPathToArtifact(ruleKey);
+        Path metadataFile = getPathToMetadata(ruleKey);
+        filesystem.mkdirs(artifact.getParent());
 
-        // Write to a temporary file and move the file to its final location atomically to protect
-        // against partial artifacts (whether due to buck interruption or filesystem failure) posing
-        // as valid artifacts during subsequent buck runs.
-        Path tmp = filesystem.createTempFile(filesystem.resolve(cacheDir), "artifact", ".tmp");
-        try {
-          filesystem.copyFile(output, tmp);
-          filesystem.move(tmp, cacheDir.resolve(ruleKey.toString()));
-        } finally {
-          filesystem.deleteFileAtPathIfExists(tmp);
+        long sizeBytes = 0;
+        if (outputHash.isPresent()) {
+          // The payload is already in its blob.
+          filesystem.deleteFileAtPathIfExists(artifact);
+        } else {
+          // Write to a temporary file and move the file to its final location atomically to
+          // protect against partial artifacts (whether due to buck interruption or filesystem
+          // failure) posing as valid artifacts during subsequent buck runs.
+          Path tmp = filesystem.createTempFile(
+              filesystem.resolve(artifact.getParent()),
+              "artifact",
+              ".tmp");
+          try {
+            filesystem.copyFile(output, tmp);
+            filesystem.move(tmp, artifact);
+          } finally {
+            filesystem.deleteFileAtPathIfExists(tmp);
+          }
+          sizeBytes += filesystem.getFileSize(artifact);
         }
 
         // Now, write the meta data artifact.
-        tmp = filesystem.createTempFile(filesystem.resolve(cacheDir), "metadata", ".tmp");
+        Path tmp = filesystem.createTempFile(
+            filesystem.resolve(artifact.getParent()),
+            "metadata",
+            ".tmp");
         try {
           try (DataOutputStream out = new DataOutputStream(filesystem.newFileOutputStream(tmp))) {
             out.writeInt(metadata.size());
@@ -145,10 +353,12 @@ public class DirArtifactCache implements ArtifactCache {
               out.write(val);
             }
           }
-          filesystem.move(tmp, cacheDir.resolve(ruleKey.toString() + ".metadata"));
+          filesystem.move(tmp, metadataFile);
         } finally {
           filesystem.deleteFileAtPathIfExists(tmp);
         }
+
+        index.recordStore(ruleKey.toString(), sizeBytes + filesystem.getFileSize(metadataFile));
       }
 
     } catch (IOException e) {
@@ -160,6 +370,36 @@ public class DirArtifactCache implements ArtifactCache {
     }
   }
 
+  /**
+   * Stores a payload under its hash, unless a payload with that hash is already stored.
+   *
+   * @return whether the payload was already stored.
+   */
+  private boolean storeBlob(String hash, Path output) throws IOException {
+    Path blob = getPathToBlob(hash);
+    String indexKey = BLOB_INDEX_KEY_PREFIX + hash;
+    if (filesystem.exists(blob)) {
+      index.recordAccess(indexKey);
+      return true;
+    }
+    filesystem.mkdirs(blob.getParent());
+    Path tmp = filesystem.createTempFile(filesystem.resolve(blob.getParent()), "blob", ".tmp");
+    try {
+      filesystem.copyFile(output, tmp);
+      filesystem.move(tmp, blob, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      filesystem.deleteFileAtPathIfExists(tmp);
+    }
+    index.recordStore(indexKey, filesystem.getFileSize(blob));
+    return false;
+  }
+
+  private void postEvent(BuckEvent event) {
+    if (eventBus.isPresent()) {
+      eventBus.get().post(event);
+    }
+  }
+
   /**
    * @return {@code true}: storing artifacts is always supported by this class.
    */
@@ -168,55 +408,179 @@ public class DirArtifactCache implements ArtifactCache {
     return doStore;
   }
 
+  @Override
+  public ArtifactCompression getCompression() {
+    return compression;
+  }
+
+  /**
+   * Waits for any eviction that is still running.
+   */
   @Override
   public void close() {
-    // store() operation is synchronous - do nothing.
+    try {
+      MoreExecutors.shutdown(evictionService);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    index.close();
   }
 
   /**
    * @param finished Signals that the build has finished.
    */
   @Subscribe
-  public synchronized void buildFinished(BuildEvent.Finished finished) {
-    deleteOldFiles();
+  public void buildFinished(BuildEvent.Finished finished) {
+    evictionService.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (maxCacheSizeBytes.isPresent()) {
+              deleteOldFiles();
+            } else {
+              compactIndex();
+            }
+          }
+        });
   }
 
   /**
-   * Deletes files that haven't been accessed recently from the directory cache.
+   * Keeps the index of a cache without a size limit from growing with every access.
    */
   @VisibleForTesting
-  void deleteOldFiles() {
+  synchronized void compactIndex() {
+    try {
+      index.compact();
+    } catch (IOException e) {
+      LOG.warn(e, "Rebuilding unreadable artifact cache index.");
+      try {
+        rebuildIndex();
+      } catch (IOException e2) {
+        LOG.warn(e2, "Failed to rebuild the artifact cache index of %s.", cacheDir);
+      }
+    }
+  }
+
+  /**
+   * Deletes the artifacts that have been used least recently until the cache is within its size
+   * limit.
+   */
+  @VisibleForTesting
+  synchronized void deleteOldFiles() {
     if (!maxCacheSizeBytes.isPresent()) {
       return;
     }
-    for (File fileAccessedEntry : findFilesToDelete()) {
+    ImmutableList<String> evicted;
+    try {
+      evicted = index.evict(maxCacheSizeBytes.get());
+    } catch (IOException e) {
+      LOG.warn(e, "Rebuilding unreadable artifact cache index.");
+      try {
+        rebuildIndex();
+        evicted = index.evict(maxCacheSizeBytes.get());
+      } catch (IOException e2) {
+        LOG.warn(e2, "Failed to evict artifacts from %s.", cacheDir);
+        return;
+      }
+    }
+    for (String key : evicted) {
       try {
-        Files.deleteIfExists(fileAccessedEntry.toPath());
+        if (key.startsWith(BLOB_INDEX_KEY_PREFIX)) {
+          // Any artifacts that still refer to the blob become misses.
+          filesystem.deleteFileAtPathIfExists(
+              getPathToBlob(key.substring(BLOB_INDEX_KEY_PREFIX.length())));
+          continue;
+        }
+        RuleKey ruleKey = new RuleKey(key);
+        filesystem.deleteFileAtPathIfExists(getPathToArtifact(ruleKey));
+        filesystem.deleteFileAtPathIfExists(getPathToMetadata(ruleKey));
       } catch (IOException e) {
         // Eat any IOExceptions while attempting to clean up the cache directory.  If the file is
         // now in use, we no longer want to delete it.
         continue;
       }
     }
+    LOG.debug("Evicted %d artifacts from %s.", evicted.size(), cacheDir);
   }
 
-  private Iterable<File> findFilesToDelete() {
-    Preconditions.checkState(maxCacheSizeBytes.isPresent());
-    long maxSizeBytes = maxCacheSizeBytes.get();
+  /**
+   * Recreates the index from the contents of the cache directory, ordering artifacts by their
+   * access times. Artifacts that were stored before the cache was sharded are moved into place.
+   */
+  private synchronized void rebuildIndex() throws IOException {
+    File root = filesystem.resolve(cacheDir).toFile();
+    File[] topLevel = root.listFiles();
+    if (topLevel == null) {
+      return;
+    }
 
-    File[] files = filesystem.resolve(cacheDir).toFile().listFiles();
-    MoreFiles.sortFilesByAccessTime(files);
+    for (File file : topLevel) {
+      if (file.isFile() && ENTRY_NAME.matcher(file.getName()).matches()) {
+        Path shard = root.toPath().resolve(file.getName().substring(0, 2));
+        Files.createDirectories(shard);
+        Files.move(
+            file.toPath(),
+            shard.resolve(file.getName()),
+            StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
 
-    // Finds the first N from the list ordered by last access time who's combined size is less than
-    // maxCacheSizeBytes.
-    long currentSizeBytes = 0;
-    for (int i = 0; i < files.length; ++i) {
-      File file = files[i];
-      currentSizeBytes += file.length();
-      if (currentSizeBytes > maxSizeBytes) {
-        return ArrayIterable.of(files, i, files.length);
+    // Every artifact has a metadata file, but those stored as blobs have no artifact file.
+    List<File> entryFiles = Lists.newArrayList();
+    for (File shard : listShards(root)) {
+      for (File file : listFiles(shard)) {
+        if (ENTRY_NAME.matcher(file.getName()).matches() &&
+            file.getName().endsWith(METADATA_SUFFIX)) {
+          entryFiles.add(file);
+        }
       }
     }
-    return ImmutableList.of();
+    for (File shard : listShards(new File(root, BLOBS_DIR))) {
+      for (File file : listFiles(shard)) {
+        if (HASH.matcher(file.getName()).matches()) {
+          entryFiles.add(file);
+        }
+      }
+    }
+    if (entryFiles.isEmpty()) {
+      return;
+    }
+
+    File[] byAccessTime = entryFiles.toArray(new File[entryFiles.size()]);
+    MoreFiles.sortFilesByAccessTime(byAccessTime);
+    List<Map.Entry<String, Long>> entries = Lists.newArrayList();
+    for (File file : Lists.reverse(Arrays.asList(byAccessTime))) {
+      String fileName = file.getName();
+      if (fileName.endsWith(METADATA_SUFFIX)) {
+        File artifact = new File(
+            file.getParentFile(),
+            fileName.substring(0, fileName.length() - METADATA_SUFFIX.length()));
+        entries.add(Maps.immutableEntry(artifact.getName(), artifact.length() + file.length()));
+      } else {
+        entries.add(Maps.immutableEntry(BLOB_INDEX_KEY_PREFIX + fileName, file.length()));
+      }
+    }
+    index.rebuild(entries);
+    LOG.debug("Indexed %d artifacts and blobs in %s.", entries.size(), cacheDir);
+  }
+
+  /**
+   * @return the subdirectories of {@code dir} that hold the entries whose names start with the
+   *     subdirectory's name.
+   */
+  private static ImmutableList<File> listShards(File dir) {
+    ImmutableList.Builder<File> shards = ImmutableList.builder();
+    for (File file : listFiles(dir)) {
+      if (file.isDirectory() && file.getName().length() == 2 &&
+          HASH.matcher(file.getName()).matches()) {
+        shards.add(file);
+      }
+    }
+    return shards.build();
+  }
+
+  private static File[] listFiles(File dir) {
+    File[] files = dir.listFiles();
+    return files == null ? new File[0] : files;
   }
 }
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.collect.ImmutableList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A persistent record of the size and least-recently-used order of the artifacts in a
+ * {@link DirArtifactCache}, so that the cache can be kept under its size limit without listing
+ * and sorting the whole cache directory.
+ * <p>
+ * The index is an append-only log of stores, accesses and deletions. Each record is appended
+ * with a single write as it happens, so that the log stays usable if buck is killed and when
+ * several buck processes share the cache. The log is read back when artifacts have to be evicted
+ * and once it has grown past {@link #COMPACTION_MIN_BYTES}, and is then rewritten to hold just
+ * the live entries if it has grown much longer than that.
+ * <p>
+ * Processes that share the cache coordinate through a lock on {@link #LOCK_FILE_NAME}: appends
+ * hold it shared, while reading and replacing the log hold it exclusively. A process that finds
+ * the log replaced since it opened it reopens it before appending, so that no record is written
+ * to the old file.
+ */
+class DirArtifactCacheIndex implements Closeable {
+
+  private static final Logger LOG = Logger.get(DirArtifactCacheIndex.class);
+
+  static final String INDEX_FILE_NAME = "index";
+
+  static final String LOCK_FILE_NAME = "index.lock";
+
+  private static final int FORMAT_VERSION = 1;
+
+  private static final byte STORE = 1;
+  private static final byte ACCESS = 2;
+  private static final byte DELETE = 3;
+
+  /** How many more records than live entries the log may hold before it is compacted. */
+  private static final int COMPACTION_SLACK = 1000;
+
+  /** Logs smaller than this are not worth reading back just to compact them. */
+  private static final long COMPACTION_MIN_BYTES = 1024 * 1024;
+
+  private final Path indexFile;
+  private final Path lockFile;
+
+  @Nullable
+  private FileChannel log;
+
+  /** The file key of the index file that {@link #log} was opened on. */
+  @Nullable
+  private Object logFileKey;
+
+  @Nullable
+  private FileChannel lockChannel;
+
+  /**
+   * @param cacheRoot the absolute path of the cache directory.
+   */
+  public DirArtifactCacheIndex(Path cacheRoot) {
+    this.indexFile = cacheRoot.resolve(INDEX_FILE_NAME);
+    this.lockFile = cacheRoot.resolve(LOCK_FILE_NAME);
+  }
+
+  public boolean exists() {
+    return Files.exists(indexFile);
+  }
+
+  public synchronized void recordStore(String key, long sizeBytes) {
+    append(STORE, key, sizeBytes);
+  }
+
+  public synchronized void recordAccess(String key) {
+    append(ACCESS, key, 0);
+  }
+
+  private void append(byte op, String key, long sizeBytes) {
+    try (FileLock lock = lock(/* shared */ true)) {
+      appendLocked(op, key, sizeBytes);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to update the artifact cache index %s.", indexFile);
+    }
+  }
+
+  private void appendLocked(byte op, String key, long sizeBytes) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream record = new DataOutputStream(bytes)) {
+      writeRecord(record, op, key, sizeBytes);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    FileChannel channel = getLog();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * @return a channel that appends to the current index file, which must be called with the lock
+   *     held so that the file cannot be replaced until the caller is done with the channel.
+   */
+  private FileChannel getLog() throws IOException {
+    if (log != null && !isCurrentIndexFile(logFileKey)) {
+      closeLog();
+    }
+    if (log == null) {
+      if (!Files.exists(indexFile)) {
+        // Create the log with its header in one step, so that another process appending to it
+        // at the same time never sees it without one.
+        Path temp = Files.createTempFile(indexFile.getParent(), INDEX_FILE_NAME, ".tmp");
+        try {
+          writeIndex(temp, ImmutableList.<Map.Entry<String, Long>>of());
+          Files.move(temp, indexFile);
+        } catch (FileAlreadyExistsException e) {
+          // Someone else created it first.
+        } finally {
+          Files.deleteIfExists(temp);
+        }
+      }
+      log = FileChannel.open(indexFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      logFileKey = Files.readAttributes(indexFile, BasicFileAttributes.class).fileKey();
+    }
+    return log;
+  }
+
+  private boolean isCurrentIndexFile(@Nullable Object fileKey) throws IOException {
+    if (fileKey == null) {
+      // Without file keys, replacements cannot be detected, so always reopen.
+      return false;
+    }
+    try {
+      return fileKey.equals(Files.readAttributes(indexFile, BasicFileAttributes.class).fileKey());
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  private FileLock lock(boolean shared) throws IOException {
+    if (lockChannel == null) {
+      lockChannel = FileChannel.open(
+          lockFile,
+          StandardOpenOption.CREATE,
+          StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+    }
+    return lockChannel.lock(0, Long.MAX_VALUE, shared);
+  }
+
+  /**
+   * Replaces the index with one holding {@code entries}, which are ordered from least to most
+   * recently used.
+   */
+  public synchronized void rebuild(Iterable<Map.Entry<String, Long>> entries) throws IOException {
+    try (FileLock lock = lock(/* shared */ false)) {
+      replace(entries);
+    }
+  }
+
+  private void replace(Iterable<Map.Entry<String, Long>> entries) throws IOException {
+    closeLog();
+    Path temp = Files.createTempFile(indexFile.getParent(), INDEX_FILE_NAME, ".tmp");
+    try {
+      writeIndex(temp, entries);
+      Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Removes the least recently used entries from the index until the artifacts that remain take
+   * up no more than {@code maxSizeBytes}.
+   *
+   * @return the keys of the removed entries, whose artifacts the caller should delete.
+   * @throws IOException if the index could not be read, in which case it should be rebuilt.
+   */
+  public synchronized ImmutableList<String> evict(long maxSizeBytes) throws IOException {
+    if (!Files.exists(indexFile)) {
+      return ImmutableList.of();
+    }
+
+    try (FileLock lock = lock(/* shared */ false)) {
+      Log contents = read();
+      LinkedHashMap<String, Long> entries = contents.entries;
+      long totalSizeBytes = contents.totalSizeBytes;
+
+      ImmutableList.Builder<String> evicted = ImmutableList.builder();
+      Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+      while (totalSizeBytes > maxSizeBytes && iterator.hasNext()) {
+        Map.Entry<String, Long> eldest = iterator.next();
+        totalSizeBytes -= eldest.getValue();
+        evicted.add(eldest.getKey());
+        iterator.remove();
+      }
+
+      if (!compactIfNecessary(contents)) {
+        for (String key : evicted.build()) {
+          appendLocked(DELETE, key, 0);
+        }
+      }
+      return evicted.build();
+    }
+  }
+
+  /**
+   * Rewrites the log to hold just the live entries if it has grown large and mostly holds
+   * records that have been superseded, whether or not the cache has a size limit.
+   *
+   * @throws IOException if the index could not be read, in which case it should be rebuilt.
+   */
+  public synchronized void compact() throws IOException {
+    if (!Files.exists(indexFile) || Files.size(indexFile) < COMPACTION_MIN_BYTES) {
+      return;
+    }
+    try (FileLock lock = lock(/* shared */ false)) {
+      compactIfNecessary(read());
+    }
+  }
+
+  private boolean compactIfNecessary(Log contents) throws IOException {
+    if (contents.records <= 2 * contents.entries.size() + COMPACTION_SLACK) {
+      return false;
+    }
+    LOG.debug(
+        "Compacting %d records in %s to %d.",
+        contents.records,
+        indexFile,
+        contents.entries.size());
+    replace(contents.entries.entrySet());
+    return true;
+  }
+
+  /**
+   * Replays the log, which must be called with the lock held exclusively.
+   */
+  private Log read() throws IOException {
+    Log contents = new Log();
+    try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(indexFile));
+         DataInputStream input = new DataInputStream(inputStream)) {
+      if (input.readInt() != FORMAT_VERSION) {
+        throw new IOException("unknown index format");
+      }
+      while (true) {
+        int op = input.read();
+        if (op == -1) {
+          break;
+        }
+        String key;
+        long sizeBytes = 0;
+        try {
+          key = input.readUTF();
+          if (op == STORE) {
+            sizeBytes = input.readLong();
+          }
+        } catch (EOFException e) {
+          // A record that was cut short when buck was killed; everything before it is fine.
+          break;
+        }
+        contents.records++;
+        Long previousSizeBytes;
+        switch (op) {
+          case STORE:
+            previousSizeBytes = contents.entries.put(key, sizeBytes);
+            contents.totalSizeBytes +=
+                sizeBytes - (previousSizeBytes == null ? 0 : previousSizeBytes);
+            break;
+          case ACCESS:
+            contents.entries.get(key);
+            break;
+          case DELETE:
+            previousSizeBytes = contents.entries.remove(key);
+            contents.totalSizeBytes -= previousSizeBytes == null ? 0 : previousSizeBytes;
+            break;
+          default:
+            throw new IOException(String.format("unknown index record type %d", op));
+        }
+      }
+    }
+    return contents;
+  }
+
+  private static void writeIndex(
+      Path path,
+      Iterable<Map.Entry<String, Long>> entries)
+      throws IOException {
+    try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(path));
+         DataOutputStream output = new DataOutputStream(outputStream)) {
+      output.writeInt(FORMAT_VERSION);
+      for (Map.Entry<String, Long> entry : entries) {
+        writeRecord(output, STORE, entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private static void writeRecord(
+      DataOutputStream output,
+      byte op,
+      String key,
+      long sizeBytes)
+      throws IOException {
+    output.writeByte(op);
+    output.writeUTF(key);
+    if (op == STORE) {
+      output.writeLong(sizeBytes);
+    }
+  }
+
+  private void closeLog() throws IOException {
+    if (log != null) {
+      log.close();
+      log = null;
+      logFileKey = null;
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    try {
+      closeLog();
+      if (lockChannel != null) {
+        lockChannel.close();
+        lockChannel = null;
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to close the artifact cache index %s.", indexFile);
+    }
+  }
+
+  /**
+   * The live entries of the log, ordered from least to most recently used.
+   */
+  private static class Log {
+    private final LinkedHashMap<String, Long> entries =
+        new LinkedHashMap<>(16, 0.75f, /* accessOrder */ true);
+    private int records;
+    private long totalSizeBytes;
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+/**
+ * A rule that can start building before all of its deps are built, such as a java library that
+ * compiles against the ABI jars of its deps rather than against their outputs.
+ * <p>
+ * The build engine waits for the rules returned here, which need not be deps themselves, before
+ * building the rule. It still waits for all of the deps to be built before it reports the rule as
+ * built, so that dependents see no difference.
+ */
+public interface HasBuildDeps {
+
+  /**
+   * @return the rules that must be built before the steps of this rule can run.
+   */
+  ImmutableSortedSet<BuildRule> getBuildDeps();
+}
@@ -19,19 +19,26 @@ package com.facebook.buck.rules;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.io.TeeInputStream;
 import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.hash.HasherInputStream;
 import com.facebook.buck.util.hash.HasherOutputStream;
+import com.facebook.buck.zip.StreamingUnzip;
+import com.facebook.buck.zip.Unzip;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hasher;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import com.squareup.okhttp.MediaType;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
@@ -40,6 +47,7 @@ import com.squareup.okhttp.Response;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -51,6 +59,7 @@ import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import okio.BufferedSink;
 import okio.BufferedSource;
@@ -64,6 +73,7 @@ public class HttpArtifactCache implements ArtifactCache {
    */
   private static final Logger LOGGER = Logger.get(HttpArtifactCache.class);
   private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+  private static final Path STAGING_PATH = BuckConstant.SCRATCH_PATH.resolve("artifact_staging");
 
   private final String name;
   private final OkHttpClient fetchClient;
@@ -73,6 +83,7 @@ public class HttpArtifactCache implements ArtifactCache {
   private final ProjectFilesystem projectFilesystem;
   private final BuckEventBus buckEventBus;
   private final HashFunction hashFunction;
+  private final ArtifactCompression compression;
 
   private final Set<String> seenErrors = Sets.newConcurrentHashSet();
 
@@ -85,6 +96,28 @@ public class HttpArtifactCache implements ArtifactCache {
       ProjectFilesystem projectFilesystem,
       BuckEventBus buckEventBus,
       HashFunction hashFunction) {
+    this(
+        name,
+        fetchClient,
+        storeClient,
+        url,
+        doStore,
+        projectFilesystem,
+        buckEventBus,
+        hashFunction,
+        ArtifactCompression.DEFAULT);
+  }
+
+  public HttpArtifactCache(
+      String name,
+      OkHttpClient fetchClient,
+      OkHttpClient storeClient,
+      URL url,
+      boolean doStore,
+      ProjectFilesystem projectFilesystem,
+      BuckEventBus buckEventBus,
+      HashFunction hashFunction,
+      ArtifactCompression compression) {
     this.name = name;
     this.fetchClient = fetchClient;
     this.storeClient = storeClient;
@@ -93,6 +126,7 @@ public class HttpArtifactCache implements ArtifactCache {
     this.projectFilesystem = projectFilesystem;
     this.buckEventBus = buckEventBus;
     this.hashFunction = hashFunction;
+    this.compression = compression;
   }
 
   protected Response fetchCall(Request request) throws IOException {
@@ -115,6 +149,10 @@ public class HttpArtifactCache implements ArtifactCache {
   }
 
   public CacheResult fetchImpl(RuleKey ruleKey, Path file) throws IOException {
+    return fetchImpl(ruleKey, new FilePayloadReceiver(file));
+  }
+
+  private CacheResult fetchImpl(RuleKey ruleKey, PayloadReceiver receiver) throws IOException {
     Request request =
         new Request.Builder()
             .url(new URL(url, "artifacts/key/" + ruleKey.toString()))
@@ -135,6 +173,20 @@ public class HttpArtifactCache implements ArtifactCache {
       return CacheResult.error(name, msg);
     }
 
+    try (InputStream body = response.body().byteStream()) {
+      return readArtifact(ruleKey, body, receiver);
+    }
+  }
+
+  /**
+   * Reads an artifact in the format that a fetch of a single key returns, handing its payload to
+   * {@code receiver}. Reads {@code body} to its end, but does not close it.
+   */
+  private CacheResult readArtifact(
+      RuleKey ruleKey,
+      InputStream body,
+      PayloadReceiver receiver)
+      throws IOException {
     // Create a hasher to be used to generate a hash of the metadata and input.  We'll use
     // this to compare against the embedded checksum.
     Hasher hasher = hashFunction.newHasher();
@@ -145,16 +197,11 @@ public class HttpArtifactCache implements ArtifactCache {
     // The expected hash code embedded in the returned data.
     HashCode expectedHashCode;
 
-    // Setup a temporary file, which sits next to the destination, to write to and
-    // make sure all parent dirs exist.
-    projectFilesystem.createParentDirs(file);
-    Path temp = projectFilesystem.createTempFile(
-        file.getParent(),
-        file.getFileName().toString(),
-        ".tmp");
+    long payloadSizeBytes;
 
-    // Open the input stream from the server and start processing data.
-    try (DataInputStream input = new DataInputStream(response.body().byteStream())) {
+    // Start processing the data from the server.
+    DataInputStream input = new DataInputStream(body);
+    try (PayloadReceiver payloadReceiver = receiver) {
 
       // Read the size of a the metadata, and use that to build a input stream to read and
       // process the rest of it.
@@ -177,7 +224,7 @@ public class HttpArtifactCache implements ArtifactCache {
 
           // Verify that we were one of the rule keys that stored this artifact.
           if (!ruleKeys.contains(ruleKey)) {
-            readTillEnd(response);
+            readTillEnd(body);
             String msg = "incorrect key name";
             reportFailure("fetch(%s, %s): %s", url, ruleKey, msg);
             return CacheResult.error(name, msg);
@@ -203,32 +250,31 @@ public class HttpArtifactCache implements ArtifactCache {
         expectedHashCode = HashCode.fromBytes(hashCodeBytes);
       }
 
-      // The remaining data is the payload, which we write to the created file, and also include
-      // in our verification checksum.
-      try (InputStream payload = new HasherInputStream(hasher, response.body().byteStream());
-           OutputStream output = projectFilesystem.newFileOutputStream(temp)) {
-        ByteStreams.copy(payload, output);
+      // The remaining data is the payload, which we hand to the receiver, and also include in our
+      // verification checksum.
+      CountingInputStream payload = new CountingInputStream(new HasherInputStream(hasher, body));
+      payloadReceiver.receive(payload);
+      payloadSizeBytes = payload.getCount();
+
+      // Compute the hash now that we've processed the relevant parts of the artifact -- only
+      // the expected hash remains.
+      HashCode actualHashCode = hasher.hash();
+
+      // Now form the checksum on the payload we got and compare it to the checksum form the
+      // the HTTP header.  If it's incorrect, log this and return a miss.  Closing the receiver
+      // discards what it has received.
+      if (!expectedHashCode.equals(actualHashCode)) {
+        String msg = "artifact had invalid checksum";
+        reportFailure("fetch(%s, %s): %s", url, ruleKey, msg);
+        return CacheResult.error(name, msg);
       }
-    }
-
-    // Compute the hash now that we've processed the relevant parts of the artifact -- only
-    // the expected hash remains.
-    HashCode actualHashCode = hasher.hash();
 
-    // Now form the checksum on the file we got and compare it to the checksum form the
-    // the HTTP header.  If it's incorrect, log this and return a miss.
-    if (!expectedHashCode.equals(actualHashCode)) {
-      String msg = "artifact had invalid checksum";
-      reportFailure("fetch(%s, %s): %s", url, ruleKey, msg);
-      projectFilesystem.deleteFileAtPath(temp);
-      return CacheResult.error(name, msg);
+      // Finally, move what we received into its final place.
+      payloadReceiver.commit(metadata);
     }
 
-    // Finally, move the temp file into it's final place.
-    projectFilesystem.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
-
     LOGGER.info("fetch(%s, %s): cache hit", url, ruleKey);
-    return CacheResult.hit(name, metadata);
+    return CacheResult.hit(name, metadata).withArtifactSizeBytes(payloadSizeBytes);
   }
 
   @Override
@@ -242,6 +288,273 @@ public class HttpArtifactCache implements ArtifactCache {
     }
   }
 
+  /**
+   * Asks about all of {@code ruleKeys} in a single request.
+   */
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys)
+      throws InterruptedException {
+    try {
+      return multiContainsImpl(ruleKeys);
+    } catch (IOException e) {
+      String msg = String.format("%s: %s", e.getClass().getName(), e.getMessage());
+      reportFailure(e, "multiContains(%s, %d keys): %s", url, ruleKeys.size(), msg);
+      return errorsFor(ruleKeys, msg);
+    }
+  }
+
+  private ImmutableMap<RuleKey, CacheResult> multiContainsImpl(ImmutableSet<RuleKey> ruleKeys)
+      throws IOException {
+    Request request =
+        new Request.Builder()
+            .url(new URL(url, "artifacts/contains"))
+            .post(RequestBody.create(OCTET_STREAM, createKeysHeader(ruleKeys)))
+            .build();
+    Response response = fetchCall(request);
+
+    if (response.code() != HttpURLConnection.HTTP_OK) {
+      readTillEnd(response);
+      String msg = String.format("unexpected response: %d", response.code());
+      reportFailure("multiContains(%s, %d keys): %s", url, ruleKeys.size(), msg);
+      return errorsFor(ruleKeys, msg);
+    }
+
+    // The response holds a flag for each of the keys, in the order that they were asked about.
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    try (DataInputStream input = new DataInputStream(response.body().byteStream())) {
+      int size = input.readInt();
+      if (size != ruleKeys.size()) {
+        throw new IOException(
+            String.format("expected %d results but got %d", ruleKeys.size(), size));
+      }
+      for (RuleKey ruleKey : ruleKeys) {
+        results.put(ruleKey, input.readBoolean() ? CacheResult.hit(name) : CacheResult.miss());
+      }
+      readTillEnd(input);
+    }
+    return results.build();
+  }
+
+  /**
+   * Fetches all of the artifacts in a single request.
+   */
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, Path> outputs)
+      throws InterruptedException {
+    Map<RuleKey, CacheResult> results = Maps.newHashMap();
+    try {
+      multiFetchImpl(outputs, results);
+    } catch (IOException e) {
+      String msg = String.format("%s: %s", e.getClass().getName(), e.getMessage());
+      reportFailure(e, "multiFetch(%s, %d keys): %s", url, outputs.size(), msg);
+    }
+
+    // Anything we did not get to before a failure is an error.
+    ImmutableMap.Builder<RuleKey, CacheResult> ordered = ImmutableMap.builder();
+    for (RuleKey ruleKey : outputs.keySet()) {
+      CacheResult result = results.get(ruleKey);
+      ordered.put(
+          ruleKey,
+          result == null ? CacheResult.error(name, "multiFetch failed") : result);
+    }
+    return ordered.build();
+  }
+
+  private void multiFetchImpl(
+      ImmutableMap<RuleKey, Path> outputs,
+      Map<RuleKey, CacheResult> results)
+      throws IOException {
+    Request request =
+        new Request.Builder()
+            .url(new URL(url, "artifacts/multifetch"))
+            .post(RequestBody.create(OCTET_STREAM, createKeysHeader(outputs.keySet())))
+            .build();
+    Response response = fetchCall(request);
+
+    if (response.code() != HttpURLConnection.HTTP_OK) {
+      readTillEnd(response);
+      String msg = String.format("unexpected response: %d", response.code());
+      reportFailure("multiFetch(%s, %d keys): %s", url, outputs.size(), msg);
+      results.putAll(errorsFor(outputs.keySet(), msg));
+      return;
+    }
+
+    // For each of the keys, in the order that they were asked for, the response holds a flag
+    // saying whether the artifact was found. A found artifact follows as its length and then the
+    // same bytes that fetching it on its own would return.
+    try (DataInputStream input = new DataInputStream(response.body().byteStream())) {
+      for (Map.Entry<RuleKey, Path> output : outputs.entrySet()) {
+        RuleKey ruleKey = output.getKey();
+        if (!input.readBoolean()) {
+          LOGGER.info("multiFetch(%s, %s): cache miss", url, ruleKey);
+          results.put(ruleKey, CacheResult.miss());
+          continue;
+        }
+        InputStream artifact = ByteStreams.limit(input, input.readLong());
+        results.put(
+            ruleKey,
+            readArtifact(ruleKey, artifact, new FilePayloadReceiver(output.getValue())));
+        // Skip anything left over from an artifact that failed verification.
+        readTillEnd(artifact);
+      }
+      readTillEnd(input);
+    }
+  }
+
+  private ImmutableMap<RuleKey, CacheResult> errorsFor(Set<RuleKey> ruleKeys, String msg) {
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      results.put(ruleKey, CacheResult.error(name, msg));
+    }
+    return results.build();
+  }
+
+  /**
+   * Streams the payload into a staging directory under {@code buck-out} of {@code filesystem} as
+   * it is downloaded, and only moves the unpacked files into place once the whole artifact has
+   * been verified.
+   */
+  @Override
+  public CacheResult fetchAndExtract(
+      RuleKey ruleKey,
+      ProjectFilesystem filesystem,
+      Optional<Path> copyTo,
+      UnchangedFileFilter unchangedFiles)
+      throws InterruptedException {
+    try {
+      return fetchImpl(
+          ruleKey,
+          new ExtractingPayloadReceiver(ruleKey, filesystem, copyTo, unchangedFiles));
+    } catch (IOException e) {
+      String msg = String.format("%s: %s", e.getClass().getName(), e.getMessage());
+      reportFailure(e, "fetchAndExtract(%s, %s): %s", url, ruleKey, msg);
+      return CacheResult.error(name, msg);
+    }
+  }
+
+  /**
+   * Consumes the payload of a fetched artifact. The payload is only known to be intact once it
+   * has been read in full and its checksum verified, so nothing it contains may become visible
+   * until {@link #commit(ImmutableMap)} is called. Closing a receiver discards anything not
+   * committed.
+   */
+  private interface PayloadReceiver extends Closeable {
+    void receive(InputStream payload) throws IOException;
+    void commit(ImmutableMap<String, String> metadata) throws IOException;
+  }
+
+  /**
+   * Writes the payload to a temporary file next to the destination file.
+   */
+  private class FilePayloadReceiver implements PayloadReceiver {
+    private final Path file;
+    private Optional<Path> temp = Optional.absent();
+
+    public FilePayloadReceiver(Path file) {
+      this.file = file;
+    }
+
+    @Override
+    public void receive(InputStream payload) throws IOException {
+      // Setup a temporary file, which sits next to the destination, to write to and
+      // make sure all parent dirs exist.
+      projectFilesystem.createParentDirs(file);
+      temp = Optional.of(
+          projectFilesystem.createTempFile(
+              file.getParent(),
+              file.getFileName().toString(),
+              ".tmp"));
+      try (OutputStream output = projectFilesystem.newFileOutputStream(temp.get())) {
+        ByteStreams.copy(payload, output);
+      }
+    }
+
+    @Override
+    public void commit(ImmutableMap<String, String> metadata) throws IOException {
+      projectFilesystem.move(temp.get(), file, StandardCopyOption.REPLACE_EXISTING);
+      temp = Optional.absent();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (temp.isPresent()) {
+        projectFilesystem.deleteFileAtPathIfExists(temp.get());
+      }
+    }
+  }
+
+  /**
+   * Unpacks the payload as it is read, optionally saving a copy of it too.
+   */
+  private class ExtractingPayloadReceiver implements PayloadReceiver {
+    private final ProjectFilesystem filesystem;
+    private final Optional<Path> copyTo;
+    private final UnchangedFileFilter unchangedFiles;
+    private final Path stagingDir;
+    private Optional<StreamingUnzip> unzip = Optional.absent();
+    private Optional<Path> tempCopy = Optional.absent();
+
+    public ExtractingPayloadReceiver(
+        RuleKey ruleKey,
+        ProjectFilesystem filesystem,
+        Optional<Path> copyTo,
+        UnchangedFileFilter unchangedFiles) {
+      this.filesystem = filesystem;
+      this.copyTo = copyTo;
+      this.unchangedFiles = unchangedFiles;
+      this.stagingDir = STAGING_PATH.resolve(ruleKey + "-" + UUID.randomUUID());
+    }
+
+    @Override
+    public void receive(InputStream payload) throws IOException {
+      if (!copyTo.isPresent()) {
+        unzip = Optional.of(StreamingUnzip.stage(payload, filesystem, stagingDir));
+        return;
+      }
+      // Like the unpacked files, the copy is written next to its destination and only moved into
+      // place on commit, so a payload which fails verification never replaces it.
+      projectFilesystem.createParentDirs(copyTo.get());
+      tempCopy = Optional.of(
+          projectFilesystem.createTempFile(
+              copyTo.get().getParent(),
+              copyTo.get().getFileName().toString(),
+              ".tmp"));
+      try (OutputStream copy = projectFilesystem.newFileOutputStream(tempCopy.get())) {
+        unzip = Optional.of(
+            StreamingUnzip.stage(
+                new TeeInputStream(payload, copy),
+                filesystem,
+                stagingDir));
+      }
+    }
+
+    @Override
+    public void commit(ImmutableMap<String, String> metadata) throws IOException {
+      unzip.get().commit(
+          Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES,
+          unchangedFiles.getUnchangedFiles(metadata));
+      if (tempCopy.isPresent()) {
+        projectFilesystem.move(tempCopy.get(), copyTo.get(), StandardCopyOption.REPLACE_EXISTING);
+        tempCopy = Optional.absent();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (unzip.isPresent()) {
+          unzip.get().close();
+        } else {
+          filesystem.deleteRecursivelyIfExists(stagingDir);
+        }
+      } finally {
+        if (tempCopy.isPresent()) {
+          projectFilesystem.deleteFileAtPathIfExists(tempCopy.get());
+        }
+      }
+    }
+  }
+
   protected Response storeCall(Request request) throws IOException {
     return storeClient.newCall(request).execute();
   }
@@ -302,10 +615,6 @@ public class HttpArtifactCache implements ArtifactCache {
       final Path file)
       throws IOException {
 
-    // Build the request, hitting the multi-key endpoint.
-    Request.Builder builder = new Request.Builder();
-    builder.url(new URL(url, "artifacts/key"));
-
     // Construct the raw keys blob;
     final byte[] rawKeys = createKeysHeader(ruleKeys);
 
@@ -322,6 +631,22 @@ public class HttpArtifactCache implements ArtifactCache {
             },
             hashFunction);
 
+    // If the server already has a payload with the same output hash, there is no need to upload
+    // it again.
+    if (metadata.containsKey(BuildInfo.METADATA_KEY_FOR_OUTPUT_HASH) &&
+        storeManifest(ruleKeys, rawKeys, rawMetadata)) {
+      buckEventBus.post(
+          ArtifactCacheLayerEvent.payloadReused(
+              name,
+              ruleKeys,
+              metadata.get(BuildInfo.METADATA_KEY_FOR_OUTPUT_HASH)));
+      return;
+    }
+
+    // Build the request, hitting the multi-key endpoint.
+    Request.Builder builder = new Request.Builder();
+    builder.url(new URL(url, "artifacts/key"));
+
     // Wrap the file into a `RequestBody` which uses `ProjectFilesystem`.
     builder.put(
         new RequestBody() {
@@ -358,6 +683,37 @@ public class HttpArtifactCache implements ArtifactCache {
     }
   }
 
+  /**
+   * Stores the keys and metadata of an artifact without its payload, which the server looks up by
+   * the output hash in the metadata.
+   *
+   * @return whether the server had the payload. If not, the whole artifact must be stored.
+   */
+  private boolean storeManifest(
+      ImmutableSet<RuleKey> ruleKeys,
+      byte[] rawKeys,
+      byte[] rawMetadata)
+      throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(body)) {
+      out.write(rawKeys);
+      out.writeInt(rawMetadata.length);
+      out.write(rawMetadata);
+    }
+    Request request =
+        new Request.Builder()
+            .url(new URL(url, "artifacts/manifest"))
+            .put(RequestBody.create(OCTET_STREAM, body.toByteArray()))
+            .build();
+    Response response = storeCall(request);
+    readTillEnd(response);
+    if (response.code() == HttpURLConnection.HTTP_ACCEPTED) {
+      LOGGER.info("store(%s, %s): payload already cached", url, ruleKeys);
+      return true;
+    }
+    return false;
+  }
+
   @Override
   public void store(
       ImmutableSet<RuleKey> ruleKeys,
@@ -401,6 +757,11 @@ public class HttpArtifactCache implements ArtifactCache {
     return doStore;
   }
 
+  @Override
+  public ArtifactCompression getCompression() {
+    return compression;
+  }
+
   @Override
   public void close() {}
 
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Wraps one of the caches that make up the {@link ArtifactCache} of a build, posting an
+ * {@link ArtifactCacheLayerEvent} with the results, timing and size of everything that it fetches
+ * and stores.
+ */
+public class InstrumentedArtifactCache implements ArtifactCache {
+
+  private static final Logger LOG = Logger.get(InstrumentedArtifactCache.class);
+
+  private final ArtifactCache delegate;
+  private final String name;
+  private final ProjectFilesystem filesystem;
+  private final BuckEventBus eventBus;
+
+  /**
+   * @param name what the cache is called in the events, such as {@code dir} or {@code http}.
+   * @param filesystem the filesystem that the artifacts to store are read from.
+   */
+  public InstrumentedArtifactCache(
+      ArtifactCache delegate,
+      String name,
+      ProjectFilesystem filesystem,
+      BuckEventBus eventBus) {
+    this.delegate = delegate;
+    this.name = name;
+    this.filesystem = filesystem;
+    this.eventBus = eventBus;
+  }
+
+  @Override
+  public CacheResult fetch(RuleKey ruleKey, Path output) throws InterruptedException {
+    long startNanos = System.nanoTime();
+    CacheResult result = delegate.fetch(ruleKey, output);
+    postFetched(ImmutableSet.of(ruleKey), ImmutableList.of(result), startNanos);
+    return result;
+  }
+
+  @Override
+  public CacheResult fetchAndExtract(
+      RuleKey ruleKey,
+      ProjectFilesystem outputFilesystem,
+      Optional<Path> copyTo,
+      UnchangedFileFilter unchangedFiles)
+      throws InterruptedException {
+    long startNanos = System.nanoTime();
+    CacheResult result =
+        delegate.fetchAndExtract(ruleKey, outputFilesystem, copyTo, unchangedFiles);
+    postFetched(ImmutableSet.of(ruleKey), ImmutableList.of(result), startNanos);
+    return result;
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys)
+      throws InterruptedException {
+    return delegate.multiContains(ruleKeys);
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, Path> outputs)
+      throws InterruptedException {
+    long startNanos = System.nanoTime();
+    ImmutableMap<RuleKey, CacheResult> results = delegate.multiFetch(outputs);
+    ImmutableList.Builder<CacheResult> orderedResults = ImmutableList.builder();
+    for (RuleKey ruleKey : outputs.keySet()) {
+      CacheResult result = results.get(ruleKey);
+      orderedResults.add(result == null ? CacheResult.miss() : result);
+    }
+    postFetched(outputs.keySet(), orderedResults.build(), startNanos);
+    return results;
+  }
+
+  private void postFetched(
+      ImmutableSet<RuleKey> ruleKeys,
+      ImmutableList<CacheResult> results,
+      long startNanos) {
+    eventBus.post(
+        ArtifactCacheLayerEvent.fetched(
+            name,
+            ruleKeys,
+            results,
+            System.nanoTime() - startNanos));
+  }
+
+  @Override
+  public void store(
+      ImmutableSet<RuleKey> ruleKeys,
+      ImmutableMap<String, String> metadata,
+      Path output)
+      throws InterruptedException {
+    if (!delegate.isStoreSupported()) {
+      return;
+    }
+    long startNanos = System.nanoTime();
+    delegate.store(ruleKeys, metadata, output);
+    long durationNanos = System.nanoTime() - startNanos;
+    long sizeBytes = 0;
+    try {
+      sizeBytes = filesystem.getFileSize(output);
+    } catch (IOException e) {
+      LOG.debug(e, "Could not read the size of %s.", output);
+    }
+    eventBus.post(ArtifactCacheLayerEvent.stored(name, ruleKeys, sizeBytes, durationNanos));
+  }
+
+  @Override
+  public boolean isStoreSupported() {
+    return delegate.isStoreSupported();
+  }
+
+  @Override
+  public ArtifactCompression getCompression() {
+    return delegate.getCompression();
+  }
+
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+}
@@ -16,11 +16,14 @@
 package com.facebook.buck.rules;
 
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Map;
 
 /**
  * Decorator for wrapping a {@link ArtifactCache} to log a {@link ArtifactCacheEvent} for the start
@@ -49,6 +52,57 @@ public class LoggingArtifactCacheDecorator {
         return fetchResult;
       }
 
+      @Override
+      public CacheResult fetchAndExtract(
+          RuleKey ruleKey,
+          ProjectFilesystem filesystem,
+          Optional<Path> copyTo,
+          UnchangedFileFilter unchangedFiles)
+          throws InterruptedException {
+        ArtifactCacheEvent.Started started = ArtifactCacheEvent.started(
+            ArtifactCacheEvent.Operation.FETCH,
+            ImmutableSet.of(ruleKey));
+        eventBus.post(started);
+        CacheResult fetchResult = delegate.fetchAndExtract(
+            ruleKey,
+            filesystem,
+            copyTo,
+            unchangedFiles);
+        eventBus.post(ArtifactCacheEvent.finished(
+                started,
+                fetchResult));
+        return fetchResult;
+      }
+
+      @Override
+      public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys)
+          throws InterruptedException {
+        return delegate.multiContains(ruleKeys);
+      }
+
+      @Override
+      public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, Path> outputs)
+          throws InterruptedException {
+        ImmutableMap.Builder<RuleKey, ArtifactCacheEvent.Started> started =
+            ImmutableMap.builder();
+        for (RuleKey ruleKey : outputs.keySet()) {
+          ArtifactCacheEvent.Started fetchStarted = ArtifactCacheEvent.started(
+              ArtifactCacheEvent.Operation.FETCH,
+              ImmutableSet.of(ruleKey));
+          eventBus.post(fetchStarted);
+          started.put(ruleKey, fetchStarted);
+        }
+        ImmutableMap<RuleKey, CacheResult> fetchResults = delegate.multiFetch(outputs);
+        for (Map.Entry<RuleKey, ArtifactCacheEvent.Started> entry : started.build().entrySet()) {
+          CacheResult fetchResult = fetchResults.get(entry.getKey());
+          eventBus.post(
+              ArtifactCacheEvent.finished(
+                  entry.getValue(),
+                  fetchResult == null ? CacheResult.miss() : fetchResult));
+        }
+        return fetchResults;
+      }
+
       @Override
       public void store(
           ImmutableSet<RuleKey> ruleKeys,
@@ -68,6 +122,11 @@ public class LoggingArtifactCacheDecorator {
         return delegate.isStoreSupported();
       }
 
+      @Override
+      public ArtifactCompression getCompression() {
+        return delegate.getCompression();
+      }
+
       @Override
       public void close() throws IOException {
         delegate.close();
@@ -16,33 +16,88 @@
 
 package com.facebook.buck.rules;
 
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.facebook.buck.zip.Unzip;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
 
 /**
  * MultiArtifactCache encapsulates a set of ArtifactCache instances such that fetch() succeeds if
  * any of the ArtifactCaches contain the desired artifact, and store() applies to all
  * ArtifactCaches.
+ * <p>
+ * By default, the ArtifactCaches are searched in order, and an artifact found in one of them is
+ * stored to the ones earlier in the search order before the fetch returns. When fetching in
+ * parallel, all of them are asked at once, the first hit is used and the other requests are
+ * cancelled, and the artifact is stored to the earlier ArtifactCaches in the background.
  */
 public class MultiArtifactCache implements ArtifactCache {
+
+  private static final Logger LOG = Logger.get(MultiArtifactCache.class);
+
   private final ImmutableList<ArtifactCache> artifactCaches;
   private final boolean isStoreSupported;
+  private final ArtifactCompression compression;
+  @Nullable private final ExecutorService fetchService;
+  @Nullable private final ExecutorService backfillService;
 
   public MultiArtifactCache(ImmutableList<ArtifactCache> artifactCaches) {
+    this(artifactCaches, /* fetchInParallel */ false);
+  }
+
+  public MultiArtifactCache(ImmutableList<ArtifactCache> artifactCaches, boolean fetchInParallel) {
     this.artifactCaches = artifactCaches;
 
+    // The same zip is stored to every cache, so it is written as fast as the fastest of them
+    // wants: the cache that asked for that is the one where compressing costs more than it saves.
     boolean isStoreSupported = false;
+    Optional<ArtifactCompression> compression = Optional.absent();
     for (ArtifactCache artifactCache : artifactCaches) {
       if (artifactCache.isStoreSupported()) {
         isStoreSupported = true;
-        break;
+        compression = Optional.of(
+            compression.isPresent() ?
+                ArtifactCompression.fastest(compression.get(), artifactCache.getCompression()) :
+                artifactCache.getCompression());
       }
     }
     this.isStoreSupported = isStoreSupported;
+    this.compression = compression.or(ArtifactCompression.DEFAULT);
+
+    if (fetchInParallel) {
+      this.fetchService = Executors.newCachedThreadPool(
+          new MoreExecutors.NamedThreadFactory("ArtifactCacheFetch"));
+      this.backfillService = MoreExecutors.newSingleThreadExecutor("ArtifactCacheBackfill");
+    } else {
+      this.fetchService = null;
+      this.backfillService = null;
+    }
   }
 
   /**
@@ -53,6 +108,23 @@ public class MultiArtifactCache implements ArtifactCache {
   @Override
   public CacheResult fetch(RuleKey ruleKey, Path output)
       throws InterruptedException {
+    if (fetchService != null) {
+      ParallelFetch fetched = fetchFromAll(ruleKey);
+      if (!fetched.isHit()) {
+        return fetched.result;
+      }
+      try {
+        if (output.getParent() != null) {
+          Files.createDirectories(output.getParent());
+        }
+        Files.copy(fetched.getArtifact(), output, StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+        return failedToUse(ruleKey, fetched, e);
+      }
+      backfill(ruleKey, fetched);
+      return fetched.result;
+    }
+
     CacheResult cacheResult = CacheResult.miss();
     for (ArtifactCache artifactCache : artifactCaches) {
       cacheResult = artifactCache.fetch(ruleKey, output);
@@ -71,6 +143,161 @@ public class MultiArtifactCache implements ArtifactCache {
     return cacheResult;
   }
 
+  /**
+   * Fetch the artifact matching ruleKey and unpack it into filesystem. As with
+   * {@link #fetch(RuleKey, Path)}, an artifact found in one of the encapsulated ArtifactCaches is
+   * stored to the ones earlier in the search order, so it is also saved to a temporary file
+   * whenever one of those supports storing.
+   */
+  @Override
+  public CacheResult fetchAndExtract(
+      RuleKey ruleKey,
+      ProjectFilesystem filesystem,
+      Optional<Path> copyTo,
+      UnchangedFileFilter unchangedFiles)
+      throws InterruptedException {
+    if (fetchService != null) {
+      // Every cache fetches into its own file, so the winner is only unpacked once it has won.
+      ParallelFetch fetched = fetchFromAll(ruleKey);
+      if (!fetched.isHit()) {
+        return fetched.result;
+      }
+      try {
+        if (copyTo.isPresent()) {
+          Files.copy(fetched.getArtifact(), copyTo.get(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Unzip.extractZipFile(
+            fetched.getArtifact(),
+            filesystem,
+            Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES,
+            unchangedFiles.getUnchangedFiles(fetched.result.getMetadata()));
+      } catch (IOException e) {
+        return failedToUse(ruleKey, fetched, e);
+      }
+      backfill(ruleKey, fetched);
+      return fetched.result;
+    }
+
+    CacheResult cacheResult = CacheResult.miss();
+    boolean isStoreSupportedByPriorCache = false;
+    for (ArtifactCache artifactCache : artifactCaches) {
+      Optional<Path> artifactCopy = copyTo;
+      Optional<Path> tempFile = Optional.absent();
+      if (!artifactCopy.isPresent() && isStoreSupportedByPriorCache) {
+        try {
+          tempFile = Optional.of(Files.createTempFile("buck_artifact_", ".zip"));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        artifactCopy = tempFile;
+      }
+
+      try {
+        cacheResult = artifactCache.fetchAndExtract(
+            ruleKey,
+            filesystem,
+            artifactCopy,
+            unchangedFiles);
+        if (cacheResult.getType().isSuccess()) {
+          if (isStoreSupportedByPriorCache) {
+            for (ArtifactCache priorArtifactCache : artifactCaches) {
+              if (priorArtifactCache.equals(artifactCache)) {
+                break;
+              }
+              priorArtifactCache.store(
+                  ImmutableSet.of(ruleKey),
+                  cacheResult.getMetadata(),
+                  artifactCopy.get());
+            }
+          }
+          return cacheResult;
+        }
+      } finally {
+        if (tempFile.isPresent()) {
+          try {
+            Files.deleteIfExists(tempFile.get());
+          } catch (IOException e) {
+            LOG.warn(e, "failed to delete %s", tempFile.get());
+          }
+        }
+      }
+      isStoreSupportedByPriorCache |= artifactCache.isStoreSupported();
+    }
+    return cacheResult;
+  }
+
+  /**
+   * Asks each of the encapsulated ArtifactCaches in turn about the keys that none of the earlier
+   * ones contain. As with {@link #fetch(RuleKey, Path)}, a key that none of them contain gets the
+   * result from the last one.
+   */
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys)
+      throws InterruptedException {
+    Map<RuleKey, CacheResult> results = Maps.newHashMap();
+    Set<RuleKey> remaining = Sets.newLinkedHashSet(ruleKeys);
+    for (ArtifactCache artifactCache : artifactCaches) {
+      if (remaining.isEmpty()) {
+        break;
+      }
+      ImmutableMap<RuleKey, CacheResult> cacheResults =
+          artifactCache.multiContains(ImmutableSet.copyOf(remaining));
+      for (Map.Entry<RuleKey, CacheResult> entry : cacheResults.entrySet()) {
+        results.put(entry.getKey(), entry.getValue());
+        if (entry.getValue().getType().isSuccess()) {
+          remaining.remove(entry.getKey());
+        }
+      }
+    }
+    return inOrderOf(ruleKeys, results);
+  }
+
+  /**
+   * Fetches each artifact from the first of the encapsulated ArtifactCaches that has it, and
+   * stores it to the caches earlier in the search order, as {@link #fetch(RuleKey, Path)} does.
+   * Each cache is only asked for the keys that the earlier ones did not have.
+   */
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, Path> outputs)
+      throws InterruptedException {
+    Map<RuleKey, CacheResult> results = Maps.newHashMap();
+    Map<RuleKey, Path> remaining = Maps.newLinkedHashMap(outputs);
+    for (ArtifactCache artifactCache : artifactCaches) {
+      if (remaining.isEmpty()) {
+        break;
+      }
+      ImmutableMap<RuleKey, CacheResult> cacheResults =
+          artifactCache.multiFetch(ImmutableMap.copyOf(remaining));
+      for (Map.Entry<RuleKey, CacheResult> entry : cacheResults.entrySet()) {
+        RuleKey ruleKey = entry.getKey();
+        CacheResult cacheResult = entry.getValue();
+        results.put(ruleKey, cacheResult);
+        if (!cacheResult.getType().isSuccess()) {
+          continue;
+        }
+        Path output = remaining.remove(ruleKey);
+        for (ArtifactCache priorArtifactCache : artifactCaches) {
+          if (priorArtifactCache.equals(artifactCache)) {
+            break;
+          }
+          priorArtifactCache.store(ImmutableSet.of(ruleKey), cacheResult.getMetadata(), output);
+        }
+      }
+    }
+    return inOrderOf(outputs.keySet(), results);
+  }
+
+  private static ImmutableMap<RuleKey, CacheResult> inOrderOf(
+      Iterable<RuleKey> ruleKeys,
+      Map<RuleKey, CacheResult> results) {
+    ImmutableMap.Builder<RuleKey, CacheResult> ordered = ImmutableMap.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      CacheResult result = results.get(ruleKey);
+      ordered.put(ruleKey, result == null ? CacheResult.miss() : result);
+    }
+    return ordered.build();
+  }
+
   /**
    * Store the artifact to all encapsulated ArtifactCaches.
    */
@@ -91,8 +318,174 @@ public class MultiArtifactCache implements ArtifactCache {
     return isStoreSupported;
   }
 
+  @Override
+  public ArtifactCompression getCompression() {
+    return compression;
+  }
+
+  /**
+   * Asks every encapsulated ArtifactCache for {@code ruleKey} at once, and waits for the first
+   * hit, or for all of them to miss. The requests that are still running then are cancelled.
+   */
+  private ParallelFetch fetchFromAll(RuleKey ruleKey) throws InterruptedException {
+    Preconditions.checkNotNull(fetchService);
+    AtomicInteger winner = new AtomicInteger(-1);
+    CompletionService<CacheResult> completionService =
+        new ExecutorCompletionService<>(fetchService);
+    List<LayerFetch> fetches = Lists.newArrayList();
+    List<Future<CacheResult>> futures = Lists.newArrayList();
+    for (int i = 0; i < artifactCaches.size(); i++) {
+      LayerFetch fetch = new LayerFetch(i, ruleKey, winner);
+      fetches.add(fetch);
+      futures.add(completionService.submit(fetch));
+    }
+
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        CacheResult result = resultOf(completionService.take());
+        if (result.getType().isSuccess()) {
+          int index = winner.get();
+          return new ParallelFetch(
+              resultOf(futures.get(index)),
+              index,
+              fetches.get(index).artifact);
+        }
+      }
+    } finally {
+      for (Future<CacheResult> future : futures) {
+        future.cancel(/* mayInterruptIfRunning */ true);
+      }
+    }
+
+    // As when searching in order, a miss reports the result from the last cache.
+    int last = futures.size() - 1;
+    return new ParallelFetch(resultOf(futures.get(last)), last, null);
+  }
+
+  private static CacheResult resultOf(Future<CacheResult> future) throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      LOG.warn(e.getCause(), "Artifact fetch failed");
+      return CacheResult.miss();
+    }
+  }
+
+  private CacheResult failedToUse(RuleKey ruleKey, ParallelFetch fetched, IOException e) {
+    LOG.warn(e, "Failed to use the artifact for %s", ruleKey);
+    deleteQuietly(fetched.getArtifact());
+    return CacheResult.error(
+        fetched.result.getCacheSource(),
+        String.format("%s: %s", e.getClass(), e.getMessage()));
+  }
+
+  /**
+   * Stores a fetched artifact to the caches earlier in the search order than the one that had it,
+   * off the calling thread, and then deletes it.
+   */
+  private void backfill(final RuleKey ruleKey, final ParallelFetch fetched) {
+    Preconditions.checkNotNull(backfillService);
+    final Path artifact = fetched.getArtifact();
+    if (fetched.cacheIndex == 0) {
+      deleteQuietly(artifact);
+      return;
+    }
+    backfillService.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              for (ArtifactCache priorArtifactCache :
+                  artifactCaches.subList(0, fetched.cacheIndex)) {
+                priorArtifactCache.store(
+                    ImmutableSet.of(ruleKey),
+                    fetched.result.getMetadata(),
+                    artifact);
+              }
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            } finally {
+              deleteQuietly(artifact);
+            }
+          }
+        });
+  }
+
+  private static void deleteQuietly(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOG.warn(e, "failed to delete %s", path);
+    }
+  }
+
+  /**
+   * Fetches an artifact from one of the encapsulated ArtifactCaches into a temporary file, which
+   * is kept only if this was the first of them to hit.
+   */
+  private class LayerFetch implements Callable<CacheResult> {
+    private final int index;
+    private final RuleKey ruleKey;
+    private final AtomicInteger winner;
+    @Nullable private volatile Path artifact;
+
+    public LayerFetch(int index, RuleKey ruleKey, AtomicInteger winner) {
+      this.index = index;
+      this.ruleKey = ruleKey;
+      this.winner = winner;
+    }
+
+    @Override
+    public CacheResult call() throws IOException, InterruptedException {
+      Path temp = Files.createTempFile("buck_artifact_", ".zip");
+      CacheResult result = CacheResult.miss();
+      try {
+        result = artifactCaches.get(index).fetch(ruleKey, temp);
+      } finally {
+        if (result.getType().isSuccess() && winner.compareAndSet(-1, index)) {
+          artifact = temp;
+        } else {
+          deleteQuietly(temp);
+        }
+      }
+      return result;
+    }
+  }
+
+  private static class ParallelFetch {
+    private final CacheResult result;
+    private final int cacheIndex;
+    @Nullable private final Path artifact;
+
+    public ParallelFetch(CacheResult result, int cacheIndex, @Nullable Path artifact) {
+      this.result = result;
+      this.cacheIndex = cacheIndex;
+      this.artifact = artifact;
+    }
+
+    public boolean isHit() {
+      return artifact != null;
+    }
+
+    public Path getArtifact() {
+      return Preconditions.checkNotNull(artifact);
+    }
+  }
+
+  /**
+   * Waits for artifacts that are being stored in the background, and then closes the
+   * encapsulated ArtifactCaches.
+   */
   @Override
   public void close() throws IOException {
+    if (fetchService != null && backfillService != null) {
+      fetchService.shutdownNow();
+      try {
+        MoreExecutors.shutdown(backfillService);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
     // TODO(natthu): It's possible for this to be interrupted before it gets to call close() on all
     // the individual caches. This is acceptable for now since every ArtifactCache.close() is a
     // no-op.
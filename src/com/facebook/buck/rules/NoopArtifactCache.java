@@ -16,10 +16,13 @@
 
 package com.facebook.buck.rules;
 
+import com.facebook.buck.io.ProjectFilesystem;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 import java.nio.file.Path;
+import java.util.Map;
 
 public class NoopArtifactCache implements ArtifactCache {
 
@@ -29,6 +32,35 @@ public class NoopArtifactCache implements ArtifactCache {
     return CacheResult.miss();
   }
 
+  @Override
+  public CacheResult fetchAndExtract(
+      RuleKey ruleKey,
+      ProjectFilesystem filesystem,
+      Optional<Path> copyTo,
+      UnchangedFileFilter unchangedFiles) {
+    // Do nothing.
+    return CacheResult.miss();
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      results.put(ruleKey, CacheResult.miss());
+    }
+    return results.build();
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, Path> outputs)
+      throws InterruptedException {
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (Map.Entry<RuleKey, Path> output : outputs.entrySet()) {
+      results.put(output.getKey(), fetch(output.getKey(), output.getValue()));
+    }
+    return results.build();
+  }
+
   @Override
   public void store(
       ImmutableSet<RuleKey> ruleKeys,
@@ -43,6 +75,11 @@ public class NoopArtifactCache implements ArtifactCache {
     return false;
   }
 
+  @Override
+  public ArtifactCompression getCompression() {
+    return ArtifactCompression.DEFAULT;
+  }
+
   @Override
   public void close() {
     // Nothing to complete - do nothing.
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes the {@link RuleKey}s of a set of {@link BuildRule}s and all of their transitive
+ * dependencies up front, bottom-up and in parallel, before any of them are built.
+ * <p>
+ * A rule's key includes the keys of its deps, so each rule is only keyed once the keys of all its
+ * deps are known. Independent subgraphs are keyed concurrently on a {@link ForkJoinPool}. Rules
+ * memoize their own keys, so the build and cache fetches that follow reuse these results rather
+ * than recomputing them lazily one rule at a time.
+ */
+public class ParallelRuleKeyCalculator {
+
+  private static final Logger LOG = Logger.get(ParallelRuleKeyCalculator.class);
+
+  private final int parallelism;
+
+  /**
+   * @param parallelism the number of threads to compute rule keys on.
+   */
+  public ParallelRuleKeyCalculator(int parallelism) {
+    Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * @return the rule key of each of {@code rules} and of every rule they transitively depend on.
+   */
+  public ImmutableMap<BuildRule, RuleKey> calculate(
+      BuckEventBus eventBus,
+      Iterable<? extends BuildRule> rules) {
+    long start = System.nanoTime();
+    ConcurrentMap<BuildRule, RuleKeyTask> tasks = new ConcurrentHashMap<>();
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try (SimplePerfEvent.Scope scope =
+             SimplePerfEvent.scope(eventBus, PerfEventId.of("RuleKeyCalculation"))) {
+      pool.invoke(new RootTask(tasks, rules));
+      scope.appendFinishedInfo("rules", tasks.size());
+    } finally {
+      pool.shutdownNow();
+    }
+
+    ImmutableMap.Builder<BuildRule, RuleKey> ruleKeys = ImmutableMap.builder();
+    for (Map.Entry<BuildRule, RuleKeyTask> entry : tasks.entrySet()) {
+      ruleKeys.put(entry.getKey(), entry.getValue().join());
+    }
+    LOG.debug(
+        "Calculated %d rule keys in %d ms.",
+        tasks.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return ruleKeys.build();
+  }
+
+  /**
+   * Forks the task for {@code rule}, unless another thread has already done so.
+   *
+   * @return the task computing the rule key of {@code rule}.
+   */
+  private static RuleKeyTask forkTask(
+      ConcurrentMap<BuildRule, RuleKeyTask> tasks,
+      BuildRule rule) {
+    RuleKeyTask task = new RuleKeyTask(tasks, rule);
+    RuleKeyTask existing = tasks.putIfAbsent(rule, task);
+    if (existing != null) {
+      return existing;
+    }
+    task.fork();
+    return task;
+  }
+
+  private static void joinAll(List<RuleKeyTask> tasks) {
+    for (RuleKeyTask task : tasks) {
+      task.join();
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class RootTask extends RecursiveTask<Void> {
+
+    private final ConcurrentMap<BuildRule, RuleKeyTask> tasks;
+    private final Iterable<? extends BuildRule> roots;
+
+    public RootTask(
+        ConcurrentMap<BuildRule, RuleKeyTask> tasks,
+        Iterable<? extends BuildRule> roots) {
+      this.tasks = tasks;
+      this.roots = roots;
+    }
+
+    @Override
+    protected Void compute() {
+      List<RuleKeyTask> rootTasks = Lists.newArrayList();
+      for (BuildRule root : roots) {
+        rootTasks.add(forkTask(tasks, root));
+      }
+      joinAll(rootTasks);
+      return null;
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class RuleKeyTask extends RecursiveTask<RuleKey> {
+
+    private final ConcurrentMap<BuildRule, RuleKeyTask> tasks;
+    private final BuildRule rule;
+
+    public RuleKeyTask(ConcurrentMap<BuildRule, RuleKeyTask> tasks, BuildRule rule) {
+      this.tasks = tasks;
+      this.rule = rule;
+    }
+
+    @Override
+    protected RuleKey compute() {
+      List<RuleKeyTask> depTasks = Lists.newArrayListWithCapacity(rule.getDeps().size());
+      for (BuildRule dep : rule.getDeps()) {
+        depTasks.add(forkTask(tasks, dep));
+      }
+      joinAll(depTasks);
+      return rule.getRuleKey();
+    }
+  }
+}
@@ -41,8 +41,16 @@ class ParamInfo<T> implements Comparable<ParamInfo<T>> {
   private final boolean isInput;
   private final Field field;
 
+  /**
+   * The value to set when the build file omits this parameter, or null if it is required.
+   */
+  @Nullable
+  private final Object valueForNull;
+
   public ParamInfo(TypeCoercerFactory typeCoercerFactory, Field field) {
     this.field = field;
+    // The field is public, but skipping the access check makes each get and set cheaper.
+    this.field.setAccessible(true);
     this.name = field.getName();
     Hint hint = field.getAnnotation(Hint.class);
     this.pythonName = determinePythonName(this.name, hint);
@@ -51,6 +59,16 @@ class ParamInfo<T> implements Comparable<ParamInfo<T>> {
 
     isOptional = Optional.class.isAssignableFrom(field.getType());
     this.typeCoercer = typeCoercerFactory.typeCoercerForType(Types.getFirstNonOptionalType(field));
+
+    if (isOptional) {
+      this.valueForNull = typeCoercer.getOptionalValue();
+    } else if (Number.class.isAssignableFrom(typeCoercer.getOutputClass())) {
+      this.valueForNull = 0;
+    } else if (Boolean.class.isAssignableFrom(typeCoercer.getOutputClass())) {
+      this.valueForNull = false;
+    } else {
+      this.valueForNull = null;
+    }
   }
 
   public String getName() {
@@ -137,15 +155,10 @@ class ParamInfo<T> implements Comparable<ParamInfo<T>> {
     Object result;
 
     if (value == null) {
-      if (isOptional) {
-        result = typeCoercer.getOptionalValue();
-      } else if (Number.class.isAssignableFrom(typeCoercer.getOutputClass())) {
-        result = 0;
-      } else if (Boolean.class.isAssignableFrom(typeCoercer.getOutputClass())) {
-        result = false;
-      } else {
+      if (valueForNull == null) {
         throw new ParamInfoException(name, "field cannot be null");
       }
+      result = valueForNull;
     } else {
       try {
         result = typeCoercer.coerce(
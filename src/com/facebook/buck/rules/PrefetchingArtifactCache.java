@@ -0,0 +1,325 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.facebook.buck.zip.Unzip;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decorates an {@link ArtifactCache} so that the artifacts a build is going to ask for are looked
+ * up in batches, and downloaded in the background, before the build engine gets to them.
+ * <p>
+ * The build engine only asks the cache about a rule when none of the rules that depend on it were
+ * fetched, so {@link #prefetch(Iterable)} walks the action graph in the same way: it asks about
+ * the top-level rules in one {@link ArtifactCache#multiContains} request per batch, fetches the
+ * hits with {@link ArtifactCache#multiFetch}, and moves on to the deps of the misses.
+ * <p>
+ * Fetches that the walk has not got to yet, or that failed, go to the delegate as usual.
+ */
+public class PrefetchingArtifactCache implements ArtifactCache {
+
+  private static final Logger LOG = Logger.get(PrefetchingArtifactCache.class);
+
+  private static final int PREFETCH_THREADS = 4;
+
+  /** The number of hits to download in one {@link ArtifactCache#multiFetch} request. */
+  private static final int FETCH_BATCH_SIZE = 8;
+
+  /** Marks a key whose artifact the build engine has already asked for. */
+  private static final ListenableFuture<CacheResult> CLAIMED =
+      Futures.immediateFuture(CacheResult.skip());
+
+  private final ArtifactCache delegate;
+  private final ProjectFilesystem filesystem;
+  private final int batchSize;
+  private final Path scratchDir;
+  private final ExecutorService service;
+  private final ConcurrentMap<RuleKey, ListenableFuture<CacheResult>> results;
+
+  public PrefetchingArtifactCache(
+      ArtifactCache delegate,
+      ProjectFilesystem filesystem,
+      int batchSize) {
+    Preconditions.checkArgument(batchSize > 0);
+    this.delegate = delegate;
+    this.filesystem = filesystem;
+    this.batchSize = batchSize;
+    this.scratchDir = BuckConstant.SCRATCH_PATH
+        .resolve("artifact_prefetch")
+        .resolve(UUID.randomUUID().toString());
+    this.service = MoreExecutors.newMultiThreadExecutor("ArtifactPrefetch", PREFETCH_THREADS);
+    this.results = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Starts looking up and downloading the artifacts of {@code topLevelRules} and their deps in the
+   * background. The rule keys of all of these rules must already have been calculated.
+   *
+   * @return a future that is done once every rule that will be prefetched has been looked up.
+   */
+  public Future<?> prefetch(Iterable<BuildRule> topLevelRules) {
+    final ImmutableList<BuildRule> frontier = ImmutableList.copyOf(topLevelRules);
+    return service.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              walk(frontier);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+              LOG.warn(e, "Failed to prefetch artifacts.");
+            }
+          }
+        });
+  }
+
+  private void walk(ImmutableList<BuildRule> frontier) throws InterruptedException {
+    Set<BuildRule> visited = Sets.newHashSet();
+    while (!frontier.isEmpty()) {
+      Map<RuleKey, BuildRule> toQuery = new LinkedHashMap<>();
+      for (BuildRule rule : frontier) {
+        if (visited.add(rule) && !isBuiltLocally(rule)) {
+          toQuery.put(rule.getRuleKey(), rule);
+        }
+      }
+
+      ImmutableList.Builder<BuildRule> next = ImmutableList.builder();
+      for (List<RuleKey> batch : Iterables.partition(toQuery.keySet(), batchSize)) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new InterruptedException();
+        }
+        ImmutableMap<RuleKey, CacheResult> contained =
+            delegate.multiContains(ImmutableSet.copyOf(batch));
+        Map<RuleKey, SettableFuture<CacheResult>> hits = new LinkedHashMap<>();
+        for (RuleKey ruleKey : batch) {
+          CacheResult result = contained.get(ruleKey);
+          if (result != null && result.getType() == CacheResult.Type.HIT) {
+            SettableFuture<CacheResult> future = SettableFuture.create();
+            if (results.putIfAbsent(ruleKey, future) == null) {
+              hits.put(ruleKey, future);
+            }
+            continue;
+          }
+          if (result != null && result.getType() == CacheResult.Type.MISS) {
+            results.putIfAbsent(ruleKey, Futures.immediateFuture(CacheResult.miss()));
+          }
+          next.addAll(toQuery.get(ruleKey).getDeps());
+        }
+        for (List<RuleKey> fetchBatch : Iterables.partition(hits.keySet(), FETCH_BATCH_SIZE)) {
+          final ImmutableMap<RuleKey, SettableFuture<CacheResult>> futures =
+              ImmutableMap.copyOf(Maps.filterKeys(hits, Predicates.in(fetchBatch)));
+          service.submit(
+              new Runnable() {
+                @Override
+                public void run() {
+                  fetchBatch(futures);
+                }
+              });
+        }
+      }
+      frontier = next.build();
+    }
+  }
+
+  private boolean isBuiltLocally(BuildRule rule) {
+    Optional<RuleKey> onDiskRuleKey =
+        new DefaultOnDiskBuildInfo(rule.getBuildTarget(), filesystem)
+            .getRuleKey(BuildInfo.METADATA_KEY_FOR_RULE_KEY);
+    return onDiskRuleKey.isPresent() && onDiskRuleKey.get().equals(rule.getRuleKey());
+  }
+
+  private void fetchBatch(ImmutableMap<RuleKey, SettableFuture<CacheResult>> futures) {
+    ImmutableMap<RuleKey, CacheResult> fetched = ImmutableMap.of();
+    try {
+      filesystem.mkdirs(scratchDir);
+      ImmutableMap.Builder<RuleKey, Path> outputs = ImmutableMap.builder();
+      for (RuleKey ruleKey : futures.keySet()) {
+        outputs.put(ruleKey, filesystem.resolve(getScratchPath(ruleKey)));
+      }
+      fetched = delegate.multiFetch(outputs.build());
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Failed to prefetch %d artifacts.", futures.size());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      // Anything without a result is fetched from the delegate again when it is asked for.
+      for (Map.Entry<RuleKey, SettableFuture<CacheResult>> future : futures.entrySet()) {
+        CacheResult result = fetched.get(future.getKey());
+        future.getValue().set(result == null ? CacheResult.skip() : result);
+      }
+    }
+  }
+
+  private Path getScratchPath(RuleKey ruleKey) {
+    return scratchDir.resolve(ruleKey.toString());
+  }
+
+  /**
+   * @return the prefetched result for {@code ruleKey}, which is absent if the artifact has to be
+   *     fetched from the delegate.
+   */
+  private Optional<CacheResult> claim(RuleKey ruleKey) throws InterruptedException {
+    ListenableFuture<CacheResult> future = results.put(ruleKey, CLAIMED);
+    if (future == null || future == CLAIMED) {
+      return Optional.absent();
+    }
+    CacheResult result;
+    try {
+      result = future.get();
+    } catch (ExecutionException e) {
+      return Optional.absent();
+    }
+    if (result.getType() == CacheResult.Type.HIT || result.getType() == CacheResult.Type.MISS) {
+      return Optional.of(result);
+    }
+    return Optional.absent();
+  }
+
+  @Override
+  public CacheResult fetch(RuleKey ruleKey, Path output) throws InterruptedException {
+    Optional<CacheResult> prefetched = claim(ruleKey);
+    if (prefetched.isPresent() && prefetched.get().getType() == CacheResult.Type.HIT) {
+      try {
+        filesystem.createParentDirs(output);
+        filesystem.move(getScratchPath(ruleKey), output);
+        return prefetched.get();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to use the prefetched artifact for %s.", ruleKey);
+      }
+    } else if (prefetched.isPresent()) {
+      return prefetched.get();
+    }
+    return delegate.fetch(ruleKey, output);
+  }
+
+  @Override
+  public CacheResult fetchAndExtract(
+      RuleKey ruleKey,
+      ProjectFilesystem outputFilesystem,
+      Optional<Path> copyTo,
+      UnchangedFileFilter unchangedFiles)
+      throws InterruptedException {
+    Optional<CacheResult> prefetched = claim(ruleKey);
+    if (prefetched.isPresent() && prefetched.get().getType() == CacheResult.Type.HIT) {
+      Path artifact = getScratchPath(ruleKey);
+      try {
+        if (copyTo.isPresent()) {
+          filesystem.createParentDirs(copyTo.get());
+          filesystem.copyFile(artifact, copyTo.get());
+        }
+        Unzip.extractZipFile(
+            filesystem.resolve(artifact),
+            outputFilesystem,
+            Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES,
+            unchangedFiles.getUnchangedFiles(prefetched.get().getMetadata()));
+        filesystem.deleteFileAtPathIfExists(artifact);
+        return prefetched.get();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to use the prefetched artifact for %s.", ruleKey);
+      }
+    } else if (prefetched.isPresent()) {
+      return prefetched.get();
+    }
+    return delegate.fetchAndExtract(ruleKey, outputFilesystem, copyTo, unchangedFiles);
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys)
+      throws InterruptedException {
+    return delegate.multiContains(ruleKeys);
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, Path> outputs)
+      throws InterruptedException {
+    return delegate.multiFetch(outputs);
+  }
+
+  @Override
+  public void store(
+      ImmutableSet<RuleKey> ruleKeys,
+      ImmutableMap<String, String> metadata,
+      Path output)
+      throws InterruptedException {
+    delegate.store(ruleKeys, metadata, output);
+  }
+
+  @Override
+  public boolean isStoreSupported() {
+    return delegate.isStoreSupported();
+  }
+
+  @Override
+  public ArtifactCompression getCompression() {
+    return delegate.getCompression();
+  }
+
+  @VisibleForTesting
+  Path getScratchDir() {
+    return scratchDir;
+  }
+
+  /**
+   * Abandons any prefetching that is still going on and deletes the artifacts that the build did
+   * not ask for. The delegate is left open.
+   */
+  @Override
+  public void close() {
+    service.shutdownNow();
+    try {
+      MoreExecutors.shutdown(service);
+    } catch (InterruptedException e) {
+      LOG.warn("Interrupted while waiting for artifact prefetching to stop.");
+      Thread.currentThread().interrupt();
+    }
+    try {
+      filesystem.deleteRecursivelyIfExists(scratchDir);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to delete prefetched artifacts in %s.", scratchDir);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.util.BuckConstant;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Ordering;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How long each rule took to build locally in previous builds, by the fully qualified name of its
+ * target, which lets the {@link CachingBuildEngine} start the longest chains of rules first.
+ */
+public class RuleDurationHistory {
+
+  private static final Logger LOG = Logger.get(RuleDurationHistory.class);
+
+  public static final Path PATH = BuckConstant.LOG_PATH.resolve("rule_durations.json");
+
+  /**
+   * What the rules are assumed to take when there is no history at all, which makes the longest
+   * chains the ones with the most rules.  No rule is assumed to take less.
+   */
+  private static final long DEFAULT_DURATION_MILLIS = 1;
+
+  private final ImmutableSortedMap<String, Long> durationMillis;
+  private final long defaultDurationMillis;
+
+  public RuleDurationHistory(Map<String, Long> durationMillis) {
+    this.durationMillis = ImmutableSortedMap.copyOf(durationMillis);
+    this.defaultDurationMillis = median(this.durationMillis.values().asList());
+  }
+
+  public static RuleDurationHistory empty() {
+    return new RuleDurationHistory(ImmutableSortedMap.<String, Long>of());
+  }
+
+  /**
+   * @return the history in {@link #PATH}, or an empty one if there is none or it can't be read.
+   */
+  public static RuleDurationHistory readFrom(
+      ProjectFilesystem filesystem,
+      ObjectMapper objectMapper) {
+    if (!filesystem.exists(PATH)) {
+      return empty();
+    }
+    try (InputStream input = filesystem.newFileInputStream(PATH)) {
+      Map<String, Long> durations =
+          objectMapper.readValue(input, new TypeReference<Map<String, Long>>() { });
+      return new RuleDurationHistory(durations);
+    } catch (IOException e) {
+      LOG.warn(e, "Could not read %s.", PATH);
+      return empty();
+    }
+  }
+
+  public void writeTo(ProjectFilesystem filesystem, ObjectMapper objectMapper) throws IOException {
+    filesystem.createParentDirs(PATH);
+    try (OutputStream output = filesystem.newFileOutputStream(PATH)) {
+      objectMapper.writeValue(output, durationMillis);
+    }
+  }
+
+  public ImmutableSortedMap<String, Long> getDurationMillis() {
+    return durationMillis;
+  }
+
+  public Optional<Long> getDurationMillis(BuildTarget target) {
+    return Optional.fromNullable(durationMillis.get(target.getFullyQualifiedName()));
+  }
+
+  /**
+   * @return how long the rule for {@code target} took the last times that it was built, or, for a
+   *     rule that hasn't been built before, how long the median rule took.
+   */
+  public long getEstimatedDurationMillis(BuildTarget target) {
+    return Math.max(getDurationMillis(target).or(defaultDurationMillis), DEFAULT_DURATION_MILLIS);
+  }
+
+  /**
+   * @param measuredMillis how long rules took to build in the latest build.
+   * @return a history in which each rule that was measured again is the average of the old and
+   *     the new duration, so that a single slow or fast build does not undo the history.
+   */
+  public RuleDurationHistory update(Map<String, Long> measuredMillis) {
+    ImmutableSortedMap.Builder<String, Long> updated = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, Long> entry : durationMillis.entrySet()) {
+      if (!measuredMillis.containsKey(entry.getKey())) {
+        updated.put(entry);
+      }
+    }
+    for (Map.Entry<String, Long> entry : measuredMillis.entrySet()) {
+      Long previous = durationMillis.get(entry.getKey());
+      updated.put(
+          entry.getKey(),
+          previous == null ? entry.getValue() : (previous + entry.getValue()) / 2);
+    }
+    return new RuleDurationHistory(updated.build());
+  }
+
+  private static long median(List<Long> values) {
+    if (values.isEmpty()) {
+      return DEFAULT_DURATION_MILLIS;
+    }
+    List<Long> sorted = Ordering.natural().sortedCopy(values);
+    return Math.max(sorted.get(sorted.size() / 2), DEFAULT_DURATION_MILLIS);
+  }
+}
@@ -121,21 +121,43 @@ public class RuleKey {
     @VisibleForTesting
     static final byte SEPARATOR = '\0';
 
+    private static final byte[] TRUE = "t".getBytes();
+    private static final byte[] FALSE = "f".getBytes();
+    private static final byte[] MAP_START = "{".getBytes();
+    private static final byte[] MAP_ARROW = " -> ".getBytes();
+    private static final byte[] MAP_END = "}".getBytes();
+    private static final byte[] FLAGS_START = "[".getBytes();
+    private static final byte[] FLAGS_SEPARATOR = ",".getBytes();
+    private static final byte[] FLAGS_END = "]".getBytes();
+
     private static final Logger logger = Logger.get(Builder.class);
 
     private final SourcePathResolver resolver;
     private final Hasher hasher;
     private final FileHashCache hashCache;
 
+    private final Optional<RuleKeyLog> ruleKeyLog;
+
     @Nullable private List<String> logElms;
 
     public Builder(
         SourcePathResolver resolver,
         FileHashCache hashCache) {
+      this(resolver, hashCache, Optional.<RuleKeyLog>absent());
+    }
+
+    /**
+     * @param ruleKeyLog if present, what goes into each key that this builds is recorded in it.
+     */
+    public Builder(
+        SourcePathResolver resolver,
+        FileHashCache hashCache,
+        Optional<RuleKeyLog> ruleKeyLog) {
       this.resolver = resolver;
       this.hasher = new AppendingHasher(Hashing.sha1(), /* numHashers */ 2);
       this.hashCache = hashCache;
-      if (logger.isVerboseEnabled()) {
+      this.ruleKeyLog = ruleKeyLog;
+      if (logger.isVerboseEnabled() || ruleKeyLog.isPresent()) {
         this.logElms = Lists.newArrayList();
       }
     }
@@ -240,14 +262,14 @@ public class RuleKey {
               key,
               val);
         }
-        feed("{".getBytes());
+        feed(MAP_START);
         for (Map.Entry<?, ?> entry : ((Map<?, ?>) val).entrySet()) {
           setReflectively(key, entry.getKey());
-          feed(" -> ".getBytes());
+          feed(MAP_ARROW);
           setReflectively(key, entry.getValue());
           separate();
         }
-        feed("}".getBytes());
+        feed(MAP_END);
         return separate();
       }
 
@@ -288,11 +310,11 @@ public class RuleKey {
       if (val == null) { // Null value first
         return separate();
       } else if (val instanceof Boolean) {           // JRE types
+        putBoolean((boolean) val);
+      } else if (val instanceof Enum) {
         if (logElms != null) {
-          logElms.add(String.format("boolean(\"%s\"):", (boolean) val ? "true" : "false"));
+          logElms.add(String.format("enum(%s):", val));
         }
-        feed(((boolean) val ? "t" : "f").getBytes());
-      } else if (val instanceof Enum) {
         feed(String.valueOf(val).getBytes());
       } else if (val instanceof Number) {
         if (logElms != null) {
@@ -319,10 +341,7 @@ public class RuleKey {
           throw Throwables.propagate(e);
         }
       } else if (val instanceof String) {
-        if (logElms != null) {
-          logElms.add(String.format("string(\"%s\"):", val));
-        }
-        feed(((String) val).getBytes());
+        putString((String) val);
       } else if (val instanceof BuildRule) {
         return setBuildRule((BuildRule) val);
       } else if (val instanceof BuildRuleType) {
@@ -350,12 +369,15 @@ public class RuleKey {
       } else if (val instanceof SourceWithFlags) {
         SourceWithFlags source = (SourceWithFlags) val;
         setSingleValue(source.getSourcePath());
-        feed("[".getBytes());
+        if (logElms != null) {
+          logElms.add(String.format("flags(%s):", Joiner.on(",").join(source.getFlags())));
+        }
+        feed(FLAGS_START);
         for (String flag : source.getFlags()) {
           feed(flag.getBytes());
-          feed(",".getBytes());
+          feed(FLAGS_SEPARATOR);
         }
-        feed("]".getBytes());
+        feed(FLAGS_END);
       } else {
         throw new RuntimeException("Unsupported value type: " + val.getClass());
       }
@@ -363,10 +385,93 @@ public class RuleKey {
       return separate();
     }
 
+    private void putBoolean(boolean val) {
+      if (logElms != null) {
+        logElms.add(String.format("boolean(\"%s\"):", val ? "true" : "false"));
+      }
+      feed(val ? TRUE : FALSE);
+    }
+
+    private void putString(String val) {
+      if (logElms != null) {
+        logElms.add(String.format("string(\"%s\"):", val));
+      }
+      feed(val.getBytes());
+    }
+
+    /**
+     * Equivalent to {@link #setReflectively(String, Object)} with a boxed {@code val}, without
+     * boxing it or inspecting its type.
+     */
+    public Builder setBoolean(String key, boolean val) {
+      setKey(key);
+      putBoolean(val);
+      return separate();
+    }
+
+    /**
+     * Equivalent to {@link #setReflectively(String, Object)} with a boxed {@code val}, without
+     * boxing it or inspecting its type.
+     */
+    public Builder setInt(String key, int val) {
+      setKey(key);
+      if (logElms != null) {
+        logElms.add(String.format("number(%s):", val));
+      }
+      hasher.putInt(val);
+      return separate();
+    }
+
+    /**
+     * Equivalent to {@link #setReflectively(String, Object)} with a boxed {@code val}, without
+     * boxing it or inspecting its type.
+     */
+    public Builder setLong(String key, long val) {
+      setKey(key);
+      if (logElms != null) {
+        logElms.add(String.format("number(%s):", val));
+      }
+      hasher.putLong(val);
+      return separate();
+    }
+
+    /**
+     * Equivalent to {@link #setReflectively(String, Object)}, without inspecting the type of
+     * {@code val}.
+     */
+    public Builder setString(String key, @Nullable String val) {
+      setKey(key);
+      if (val != null) {
+        putString(val);
+      }
+      return separate();
+    }
+
+    /**
+     * Equivalent to {@link #setReflectively(String, Object)}, without inspecting the type of
+     * {@code val}.
+     */
+    public Builder setPath(String key, @Nullable Path val) {
+      setKey(key);
+      if (val != null) {
+        try {
+          setPath(val);
+        } catch (IOException e) {
+          throw Throwables.propagate(e);
+        }
+      }
+      return separate();
+    }
+
     public RuleKey build() {
       RuleKey ruleKey = new RuleKey(hasher.hash());
       if (logElms != null) {
-        logger.verbose("RuleKey %s=%s", ruleKey, Joiner.on("").join(logElms));
+        if (logger.isVerboseEnabled()) {
+          logger.verbose("RuleKey %s=%s", ruleKey, Joiner.on("").join(logElms));
+        }
+        if (ruleKeyLog.isPresent()) {
+          ruleKeyLog.get().recordInputs(ruleKey, logElms);
+        }
       }
       return ruleKey;
     }
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.rules;
+
+import com.facebook.buck.util.BuckConstant;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records what went into each {@link RuleKey} that a build computes, and which rule each key
+ * belongs to, so that the rule keys of two builds can be compared input by input.
+ * <p>
+ * Logs are written in a compact binary form: every distinct string is written once, and keys and
+ * their inputs refer to the strings by index.
+ */
+public class RuleKeyLog {
+
+  /** Where the logs of recent builds are kept. */
+  public static final Path LOG_DIR = BuckConstant.LOG_PATH.resolve("rule_keys");
+
+  /** The extension of the logs in {@link #LOG_DIR}, which are named after their build ids. */
+  public static final String EXTENSION = ".rulekeys";
+
+  private static final int FORMAT_VERSION = 1;
+
+  private final ConcurrentMap<RuleKey, ImmutableList<String>> inputs;
+  private final ConcurrentMap<String, RuleKey> ruleKeys;
+
+  public RuleKeyLog() {
+    this.inputs = new ConcurrentHashMap<>();
+    this.ruleKeys = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @param elements what went into {@code ruleKey}, in the order that it was added to the key.
+   */
+  public void recordInputs(RuleKey ruleKey, List<String> elements) {
+    inputs.putIfAbsent(ruleKey, ImmutableList.copyOf(elements));
+  }
+
+  public void recordRule(String fullyQualifiedName, RuleKey ruleKey) {
+    ruleKeys.put(fullyQualifiedName, ruleKey);
+  }
+
+  /**
+   * @return the rule key of each rule, by the fully qualified name of its target.
+   */
+  public ImmutableSortedMap<String, RuleKey> getRuleKeys() {
+    return ImmutableSortedMap.copyOf(ruleKeys);
+  }
+
+  public Optional<ImmutableList<String>> getInputs(RuleKey ruleKey) {
+    return Optional.fromNullable(inputs.get(ruleKey));
+  }
+
+  public void writeTo(OutputStream output) throws IOException {
+    Map<String, Integer> strings = Maps.newLinkedHashMap();
+    ImmutableMap<RuleKey, ImmutableList<String>> inputsToWrite = ImmutableMap.copyOf(inputs);
+    ImmutableSortedMap<String, RuleKey> rulesToWrite = getRuleKeys();
+    for (Map.Entry<RuleKey, ImmutableList<String>> entry : inputsToWrite.entrySet()) {
+      intern(strings, entry.getKey().toString());
+      for (String element : entry.getValue()) {
+        intern(strings, element);
+      }
+    }
+    for (Map.Entry<String, RuleKey> entry : rulesToWrite.entrySet()) {
+      intern(strings, entry.getKey());
+      intern(strings, entry.getValue().toString());
+    }
+
+    GZIPOutputStream compressed = new GZIPOutputStream(output);
+    DataOutputStream out = new DataOutputStream(compressed);
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(strings.size());
+    for (String string : strings.keySet()) {
+      byte[] bytes = string.getBytes(Charsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+    out.writeInt(inputsToWrite.size());
+    for (Map.Entry<RuleKey, ImmutableList<String>> entry : inputsToWrite.entrySet()) {
+      out.writeInt(strings.get(entry.getKey().toString()));
+      out.writeInt(entry.getValue().size());
+      for (String element : entry.getValue()) {
+        out.writeInt(strings.get(element));
+      }
+    }
+    out.writeInt(rulesToWrite.size());
+    for (Map.Entry<String, RuleKey> entry : rulesToWrite.entrySet()) {
+      out.writeInt(strings.get(entry.getKey()));
+      out.writeInt(strings.get(entry.getValue().toString()));
+    }
+    out.flush();
+    compressed.finish();
+  }
+
+  private static void intern(Map<String, Integer> strings, String string) {
+    if (!strings.containsKey(string)) {
+      strings.put(string, strings.size());
+    }
+  }
+
+  public static RuleKeyLog readFrom(InputStream input) throws IOException {
+    DataInputStream in = new DataInputStream(new GZIPInputStream(input));
+    int version = in.readInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException(String.format("Unsupported rule key log version: %d", version));
+    }
+    int stringCount = in.readInt();
+    List<String> strings = Lists.newArrayListWithCapacity(stringCount);
+    for (int i = 0; i < stringCount; i++) {
+      byte[] bytes = new byte[in.readInt()];
+      ByteStreams.readFully(in, bytes);
+      strings.add(new String(bytes, Charsets.UTF_8));
+    }
+
+    RuleKeyLog log = new RuleKeyLog();
+    int keyCount = in.readInt();
+    for (int i = 0; i < keyCount; i++) {
+      RuleKey ruleKey = new RuleKey(strings.get(in.readInt()));
+      int elementCount = in.readInt();
+      ImmutableList.Builder<String> elements = ImmutableList.builder();
+      for (int j = 0; j < elementCount; j++) {
+        elements.add(strings.get(in.readInt()));
+      }
+      log.inputs.put(ruleKey, elements.build());
+    }
+    int ruleCount = in.readInt();
+    for (int i = 0; i < ruleCount; i++) {
+      String target = strings.get(in.readInt());
+      log.ruleKeys.put(target, new RuleKey(strings.get(in.readInt())));
+    }
+    return log;
+  }
+}
@@ -35,6 +35,7 @@ public class TargetGraphToActionGraph implements TargetGraphTransformer {
   private final BuckEventBus eventBus;
   private final TargetNodeToBuildRuleTransformer buildRuleGenerator;
   private final FileHashCache fileHashCache;
+  private final Optional<RuleKeyLog> ruleKeyLog;
   @Nullable
   private volatile ActionGraph actionGraph;
   private volatile int hashOfTargetGraph;
@@ -44,9 +45,21 @@ public class TargetGraphToActionGraph implements TargetGraphTransformer {
       BuckEventBus eventBus,
       TargetNodeToBuildRuleTransformer buildRuleGenerator,
       FileHashCache fileHashCache) {
+    this(eventBus, buildRuleGenerator, fileHashCache, Optional.<RuleKeyLog>absent());
+  }
+
+  /**
+   * @param ruleKeyLog if present, records what goes into the rule keys of the rules created.
+   */
+  public TargetGraphToActionGraph(
+      BuckEventBus eventBus,
+      TargetNodeToBuildRuleTransformer buildRuleGenerator,
+      FileHashCache fileHashCache,
+      Optional<RuleKeyLog> ruleKeyLog) {
     this.eventBus = eventBus;
     this.buildRuleGenerator = buildRuleGenerator;
     this.fileHashCache = fileHashCache;
+    this.ruleKeyLog = ruleKeyLog;
   }
 
   @Override
@@ -71,7 +84,8 @@ public class TargetGraphToActionGraph implements TargetGraphTransformer {
     SourcePathResolver pathResolver = new SourcePathResolver(ruleResolver);
     final RuleKeyBuilderFactory ruleKeyBuilderFactory = new DefaultRuleKeyBuilderFactory(
         fileHashCache,
-        pathResolver);
+        pathResolver,
+        ruleKeyLog);
 
     AbstractBottomUpTraversal<TargetNode<?>, ActionGraph> bottomUpTraversal =
         new AbstractBottomUpTraversal<TargetNode<?>, ActionGraph>(targetGraph) {
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableMap;
+
+import java.nio.file.Path;
+
+/**
+ * Tells an {@link ArtifactCache} which of the files in an artifact that it is extracting are
+ * already on disk with the same contents, so that they can be left alone rather than written
+ * again.
+ */
+public interface UnchangedFileFilter {
+
+  /** Treats every file as changed. */
+  UnchangedFileFilter NONE = new UnchangedFileFilter() {
+    @Override
+    public Predicate<Path> getUnchangedFiles(ImmutableMap<String, String> metadata) {
+      return Predicates.alwaysFalse();
+    }
+  };
+
+  /**
+   * @param metadata the metadata that the artifact was stored with.
+   * @return matches the paths, relative to the root of the filesystem being extracted into, of
+   *     the files that need not be written.
+   */
+  Predicate<Path> getUnchangedFiles(ImmutableMap<String, String> metadata);
+}
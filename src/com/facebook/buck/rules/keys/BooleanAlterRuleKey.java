@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.RuleKey;
+
+import java.lang.reflect.Field;
+
+/**
+ * Adds a field declared as {@code boolean} to the rule key without boxing it or going through
+ * {@link RuleKey.Builder#setReflectively(String, Object)}.
+ */
+class BooleanAlterRuleKey extends AbstractAlterRuleKey {
+  public BooleanAlterRuleKey(Field field) {
+    super(field);
+  }
+
+  @Override
+  public void amendKey(RuleKey.Builder builder, BuildRule rule) {
+    try {
+      builder.setBoolean(field.getName(), field.getBoolean(rule));
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -19,8 +19,10 @@ package com.facebook.buck.rules.keys;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.RuleKeyAppendable;
+import com.facebook.buck.rules.RuleKeyLog;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.util.cache.FileHashCache;
+import com.google.common.base.Optional;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -31,10 +33,23 @@ public class DefaultRuleKeyBuilderFactory extends AbstractRuleKeyBuilderFactory
 
   private final LoadingCache<RuleKeyAppendable, RuleKey> cache;
 
+  private final Optional<RuleKeyLog> ruleKeyLog;
+
+  public DefaultRuleKeyBuilderFactory(
+      FileHashCache hashCache,
+      SourcePathResolver pathResolver) {
+    this(hashCache, pathResolver, Optional.<RuleKeyLog>absent());
+  }
+
+  /**
+   * @param ruleKeyLog if present, records what goes into every key that the builders build.
+   */
   public DefaultRuleKeyBuilderFactory(
       final FileHashCache hashCache,
-      final SourcePathResolver pathResolver) {
+      final SourcePathResolver pathResolver,
+      Optional<RuleKeyLog> ruleKeyLog) {
     super(hashCache, pathResolver);
+    this.ruleKeyLog = ruleKeyLog;
     cache = CacheBuilder.newBuilder().weakKeys().build(
         new CacheLoader<RuleKeyAppendable, RuleKey>() {
           @Override
@@ -51,7 +66,8 @@ public class DefaultRuleKeyBuilderFactory extends AbstractRuleKeyBuilderFactory
       FileHashCache hashCache) {
     return new RuleKey.Builder(
         pathResolver,
-        hashCache) {
+        hashCache,
+        ruleKeyLog) {
       @Override
       protected RuleKey getAppendableRuleKey(
           SourcePathResolver resolver,
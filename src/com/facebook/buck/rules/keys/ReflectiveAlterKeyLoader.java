@@ -24,6 +24,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
 
 import java.lang.reflect.Field;
+import java.nio.file.Path;
 import java.util.Comparator;
 
 class ReflectiveAlterKeyLoader
@@ -53,17 +54,35 @@ class ReflectiveAlterKeyLoader
           continue;
         }
 
-        AlterRuleKey ark;
-        if (annotation.stringify()) {
-          ark = new StringifyAlterRuleKey(field);
-        } else {
-          ark = new DefaultAlterRuleKey(field);
-        }
-
-        fields.put(field, ark);
+        fields.put(field, createAlterRuleKey(field, annotation));
       }
       builder.addAll(fields.build().values());
     }
     return builder.build();
   }
+
+  /**
+   * Picks the cheapest way to add {@code field} to a rule key. Fields whose declared type cannot
+   * hold a collection, optional or {@link com.facebook.buck.rules.RuleKeyAppendable} are added
+   * directly, rather than by inspecting their value on every key computation.
+   */
+  private static AlterRuleKey createAlterRuleKey(Field field, AddToRuleKey annotation) {
+    if (annotation.stringify()) {
+      return new StringifyAlterRuleKey(field);
+    }
+
+    Class<?> type = field.getType();
+    if (boolean.class.equals(type)) {
+      return new BooleanAlterRuleKey(field);
+    } else if (int.class.equals(type)) {
+      return new IntAlterRuleKey(field);
+    } else if (long.class.equals(type)) {
+      return new LongAlterRuleKey(field);
+    } else if (String.class.equals(type)) {
+      return new StringAlterRuleKey(field);
+    } else if (Path.class.equals(type)) {
+      return new PathAlterRuleKey(field);
+    }
+    return new DefaultAlterRuleKey(field);
+  }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.RuleKeyLog;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Explains why the rule keys of the same rules differ between two {@link RuleKeyLog}s, such as
+ * those of a CI build and of a developer's build, by finding the first input that went into each
+ * key differently.
+ */
+public class RuleKeyLogDiff {
+
+  private static final Pattern KEY = Pattern.compile(":key\\((.*)\\):");
+  private static final Pattern RULE_KEY = Pattern.compile("ruleKey\\(sha1=([0-9a-f]+)\\):");
+  private static final String NOTHING = "<nothing>";
+
+  private final RuleKeyLog left;
+  private final RuleKeyLog right;
+  private final ImmutableMap<RuleKey, String> leftRulesByKey;
+
+  private RuleKeyLogDiff(RuleKeyLog left, RuleKeyLog right) {
+    this.left = left;
+    this.right = right;
+    Map<RuleKey, String> leftRulesByKey = Maps.newHashMap();
+    for (Map.Entry<String, RuleKey> rule : left.getRuleKeys().entrySet()) {
+      leftRulesByKey.put(rule.getValue(), rule.getKey());
+    }
+    this.leftRulesByKey = ImmutableMap.copyOf(leftRulesByKey);
+  }
+
+  /**
+   * @return for each rule that is in both logs with different keys, the first input of the rule
+   *     that differs. Where that is the key of a dependency, it names the dependency, whose own
+   *     entry explains what changed in it.
+   */
+  public static ImmutableSortedMap<String, String> diff(RuleKeyLog left, RuleKeyLog right) {
+    RuleKeyLogDiff diff = new RuleKeyLogDiff(left, right);
+    ImmutableSortedMap<String, RuleKey> rightRules = right.getRuleKeys();
+    ImmutableSortedMap.Builder<String, String> differences = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, RuleKey> rule : left.getRuleKeys().entrySet()) {
+      RuleKey rightKey = rightRules.get(rule.getKey());
+      if (rightKey != null && !rightKey.equals(rule.getValue())) {
+        differences.put(rule.getKey(), diff.explain(rule.getValue(), rightKey));
+      }
+    }
+    return differences.build();
+  }
+
+  private String explain(RuleKey leftKey, RuleKey rightKey) {
+    Optional<ImmutableList<String>> leftInputs = left.getInputs(leftKey);
+    Optional<ImmutableList<String>> rightInputs = right.getInputs(rightKey);
+    if (!leftInputs.isPresent() || !rightInputs.isPresent()) {
+      return String.format("the inputs of %s were not recorded", leftKey);
+    }
+
+    String label = "";
+    int size = Math.max(leftInputs.get().size(), rightInputs.get().size());
+    for (int i = 0; i < size; i++) {
+      String leftInput = getOrNothing(leftInputs.get(), i);
+      String rightInput = getOrNothing(rightInputs.get(), i);
+      if (leftInput.equals(rightInput)) {
+        Matcher key = KEY.matcher(leftInput);
+        if (key.matches()) {
+          label = key.group(1) + ": ";
+        }
+        continue;
+      }
+
+      Matcher leftRuleKey = RULE_KEY.matcher(leftInput);
+      Matcher rightRuleKey = RULE_KEY.matcher(rightInput);
+      if (leftRuleKey.matches() && rightRuleKey.matches()) {
+        RuleKey leftSubKey = new RuleKey(leftRuleKey.group(1));
+        RuleKey rightSubKey = new RuleKey(rightRuleKey.group(1));
+        String dependency = leftRulesByKey.get(leftSubKey);
+        if (dependency != null) {
+          return String.format("%s%s changed", label, dependency);
+        }
+        // A value appended to the key, such as a tool or a set of compiler flags.
+        return label + explain(leftSubKey, rightSubKey);
+      }
+      return String.format("%s%s -> %s", label, leftInput, rightInput);
+    }
+    return "no recorded input differs";
+  }
+
+  private static String getOrNothing(ImmutableList<String> inputs, int index) {
+    return index < inputs.size() ? inputs.get(index) : NOTHING;
+  }
+}
@@ -19,12 +19,17 @@ package com.facebook.buck.step;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.util.concurrent.MoreFutures;
+import com.facebook.buck.util.concurrent.ResourceBudget;
+import com.facebook.buck.util.concurrent.ResourceClass;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 
@@ -33,6 +38,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 public final class DefaultStepRunner implements StepRunner {
 
@@ -48,6 +54,89 @@ public final class DefaultStepRunner implements StepRunner {
   public void runStepForBuildTarget(Step step, Optional<BuildTarget> buildTarget)
       throws StepFailedException, InterruptedException {
 
+    // Wait for the resources the step needs before starting it, so that the time spent waiting
+    // isn't counted as time spent running the step. Most steps need none, and leave the budget
+    // alone.
+    ImmutableMap<ResourceClass, Integer> requirements = getResourceRequirements(step);
+    try (ResourceBudget.Allocation allocation = requirements.isEmpty() ?
+             null :
+             context.getResourceBudget().acquire(requirements)) {
+      runStep(step, buildTarget);
+    }
+  }
+
+  @Override
+  public ListenableFuture<Void> runStepsForBuildTarget(
+      List<Step> steps,
+      Optional<BuildTarget> buildTarget,
+      Executor executor) {
+    return runStepsFrom(0, steps, buildTarget, executor);
+  }
+
+  private ListenableFuture<Void> runStepsFrom(
+      int index,
+      final List<Step> steps,
+      final Optional<BuildTarget> buildTarget,
+      final Executor executor) {
+    try {
+      for (int i = index; i < steps.size(); i++) {
+        final Step step = steps.get(i);
+        ImmutableMap<ResourceClass, Integer> requirements = getResourceRequirements(step);
+        if (requirements.isEmpty()) {
+          runStep(step, buildTarget);
+        } else {
+          ListenableFuture<ResourceBudget.Allocation> allocation =
+              context.getResourceBudget().acquireAsync(requirements);
+          if (!allocation.isDone()) {
+            // Give the thread back while the resources are busy, and pick up where we left off
+            // on the executor once they're free.
+            final int next = i + 1;
+            return Futures.transform(
+                allocation,
+                new AsyncFunction<ResourceBudget.Allocation, Void>() {
+                  @Override
+                  public ListenableFuture<Void> apply(ResourceBudget.Allocation allocation)
+                      throws Exception {
+                    try (ResourceBudget.Allocation closeable = allocation) {
+                      runStep(step, buildTarget);
+                    }
+                    checkForInterruption();
+                    return runStepsFrom(next, steps, buildTarget, executor);
+                  }
+                },
+                executor);
+          }
+          try (ResourceBudget.Allocation closeable = Futures.getUnchecked(allocation)) {
+            runStep(step, buildTarget);
+          }
+        }
+        checkForInterruption();
+      }
+    } catch (StepFailedException | InterruptedException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+    return Futures.immediateFuture(null);
+  }
+
+  /**
+   * Check for interruptions that may have been ignored by a step.
+   */
+  private static void checkForInterruption() throws InterruptedException {
+    if (Thread.interrupted()) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedException();
+    }
+  }
+
+  private static ImmutableMap<ResourceClass, Integer> getResourceRequirements(Step step) {
+    return step instanceof HasResourceRequirements ?
+        ((HasResourceRequirements) step).getResourceRequirements() :
+        ImmutableMap.<ResourceClass, Integer>of();
+  }
+
+  private void runStep(Step step, Optional<BuildTarget> buildTarget)
+      throws StepFailedException, InterruptedException {
+
     if (context.getVerbosity().shouldPrintCommand()) {
       context.getStdErr().println(step.getDescription(context));
     }
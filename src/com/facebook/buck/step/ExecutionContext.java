@@ -30,6 +30,7 @@ import com.facebook.buck.util.Console;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
+import com.facebook.buck.util.concurrent.ResourceBudget;
 import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.util.immutables.DeprecatedBuckStyleImmutable;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -107,6 +108,13 @@ public abstract class ExecutionContext implements Closeable {
   @Value.Parameter
   public abstract Optional<TargetDeviceOptions> getTargetDeviceOptions();
 
+  /**
+   * The tokens that the steps which {@link HasResourceRequirements have resource requirements}
+   * share, which by default are the {@link ConcurrencyLimit#resourceLimits} of the
+   * {@link #getConcurrencyLimit() concurrency limit}.
+   */
+  @Value.Parameter
+  public abstract ResourceBudget getResourceBudget();
 
   @Value.Derived
   public Verbosity getVerbosity() {
@@ -208,6 +216,7 @@ public abstract class ExecutionContext implements Closeable {
             /* loadLimit */ Double.POSITIVE_INFINITY);
     private Optional<AdbOptions> adbOptions = Optional.absent();
     private Optional<TargetDeviceOptions> targetDeviceOptions = Optional.absent();
+    @Nullable private ResourceBudget resourceBudget = null;
 
     private Builder() {}
 
@@ -229,7 +238,10 @@ public abstract class ExecutionContext implements Closeable {
           Preconditions.checkNotNull(classLoaderCache),
           Preconditions.checkNotNull(concurrencyLimit),
           adbOptions,
-          targetDeviceOptions);
+          targetDeviceOptions,
+          resourceBudget != null ?
+              resourceBudget :
+              new ResourceBudget(concurrencyLimit.resourceLimits));
     }
 
     public Builder setExecutionContext(ExecutionContext executionContext) {
@@ -248,6 +260,7 @@ public abstract class ExecutionContext implements Closeable {
       setConcurrencyLimit(executionContext.getConcurrencyLimit());
       setAdbOptions(executionContext.getAdbOptions());
       setTargetDeviceOptions(executionContext.getTargetDeviceOptions());
+      setResourceBudget(executionContext.getResourceBudget());
       return this;
     }
 
@@ -343,5 +356,10 @@ public abstract class ExecutionContext implements Closeable {
       this.targetDeviceOptions = targetDeviceOptions;
       return this;
     }
+
+    public Builder setResourceBudget(ResourceBudget resourceBudget) {
+      this.resourceBudget = resourceBudget;
+      return this;
+    }
   }
 }
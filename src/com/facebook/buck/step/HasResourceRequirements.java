@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.step;
+
+import com.facebook.buck.util.concurrent.ResourceClass;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A {@link Step} which needs a share of some of the machine's resources.  The
+ * {@link DefaultStepRunner} only runs it once the step can take that many tokens of each
+ * {@link ResourceClass} from the {@link ExecutionContext#getResourceBudget() budget} of the build.
+ */
+public interface HasResourceRequirements {
+
+  /**
+   * @return how many tokens of each class the step needs while it is running.
+   */
+  ImmutableMap<ResourceClass, Integer> getResourceRequirements();
+}
@@ -24,6 +24,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 public interface StepRunner {
 
@@ -35,6 +36,20 @@ public interface StepRunner {
   public void runStepForBuildTarget(Step step, Optional<BuildTarget> buildTarget)
       throws StepFailedException, InterruptedException;
 
+  /**
+   * Runs the given steps, one after the other, for a given BuildRule.
+   *
+   * Steps run on the calling thread until one of them has to wait for the resources it needs.
+   * Rather than blocking, that step and the ones after it are then run on {@code executor} once the
+   * resources are free.
+   *
+   * @return a future which is set once all of the steps have run, or fails with the first failure.
+   */
+  public ListenableFuture<Void> runStepsForBuildTarget(
+      List<Step> steps,
+      Optional<BuildTarget> buildTarget,
+      Executor executor);
+
   public interface StepRunningCallback {
     void stepsWillRun(Optional<BuildTarget> buildTarget);
     void stepsDidRun(Optional<BuildTarget> buildTarget);
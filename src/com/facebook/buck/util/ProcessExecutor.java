@@ -26,6 +26,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -33,6 +34,14 @@ import java.io.OutputStreamWriter;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Executes a {@link Process} and blocks until it is finished.
@@ -41,6 +50,24 @@ public class ProcessExecutor {
 
   private static final Logger LOG = Logger.get(ProcessExecutor.class);
 
+  /**
+   * Drains the output of every process that is executed, and runs timeout handlers. The threads
+   * are shared by all executors and kept around between processes, rather than started anew for
+   * each one, as running many short-lived tools spent a noticeable amount of time creating them.
+   */
+  private static final ExecutorService PROCESS_THREADS = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("ProcessExecutor-%d")
+          .setDaemon(true)
+          .build());
+
+  private static final ScheduledExecutorService TIMEOUTS =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("ProcessExecutor (timeouts)")
+              .setDaemon(true)
+              .build());
+
   /**
    * Options for {@link ProcessExecutor#execute(Process, Set, Optional, Optional, Optional)}.
    */
@@ -145,7 +172,15 @@ public class ProcessExecutor {
       Optional<Long> timeOutMs,
       Optional<Function<Process, Void>> timeOutHandler)
       throws InterruptedException, IOException {
-    return execute(launchProcessInternal(params), options, stdin, timeOutMs, timeOutHandler);
+    long startNanos = System.nanoTime();
+    Result result =
+        execute(launchProcessInternal(params), options, stdin, timeOutMs, timeOutHandler);
+    LOG.debug(
+        "%s exited with %d after %d ms.",
+        params.getCommand().get(0),
+        result.getExitCode(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    return result;
   }
 
   /**
@@ -233,34 +268,48 @@ public class ProcessExecutor {
   }
 
   /**
-   * Waits up to {@code millis} milliseconds for the given process to finish.
+   * Waits for the given process to finish, killing it if it takes more than {@code millis}
+   * milliseconds.
+   *
+   * @return whether the process timed out.
    */
-  private void waitForTimeout(
+  private boolean waitForTimeout(
       final Process process,
       long millis,
       final Optional<Function<Process, Void>> timeOutHandler) throws InterruptedException {
-    Thread waiter =
-        new Thread(
-            new Runnable() {
-              @Override
-              public void run() {
-                try {
-                  process.waitFor();
-                } catch (InterruptedException e) {
-                  if (timeOutHandler.isPresent()) {
-                    try {
-                      timeOutHandler.get().apply(process);
-                    } catch (RuntimeException e2) {
-                      LOG.error(e2, "timeOutHandler threw an Exception!");
-                    }
-                  }
-                }
-              }
-            });
-    waiter.start();
-    waiter.join(millis);
-    waiter.interrupt();
-    waiter.join();
+    final AtomicBoolean timedOut = new AtomicBoolean(false);
+    final Runnable killProcess = new Runnable() {
+      @Override
+      public void run() {
+        if (timeOutHandler.isPresent()) {
+          try {
+            timeOutHandler.get().apply(process);
+          } catch (RuntimeException e) {
+            LOG.error(e, "timeOutHandler threw an Exception!");
+          }
+        }
+        process.destroy();
+      }
+    };
+    ScheduledFuture<?> timeOut = TIMEOUTS.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (!finished(process)) {
+              timedOut.set(true);
+              // The handler may take a while, so keep it off the thread shared by all timeouts.
+              PROCESS_THREADS.execute(killProcess);
+            }
+          }
+        },
+        millis,
+        TimeUnit.MILLISECONDS);
+    try {
+      process.waitFor();
+    } finally {
+      timeOut.cancel(/* mayInterruptIfRunning */ false);
+    }
+    return timedOut.get();
   }
 
   /**
@@ -307,10 +356,8 @@ public class ProcessExecutor {
         Optional.<InputStreamConsumer.Handler>absent());
 
     // Consume the streams so they do not deadlock.
-    Thread stdOutConsumer = Threads.namedThread("ProcessExecutor (stdOut)", stdOut);
-    stdOutConsumer.start();
-    Thread stdErrConsumer = Threads.namedThread("ProcessExecutor (stdErr)", stdErr);
-    stdErrConsumer.start();
+    Future<?> stdOutConsumer = PROCESS_THREADS.submit(stdOut);
+    Future<?> stdErrConsumer = PROCESS_THREADS.submit(stdErr);
 
     boolean timedOut = false;
 
@@ -329,17 +376,13 @@ public class ProcessExecutor {
       // for it to finish then force kill it.  If no timeout was given, just wait for it using
       // the regular `waitFor` method.
       if (timeOutMs.isPresent()) {
-        waitForTimeout(process, timeOutMs.get(), timeOutHandler);
-        if (!finished(process)) {
-          timedOut = true;
-          process.destroy();
-        }
+        timedOut = waitForTimeout(process, timeOutMs.get(), timeOutHandler);
       } else {
         process.waitFor();
       }
 
-      stdOutConsumer.join();
-      stdErrConsumer.join();
+      waitForConsumer(stdOutConsumer);
+      waitForConsumer(stdErrConsumer);
 
     } catch (IOException e) {
       // Buck was killed while waiting for the consumers to finish or while writing stdin
@@ -374,6 +417,14 @@ public class ProcessExecutor {
     return new Result(exitCode, timedOut, stdoutText, stderrText);
   }
 
+  private static void waitForConsumer(Future<?> consumer) throws InterruptedException {
+    try {
+      consumer.get();
+    } catch (ExecutionException e) {
+      LOG.warn(e.getCause(), "Failed to read the output of a process.");
+    }
+  }
+
   private static Optional<String> getDataIfNotPrinted(
       PrintStream printStream,
       boolean shouldPrint) {
@@ -20,7 +20,9 @@ import com.facebook.buck.hashing.PathHashing;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.util.HashCodeAndFileType;
+import com.facebook.buck.util.concurrent.MoreExecutors;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
@@ -33,14 +35,17 @@ import com.google.common.eventbus.Subscribe;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
-import com.google.common.io.ByteSource;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 
@@ -53,8 +58,23 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   @VisibleForTesting
   final LoadingCache<Path, HashCodeAndFileType> loadingCache;
 
+  private final Optional<PersistentFileHashIndex> persistentIndex;
+
+  private final AtomicLong bytesHashed = new AtomicLong();
+
   public DefaultFileHashCache(ProjectFilesystem projectFilesystem) {
+    this(projectFilesystem, Optional.<PersistentFileHashIndex>absent());
+  }
+
+  /**
+   * @param persistentIndex if present, file hashes are looked up in and recorded to this index,
+   *     so that they are only recomputed when a file's attributes change.
+   */
+  public DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Optional<PersistentFileHashIndex> persistentIndex) {
     this.projectFilesystem = projectFilesystem;
+    this.persistentIndex = persistentIndex;
 
     this.loadingCache = CacheBuilder.newBuilder()
         .build(new CacheLoader<Path, HashCodeAndFileType>() {
@@ -77,15 +97,25 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
     }
   }
 
-  private HashCode getFileHashCode(final Path path) throws IOException {
-    ByteSource source =
-        new ByteSource() {
-          @Override
-          public InputStream openStream() throws IOException {
-            return projectFilesystem.newFileInputStream(path);
-          }
-        };
-    return source.hash(Hashing.sha1());
+  private HashCode getFileHashCode(Path path) throws IOException {
+    if (!persistentIndex.isPresent()) {
+      HashCode hashCode = projectFilesystem.computeSha1HashCode(path);
+      bytesHashed.addAndGet(projectFilesystem.getFileSize(path));
+      return hashCode;
+    }
+
+    // Read the attributes before the contents, so that a change made while hashing leaves the
+    // recorded attributes stale rather than the recorded hash.
+    BasicFileAttributes attributes =
+        projectFilesystem.readAttributes(path, BasicFileAttributes.class);
+    Optional<HashCode> recorded = persistentIndex.get().get(path, attributes);
+    if (recorded.isPresent()) {
+      return recorded.get();
+    }
+    HashCode hashCode = projectFilesystem.computeSha1HashCode(path);
+    bytesHashed.addAndGet(attributes.size());
+    persistentIndex.get().put(path, attributes, hashCode);
+    return hashCode;
   }
 
   private HashCode getDirHashCode(Path path) throws IOException {
@@ -126,6 +156,56 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
     return Preconditions.checkNotNull(sha1, "Failed to find a HashCode for %s.", path);
   }
 
+  /**
+   * Loads {@code paths} into the cache on a pool of {@code parallelism} threads, so that a cold
+   * cache is filled by concurrent reads rather than one file at a time on whichever thread first
+   * asks for each hash.
+   *
+   * @return the number of bytes read from files while prefetching, which also includes any files
+   *     hashed concurrently for other lookups.
+   */
+  @Override
+  public long prefetch(Iterable<Path> paths, int parallelism) throws InterruptedException {
+    long bytesHashedBefore = bytesHashed.get();
+    ExecutorService executor =
+        MoreExecutors.newMultiThreadExecutor("FileHashPrefetch", parallelism);
+    try {
+      for (final Path path : paths) {
+        final Path normalizedPath = path.normalize();
+        if (normalizedPath.isAbsolute() ||
+            projectFilesystem.isIgnored(normalizedPath) ||
+            loadingCache.getIfPresent(normalizedPath) != null) {
+          continue;
+        }
+        executor.execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  loadingCache.get(normalizedPath);
+                } catch (ExecutionException | UncheckedExecutionException e) {
+                  LOG.verbose(e, "Failed to prefetch the hash of %s.", normalizedPath);
+                }
+              }
+            });
+      }
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+    return bytesHashed.get() - bytesHashedBefore;
+  }
+
+  /**
+   * Writes any newly recorded hashes to the persistent index, if there is one.
+   */
+  public void savePersistentIndex() {
+    if (persistentIndex.isPresent()) {
+      persistentIndex.get().save();
+    }
+  }
+
   @Override
   public ProjectFilesystem getFilesystem() {
     return projectFilesystem;
@@ -35,4 +35,13 @@ public interface FileHashCache {
 
   HashCode get(Path path) throws IOException;
 
+  /**
+   * Hashes {@code paths} ahead of their being looked up, using up to {@code parallelism} threads.
+   * Paths that cannot be hashed are skipped, so that the error is reported by the lookup that
+   * actually needs them.
+   *
+   * @return the number of bytes read to hash the paths that were not already cached.
+   */
+  long prefetch(Iterable<Path> paths, int parallelism) throws InterruptedException;
+
 }
@@ -19,12 +19,17 @@ package com.facebook.buck.util.cache;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.model.Pair;
 import com.google.common.base.Optional;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
 import com.google.common.hash.HashCode;
 
 import java.io.IOException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 
 public class MultiProjectFileHashCache implements FileHashCache {
 
@@ -75,4 +80,20 @@ public class MultiProjectFileHashCache implements FileHashCache {
     return found.get().getFirst().get(found.get().getSecond());
   }
 
+  @Override
+  public long prefetch(Iterable<Path> paths, int parallelism) throws InterruptedException {
+    ListMultimap<FileHashCache, Path> pathsByCache = ArrayListMultimap.create();
+    for (Path path : paths) {
+      Optional<Pair<FileHashCache, Path>> found = lookup(path);
+      if (found.isPresent()) {
+        pathsByCache.put(found.get().getFirst(), found.get().getSecond());
+      }
+    }
+    long bytesRead = 0;
+    for (Map.Entry<FileHashCache, List<Path>> entry : Multimaps.asMap(pathsByCache).entrySet()) {
+      bytesRead += entry.getKey().prefetch(entry.getValue(), parallelism);
+    }
+    return bytesRead;
+  }
+
 }
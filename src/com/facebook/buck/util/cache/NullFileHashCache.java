@@ -43,4 +43,9 @@ public class NullFileHashCache implements FileHashCache {
     throw new NoSuchFileException(path.toString());
   }
 
+  @Override
+  public long prefetch(Iterable<Path> paths, int parallelism) {
+    return 0;
+  }
+
 }
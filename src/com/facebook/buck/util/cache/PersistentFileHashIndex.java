@@ -0,0 +1,280 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.timing.Clock;
+import com.facebook.buck.timing.DefaultClock;
+import com.facebook.buck.util.BuckConstant;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.hash.HashCode;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An on-disk index of file content hashes, stored under {@code buck-out} so that hashes survive
+ * across runs without a daemon and across daemon restarts.
+ * <p>
+ * Each entry records the size, modification time and file key (the inode, on Unix) that a file
+ * had when it was hashed. A lookup only returns the recorded hash if a fresh {@code stat} of the
+ * file still matches all three, so unchanged files are never reread.
+ * <p>
+ * Files modified within {@link #MTIME_GRANULARITY_MILLIS} of being hashed are not recorded: a
+ * second write in the same timestamp tick would otherwise leave a stale hash that looks valid.
+ * <p>
+ * Entries which go unused for {@link #MAX_UNUSED_MILLIS} are dropped, which is what keeps the
+ * entries of deleted and renamed files from piling up without having to stat every file.
+ */
+public class PersistentFileHashIndex {
+
+  private static final Logger LOG = Logger.get(PersistentFileHashIndex.class);
+
+  private static final Path INDEX_PATH =
+      BuckConstant.BUCK_OUTPUT_PATH.resolve("cache").resolve("file_hashes");
+
+  private static final int FORMAT_VERSION = 2;
+
+  /**
+   * The coarsest modification time resolution of the file systems we run on.
+   */
+  @VisibleForTesting
+  static final long MTIME_GRANULARITY_MILLIS = 2000;
+
+  @VisibleForTesting
+  static final long MAX_UNUSED_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  /**
+   * How out of date the recorded last use of an entry may get before a lookup updates it, so that
+   * runs which only find unchanged files don't all rewrite the index.
+   */
+  private static final long LAST_USED_GRANULARITY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  private final ProjectFilesystem filesystem;
+  private final Clock clock;
+  private final ConcurrentMap<Path, Entry> entries;
+  private volatile boolean loaded;
+  private volatile boolean dirty;
+
+  public PersistentFileHashIndex(ProjectFilesystem filesystem) {
+    this(filesystem, new DefaultClock());
+  }
+
+  @VisibleForTesting
+  PersistentFileHashIndex(ProjectFilesystem filesystem, Clock clock) {
+    this.filesystem = filesystem;
+    this.clock = clock;
+    this.entries = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @param path a path relative to the project root.
+   * @param attributes the current attributes of {@code path}.
+   * @return the recorded hash of {@code path}, if it has not changed since it was recorded.
+   */
+  public Optional<HashCode> get(Path path, BasicFileAttributes attributes) {
+    loadIfNecessary();
+    Entry entry = entries.get(path);
+    if (entry == null || !entry.matches(attributes)) {
+      return Optional.absent();
+    }
+    long now = clock.currentTimeMillis();
+    if (now - entry.lastUsedMillis > LAST_USED_GRANULARITY_MILLIS) {
+      entry.lastUsedMillis = now;
+      dirty = true;
+    }
+    return Optional.of(entry.hashCode);
+  }
+
+  /**
+   * Records the hash of {@code path}, which had {@code attributes} before it was read.
+   */
+  public void put(Path path, BasicFileAttributes attributes, HashCode hashCode) {
+    long now = clock.currentTimeMillis();
+    long mtime = attributes.lastModifiedTime().toMillis();
+    if (now - mtime < MTIME_GRANULARITY_MILLIS) {
+      return;
+    }
+    loadIfNecessary();
+    entries.put(
+        path,
+        new Entry(attributes.size(), mtime, getFileKey(attributes), hashCode, now));
+    dirty = true;
+  }
+
+  /**
+   * Writes the index to disk if anything has been recorded since it was last read or written,
+   * leaving out the entries that have gone unused for too long. Failures are logged and otherwise
+   * ignored, since the index is only an optimization.
+   */
+  public synchronized void save() {
+    if (!dirty) {
+      return;
+    }
+    dirty = false;
+    pruneUnusedEntries();
+    try {
+      filesystem.mkdirs(INDEX_PATH.getParent());
+      // Write to a temporary file and move it into place so that concurrent readers never see a
+      // partially written index.
+      Path tempPath = filesystem.createTempFile(
+          filesystem.resolve(INDEX_PATH.getParent()),
+          INDEX_PATH.getFileName().toString(),
+          ".tmp");
+      try (OutputStream outputStream = filesystem.newFileOutputStream(tempPath);
+           DataOutputStream output = new DataOutputStream(
+               new BufferedOutputStream(outputStream))) {
+        output.writeInt(FORMAT_VERSION);
+        for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+          output.writeBoolean(true);
+          output.writeUTF(entry.getKey().toString());
+          entry.getValue().write(output);
+        }
+        output.writeBoolean(false);
+      }
+      filesystem.move(tempPath, INDEX_PATH, StandardCopyOption.REPLACE_EXISTING);
+      LOG.debug("Wrote %d file hashes to %s.", entries.size(), INDEX_PATH);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to write file hash index %s.", INDEX_PATH);
+    }
+  }
+
+  private void pruneUnusedEntries() {
+    long oldestUse = clock.currentTimeMillis() - MAX_UNUSED_MILLIS;
+    int pruned = 0;
+    for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+      if (entry.getValue().lastUsedMillis < oldestUse) {
+        entries.remove(entry.getKey(), entry.getValue());
+        pruned++;
+      }
+    }
+    if (pruned > 0) {
+      LOG.debug("Pruned %d unused file hashes from %s.", pruned, INDEX_PATH);
+    }
+  }
+
+  @VisibleForTesting
+  int size() {
+    loadIfNecessary();
+    return entries.size();
+  }
+
+  /**
+   * Reads the index the first time it's needed. Only that first read takes the lock, so lookups
+   * from the hashing threads don't wait on each other.
+   */
+  private void loadIfNecessary() {
+    if (loaded) {
+      return;
+    }
+    synchronized (this) {
+      if (loaded) {
+        return;
+      }
+      load();
+      loaded = true;
+    }
+  }
+
+  private void load() {
+    if (!filesystem.exists(INDEX_PATH)) {
+      return;
+    }
+    try (InputStream inputStream = filesystem.newFileInputStream(INDEX_PATH);
+         DataInputStream input = new DataInputStream(inputStream)) {
+      if (input.readInt() != FORMAT_VERSION) {
+        LOG.debug("Ignoring file hash index %s with an unknown format.", INDEX_PATH);
+        return;
+      }
+      while (input.readBoolean()) {
+        Path path = Paths.get(input.readUTF());
+        entries.putIfAbsent(path, Entry.read(input));
+      }
+      LOG.debug("Read %d file hashes from %s.", entries.size(), INDEX_PATH);
+    } catch (IOException e) {
+      LOG.warn(e, "Ignoring unreadable file hash index %s.", INDEX_PATH);
+      entries.clear();
+    }
+  }
+
+  private static String getFileKey(BasicFileAttributes attributes) {
+    Object fileKey = attributes.fileKey();
+    return fileKey == null ? "" : fileKey.toString();
+  }
+
+  private static class Entry {
+    private final long size;
+    private final long mtime;
+    private final String fileKey;
+    private final HashCode hashCode;
+    private volatile long lastUsedMillis;
+
+    public Entry(
+        long size,
+        long mtime,
+        String fileKey,
+        HashCode hashCode,
+        long lastUsedMillis) {
+      this.size = size;
+      this.mtime = mtime;
+      this.fileKey = fileKey;
+      this.hashCode = hashCode;
+      this.lastUsedMillis = lastUsedMillis;
+    }
+
+    public boolean matches(BasicFileAttributes attributes) {
+      return size == attributes.size() &&
+          mtime == attributes.lastModifiedTime().toMillis() &&
+          Objects.equal(fileKey, getFileKey(attributes));
+    }
+
+    public void write(DataOutputStream output) throws IOException {
+      output.writeLong(size);
+      output.writeLong(mtime);
+      output.writeUTF(fileKey);
+      byte[] bytes = hashCode.asBytes();
+      output.writeByte(bytes.length);
+      output.write(bytes);
+      output.writeLong(lastUsedMillis);
+    }
+
+    public static Entry read(DataInputStream input) throws IOException {
+      long size = input.readLong();
+      long mtime = input.readLong();
+      String fileKey = input.readUTF();
+      byte[] bytes = new byte[input.readUnsignedByte()];
+      input.readFully(bytes);
+      long lastUsedMillis = input.readLong();
+      return new Entry(size, mtime, fileKey, HashCode.fromBytes(bytes), lastUsedMillis);
+    }
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.facebook.buck.util.concurrent;
 
+import com.google.common.collect.ImmutableMap;
+
 /**
  * Amalgamation of parameters that control how many jobs we can run at once.
  */
@@ -24,8 +26,22 @@ public class ConcurrencyLimit {
   public final int threadLimit;
   public final double loadLimit;
 
+  /**
+   * How many tokens of each {@link ResourceClass} the steps running at once may hold between
+   * them.  Classes without a limit are unlimited.
+   */
+  public final ImmutableMap<ResourceClass, Integer> resourceLimits;
+
   public ConcurrencyLimit(int threadLimit, double loadLimit) {
+    this(threadLimit, loadLimit, ImmutableMap.<ResourceClass, Integer>of());
+  }
+
+  public ConcurrencyLimit(
+      int threadLimit,
+      double loadLimit,
+      ImmutableMap<ResourceClass, Integer> resourceLimits) {
     this.threadLimit = threadLimit;
     this.loadLimit = loadLimit;
+    this.resourceLimits = resourceLimits;
   }
 }
@@ -18,16 +18,20 @@ package com.facebook.buck.util.concurrent;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is like {@link ThreadPoolExecutor}, but tries to keep the total active work below the
  * specific limits.  Regardless of the configured limitations, however, we always allow at least one
  * work item to execute so that we can continue to make progress.
+ * <p>
+ * Queued work runs in order of its {@link PrioritizedRunnable#getPriority() priority}, highest
+ * first, and in the order it was submitted otherwise.
  */
 public class LimitedThreadPoolExecutor extends ThreadPoolExecutor {
 
@@ -46,6 +50,11 @@ public class LimitedThreadPoolExecutor extends ThreadPoolExecutor {
    */
   private final AtomicInteger currentlyExecuting = new AtomicInteger(0);
 
+  /**
+   * Counts the jobs submitted so far, so that jobs of the same priority run in submission order.
+   */
+  private final AtomicLong submitted = new AtomicLong(0);
+
   public LimitedThreadPoolExecutor(
       ThreadFactory threadFactory,
       ConcurrencyLimit concurrencyLimit) {
@@ -53,12 +62,20 @@ public class LimitedThreadPoolExecutor extends ThreadPoolExecutor {
         /* corePoolSize */ concurrencyLimit.threadLimit,
         /* maximumPoolSize */ concurrencyLimit.threadLimit,
         /* keepAliveTime */ 0L, TimeUnit.MILLISECONDS,
-        /* workQueue */ new LinkedBlockingQueue<Runnable>(),
+        /* workQueue */ new PriorityBlockingQueue<Runnable>(),
         /* threadFactory */ threadFactory,
         /* handler */ new ThreadPoolExecutor.DiscardPolicy());
     loadLimit = concurrencyLimit.loadLimit;
   }
 
+  @Override
+  public void execute(Runnable command) {
+    long priority = command instanceof PrioritizedRunnable ?
+        ((PrioritizedRunnable) command).getPriority() :
+        0;
+    super.execute(new QueuedJob(command, priority, submitted.getAndIncrement()));
+  }
+
   private void waitForLimitation() {
     for (;;) {
       if (currentlyExecuting.getAndIncrement() == 0) {
@@ -93,4 +110,29 @@ public class LimitedThreadPoolExecutor extends ThreadPoolExecutor {
     super.afterExecute(r, t);
   }
 
+  private static class QueuedJob implements Runnable, Comparable<QueuedJob> {
+    private final Runnable command;
+    private final long priority;
+    private final long sequence;
+
+    public QueuedJob(Runnable command, long priority, long sequence) {
+      this.command = command;
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public void run() {
+      command.run();
+    }
+
+    @Override
+    public int compareTo(QueuedJob other) {
+      if (priority != other.priority) {
+        return priority > other.priority ? -1 : 1;
+      }
+      return Long.compare(sequence, other.sequence);
+    }
+  }
+
 }
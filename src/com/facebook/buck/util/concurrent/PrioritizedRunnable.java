@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link Runnable} which a {@link LimitedThreadPoolExecutor} runs ahead of any queued work with a
+ * lower priority.  Work submitted as a plain {@link Runnable} has a priority of zero.
+ */
+public class PrioritizedRunnable implements Runnable {
+
+  private final long priority;
+  private final Runnable delegate;
+
+  public PrioritizedRunnable(long priority, Runnable delegate) {
+    this.priority = priority;
+    this.delegate = delegate;
+  }
+
+  public long getPriority() {
+    return priority;
+  }
+
+  @Override
+  public void run() {
+    delegate.run();
+  }
+
+  /**
+   * @return an {@link Executor} which hands everything it is given to {@code executor} with the
+   *     given {@code priority}.
+   */
+  public static Executor prioritizedExecutor(final Executor executor, final long priority) {
+    return new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        executor.execute(new PrioritizedRunnable(priority, command));
+      }
+    };
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.util.concurrent;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Hands out tokens of each {@link ResourceClass}, of which only so many may be held at once.
+ * Work which needs tokens waits until enough of them are returned.
+ */
+public class ResourceBudget {
+
+  private final ImmutableMap<ResourceClass, Integer> limits;
+
+  @GuardedBy("this")
+  private final Map<ResourceClass, Integer> available;
+
+  /**
+   * Requests that are waiting for tokens, in the order they were made.  Only the first one is ever
+   * granted, so that work which needs many tokens is not starved by work which needs few.
+   */
+  @GuardedBy("this")
+  private final Deque<Request> waiting = new ArrayDeque<>();
+
+  /**
+   * @param limits how many tokens of each class there are. Classes without a limit are unlimited.
+   */
+  public ResourceBudget(Map<ResourceClass, Integer> limits) {
+    for (Map.Entry<ResourceClass, Integer> entry : limits.entrySet()) {
+      Preconditions.checkArgument(
+          entry.getValue() > 0,
+          "The limit for %s must be positive.",
+          entry.getKey());
+    }
+    this.limits = ImmutableMap.copyOf(limits);
+    this.available = Maps.newEnumMap(ResourceClass.class);
+    this.available.putAll(limits);
+  }
+
+  public static ResourceBudget unlimited() {
+    return new ResourceBudget(ImmutableMap.<ResourceClass, Integer>of());
+  }
+
+  public ImmutableMap<ResourceClass, Integer> getLimits() {
+    return limits;
+  }
+
+  /**
+   * Waits until the given number of tokens of each class are available and takes them.  Asking
+   * for more tokens of a class than there are takes all of them.
+   *
+   * @return the tokens, which are returned by closing it.
+   */
+  public Allocation acquire(Map<ResourceClass, Integer> amounts) throws InterruptedException {
+    ListenableFuture<Allocation> allocation = acquireAsync(amounts);
+    try {
+      return allocation.get();
+    } catch (InterruptedException e) {
+      // Either withdraw the request, or give back the tokens if it was granted in the meantime.
+      if (!allocation.cancel(/* mayInterruptIfRunning */ false)) {
+        Futures.getUnchecked(allocation).close();
+      }
+      throw e;
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Like {@link #acquire(Map)}, but rather than waiting for the tokens, returns a future which is
+   * set once they have been taken.  Listeners of the future may run on the thread which returned
+   * the last of the tokens they needed, so work which does more than a little should be handed to
+   * an executor.  Cancelling the future withdraws the request.
+   */
+  public ListenableFuture<Allocation> acquireAsync(Map<ResourceClass, Integer> amounts) {
+    Map<ResourceClass, Integer> tokens = Maps.newEnumMap(ResourceClass.class);
+    for (Map.Entry<ResourceClass, Integer> entry : amounts.entrySet()) {
+      Integer limit = limits.get(entry.getKey());
+      if (limit == null || entry.getValue() <= 0) {
+        continue;
+      }
+      tokens.put(entry.getKey(), Math.min(entry.getValue(), limit));
+    }
+    if (tokens.isEmpty()) {
+      return Futures.immediateFuture(new Allocation(tokens));
+    }
+
+    Request request = new Request(tokens);
+    synchronized (this) {
+      waiting.add(request);
+    }
+    grantWaitingRequests();
+    return request.allocation;
+  }
+
+  /**
+   * Takes tokens for as many of the waiting requests as can be granted, in order, and hands them
+   * their allocations outside of the lock, since that may run their listeners.
+   */
+  private void grantWaitingRequests() {
+    List<Request> granted = Lists.newArrayList();
+    synchronized (this) {
+      while (!waiting.isEmpty() && isAvailable(waiting.peek().tokens)) {
+        Request request = waiting.remove();
+        for (Map.Entry<ResourceClass, Integer> entry : request.tokens.entrySet()) {
+          available.put(entry.getKey(), available.get(entry.getKey()) - entry.getValue());
+        }
+        granted.add(request);
+      }
+    }
+    for (Request request : granted) {
+      Allocation allocation = new Allocation(request.tokens);
+      if (!request.allocation.set(allocation)) {
+        // The request was cancelled while it was waiting.
+        allocation.close();
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private boolean isAvailable(Map<ResourceClass, Integer> tokens) {
+    for (Map.Entry<ResourceClass, Integer> entry : tokens.entrySet()) {
+      if (available.get(entry.getKey()) < entry.getValue()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static class Request {
+
+    private final Map<ResourceClass, Integer> tokens;
+    private final SettableFuture<Allocation> allocation = SettableFuture.create();
+
+    private Request(Map<ResourceClass, Integer> tokens) {
+      this.tokens = tokens;
+    }
+  }
+
+  /**
+   * Tokens taken from a {@link ResourceBudget}.
+   */
+  public class Allocation implements AutoCloseable {
+
+    @GuardedBy("ResourceBudget.this")
+    private final Map<ResourceClass, Integer> tokens;
+
+    private Allocation(Map<ResourceClass, Integer> tokens) {
+      this.tokens = Maps.newEnumMap(tokens);
+    }
+
+    @Override
+    public void close() {
+      synchronized (ResourceBudget.this) {
+        if (tokens.isEmpty()) {
+          return;
+        }
+        for (Map.Entry<ResourceClass, Integer> entry : tokens.entrySet()) {
+          available.put(entry.getKey(), available.get(entry.getKey()) + entry.getValue());
+        }
+        tokens.clear();
+      }
+      grantWaitingRequests();
+    }
+  }
+}
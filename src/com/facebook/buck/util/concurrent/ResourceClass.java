@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.util.concurrent;
+
+/**
+ * The kinds of machine resources that steps can declare that they need a share of, so that the
+ * steps that need a lot of one resource don't all run at once.
+ */
+public enum ResourceClass {
+  /** Steps which keep several cores busy. */
+  CPU,
+  /** Steps which need a lot of memory, such as linkers, dx and ProGuard. */
+  MEMORY,
+  /** Steps which read or write a lot of data, such as zipping and unzipping. */
+  DISK_IO,
+  ;
+
+  /**
+   * @return the name of the class in {@code .buckconfig}, such as {@code disk_io}.
+   */
+  public String getConfigName() {
+    return name().toLowerCase();
+  }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.io.MorePosixFilePermissions;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Unpacks a zip file as it is read from a stream, rather than from a file on disk.
+ * <p>
+ * Entries are written to a staging directory as they arrive and are only moved into place by
+ * {@link #commit(Unzip.ExistingFileMode)}, so that callers can verify the whole stream before any
+ * of its contents become visible. {@link #close()} removes whatever was not committed.
+ * <p>
+ * The executable bit that {@link ProjectFilesystem#createZip} records is only stored in the
+ * central directory at the very end of the zip, so the tail of the stream is kept in memory and
+ * parsed once all of the entries have been read.
+ */
+public class StreamingUnzip implements Closeable {
+
+  /**
+   * How much of the stream to keep while reading entries. This only needs to cover the bytes that
+   * the zip reader buffers ahead of the entry it is returning.
+   */
+  private static final int TAIL_RETENTION_BYTES = 64 * 1024;
+
+  private final ProjectFilesystem filesystem;
+  private final Path stagingDir;
+  private final ImmutableList<StagedEntry> entries;
+
+  private StreamingUnzip(
+      ProjectFilesystem filesystem,
+      Path stagingDir,
+      ImmutableList<StagedEntry> entries) {
+    this.filesystem = filesystem;
+    this.stagingDir = stagingDir;
+    this.entries = entries;
+  }
+
+  /**
+   * Reads a zip file from {@code input} until it is exhausted, writing each of its files to
+   * {@code stagingDir}, which is relative to the root of {@code filesystem} and is replaced if it
+   * already exists.
+   */
+  public static StreamingUnzip stage(
+      InputStream input,
+      ProjectFilesystem filesystem,
+      Path stagingDir) throws IOException {
+    filesystem.deleteRecursivelyIfExists(stagingDir);
+    filesystem.mkdirs(stagingDir);
+
+    ImmutableList.Builder<StagedEntry> stagedEntries = ImmutableList.builder();
+    TailCapturingInputStream tail = new TailCapturingInputStream(input);
+    try (ZipArchiveInputStream zip = new ZipArchiveInputStream(tail)) {
+      int index = 0;
+      while (true) {
+        // Entry headers, and the central directory that follows the last entry, are captured in
+        // full. Entry contents are not.
+        tail.setBounded(false);
+        ZipArchiveEntry entry = zip.getNextZipEntry();
+        if (entry == null) {
+          break;
+        }
+        tail.setBounded(true);
+
+        if (entry.isDirectory()) {
+          stagedEntries.add(new StagedEntry(entry.getName(), Optional.<Path>absent()));
+          continue;
+        }
+        Path stagedFile = stagingDir.resolve(String.valueOf(index++));
+        try (OutputStream output = filesystem.newFileOutputStream(stagedFile)) {
+          ByteStreams.copy(zip, output);
+        }
+        stagedEntries.add(new StagedEntry(entry.getName(), Optional.of(stagedFile)));
+      }
+
+      // Read whatever follows the central directory too, so that callers checksumming the stream
+      // see all of it.
+      ByteStreams.copy(tail, ByteStreams.nullOutputStream());
+    }
+
+    ImmutableMap<String, Long> externalAttributes =
+        readCentralDirectoryExternalAttributes(tail.getCapturedBytes());
+    ImmutableList.Builder<StagedEntry> entries = ImmutableList.builder();
+    for (StagedEntry entry : stagedEntries.build()) {
+      Long attributes = externalAttributes.get(entry.name);
+      if (attributes == null) {
+        throw new IOException(
+            String.format("%s is missing from the zip's central directory", entry.name));
+      }
+      entries.add(entry.withExternalAttributes(attributes));
+    }
+    return new StreamingUnzip(filesystem, stagingDir, entries.build());
+  }
+
+  /**
+   * Moves the staged entries into place, relative to the root of the filesystem they were staged
+   * on, in the same way that {@link Unzip#extractZipFile} would have written them.
+   *
+   * @return the paths of the written files.
+   */
+  public ImmutableList<Path> commit(Unzip.ExistingFileMode existingFileMode) throws IOException {
+    return commit(existingFileMode, Predicates.<Path>alwaysFalse());
+  }
+
+  /**
+   * Moves the staged entries into place, leaving alone the files matched by
+   * {@code unchangedFiles}, as {@link Unzip#extractZipFile} would.
+   *
+   * @return the paths of the written files.
+   */
+  public ImmutableList<Path> commit(
+      Unzip.ExistingFileMode existingFileMode,
+      Predicate<Path> unchangedFiles) throws IOException {
+    ImmutableSet.Builder<Path> targets = ImmutableSet.builder();
+    for (StagedEntry entry : entries) {
+      targets.add(Paths.get(entry.name));
+    }
+    Set<Path> allTargets = targets.build();
+
+    ImmutableList.Builder<Path> filesWritten = ImmutableList.builder();
+    for (StagedEntry entry : entries) {
+      Path target = Paths.get(entry.name);
+      if (entry.stagedFile.isPresent() && unchangedFiles.apply(target)) {
+        continue;
+      }
+      if (filesystem.exists(target)) {
+        Unzip.prepareExistingTarget(
+            filesystem,
+            target,
+            !entry.stagedFile.isPresent(),
+            existingFileMode,
+            allTargets);
+      }
+
+      if (!entry.stagedFile.isPresent()) {
+        filesystem.mkdirs(target);
+        continue;
+      }
+      filesystem.createParentDirs(target);
+      filesystem.move(entry.stagedFile.get(), target, StandardCopyOption.REPLACE_EXISTING);
+      filesWritten.add(target);
+
+      // See Unzip#extractZipFile for how the executable bit is encoded.
+      Set<PosixFilePermission> permissions =
+          MorePosixFilePermissions.fromMode(entry.externalAttributes >> 16);
+      if (permissions.contains(PosixFilePermission.OWNER_EXECUTE)) {
+        MoreFiles.makeExecutable(filesystem.resolve(target));
+      }
+    }
+    return filesWritten.build();
+  }
+
+  /**
+   * Deletes the staging directory, along with any entries that were not committed.
+   */
+  @Override
+  public void close() throws IOException {
+    filesystem.deleteRecursivelyIfExists(stagingDir);
+  }
+
+  /**
+   * Finds the central directory at the end of {@code tail}, which ends with the last bytes of a zip
+   * file, and reads the external attributes of each of its entries.
+   */
+  private static ImmutableMap<String, Long> readCentralDirectoryExternalAttributes(byte[] tail)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Search backwards for the end of central directory record, which may be followed by a
+    // comment.
+    int endPosition = tail.length - ZipEntry.ENDHDR;
+    while (endPosition >= 0 && buffer.getInt(endPosition) != ZipEntry.ENDSIG) {
+      endPosition--;
+    }
+    if (endPosition < 0) {
+      throw new IOException("could not find the end of the zip's central directory");
+    }
+    int entryCount = buffer.getShort(endPosition + ZipEntry.ENDTOT) & 0xffff;
+    long directorySize = buffer.getInt(endPosition + ZipEntry.ENDSIZ) & 0xffffffffL;
+    if (directorySize > endPosition) {
+      throw new IOException("the zip's central directory was not fully read");
+    }
+
+    ImmutableMap.Builder<String, Long> externalAttributes = ImmutableMap.builder();
+    int position = (int) (endPosition - directorySize);
+    for (int i = 0; i < entryCount; i++) {
+      if (buffer.getInt(position) != ZipEntry.CENSIG) {
+        throw new IOException("expected central directory header signature");
+      }
+      int nameLength = buffer.getShort(position + ZipEntry.CENNAM) & 0xffff;
+      int extraLength = buffer.getShort(position + ZipEntry.CENEXT) & 0xffff;
+      int commentLength = buffer.getShort(position + ZipEntry.CENCOM) & 0xffff;
+      String name = new String(
+          tail,
+          position + ZipEntry.CENHDR,
+          nameLength,
+          Charsets.UTF_8);
+      externalAttributes.put(name, buffer.getInt(position + ZipEntry.CENATX) & 0xffffffffL);
+      position += ZipEntry.CENHDR + nameLength + extraLength + commentLength;
+    }
+    return externalAttributes.build();
+  }
+
+  private static class StagedEntry {
+    private final String name;
+    private final Optional<Path> stagedFile;
+    private final long externalAttributes;
+
+    public StagedEntry(String name, Optional<Path> stagedFile) {
+      this(name, stagedFile, 0);
+    }
+
+    private StagedEntry(String name, Optional<Path> stagedFile, long externalAttributes) {
+      this.name = name;
+      this.stagedFile = stagedFile;
+      this.externalAttributes = externalAttributes;
+    }
+
+    public StagedEntry withExternalAttributes(long externalAttributes) {
+      return new StagedEntry(name, stagedFile, externalAttributes);
+    }
+  }
+
+  /**
+   * Keeps the bytes read through it. While bounded, only roughly the last
+   * {@link #TAIL_RETENTION_BYTES} are kept.
+   */
+  private static class TailCapturingInputStream extends FilterInputStream {
+
+    private byte[] captured = new byte[2 * TAIL_RETENTION_BYTES];
+    private int count;
+    private boolean bounded;
+
+    public TailCapturingInputStream(InputStream in) {
+      super(in);
+    }
+
+    public void setBounded(boolean bounded) {
+      this.bounded = bounded;
+    }
+
+    public byte[] getCapturedBytes() {
+      return Arrays.copyOf(captured, count);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b != -1) {
+        capture(new byte[] {(byte) b}, 0, 1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] bytes, int off, int len) throws IOException {
+      int numOfBytesRead = in.read(bytes, off, len);
+      if (numOfBytesRead > 0) {
+        capture(bytes, off, numOfBytesRead);
+      }
+      return numOfBytesRead;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // Skipped bytes may be part of the central directory, so read them instead.
+      byte[] skipped = new byte[(int) Math.min(n, TAIL_RETENTION_BYTES)];
+      return Math.max(0, read(skipped, 0, skipped.length));
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void capture(byte[] bytes, int off, int len) {
+      if (bounded && count + len > captured.length) {
+        // Drop everything but the most recent bytes.
+        int keep = Math.min(count, TAIL_RETENTION_BYTES);
+        System.arraycopy(captured, count - keep, captured, 0, keep);
+        count = keep;
+        if (len > captured.length - count) {
+          int skip = len - (captured.length - count);
+          off += skip;
+          len -= skip;
+        }
+      }
+      if (count + len > captured.length) {
+        captured = Arrays.copyOf(captured, Math.max(2 * captured.length, count + len));
+      }
+      System.arraycopy(bytes, off, captured, count, len);
+      count += len;
+    }
+  }
+}
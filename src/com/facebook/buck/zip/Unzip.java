@@ -20,8 +20,11 @@ import com.facebook.buck.io.MoreFiles;
 import com.facebook.buck.io.MorePosixFilePermissions;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteStreams;
 
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
@@ -33,6 +36,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Set;
 
@@ -53,24 +57,48 @@ public class Unzip {
       Path zipFile,
       ProjectFilesystem filesystem,
       ExistingFileMode existingFileMode) throws IOException {
+    return extractZipFile(
+        zipFile,
+        filesystem,
+        existingFileMode,
+        Predicates.<Path>alwaysFalse());
+  }
+
+  /**
+   * Unzips a file to a destination and returns the paths of the written files.
+   *
+   * @param unchangedFiles matches the files that already exist with the contents that they have
+   *     in the zip, which are left alone rather than written again.
+   */
+  public static ImmutableList<Path> extractZipFile(
+      Path zipFile,
+      ProjectFilesystem filesystem,
+      ExistingFileMode existingFileMode,
+      Predicate<Path> unchangedFiles) throws IOException {
 
     ImmutableList.Builder<Path> filesWritten = ImmutableList.builder();
     try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+      ImmutableSet.Builder<Path> targets = ImmutableSet.builder();
+      for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+        targets.add(Paths.get(entry.getName()));
+      }
+      Set<Path> allTargets = targets.build();
+
       Enumeration<ZipArchiveEntry> entries = zip.getEntries();
       while (entries.hasMoreElements()) {
         ZipArchiveEntry entry = entries.nextElement();
         String fileName = entry.getName();
         Path target = Paths.get(fileName);
+        if (!entry.isDirectory() && unchangedFiles.apply(target)) {
+          continue;
+        }
         if (filesystem.exists(target)) {
-          switch (existingFileMode) {
-            case OVERWRITE:
-              // Unpack the file or directory as usual, overwriting the file.
-              break;
-            case OVERWRITE_AND_CLEAN_DIRECTORIES:
-              // Delete the file or directory before unpacking it.
-              filesystem.deleteRecursivelyIfExists(target);
-              break;
-          }
+          prepareExistingTarget(
+              filesystem,
+              target,
+              entry.isDirectory(),
+              existingFileMode,
+              allTargets);
         }
 
         // TODO(mbolin): Keep track of which directories have already been written to avoid
@@ -173,6 +201,42 @@ public class Unzip {
     return filesWritten.build();
   }
 
+  /**
+   * Makes way for an entry of a zip file at {@code target}, which already exists.
+   * <p>
+   * When cleaning directories, anything in a directory that the zip does not have is deleted, but
+   * the entries of the zip that are in it are left to be dealt with in turn, so that unchanged
+   * files can be kept.
+   *
+   * @param allTargets the paths of all of the entries in the zip.
+   */
+  static void prepareExistingTarget(
+      ProjectFilesystem filesystem,
+      Path target,
+      boolean isDirectory,
+      ExistingFileMode existingFileMode,
+      Set<Path> allTargets) throws IOException {
+    switch (existingFileMode) {
+      case OVERWRITE:
+        // Unpack the file or directory as usual, overwriting the file.
+        break;
+      case OVERWRITE_AND_CLEAN_DIRECTORIES:
+        if (isDirectory && filesystem.isDirectory(target)) {
+          // Delete whatever the zip does not have from the directory.
+          for (Path child : filesystem.getDirectoryContents(target)) {
+            Path relativeChild = target.resolve(child.getFileName());
+            if (!allTargets.contains(relativeChild)) {
+              filesystem.deleteRecursivelyIfExists(relativeChild);
+            }
+          }
+        } else {
+          // Delete the file or directory before unpacking it.
+          filesystem.deleteRecursivelyIfExists(target);
+        }
+        break;
+    }
+  }
+
   public static ImmutableList<Path> extractZipFile(
       Path zipFile,
       final Path destination,
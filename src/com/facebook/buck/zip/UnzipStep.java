@@ -20,12 +20,15 @@ import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.HasResourceRequirements;
 import com.facebook.buck.step.Step;
+import com.facebook.buck.util.concurrent.ResourceClass;
+import com.google.common.collect.ImmutableMap;
 
 import java.io.IOException;
 import java.nio.file.Path;
 
-public class UnzipStep implements Step {
+public class UnzipStep implements Step, HasResourceRequirements {
   private static final Logger LOG = Logger.get(UnzipStep.class);
 
   private final Path zipFile;
@@ -56,6 +59,11 @@ public class UnzipStep implements Step {
     return "unzip";
   }
 
+  @Override
+  public ImmutableMap<ResourceClass, Integer> getResourceRequirements() {
+    return ImmutableMap.of(ResourceClass.DISK_IO, 1);
+  }
+
   @Override
   public String getDescription(ExecutionContext context) {
     ProjectFilesystem projectFilesystem = context.getProjectFilesystem();
@@ -25,9 +25,12 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.Pair;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.HasResourceRequirements;
 import com.facebook.buck.step.Step;
+import com.facebook.buck.util.concurrent.ResourceClass;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.hash.Hashing;
@@ -51,7 +54,7 @@ import java.util.zip.ZipEntry;
 /**
  * A {@link com.facebook.buck.step.Step} that creates a ZIP archive..
  */
-public class ZipStep implements Step {
+public class ZipStep implements Step, HasResourceRequirements {
 
   private static final Logger LOG = Logger.get(ZipStep.class);
 
@@ -248,4 +251,9 @@ public class ZipStep implements Step {
     return "zip";
   }
 
+  @Override
+  public ImmutableMap<ResourceClass, Integer> getResourceRequirements() {
+    return ImmutableMap.of(ResourceClass.DISK_IO, 1);
+  }
+
 }
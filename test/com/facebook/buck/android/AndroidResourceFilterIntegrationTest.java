@@ -185,7 +185,8 @@ public class AndroidResourceFilterIntegrationTest {
     workspace.runBuckBuild("//apps/sample:app_comp_str").assertSuccess();
     BuckBuildLog buildLog = workspace.getBuildLog();
     Sha1HashCode androidBinaryRuleKey = buildLog.getRuleKey("//apps/sample:app_comp_str");
-    Path cachedFile = workspace.getPath("buck-cache/" + androidBinaryRuleKey.getHash());
+    String hash = androidBinaryRuleKey.getHash();
+    Path cachedFile = workspace.getPath("buck-cache/" + hash.substring(0, 2) + "/" + hash);
     Files.delete(cachedFile);
 
     workspace.runBuckCommand("clean").assertSuccess();
@@ -21,8 +21,10 @@ import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.BaseEncoding;
 
@@ -30,10 +32,13 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.IOException;
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
 
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -87,6 +92,79 @@ public class BserDeserializerTest {
     assertThat(deserialized, equalTo(expected));
   }
 
+  @Test
+  public void deserializeArrayElementsOneAtATime() throws IOException {
+    BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    final List<Object> deserialized = new ArrayList<>();
+    deserializer.deserializeBserArray(
+        getByteStream("000103090003030323034203F0"),
+        new BserDeserializer.ArrayElementHandler() {
+          @Override
+          public void handleElement(Object element) {
+            deserialized.add(element);
+          }
+        });
+    List<Object> expected = ImmutableList.<Object>of((byte) 0x23, (byte) 0x42, (byte) 0xF0);
+    assertThat(deserialized, equalTo(expected));
+  }
+
+  @Test
+  public void deserializeConsecutiveValuesFromOneStream() throws IOException {
+    BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    InputStream stream = getByteStream(
+        "0001030E02030B68656C6C6F20776F726C64" + "000103020342" + "0001030802030568656C6C6F");
+    assertThat(deserializer.deserializeBserValue(stream), equalTo((Object) "hello world"));
+    assertThat(deserializer.deserializeBserValue(stream), equalTo((Object) (byte) 0x42));
+    assertThat(deserializer.deserializeBserValue(stream), equalTo((Object) "hello"));
+  }
+
+  @Test
+  public void deserializeValuesLargerThanTheReadBuffer() throws IOException {
+    // An array of 20000 strings of 10 characters each, followed by one string of 100000, and then
+    // by a second value, to check that neither is read past its end.
+    int numStrings = 20000;
+    String shortString = Strings.repeat("a", 10);
+    String longString = Strings.repeat("b", 100000);
+    int arrayLength = 2 + 4 + numStrings * (3 + shortString.length()) + 2 + 4 + longString.length();
+    ByteBuffer buffer = ByteBuffer.allocate(7 + arrayLength + 6).order(ByteOrder.nativeOrder());
+    buffer.put((byte) 0x00).put((byte) 0x01).put((byte) 0x05).putInt(arrayLength);
+    buffer.put((byte) 0x00).put((byte) 0x05).putInt(numStrings + 1);
+    for (int i = 0; i < numStrings; i++) {
+      buffer.put((byte) 0x02).put((byte) 0x03).put((byte) shortString.length());
+      buffer.put(shortString.getBytes(StandardCharsets.US_ASCII));
+    }
+    buffer.put((byte) 0x02).put((byte) 0x05).putInt(longString.length());
+    buffer.put(longString.getBytes(StandardCharsets.US_ASCII));
+    buffer.put(BaseEncoding.base16().decode("000103020342"));
+    InputStream stream = new ByteArrayInputStream(buffer.array());
+
+    BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    List<Object> deserialized = (List<Object>) deserializer.deserializeBserValue(stream);
+    assertThat(deserialized.size(), equalTo(numStrings + 1));
+    assertThat(deserialized.get(numStrings - 1), equalTo((Object) shortString));
+    assertThat(deserialized.get(numStrings), equalTo((Object) longString));
+    assertThat(deserializer.deserializeBserValue(stream), equalTo((Object) (byte) 0x42));
+  }
+
+  @Test
+  public void deserializeInternedStrings() throws IOException {
+    BserDeserializer deserializer = new BserDeserializer(
+        BserDeserializer.KeyOrdering.UNSORTED,
+        BserDeserializer.StringInterning.INTERNED);
+    List<Object> deserialized = (List<Object>) deserializer.deserializeBserValue(
+        getByteStream("0001030F000302020303666F6F020303666F6F"));
+    assertThat(deserialized, contains((Object) "foo", "foo"));
+    assertThat(deserialized.get(0), sameInstance(deserialized.get(1)));
+  }
+
+  @Test
+  public void deserializeNonAsciiString() throws IOException {
+    BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    String deserialized = (String) deserializer.deserializeBserValue(
+        getByteStream("0001030602030363C3A9"));
+    assertThat(deserialized, equalTo("c\u00e9"));
+  }
+
   @Test
   public void deserializeString() throws IOException {
     BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
@@ -257,6 +335,28 @@ public class BserDeserializerTest {
     deserializer.deserializeBserValue(getByteStream("0001030B010303020303666F6F0323"));
   }
 
+  @Test
+  public void throwIfStringLengthTooLong() throws IOException {
+    thrown.expect(BserDeserializer.BserEofException.class);
+    thrown.expectMessage("Prematurely reached end of BSER buffer");
+    BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    deserializer.deserializeBserValue(getByteStream("00010306020305666F6F"));
+  }
+
+  @Test
+  public void throwIfArrayExpectedButNotFound() throws IOException {
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Unexpected BSER value type 3, expected array");
+    BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    deserializer.deserializeBserArray(
+        getByteStream("000103020342"),
+        new BserDeserializer.ArrayElementHandler() {
+          @Override
+          public void handleElement(Object element) {
+          }
+        });
+  }
+
   @Test
   public void throwIfMapKeyNotString() throws IOException {
     thrown.expect(IOException.class);
@@ -35,6 +35,7 @@ import com.facebook.buck.testutil.integration.ProjectWorkspace.ProcessResult;
 import com.facebook.buck.testutil.integration.TestDataHelper;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.concurrent.ResourceClass;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
@@ -408,6 +409,28 @@ public class BuckConfigTest {
     assertEquals(42, config.getMaxTraces());
   }
 
+  @Test
+  public void testGetResourceLimits() throws IOException {
+    assertEquals(
+        ImmutableMap.<ResourceClass, Integer>of(),
+        new FakeBuckConfig().getResourceLimits());
+
+    BuckConfig config = createFromText(
+        "[resources]",
+        "memory = 2",
+        "disk_io = 4");
+    assertEquals(
+        ImmutableMap.of(ResourceClass.MEMORY, 2, ResourceClass.DISK_IO, 4),
+        config.getResourceLimits());
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void testGetResourceLimitsRejectsNonPositiveLimits() throws IOException {
+    createFromText(
+        "[resources]",
+        "memory = 0").getResourceLimits();
+  }
+
   @Test
   public void testGetAndroidTargetSdkWithSpaces() throws IOException {
     BuckConfig config = createFromText(
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.event.listener;
+
+import static com.facebook.buck.event.TestEventConfigerator.configureTestEventAtTime;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.rules.ArtifactCacheEvent;
+import com.facebook.buck.rules.ArtifactCacheLayerEvent;
+import com.facebook.buck.rules.ArtifactCacheLayerReport;
+import com.facebook.buck.rules.ArtifactCacheReport;
+import com.facebook.buck.rules.ArtifactCacheReportEvent;
+import com.facebook.buck.rules.ArtifactUploadEvent;
+import com.facebook.buck.rules.BuildEvent;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.BuildRuleStatus;
+import com.facebook.buck.rules.BuildRuleSuccessType;
+import com.facebook.buck.rules.CacheResult;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ArtifactCacheReportListenerTest {
+
+  private static final RuleKey FIRST = new RuleKey("aaaa");
+  private static final RuleKey SECOND = new RuleKey("bbbb");
+
+  private BuckEventBus eventBus;
+  private FakeProjectFilesystem filesystem;
+  private List<ArtifactCacheReport> reports;
+
+  @Before
+  public void setUp() {
+    eventBus = BuckEventBusFactory.newInstance();
+    filesystem = new FakeProjectFilesystem();
+    reports = Lists.newArrayList();
+    eventBus.register(
+        new ArtifactCacheReportListener(eventBus, filesystem, new ObjectMapper()));
+    eventBus.register(
+        new Object() {
+          @Subscribe
+          public void reported(ArtifactCacheReportEvent event) {
+            reports.add(event.getReport());
+          }
+        });
+  }
+
+  @Test
+  public void reportsHitRatesSizesAndLatenciesPerLayer() {
+    BuildEvent.Started started = BuildEvent.started(ImmutableSet.<String>of());
+    eventBus.post(started);
+    eventBus.post(
+        ArtifactCacheLayerEvent.fetched(
+            "dir",
+            ImmutableSet.of(FIRST),
+            ImmutableList.of(CacheResult.miss()),
+            TimeUnit.MILLISECONDS.toNanos(2)));
+    eventBus.post(
+        ArtifactCacheLayerEvent.fetched(
+            "http",
+            ImmutableSet.of(FIRST, SECOND),
+            ImmutableList.of(
+                CacheResult.hit("http").withArtifactSizeBytes(100L),
+                CacheResult.error("http", "timeout")),
+            TimeUnit.MILLISECONDS.toNanos(40)));
+    eventBus.post(
+        ArtifactCacheLayerEvent.stored(
+            "dir",
+            ImmutableSet.of(FIRST),
+            100,
+            TimeUnit.MILLISECONDS.toNanos(3)));
+    eventBus.post(BuildEvent.finished(started, 0));
+
+    assertEquals(1, reports.size());
+    ImmutableList<ArtifactCacheLayerReport> layers = reports.get(0).getLayers();
+    assertEquals(2, layers.size());
+
+    ArtifactCacheLayerReport dir = layers.get(0);
+    assertEquals("dir", dir.getName());
+    assertEquals(1, dir.getMisses());
+    assertEquals(0.0, dir.getHitRate(), 0);
+    assertEquals(1, dir.getStores());
+    assertEquals(100, dir.getBytesStored());
+    assertEquals(3.0, dir.getStoreP99Millis(), 0);
+
+    ArtifactCacheLayerReport http = layers.get(1);
+    assertEquals("http", http.getName());
+    assertEquals(2, http.getFetches());
+    assertEquals(1, http.getHits());
+    assertEquals(1, http.getErrors());
+    assertEquals(0.5, http.getHitRate(), 0);
+    assertEquals(100, http.getBytesFetched());
+    assertEquals(40.0, http.getFetchP50Millis(), 0);
+
+    assertTrue(filesystem.exists(ArtifactCacheReport.PATH));
+  }
+
+  @Test
+  public void waitsForUploadsBeforeReporting() {
+    BuildEvent.Started started = BuildEvent.started(ImmutableSet.<String>of());
+    eventBus.post(started);
+    ArtifactUploadEvent.Scheduled scheduled = ArtifactUploadEvent.scheduled(10);
+    eventBus.post(scheduled);
+    eventBus.post(BuildEvent.finished(started, 0));
+    assertTrue(reports.isEmpty());
+    assertFalse(filesystem.exists(ArtifactCacheReport.PATH));
+
+    eventBus.post(ArtifactUploadEvent.finished(scheduled));
+    assertEquals(1, reports.size());
+  }
+
+  @Test
+  public void reportsRulesThatMissedButWhoseOutputsWereCached() {
+    SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+    FakeBuildRule unstable = new FakeBuildRule("//:unstable", resolver);
+    unstable.setRuleKey(FIRST);
+    FakeBuildRule changed = new FakeBuildRule("//:changed", resolver);
+    changed.setRuleKey(SECOND);
+
+    BuildEvent.Started started = BuildEvent.started(ImmutableSet.<String>of());
+    eventBus.post(started);
+    for (FakeBuildRule rule : ImmutableList.of(unstable, changed)) {
+      eventBus.post(
+          BuildRuleEvent.finished(
+              rule,
+              BuildRuleStatus.SUCCESS,
+              CacheResult.miss(),
+              Optional.of(BuildRuleSuccessType.BUILT_LOCALLY),
+              Optional.<HashCode>absent(),
+              Optional.<Long>absent()));
+    }
+    eventBus.post(ArtifactCacheLayerEvent.payloadReused("dir", ImmutableSet.of(FIRST), "abcd"));
+    eventBus.post(BuildEvent.finished(started, 0));
+
+    assertEquals(
+        ImmutableList.of("//:unstable"),
+        reports.get(0).getMissesWithCachedOutputs());
+  }
+
+  @Test
+  public void addsUpCompressionTime() {
+    BuildEvent.Started started = BuildEvent.started(ImmutableSet.<String>of());
+    eventBus.post(started);
+    ArtifactCacheEvent.Started compress =
+        ArtifactCacheEvent.started(ArtifactCacheEvent.Operation.COMPRESS, ImmutableSet.of(FIRST));
+    ArtifactCacheEvent.Started decompress =
+        ArtifactCacheEvent.started(
+            ArtifactCacheEvent.Operation.DECOMPRESS,
+            ImmutableSet.of(SECOND));
+    postAt(compress, 0);
+    postAt(decompress, 5);
+    postAt(ArtifactCacheEvent.finished(compress), 20);
+    postAt(ArtifactCacheEvent.finished(decompress), 12);
+    eventBus.post(BuildEvent.finished(started, 0));
+
+    assertEquals(20, reports.get(0).getCompressMillis());
+    assertEquals(7, reports.get(0).getDecompressMillis());
+  }
+
+  @Test
+  public void percentilesUseTheNearestRank() {
+    ImmutableList.Builder<Long> nanos = ImmutableList.builder();
+    for (long i = 1; i <= 200; i++) {
+      nanos.add(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    assertEquals(100.0, ArtifactCacheReportListener.percentileMillis(nanos.build(), 50), 0);
+    assertEquals(190.0, ArtifactCacheReportListener.percentileMillis(nanos.build(), 95), 0);
+    assertEquals(198.0, ArtifactCacheReportListener.percentileMillis(nanos.build(), 99), 0);
+    assertEquals(
+        0.0,
+        ArtifactCacheReportListener.percentileMillis(ImmutableList.<Long>of(), 99),
+        0);
+  }
+
+  private void postAt(ArtifactCacheEvent event, long millis) {
+    BuckEventBusFactory.getEventBusFor(eventBus)
+        .post(configureTestEventAtTime(event, millis, TimeUnit.MILLISECONDS, /* threadId */ 0));
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event.listener;
+
+import static com.facebook.buck.event.TestEventConfigerator.configureTestEventAtTime;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.rules.BuildEvent;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.BuildRuleStatus;
+import com.facebook.buck.rules.BuildRuleSuccessType;
+import com.facebook.buck.rules.CacheResult;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.RuleDurationHistory;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class RuleDurationHistoryListenerTest {
+
+  private BuckEventBus eventBus;
+  private FakeProjectFilesystem filesystem;
+  private ObjectMapper objectMapper;
+  private RuleDurationHistoryListener listener;
+  private BuildRule built;
+  private BuildRule fetched;
+
+  @Before
+  public void setUp() {
+    eventBus = BuckEventBusFactory.newInstance();
+    filesystem = new FakeProjectFilesystem();
+    objectMapper = new ObjectMapper();
+    listener = new RuleDurationHistoryListener(filesystem, objectMapper);
+    eventBus.register(listener);
+    SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+    built = new FakeBuildRule("//:built", resolver);
+    fetched = new FakeBuildRule("//:fetched", resolver);
+  }
+
+  @Test
+  public void measuresTheTimeRulesBuiltLocallySpendRunning() {
+    postAt(BuildRuleEvent.started(built), 0);
+    postAt(BuildRuleEvent.suspended(built), 10);
+    postAt(BuildRuleEvent.resumed(built), 50);
+    postAt(BuildRuleEvent.suspended(built), 60);
+    postAt(BuildRuleEvent.resumed(built), 100);
+    postAt(finished(built, BuildRuleSuccessType.BUILT_LOCALLY), 400);
+
+    postAt(BuildRuleEvent.resumed(fetched), 0);
+    postAt(finished(fetched, BuildRuleSuccessType.FETCHED_FROM_CACHE), 200);
+
+    assertEquals(ImmutableMap.of("//:built", 320L), listener.getMeasuredMillis());
+  }
+
+  @Test
+  public void averagesTheMeasurementsIntoTheHistoryWhenTheBuildFinishes() throws IOException {
+    new RuleDurationHistory(ImmutableMap.of("//:built", 100L, "//:other", 5L))
+        .writeTo(filesystem, objectMapper);
+
+    BuildEvent.Started started = BuildEvent.started(ImmutableSet.<String>of());
+    eventBus.post(started);
+    postAt(BuildRuleEvent.resumed(built), 0);
+    postAt(finished(built, BuildRuleSuccessType.BUILT_LOCALLY), 300);
+    eventBus.post(BuildEvent.finished(started, 0));
+
+    assertEquals(
+        ImmutableMap.of("//:built", 200L, "//:other", 5L),
+        RuleDurationHistory.readFrom(filesystem, objectMapper).getDurationMillis());
+  }
+
+  private static BuildRuleEvent.Finished finished(BuildRule rule, BuildRuleSuccessType success) {
+    return BuildRuleEvent.finished(
+        rule,
+        BuildRuleStatus.SUCCESS,
+        CacheResult.miss(),
+        Optional.of(success),
+        Optional.<HashCode>absent(),
+        Optional.<Long>absent());
+  }
+
+  private void postAt(AbstractBuckEvent event, long millis) {
+    BuckEventBusFactory.getEventBusFor(eventBus)
+        .post(configureTestEventAtTime(event, millis, TimeUnit.MILLISECONDS, /* threadId */ 0));
+  }
+}
@@ -55,5 +55,8 @@ public class WebServerTest {
     assertTrue(getDelegate.apply("/trace") instanceof TraceHandlerDelegate);
     assertTrue(getDelegate.apply("/traces") instanceof TracesHandlerDelegate);
     assertTrue(contextPathToHandler.get("/tracedata").getHandler() instanceof TraceDataHandler);
+    assertTrue(
+        contextPathToHandler.get("/cachereport").getHandler() instanceof
+            ArtifactCacheReportHandler);
   }
 }
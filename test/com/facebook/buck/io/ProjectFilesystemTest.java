@@ -28,6 +28,7 @@ import com.facebook.buck.testutil.WatchEvents;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.facebook.buck.testutil.integration.ZipInspector;
 import com.facebook.buck.zip.ZipConstants;
+import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
@@ -47,6 +48,7 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -65,6 +67,7 @@ import java.util.Date;
 import java.util.EnumSet;
 import java.util.Enumeration;
 import java.util.Set;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -542,6 +545,35 @@ public class ProjectFilesystemTest {
         zipInspector.getZipFileEntries());
   }
 
+  @Test
+  public void testCreateZipWithCompressionLevels() throws IOException {
+    tmp.newFolder("foo");
+    filesystem.writeContentsToPath("text text text text", Paths.get("foo/bar.txt"));
+    filesystem.writeContentsToPath("not really a jar", Paths.get("foo/baz.jar"));
+
+    Path output = tmp.newFile("out.zip");
+
+    filesystem.createZip(
+        ImmutableList.of(Paths.get("foo"), Paths.get("foo/bar.txt"), Paths.get("foo/baz.jar")),
+        output,
+        ImmutableMap.<Path, String>of(),
+        Functions.forMap(
+            ImmutableMap.of(
+                Paths.get("foo"), Deflater.NO_COMPRESSION,
+                Paths.get("foo/bar.txt"), Deflater.BEST_SPEED,
+                Paths.get("foo/baz.jar"), Deflater.NO_COMPRESSION)));
+
+    try (java.util.zip.ZipFile zip = new java.util.zip.ZipFile(output.toFile())) {
+      assertEquals(ZipEntry.DEFLATED, zip.getEntry("foo/bar.txt").getMethod());
+      assertEquals(ZipEntry.STORED, zip.getEntry("foo/baz.jar").getMethod());
+      try (InputStream input = zip.getInputStream(zip.getEntry("foo/baz.jar"))) {
+        assertEquals(
+            "not really a jar",
+            CharStreams.toString(new InputStreamReader(input, UTF_8)));
+      }
+    }
+  }
+
   @Test
   public void testCreateZipWithEmptyDir() throws IOException {
     tmp.newFolder("foo");
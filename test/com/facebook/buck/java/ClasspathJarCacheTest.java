@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ClasspathJarCacheTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  @Test
+  public void entriesAreIndexedByPackage() throws IOException {
+    Path jar = createJar("lib.jar", "com/example/A.class", "com/example/b/B.class", "C.class");
+    ClasspathJarCache cache = new ClasspathJarCache();
+
+    ClasspathJarCache.IndexedJar indexed = cache.acquire(jar, Long.MAX_VALUE).get();
+
+    assertEquals(
+        ImmutableList.of("com/example/A.class"),
+        indexed.getEntriesByPackage().get("com.example"));
+    assertEquals(
+        ImmutableList.of("com/example/b/B.class"),
+        indexed.getEntriesByPackage().get("com.example.b"));
+    assertEquals(ImmutableList.of("C.class"), indexed.getEntriesByPackage().get(""));
+  }
+
+  @Test
+  public void unchangedJarIsIndexedOnce() throws IOException {
+    Path jar = createJar("lib.jar", "A.class");
+    ClasspathJarCache cache = new ClasspathJarCache();
+
+    ClasspathJarCache.IndexedJar first = cache.acquire(jar, Long.MAX_VALUE).get();
+    first.release();
+    ClasspathJarCache.IndexedJar second = cache.acquire(jar, Long.MAX_VALUE).get();
+
+    assertSame(first, second);
+  }
+
+  @Test
+  public void changedJarIsIndexedAgain() throws IOException {
+    Path jar = createJar("lib.jar", "A.class");
+    ClasspathJarCache cache = new ClasspathJarCache();
+
+    ClasspathJarCache.IndexedJar first = cache.acquire(jar, Long.MAX_VALUE).get();
+    first.release();
+    createJar("lib.jar", "A.class", "B.class");
+    Files.setLastModifiedTime(jar, FileTime.fromMillis(0));
+    ClasspathJarCache.IndexedJar second = cache.acquire(jar, Long.MAX_VALUE).get();
+
+    assertNotSame(first, second);
+    assertEquals(2, second.getEntriesByPackage().size());
+  }
+
+  @Test
+  public void missingJarIsNotIndexed() {
+    ClasspathJarCache cache = new ClasspathJarCache();
+
+    assertEquals(
+        Optional.<ClasspathJarCache.IndexedJar>absent(),
+        cache.acquire(tmp.getRoot().toPath().resolve("missing.jar"), Long.MAX_VALUE));
+  }
+
+  @Test
+  public void leastRecentlyUsedJarsAreEvictedOnceOverBudget() throws IOException {
+    Path first = createJar("first.jar", "A.class");
+    Path second = createJar("second.jar", "B.class");
+    Path third = createJar("third.jar", "C.class");
+    ClasspathJarCache cache = new ClasspathJarCache();
+
+    cache.acquire(first, Long.MAX_VALUE).get().release();
+    long jarSize = cache.getSizeBytes();
+    cache.acquire(second, Long.MAX_VALUE).get().release();
+    cache.acquire(first, Long.MAX_VALUE).get().release();
+    cache.acquire(third, 2 * jarSize).get().release();
+
+    assertTrue(cache.getJars().containsKey(first));
+    assertFalse(cache.getJars().containsKey(second));
+    assertTrue(cache.getJars().containsKey(third));
+    assertEquals(2 * jarSize, cache.getSizeBytes());
+  }
+
+  @Test
+  public void evictedJarStaysOpenUntilReleased() throws IOException {
+    Path first = createJar("first.jar", "A.class");
+    Path second = createJar("second.jar", "B.class");
+    ClasspathJarCache cache = new ClasspathJarCache();
+
+    ClasspathJarCache.IndexedJar inUse = cache.acquire(first, Long.MAX_VALUE).get();
+    cache.acquire(second, /* maxBytes */ 1).get().release();
+
+    assertFalse(cache.getJars().containsKey(first));
+    assertTrue(inUse.getZipFile().getEntry("A.class") != null);
+    inUse.release();
+  }
+
+  private Path createJar(String name, String... entries) throws IOException {
+    Path jar = tmp.getRoot().toPath().resolve(name);
+    try (OutputStream out = Files.newOutputStream(jar);
+         ZipOutputStream zip = new ZipOutputStream(out)) {
+      for (String entry : entries) {
+        zip.putNextEntry(new ZipEntry(entry));
+        zip.write(new byte[] {0});
+        zip.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.base.Charsets;
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+public class IndexedJarFileManagerTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+  @Test
+  public void compilesAgainstClassesFromIndexedJars() throws IOException {
+    Path depClasses = tmp.newFolder("dep").toPath();
+    compile(
+        "Dep",
+        "package dep; public class Dep { public static int answer() { return 42; } }",
+        ImmutableList.of("-d", depClasses.toString()));
+    Path jar = tmp.getRoot().toPath().resolve("dep.jar");
+    try (OutputStream out = Files.newOutputStream(jar);
+         ZipOutputStream zip = new ZipOutputStream(out)) {
+      zip.putNextEntry(new ZipEntry("dep/Dep.class"));
+      zip.write(Files.readAllBytes(depClasses.resolve("dep/Dep.class")));
+      zip.closeEntry();
+    }
+
+    Path out = tmp.newFolder("out").toPath();
+    assertTrue(
+        compile(
+            "User",
+            "class User { int answer() { return dep.Dep.answer(); } }",
+            ImmutableList.of("-d", out.toString(), "-classpath", jar.toString())));
+    assertTrue(Files.exists(out.resolve("User.class")));
+  }
+
+  @Test
+  public void listsClassesInIndexedJarsWithoutTheStandardFileManager() throws IOException {
+    Path jar = createJar("lib.jar", "com/example/A.class", "com/example/sub/B.class");
+    ClasspathJarCache cache = new ClasspathJarCache();
+    StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+    List<String> options = ImmutableList.of("-classpath", jar.toString());
+
+    IndexedJarFileManager fileManager = IndexedJarFileManager.create(
+        standard,
+        cache,
+        Long.MAX_VALUE,
+        options,
+        Functions.<Path>identity());
+    try {
+      standard.setLocation(StandardLocation.CLASS_PATH, ImmutableList.<File>of());
+      JavaFileObject file = Iterables.getOnlyElement(
+          fileManager.list(
+              StandardLocation.CLASS_PATH,
+              "com.example",
+              ImmutableSet.of(JavaFileObject.Kind.CLASS),
+              /* recurse */ false));
+      assertEquals(
+          "com.example.A",
+          fileManager.inferBinaryName(StandardLocation.CLASS_PATH, file));
+      assertEquals(
+          2,
+          Iterables.size(
+              fileManager.list(
+                  StandardLocation.CLASS_PATH,
+                  "com",
+                  ImmutableSet.of(JavaFileObject.Kind.CLASS),
+                  /* recurse */ true)));
+    } finally {
+      fileManager.close();
+      standard.close();
+    }
+  }
+
+  @Test
+  public void recursiveListingsLeaveOutPackagesWhichOnlyShareAPrefix() throws IOException {
+    Path jar = createJar(
+        "lib.jar",
+        "com/example/A.class",
+        "com/example/sub/B.class",
+        "com/example-x/C.class",
+        "com/examples/D.class");
+    ClasspathJarCache cache = new ClasspathJarCache();
+    StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+    List<String> options = ImmutableList.of("-classpath", jar.toString());
+
+    IndexedJarFileManager fileManager = IndexedJarFileManager.create(
+        standard,
+        cache,
+        Long.MAX_VALUE,
+        options,
+        Functions.<Path>identity());
+    try {
+      standard.setLocation(StandardLocation.CLASS_PATH, ImmutableList.<File>of());
+      ImmutableSet.Builder<String> names = ImmutableSet.builder();
+      for (JavaFileObject file :
+           fileManager.list(
+               StandardLocation.CLASS_PATH,
+               "com.example",
+               ImmutableSet.of(JavaFileObject.Kind.CLASS),
+               /* recurse */ true)) {
+        names.add(fileManager.inferBinaryName(StandardLocation.CLASS_PATH, file));
+      }
+      assertEquals(ImmutableSet.of("com.example.A", "com.example.sub.B"), names.build());
+    } finally {
+      fileManager.close();
+      standard.close();
+    }
+  }
+
+  @Test
+  public void theLastClasspathOptionWins() throws IOException {
+    Path first = createJar("first.jar", "com/example/A.class");
+    Path second = createJar("second.jar", "com/example/B.class");
+    ClasspathJarCache cache = new ClasspathJarCache();
+    StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+    List<String> options =
+        ImmutableList.of("-cp", first.toString(), "-classpath", second.toString());
+
+    IndexedJarFileManager fileManager = IndexedJarFileManager.create(
+        standard,
+        cache,
+        Long.MAX_VALUE,
+        options,
+        Functions.<Path>identity());
+    try {
+      standard.setLocation(StandardLocation.CLASS_PATH, ImmutableList.<File>of());
+      JavaFileObject file = Iterables.getOnlyElement(
+          fileManager.list(
+              StandardLocation.CLASS_PATH,
+              "com.example",
+              ImmutableSet.of(JavaFileObject.Kind.CLASS),
+              /* recurse */ false));
+      assertEquals(
+          "com.example.B",
+          fileManager.inferBinaryName(StandardLocation.CLASS_PATH, file));
+    } finally {
+      fileManager.close();
+      standard.close();
+    }
+  }
+
+  @Test
+  public void classpathWithDirectoriesIsLeftToTheStandardFileManager() throws IOException {
+    Path jar = createJar("lib.jar", "com/example/A.class");
+    Path classes = tmp.newFolder("classes").toPath();
+    Files.createDirectories(classes.resolve("com/example"));
+    Files.write(classes.resolve("com/example/B.class"), new byte[] {0});
+    ClasspathJarCache cache = new ClasspathJarCache();
+    StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+    List<String> options =
+        ImmutableList.of("-classpath", jar.toString() + File.pathSeparator + classes.toString());
+
+    IndexedJarFileManager fileManager = IndexedJarFileManager.create(
+        standard,
+        cache,
+        Long.MAX_VALUE,
+        options,
+        Functions.<Path>identity());
+    try {
+      standard.setLocation(StandardLocation.CLASS_PATH, ImmutableList.of(classes.toFile()));
+      JavaFileObject file = Iterables.getOnlyElement(
+          fileManager.list(
+              StandardLocation.CLASS_PATH,
+              "com.example",
+              ImmutableSet.of(JavaFileObject.Kind.CLASS),
+              /* recurse */ false));
+      assertEquals(
+          "com.example.B",
+          fileManager.inferBinaryName(StandardLocation.CLASS_PATH, file));
+      assertTrue(cache.getJars().isEmpty());
+    } finally {
+      fileManager.close();
+      standard.close();
+    }
+  }
+
+  private boolean compile(String className, String source, List<String> options)
+      throws IOException {
+    Path sourceFile = tmp.getRoot().toPath().resolve(className + ".java");
+    Files.write(sourceFile, source.getBytes(Charsets.UTF_8));
+    StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+    IndexedJarFileManager fileManager = IndexedJarFileManager.create(
+        standard,
+        new ClasspathJarCache(),
+        Long.MAX_VALUE,
+        options,
+        Functions.<Path>identity());
+    try {
+      return compiler.getTask(
+          null,
+          fileManager,
+          null,
+          options,
+          null,
+          standard.getJavaFileObjects(sourceFile.toFile())).call();
+    } finally {
+      fileManager.close();
+      standard.close();
+    }
+  }
+
+  private Path createJar(String name, String... entries) throws IOException {
+    Path jar = tmp.getRoot().toPath().resolve(name);
+    try (OutputStream out = Files.newOutputStream(jar);
+         ZipOutputStream zip = new ZipOutputStream(out)) {
+      for (String entry : entries) {
+        zip.putNextEntry(new ZipEntry(entry));
+        zip.write(new byte[] {0});
+        zip.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
@@ -173,6 +173,41 @@ public class JavaBuckConfigTest {
     assertTrue(isOptionContaining(jse7, "-bootclasspath two.jar"));
   }
 
+  @Test
+  public void classpathJarCacheSizeIsReadFromConfig() throws IOException {
+    assertEquals(
+        ClasspathJarCache.DEFAULT_MAX_BYTES,
+        createWithDefaultFilesystem(new StringReader("")).getClasspathJarCacheSizeBytes());
+
+    JavaBuckConfig config = createWithDefaultFilesystem(
+        new StringReader(
+            Joiner.on('\n').join(
+                "[java]",
+                "    classpath_jar_cache_size = 2MB")));
+    assertEquals(2L * 1024 * 1024, config.getClasspathJarCacheSizeBytes());
+    assertEquals(
+        2L * 1024 * 1024,
+        config.getDefaultJavacOptions().getClasspathJarCacheSizeBytes());
+  }
+
+  @Test
+  public void abiGenerationModeDefaultsToClass() throws IOException {
+    assertEquals(
+        AbiGenerationMode.CLASS,
+        createWithDefaultFilesystem(new StringReader(""))
+            .getDefaultJavacOptions()
+            .getAbiGenerationMode());
+
+    JavaBuckConfig config = createWithDefaultFilesystem(
+        new StringReader(
+            Joiner.on('\n').join(
+                "[java]",
+                "    abi_generation_mode = source")));
+    assertEquals(
+        AbiGenerationMode.SOURCE,
+        config.getDefaultJavacOptions().getAbiGenerationMode());
+  }
+
   private boolean isOptionContaining(JavacOptions options, String expectedParameter) {
     ImmutableList.Builder<String> builder = ImmutableList.builder();
     options.appendOptionsToList(builder, Functions.<Path>identity());
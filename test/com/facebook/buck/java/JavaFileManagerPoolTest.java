@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.base.Charsets;
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+public class JavaFileManagerPoolTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+  @Test
+  public void fileManagerIsReusedWhileClasspathIsUnchanged() throws IOException {
+    Path jar = tmp.newFile("dep.jar").toPath();
+    JavaFileManagerPool pool = new JavaFileManagerPool(/* maxIdlePerKey */ 1);
+
+    JavaFileManagerPool.PooledFileManager first = acquire(pool, "-classpath", jar.toString());
+    first.release();
+    JavaFileManagerPool.PooledFileManager second = acquire(pool, "-classpath", jar.toString());
+
+    assertSame(first.getFileManager(), second.getFileManager());
+  }
+
+  @Test
+  public void fileManagerIsNotReusedOnceAClasspathJarChanges() throws IOException {
+    Path jar = tmp.newFile("dep.jar").toPath();
+    JavaFileManagerPool pool = new JavaFileManagerPool(/* maxIdlePerKey */ 1);
+
+    JavaFileManagerPool.PooledFileManager first = acquire(pool, "-classpath", jar.toString());
+    first.release();
+    Files.write(jar, "changed".getBytes(Charsets.UTF_8));
+    Files.setLastModifiedTime(jar, FileTime.fromMillis(0));
+    JavaFileManagerPool.PooledFileManager second = acquire(pool, "-classpath", jar.toString());
+
+    assertNotSame(first.getFileManager(), second.getFileManager());
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  @Test
+  public void fileManagerIsOnlyReusedWithTheSameFlags() throws IOException {
+    JavaFileManagerPool pool = new JavaFileManagerPool(/* maxIdlePerKey */ 1);
+
+    JavaFileManagerPool.PooledFileManager first = acquire(pool, "-g");
+    first.release();
+    JavaFileManagerPool.PooledFileManager second = acquire(pool, "-nowarn");
+
+    assertNotSame(first.getFileManager(), second.getFileManager());
+    assertEquals(1, pool.getIdleCount());
+  }
+
+  @Test
+  public void fileManagerIsOnlyReusedWithTheSameOptionValues() throws IOException {
+    JavaFileManagerPool pool = new JavaFileManagerPool(/* maxIdlePerKey */ 1);
+
+    JavaFileManagerPool.PooledFileManager first = acquire(pool, "-encoding", "UTF-8");
+    first.release();
+    JavaFileManagerPool.PooledFileManager second = acquire(pool, "-encoding", "US-ASCII");
+
+    assertNotSame(first.getFileManager(), second.getFileManager());
+  }
+
+  @Test
+  public void releasingMoreThanTheIdleLimitClosesTheExtraFileManagers() {
+    JavaFileManagerPool pool = new JavaFileManagerPool(/* maxIdlePerKey */ 1);
+
+    JavaFileManagerPool.PooledFileManager first = acquire(pool, "-g");
+    JavaFileManagerPool.PooledFileManager second = acquire(pool, "-g");
+    first.release();
+    second.release();
+
+    assertEquals(1, pool.getIdleCount());
+  }
+
+  @Test
+  public void reusedFileManagerWritesToTheOutputDirectoryOfEachCompilation() throws IOException {
+    JavaFileManagerPool pool = new JavaFileManagerPool(/* maxIdlePerKey */ 1);
+    Path firstOut = tmp.newFolder("first").toPath();
+    Path secondOut = tmp.newFolder("second").toPath();
+
+    StandardJavaFileManager first = compile(pool, "A", firstOut);
+    StandardJavaFileManager second = compile(pool, "B", secondOut);
+
+    assertSame(first, second);
+    assertTrue(Files.exists(firstOut.resolve("A.class")));
+    assertTrue(Files.exists(secondOut.resolve("B.class")));
+    assertTrue(Files.notExists(secondOut.resolve("A.class")));
+  }
+
+  private StandardJavaFileManager compile(
+      JavaFileManagerPool pool,
+      String className,
+      Path out) throws IOException {
+    Path source = tmp.getRoot().toPath().resolve(className + ".java");
+    Files.write(source, ("class " + className + " {}").getBytes(Charsets.UTF_8));
+    JavaFileManagerPool.PooledFileManager pooled = acquire(pool, "-d", out.toString());
+    try {
+      StandardJavaFileManager fileManager = pooled.getFileManager();
+      assertTrue(
+          compiler.getTask(
+              null,
+              fileManager,
+              null,
+              ImmutableList.of("-d", out.toString()),
+              null,
+              fileManager.getJavaFileObjects(source.toFile())).call());
+      return fileManager;
+    } finally {
+      pooled.release();
+    }
+  }
+
+  private JavaFileManagerPool.PooledFileManager acquire(
+      JavaFileManagerPool pool,
+      String... options) {
+    List<String> optionList = ImmutableList.copyOf(options);
+    return pool.acquire(compiler, optionList, Functions.<Path>identity());
+  }
+}
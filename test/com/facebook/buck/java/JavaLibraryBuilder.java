@@ -34,13 +34,21 @@ import java.nio.file.Path;
 public class JavaLibraryBuilder extends AbstractNodeBuilder<JavaLibraryDescription.Arg> {
 
   protected JavaLibraryBuilder(BuildTarget target) {
-    super(new JavaLibraryDescription(DEFAULT_JAVAC_OPTIONS), target);
+    this(target, DEFAULT_JAVAC_OPTIONS);
+  }
+
+  protected JavaLibraryBuilder(BuildTarget target, JavacOptions javacOptions) {
+    super(new JavaLibraryDescription(javacOptions), target);
   }
 
   public static JavaLibraryBuilder createBuilder(BuildTarget target) {
     return new JavaLibraryBuilder(target);
   }
 
+  public static JavaLibraryBuilder createBuilder(BuildTarget target, JavacOptions javacOptions) {
+    return new JavaLibraryBuilder(target, javacOptions);
+  }
+
   public JavaLibraryBuilder addDep(BuildTarget rule) {
     arg.deps = amend(arg.deps, rule);
     return this;
@@ -19,6 +19,7 @@ package com.facebook.buck.java;
 import static com.facebook.buck.java.BuiltInJavac.DEFAULT;
 import static org.hamcrest.junit.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -41,12 +42,15 @@ import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.TestSourcePath;
 import com.facebook.buck.rules.coercer.Either;
+import com.facebook.buck.rules.keys.DefaultRuleKeyBuilderFactory;
+import com.facebook.buck.testutil.FakeFileHashCache;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.util.HumanReadableException;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 
 import org.hamcrest.Matchers;
 import org.junit.Before;
@@ -302,6 +306,88 @@ public class JavaLibraryDescriptionTest {
     assertThat(javaLibrary.getDeps(), Matchers.<BuildRule>hasItem(exportedRule));
   }
 
+  @Test
+  public void depsWithSourceAbisAreBuiltAfterTheirAbis() {
+    JavacOptions sourceAbiOptions = JavacOptions.builder(defaults)
+        .setAbiGenerationMode(AbiGenerationMode.SOURCE)
+        .build();
+
+    BuildTarget depTarget = BuildTargetFactory.newInstance("//:dep");
+    DefaultJavaLibrary dep = (DefaultJavaLibrary) JavaLibraryBuilder
+        .createBuilder(depTarget, sourceAbiOptions)
+        .addSrc(Paths.get("Dep.java"))
+        .build(ruleResolver);
+    Optional<JavaSourceAbi> sourceAbi = tryCreateSourceAbi(dep, "Dep.java");
+    assertTrue(sourceAbi.isPresent());
+    ruleResolver.addToIndex(sourceAbi.get());
+
+    DefaultJavaLibrary javaLibrary = (DefaultJavaLibrary) JavaLibraryBuilder
+        .createBuilder(BuildTargetFactory.newInstance("//:rule"), sourceAbiOptions)
+        .addDep(depTarget)
+        .addSrc(Paths.get("Rule.java"))
+        .build(ruleResolver);
+
+    assertThat(javaLibrary.getDeps(), Matchers.<BuildRule>contains(dep));
+    assertThat(
+        javaLibrary.getBuildDeps(),
+        Matchers.<BuildRule>contains(sourceAbi.get()));
+    assertThat(
+        javaLibrary.getCompileTimeClasspathEntries(),
+        Matchers.contains(sourceAbi.get().getPathToOutput()));
+  }
+
+  @Test
+  public void noSourceAbiIsCreatedWhenTheAbiComesFromClasses() {
+    DefaultJavaLibrary javaLibrary = (DefaultJavaLibrary) JavaLibraryBuilder
+        .createBuilder(BuildTargetFactory.newInstance("//:rule"), defaults)
+        .addSrc(Paths.get("Rule.java"))
+        .build(ruleResolver);
+
+    assertFalse(tryCreateSourceAbi(javaLibrary, "Rule.java").isPresent());
+    assertEquals(javaLibrary.getDeps(), javaLibrary.getBuildDeps());
+  }
+
+  @Test
+  public void noSourceAbiIsCreatedWhenAnnotationProcessorsRun() {
+    JavacOptions sourceAbiOptions = JavacOptions.builder(defaults)
+        .setAbiGenerationMode(AbiGenerationMode.SOURCE)
+        .build();
+    DefaultJavaLibrary javaLibrary = (DefaultJavaLibrary) JavaLibraryBuilder
+        .createBuilder(BuildTargetFactory.newInstance("//:rule"), sourceAbiOptions)
+        .addSrc(Paths.get("Rule.java"))
+        .setAnnotationProcessors(ImmutableSet.of("com.example.Processor"))
+        .build(ruleResolver);
+
+    assertFalse(tryCreateSourceAbi(javaLibrary, "Rule.java").isPresent());
+  }
+
+  @Test
+  public void noSourceAbiIsCreatedWhenAnotherJavacCompilesTheLibrary() {
+    JavacOptions sourceAbiOptions = JavacOptions.builder(defaults)
+        .setAbiGenerationMode(AbiGenerationMode.SOURCE)
+        .setJavacJarPath(Optional.<SourcePath>of(new TestSourcePath("javac.jar")))
+        .build();
+    DefaultJavaLibrary javaLibrary = (DefaultJavaLibrary) JavaLibraryBuilder
+        .createBuilder(BuildTargetFactory.newInstance("//:rule"), sourceAbiOptions)
+        .addSrc(Paths.get("Rule.java"))
+        .build(ruleResolver);
+
+    assertFalse(tryCreateSourceAbi(javaLibrary, "Rule.java").isPresent());
+    assertEquals(javaLibrary.getDeps(), javaLibrary.getBuildDeps());
+  }
+
+  private Optional<JavaSourceAbi> tryCreateSourceAbi(BuildRule javaLibrary, String src) {
+    arg.srcs = Optional.of(ImmutableSortedSet.<SourcePath>of(new TestSourcePath(src)));
+    return JavaLibraryDescription.tryCreateSourceAbi(
+        resolver,
+        javaLibrary,
+        new FakeProjectFilesystem(),
+        new DefaultRuleKeyBuilderFactory(
+            FakeFileHashCache.createFromStrings(ImmutableMap.<String, String>of()),
+            resolver),
+        arg);
+  }
+
   private void populateWithDefaultValues(Object arg) {
     BuildRuleFactoryParams factoryParams =
         NonCheckingBuildRuleFactoryParams.createNonCheckingBuildRuleFactoryParams(
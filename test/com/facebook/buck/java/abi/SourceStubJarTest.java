@@ -0,0 +1,272 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java.abi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+public class SourceStubJarTest {
+
+  // ASM can only read the class files of the releases that it knows about.
+  private static final ImmutableList<String> OPTIONS =
+      ImmutableList.of("-source", "8", "-target", "8");
+
+  private static final String SOURCE = Joiner.on("\n").join(
+      "package com.example.buck;",
+      "import java.io.IOException;",
+      "import java.util.List;",
+      "import java.util.Map;",
+      "public class A<T extends Comparable<? super T>> implements Iterable<T> {",
+      "  public static final int COUNT = 3;",
+      "  public static final char LETTER = 'x';",
+      "  public static final String NAME = \"a\";",
+      "  protected Map<String, List<T>> byName;",
+      "  private int secret;",
+      "  public A(T first, T... rest) {}",
+      "  public <E extends Exception> T get(List<? extends T> from) throws E, IOException {",
+      "    return null;",
+      "  }",
+      "  public java.util.Iterator<T> iterator() { return null; }",
+      "  private void hidden() {}",
+      "  public class Inner { public Inner(String name) {} }",
+      "  public static class Nested<U> { public Map.Entry<String, U> entry; }",
+      "  public enum Kind { ONE, TWO }",
+      "  public interface Callback { void call(Kind kind); }",
+      "  private static class Hidden {}",
+      "}");
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private Path stubJar;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(temp.newFolder().toPath());
+    stubJar = Paths.get("stub.jar");
+  }
+
+  @Test
+  public void stubsCanBeCompiledAgainst() throws IOException {
+    new SourceStubJar(ImmutableSet.of(writeSource("A.java", SOURCE)), OPTIONS)
+        .writeTo(filesystem, stubJar);
+
+    compile(
+        ImmutableList.of("-classpath", filesystem.resolve(stubJar).toString()),
+        writeSource(
+            "B.java",
+            Joiner.on("\n").join(
+                "package com.example.buck;",
+                "public class B extends A<String> {",
+                "  public B() { super(\"first\", \"second\"); }",
+                "  public void use() throws Exception {",
+                "    A<String>.Inner inner = this.new Inner(NAME);",
+                "    A.Nested<Integer> nested = new A.Nested<>();",
+                "    String got = this.<RuntimeException>get(byName.get(\"\"));",
+                "    switch (COUNT) { case A.COUNT: break; }",
+                "    Callback callback = null;",
+                "    callback.call(Kind.TWO);",
+                "  }",
+                "}")));
+  }
+
+  @Test
+  public void stubsMatchTheClassesThatJavacWrites() throws IOException {
+    Path source = writeSource("A.java", SOURCE);
+    File classes = compile(OPTIONS, source);
+    new SourceStubJar(ImmutableSet.of(source), OPTIONS).writeTo(filesystem, stubJar);
+
+    for (String className : ImmutableList.of(
+        "com/example/buck/A",
+        "com/example/buck/A$Inner",
+        "com/example/buck/A$Nested",
+        "com/example/buck/A$Kind",
+        "com/example/buck/A$Callback")) {
+      ClassNode expected = readCompiledClass(new File(classes, className + ".class"));
+      ClassNode stubbed = readClass(className + ".class");
+
+      assertEquals(className, expected.version, stubbed.version);
+      assertEquals(className, expected.access, stubbed.access);
+      assertEquals(className, expected.signature, stubbed.signature);
+      assertEquals(className, expected.superName, stubbed.superName);
+      assertEquals(className, expected.interfaces, stubbed.interfaces);
+
+      for (FieldNode field : expected.fields) {
+        if ((field.access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC)) != 0) {
+          continue;
+        }
+        FieldNode stubbedField = findField(stubbed, field.name);
+        assertEquals(field.name, field.access, stubbedField.access);
+        assertEquals(field.name, field.desc, stubbedField.desc);
+        assertEquals(field.name, field.signature, stubbedField.signature);
+        assertEquals(field.name, field.value, stubbedField.value);
+      }
+
+      for (MethodNode method : expected.methods) {
+        // Static initializers are not part of the ABI, and there is no element for them.
+        if ((method.access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC)) != 0 ||
+            method.name.equals("<clinit>")) {
+          continue;
+        }
+        MethodNode stubbedMethod = findMethod(stubbed, method.name, method.desc);
+        assertEquals(method.name, method.access, stubbedMethod.access);
+        assertEquals(method.name, method.signature, stubbedMethod.signature);
+        assertEquals(method.name, method.exceptions, stubbedMethod.exceptions);
+      }
+    }
+  }
+
+  @Test
+  public void privateMembersAreLeftOut() throws IOException {
+    new SourceStubJar(ImmutableSet.of(writeSource("A.java", SOURCE)), OPTIONS)
+        .writeTo(filesystem, stubJar);
+
+    ClassNode stubbed = readClass("com/example/buck/A.class");
+    for (FieldNode field : stubbed.fields) {
+      assertFalse(field.name, field.name.equals("secret"));
+    }
+    for (MethodNode method : stubbed.methods) {
+      assertFalse(method.name, method.name.equals("hidden"));
+    }
+    assertFalse(filesystem.exists(Paths.get("com/example/buck/A$Hidden.class")));
+  }
+
+  @Test
+  public void methodBodiesAreNeverCompiled() throws IOException {
+    new SourceStubJar(
+        ImmutableSet.of(
+            writeSource(
+                "A.java",
+                "package com.example.buck; public class A { void m() { doesNotExist(); } }")),
+        OPTIONS)
+        .writeTo(filesystem, stubJar);
+
+    assertNotNull(readClass("com/example/buck/A.class"));
+  }
+
+  @Test
+  public void errorsInTheSignaturesAreReported() throws IOException {
+    try {
+      Path source = writeSource(
+          "A.java",
+          "package com.example.buck; public class A { public Missing m() { return null; } }");
+      new SourceStubJar(ImmutableSet.of(source), OPTIONS).writeTo(filesystem, stubJar);
+      fail("Expected the missing type to be reported.");
+    } catch (IOException e) {
+      assertThat(e.getMessage(), Matchers.containsString("Missing"));
+    }
+    assertFalse(filesystem.exists(stubJar));
+  }
+
+  @Test
+  public void classVersionFollowsTheTarget() {
+    assertEquals(Opcodes.V1_6, SourceStubJar.getClassVersion(ImmutableList.of("-target", "1.6")));
+    assertEquals(Opcodes.V1_8, SourceStubJar.getClassVersion(ImmutableList.of("-target", "8")));
+    assertEquals(Opcodes.V1_7, SourceStubJar.getClassVersion(ImmutableList.<String>of()));
+  }
+
+  private Path writeSource(String fileName, String source) throws IOException {
+    File file = new File(temp.newFolder(), fileName);
+    Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+    return file.toPath();
+  }
+
+  private File compile(List<String> options, Path source) throws IOException {
+    File outputDir = temp.newFolder();
+    List<String> args = Lists.newArrayList(options);
+    args.add("-d");
+    args.add(outputDir.getAbsolutePath());
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+      Iterable<? extends JavaFileObject> sourceObjects =
+          fileManager.getJavaFileObjectsFromFiles(ImmutableSet.of(source.toFile()));
+      Boolean result = compiler.getTask(null, fileManager, null, args, null, sourceObjects).call();
+      assertTrue(result);
+    }
+    return outputDir;
+  }
+
+  private ClassNode readClass(String className) throws IOException {
+    return AbiClass.extract(filesystem.resolve(stubJar), className).getClassNode();
+  }
+
+  private static ClassNode readCompiledClass(File file) throws IOException {
+    try (InputStream stream = new FileInputStream(file)) {
+      ClassNode classNode = new ClassNode();
+      new ClassReader(stream).accept(classNode, 0);
+      return classNode;
+    }
+  }
+
+  private static FieldNode findField(ClassNode classNode, String name) {
+    for (FieldNode field : classNode.fields) {
+      if (field.name.equals(name)) {
+        return field;
+      }
+    }
+    fail("Unable to find field " + name + " in " + classNode.name);
+    return null;
+  }
+
+  private static MethodNode findMethod(ClassNode classNode, String name, String desc) {
+    for (MethodNode method : classNode.methods) {
+      if (method.name.equals(name) && method.desc.equals(desc)) {
+        return method;
+      }
+    }
+    fail("Unable to find method " + name + desc + " in " + classNode.name);
+    return null;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+public class PersistentBuildFileParseCacheTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private PersistentBuildFileParseCache cache;
+  private Path buildFile;
+  private Path includeFile;
+  private List<Map<String, Object>> rules;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmp.getRootPath());
+    cache = new PersistentBuildFileParseCache(filesystem);
+
+    buildFile = tmp.getRootPath().resolve("BUCK");
+    includeFile = tmp.getRootPath().resolve("DEFS");
+    filesystem.writeContentsToPath("include_defs('//DEFS')\njava_library(name = 'a')\n", buildFile);
+    filesystem.writeContentsToPath("\n", includeFile);
+
+    Map<String, Object> rule = Maps.newLinkedHashMap();
+    rule.put("buck.type", "java_library");
+    rule.put("buck.base_path", "");
+    rule.put("name", "a");
+    rule.put("deps", ImmutableList.of());
+    rule.put("source", null);
+    Map<String, Object> metaRule = Maps.newLinkedHashMap();
+    metaRule.put("__includes", ImmutableList.of(buildFile.toString(), includeFile.toString()));
+    metaRule.put("__globs", ImmutableList.of());
+    rules = ImmutableList.of(rule, metaRule);
+  }
+
+  @Test
+  public void cachedRulesAreReturnedWhileInputsAreUnchanged() {
+    cache.put(buildFile, ImmutableMap.<String, String>of(), ImmutableList.<String>of(),
+        ImmutableList.of(buildFile, includeFile), ImmutableList.<String>of(), rules);
+
+    Optional<List<Map<String, Object>>> cached =
+        cache.get(buildFile, ImmutableMap.<String, String>of(), ImmutableList.<String>of());
+    assertEquals(Optional.of(rules), cached);
+  }
+
+  @Test
+  public void changingAnIncludedFileInvalidatesTheEntry() throws IOException {
+    cache.put(buildFile, ImmutableMap.<String, String>of(), ImmutableList.<String>of(),
+        ImmutableList.of(buildFile, includeFile), ImmutableList.<String>of(), rules);
+    filesystem.writeContentsToPath("FOO = 1\n", includeFile);
+
+    assertFalse(
+        cache.get(buildFile, ImmutableMap.<String, String>of(), ImmutableList.<String>of())
+            .isPresent());
+  }
+
+  @Test
+  public void changingTheEnvironmentInvalidatesTheEntry() {
+    cache.put(buildFile, ImmutableMap.<String, String>of(), ImmutableList.<String>of(),
+        ImmutableList.of(buildFile, includeFile), ImmutableList.<String>of(), rules);
+
+    assertFalse(
+        cache.get(buildFile, ImmutableMap.of("FOO", "bar"), ImmutableList.<String>of())
+            .isPresent());
+  }
+
+  @Test
+  public void buildFilesCallingGlobAreCachedWhileTheGlobbedFilesAreUnchanged()
+      throws IOException {
+    filesystem.writeContentsToPath("class A {}\n", tmp.getRootPath().resolve("A.java"));
+    cache.put(buildFile, ImmutableMap.<String, String>of(), ImmutableList.<String>of(),
+        ImmutableList.of(buildFile), ImmutableList.of("*.java"), rules);
+    filesystem.writeContentsToPath("class A { int a; }\n", tmp.getRootPath().resolve("A.java"));
+
+    assertEquals(
+        Optional.of(rules),
+        cache.get(buildFile, ImmutableMap.<String, String>of(), ImmutableList.<String>of()));
+  }
+
+  @Test
+  public void addingAFileThatAGlobCanMatchInvalidatesTheEntry() throws IOException {
+    cache.put(buildFile, ImmutableMap.<String, String>of(), ImmutableList.<String>of(),
+        ImmutableList.of(buildFile), ImmutableList.of("*.java"), rules);
+    filesystem.writeContentsToPath("class B {}\n", tmp.getRootPath().resolve("B.java"));
+
+    assertFalse(
+        cache.get(buildFile, ImmutableMap.<String, String>of(), ImmutableList.<String>of())
+            .isPresent());
+  }
+
+  @Test
+  public void addingAFileBelowTheReachOfTheGlobsKeepsTheEntry() throws IOException {
+    filesystem.mkdirs(tmp.getRootPath().resolve("sub"));
+    cache.put(buildFile, ImmutableMap.<String, String>of(), ImmutableList.<String>of(),
+        ImmutableList.of(buildFile), ImmutableList.of("*.java"), rules);
+    filesystem.writeContentsToPath("class C {}\n", tmp.getRootPath().resolve("sub/C.java"));
+
+    assertEquals(
+        Optional.of(rules),
+        cache.get(buildFile, ImmutableMap.<String, String>of(), ImmutableList.<String>of()));
+  }
+
+  @Test
+  public void globDepthFollowsThePatterns() {
+    assertEquals(
+        Optional.of(2),
+        PersistentBuildFileParseCache.getGlobDepth(ImmutableList.of("*.java", "res/*.png")));
+    assertEquals(
+        Optional.of(Integer.MAX_VALUE),
+        PersistentBuildFileParseCache.getGlobDepth(ImmutableList.of("src/**/*.java")));
+    assertFalse(
+        PersistentBuildFileParseCache.getGlobDepth(ImmutableList.of("../*.java")).isPresent());
+  }
+}
@@ -70,4 +70,21 @@ public class ParserConfigTest {
       assertThat(config.getGlobHandler(), Matchers.equalTo(handler));
     }
   }
+
+  @Test
+  public void testGetNumParsingThreads() throws IOException {
+    assertThat(
+        new ParserConfig(new FakeBuckConfig()).getNumParsingThreads(),
+        Matchers.equalTo(ParserConfig.DEFAULT_NUM_PARSING_THREADS));
+
+    Reader reader = new StringReader(
+        Joiner.on('\n').join(
+            "[project]",
+            "parsing_threads = 4"));
+    ParserConfig config = new ParserConfig(
+        BuckConfigTestUtils.createWithDefaultFilesystem(
+            temporaryFolder,
+            reader));
+    assertThat(config.getNumParsingThreads(), Matchers.equalTo(4));
+  }
 }
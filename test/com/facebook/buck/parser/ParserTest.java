@@ -23,6 +23,8 @@ import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
@@ -315,6 +317,87 @@ public class ParserTest extends EasyMockSupport {
             )));
   }
 
+  @Test
+  public void whenParsingInParallelThenTargetGraphMatchesSerialParse()
+      throws BuildFileParseException, BuildTargetException, IOException, InterruptedException {
+    BuildTarget fooTarget = BuildTarget.builder("//java/com/facebook", "foo").build();
+    BuildTarget barTarget = BuildTarget.builder("//java/com/facebook", "bar").build();
+    Iterable<BuildTarget> buildTargets = ImmutableList.of(fooTarget, barTarget);
+
+    TargetGraph serialGraph = testParser.buildTargetGraphForBuildTargets(
+        buildTargets,
+        new ParserConfig(new FakeBuckConfig()),
+        BuckEventBusFactory.newInstance(),
+        new TestConsole(),
+        ImmutableMap.<String, String>of(),
+        /* enableProfiling */ false);
+
+    TestProjectBuildFileParserFactory buildFileParserFactory =
+        new TestProjectBuildFileParserFactory(filesystem.getRootPath(), buildRuleTypes);
+    Parser parser = createParser(emptyBuildTargets(), buildFileParserFactory);
+    TargetGraph parallelGraph = parser.buildTargetGraphForBuildTargets(
+        buildTargets,
+        new ParserConfig(
+            new FakeBuckConfig(
+                ImmutableMap.of(
+                    "project", ImmutableMap.of("parsing_threads", "2")))),
+        BuckEventBusFactory.newInstance(),
+        new TestConsole(),
+        ImmutableMap.<String, String>of(),
+        /* enableProfiling */ false);
+
+    assertEquals(serialGraph.getNodes(), parallelGraph.getNodes());
+    assertEquals("Should have parsed the build file once.", 1, buildFileParserFactory.calls);
+  }
+
+  @Test
+  public void whenNothingIsInvalidatedThenTargetGraphIsReused()
+      throws BuildFileParseException, BuildTargetException, IOException, InterruptedException {
+    BuildTarget fooTarget = BuildTarget.builder("//java/com/facebook", "foo").build();
+    BuildTarget barTarget = BuildTarget.builder("//java/com/facebook", "bar").build();
+    Iterable<BuildTarget> buildTargets = ImmutableList.of(fooTarget, barTarget);
+
+    TargetGraph first = testParser.buildTargetGraphForBuildTargets(
+        buildTargets,
+        new ParserConfig(new FakeBuckConfig()),
+        BuckEventBusFactory.newInstance(),
+        new TestConsole(),
+        ImmutableMap.<String, String>of(),
+        /* enableProfiling */ false);
+    TargetGraph second = testParser.buildTargetGraphForBuildTargets(
+        buildTargets,
+        new ParserConfig(new FakeBuckConfig()),
+        BuckEventBusFactory.newInstance(),
+        new TestConsole(),
+        ImmutableMap.<String, String>of(),
+        /* enableProfiling */ false);
+    assertSame(first, second);
+
+    TargetGraph subgraph = testParser.buildTargetGraphForBuildTargets(
+        ImmutableList.of(fooTarget),
+        new ParserConfig(new FakeBuckConfig()),
+        BuckEventBusFactory.newInstance(),
+        new TestConsole(),
+        ImmutableMap.<String, String>of(),
+        /* enableProfiling */ false);
+    assertEquals(ImmutableSet.of(first.get(fooTarget)), subgraph.getNodes());
+
+    WatchEvent<Path> event = createPathEvent(
+        MorePaths.relativize(tempDir.getRoot().toPath().toRealPath(), testBuildFile),
+        StandardWatchEventKinds.ENTRY_MODIFY);
+    testParser.onFileSystemChange(event);
+
+    TargetGraph third = testParser.buildTargetGraphForBuildTargets(
+        buildTargets,
+        new ParserConfig(new FakeBuckConfig()),
+        BuckEventBusFactory.newInstance(),
+        new TestConsole(),
+        ImmutableMap.<String, String>of(),
+        /* enableProfiling */ false);
+    assertNotSame(first, third);
+    assertEquals(first.getNodes(), third.getNodes());
+  }
+
   @Test
   public void testMissingBuildRuleInValidFile()
       throws BuildFileParseException, BuildTargetException, IOException, InterruptedException {
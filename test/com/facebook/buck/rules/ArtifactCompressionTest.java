@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.zip.Deflater;
+
+public class ArtifactCompressionTest {
+
+  @Test
+  public void compressedFilesAreAlwaysStored() {
+    for (String name : new String[] {"lib.jar", "app.APK", "libfoo.so", "dir/archive.zip"}) {
+      assertEquals(
+          name,
+          Integer.valueOf(Deflater.NO_COMPRESSION),
+          ArtifactCompression.BEST.apply(Paths.get(name)));
+    }
+  }
+
+  @Test
+  public void otherFilesUseTheCompressionLevel() {
+    assertEquals(
+        Integer.valueOf(Deflater.BEST_SPEED),
+        ArtifactCompression.FAST.apply(Paths.get("Foo.class")));
+    assertEquals(
+        Integer.valueOf(Deflater.BEST_COMPRESSION),
+        ArtifactCompression.BEST.apply(Paths.get("dir")));
+    assertEquals(
+        Integer.valueOf(Deflater.NO_COMPRESSION),
+        ArtifactCompression.STORED.apply(Paths.get("Foo.class")));
+  }
+
+  @Test
+  public void fastestPrefersLessCompression() {
+    assertEquals(
+        ArtifactCompression.STORED,
+        ArtifactCompression.fastest(ArtifactCompression.BEST, ArtifactCompression.STORED));
+    assertEquals(
+        ArtifactCompression.FAST,
+        ArtifactCompression.fastest(ArtifactCompression.FAST, ArtifactCompression.DEFAULT));
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBusFactory;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ArtifactUploadQueueTest {
+
+  @Test
+  public void uploadsThatDoNotFitAreDroppedWhenConfiguredTo() throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger uploaded = new AtomicInteger();
+    ArtifactUploadQueue queue = new ArtifactUploadQueue(
+        BuckEventBusFactory.newInstance(),
+        /* threads */ 1,
+        /* maxQueuedBytes */ 100,
+        ArtifactUploadQueue.FullQueuePolicy.DROP);
+
+    assertTrue(queue.enqueue(60, new BlockingUpload(release, uploaded)));
+    assertTrue(queue.enqueue(40, new BlockingUpload(release, uploaded)));
+    assertFalse(queue.enqueue(1, new BlockingUpload(release, uploaded)));
+
+    release.countDown();
+    queue.close();
+    assertEquals(2, uploaded.get());
+  }
+
+  @Test
+  public void uploadsThatDoNotFitWaitForRoomWhenConfiguredTo() throws InterruptedException {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger uploaded = new AtomicInteger();
+    final ArtifactUploadQueue queue = new ArtifactUploadQueue(
+        BuckEventBusFactory.newInstance(),
+        /* threads */ 1,
+        /* maxQueuedBytes */ 100,
+        ArtifactUploadQueue.FullQueuePolicy.WAIT);
+
+    // An upload larger than the whole queue is still accepted when nothing else is queued.
+    assertTrue(queue.enqueue(150, new BlockingUpload(release, uploaded)));
+
+    final CountDownLatch secondQueued = new CountDownLatch(1);
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        queue.enqueue(10, new BlockingUpload(release, uploaded));
+        secondQueued.countDown();
+      }
+    };
+    producer.start();
+
+    assertFalse(secondQueued.await(100, TimeUnit.MILLISECONDS));
+    release.countDown();
+    assertTrue(secondQueued.await(10, TimeUnit.SECONDS));
+    producer.join();
+
+    queue.close();
+    assertEquals(2, uploaded.get());
+  }
+
+  @Test
+  public void uploadsWaitingForRoomAreDroppedWhenInterrupted() throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger uploaded = new AtomicInteger();
+    ArtifactUploadQueue queue = new ArtifactUploadQueue(
+        BuckEventBusFactory.newInstance(),
+        /* threads */ 1,
+        /* maxQueuedBytes */ 100,
+        ArtifactUploadQueue.FullQueuePolicy.WAIT);
+
+    assertTrue(queue.enqueue(100, new BlockingUpload(release, uploaded)));
+    Thread.currentThread().interrupt();
+    assertFalse(queue.enqueue(10, new BlockingUpload(release, uploaded)));
+    assertTrue(Thread.interrupted());
+
+    release.countDown();
+    queue.close();
+    assertEquals(1, uploaded.get());
+  }
+
+  private static class BlockingUpload implements Runnable {
+    private final CountDownLatch release;
+    private final AtomicInteger uploaded;
+
+    public BlockingUpload(CountDownLatch release, AtomicInteger uploaded) {
+      this.release = release;
+      this.uploaded = uploaded;
+    }
+
+    @Override
+    public void run() {
+      try {
+        release.await();
+        uploaded.incrementAndGet();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
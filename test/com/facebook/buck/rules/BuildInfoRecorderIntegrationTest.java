@@ -16,6 +16,9 @@
 
 package com.facebook.buck.rules;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.event.BuckEventBus;
@@ -68,7 +71,26 @@ public class BuildInfoRecorderIntegrationTest {
         ImmutableSet.of(new RuleKey(RULE_KEY)),
         artifactCache,
         new BuckEventBus(new DefaultClock(), new BuildId()));
-    assertTrue(cacheDir.getRootPath().resolve(Paths.get(RULE_KEY)).toFile().exists());
+
+    // The payload is stored once, as a blob named after its output hash, and the rule key only
+    // gets a metadata file pointing at it.
+    Path shard = cacheDir.getRootPath().resolve(RULE_KEY.substring(0, 2));
+    assertTrue(shard.resolve(RULE_KEY + ".metadata").toFile().exists());
+    assertFalse(shard.resolve(RULE_KEY).toFile().exists());
+
+    CacheResult result = artifactCache.fetch(
+        new RuleKey(RULE_KEY),
+        cacheDir.getRootPath().resolve("fetched"));
+    assertEquals(CacheResult.Type.HIT, result.getType());
+    String outputHash = result.getMetadata().get(BuildInfo.METADATA_KEY_FOR_OUTPUT_HASH);
+    assertNotNull(outputHash);
+    assertTrue(
+        cacheDir.getRootPath()
+            .resolve("blobs")
+            .resolve(outputHash.substring(0, 2))
+            .resolve(outputHash)
+            .toFile()
+            .exists());
   }
 
   private static BuildInfoRecorder createBuildInfoRecorder(ProjectFilesystem filesystem) {
@@ -287,6 +287,31 @@ public class BuildInfoRecorderTest {
     assertNotEquals(current, updated);
   }
 
+  @Test
+  public void testGetRecordedFileHashes() throws IOException {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    FileHashCache fileHashCache = new DefaultFileHashCache(filesystem);
+    BuildInfoRecorder buildInfoRecorder = createBuildInfoRecorder(filesystem);
+
+    Path file = Paths.get("file");
+    filesystem.writeContentsToPath("contents", file);
+    buildInfoRecorder.recordArtifact(file);
+
+    Path dir = Paths.get("dir");
+    filesystem.mkdirs(dir);
+    filesystem.writeContentsToPath("one", dir.resolve("file1"));
+    filesystem.writeContentsToPath("two", dir.resolve("file2"));
+    buildInfoRecorder.recordArtifact(dir);
+
+    // Directories themselves have no entry, only the files under them.
+    assertEquals(
+        ImmutableMap.of(
+            "dir/file1", fileHashCache.get(dir.resolve("file1")).toString(),
+            "dir/file2", fileHashCache.get(dir.resolve("file2")).toString(),
+            "file", fileHashCache.get(file).toString()),
+        buildInfoRecorder.getRecordedFileHashes(fileHashCache));
+  }
+
   private static void assertOnDiskBuildInfoHasMetadata(
       OnDiskBuildInfo onDiskBuildInfo,
       String key,
@@ -24,6 +24,7 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.isA;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -63,7 +64,9 @@ import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.cache.NullFileHashCache;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.concurrent.MoreFutures;
+import com.facebook.buck.zip.Unzip;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
@@ -73,6 +76,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -209,8 +213,9 @@ public class CachingBuildEngineTest extends EasyMockSupport {
 
     // Verify the events logged to the BuckEventBus.
     List<BuckEvent> events = listener.getEvents();
-    assertThat(events, Matchers.hasSize(11));
+    assertThat(events, Matchers.hasSize(12));
     Iterator<BuckEvent> eventIter = events.iterator();
+    assertThat(eventIter.next(), Matchers.instanceOf(CriticalPathEvent.class));
     assertEquals(
         configureTestEvent(BuildRuleEvent.started(dep), buckEventBus),
         eventIter.next());
@@ -311,8 +316,9 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     assertTrue(buildRule.isAbiLoadedFromDisk());
 
     List<BuckEvent> events = listener.getEvents();
-    assertThat(events, Matchers.hasSize(7));
+    assertThat(events, Matchers.hasSize(8));
     Iterator<BuckEvent> eventIter = events.iterator();
+    assertThat(eventIter.next(), Matchers.instanceOf(CriticalPathEvent.class));
     assertEquals(
         configureTestEvent(BuildRuleEvent.started(buildRule), buckEventBus),
         eventIter.next());
@@ -405,8 +411,9 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, result.getSuccess());
 
     List<BuckEvent> events = listener.getEvents();
-    assertThat(events, Matchers.hasSize(7));
+    assertThat(events, Matchers.hasSize(8));
     Iterator<BuckEvent> eventIter = events.iterator();
+    assertThat(eventIter.next(), Matchers.instanceOf(CriticalPathEvent.class));
     assertEquals(
         configureTestEvent(BuildRuleEvent.started(buildRule), buckEventBus),
         eventIter.next());
@@ -491,8 +498,9 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     assertTrue(service.shutdownNow().isEmpty());
 
     List<BuckEvent> events = listener.getEvents();
-    assertThat(events, Matchers.hasSize(6));
+    assertThat(events, Matchers.hasSize(7));
     Iterator<BuckEvent> eventIter = events.iterator();
+    assertThat(eventIter.next(), Matchers.instanceOf(CriticalPathEvent.class));
     assertEquals(
         configureTestEvent(BuildRuleEvent.started(buildRule), buckEventBus).getEventName(),
         eventIter.next().getEventName());
@@ -546,9 +554,11 @@ public class CachingBuildEngineTest extends EasyMockSupport {
         "buck-out/gen/src/com/facebook/orca/orca.jar",
         "Imagine this is the contents of a valid JAR file.");
     expect(
-        artifactCache.fetch(
+        artifactCache.fetchAndExtract(
             eq(buildRule.getRuleKey()),
-            isA(Path.class)))
+            isA(ProjectFilesystem.class),
+            eq(Optional.<Path>absent()),
+            isA(UnchangedFileFilter.class)))
         .andDelegateTo(
             new FakeArtifactCacheThatWritesAZipFile(desiredZipEntries));
 
@@ -627,9 +637,11 @@ public class CachingBuildEngineTest extends EasyMockSupport {
         "buck-out/gen/src/com/facebook/orca/orca.jar",
         "Imagine this is the contents of a valid JAR file.");
     expect(
-        artifactCache.fetch(
+        artifactCache.fetchAndExtract(
             eq(buildRule.getRuleKey()),
-            isA(Path.class)))
+            isA(ProjectFilesystem.class),
+            eq(Optional.<Path>absent()),
+            isA(UnchangedFileFilter.class)))
         .andDelegateTo(
             new FakeArtifactCacheThatWritesAZipFile(desiredZipEntries));
 
@@ -675,6 +687,76 @@ public class CachingBuildEngineTest extends EasyMockSupport {
         filesystem.exists(Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar")));
   }
 
+  @Test
+  public void testFetchingOverAModifiedOutputLeavesNoStaleHashInTheFileHashCache()
+      throws Exception {
+    BuildRule buildRule = createRule(
+        new SourcePathResolver(new BuildRuleResolver()),
+        /* deps */ ImmutableSet.<BuildRule>of(),
+        /* buildSteps */ ImmutableList.<Step>of(),
+        /* postBuildSteps */ ImmutableList.<Step>of(),
+        /* pathToOutputFile */ null);
+
+    // The output was modified since the artifact was stored, so it has to be overwritten.
+    final Path output = Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar");
+    String contents = "Imagine this is the contents of a valid JAR file.";
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.writeContentsToPath("Imagine this is a modified JAR file.", output);
+    HashCode hash = Hashing.sha1().hashString(contents, Charsets.UTF_8);
+
+    // Whole directories are often recorded, so invalidating the recorded paths once the artifact
+    // is fetched does not reach the hashes of the files in them.
+    ObjectMapper mapper = new ObjectMapper();
+    final ImmutableMap<String, String> metadata = ImmutableMap.of(
+        BuildInfo.METADATA_KEY_FOR_RECORDED_PATHS,
+        mapper.writeValueAsString(ImmutableList.of(output.getParent().toString())),
+        BuildInfo.METADATA_KEY_FOR_RECORDED_PATH_HASHES,
+        mapper.writeValueAsString(ImmutableMap.of(output.toString(), hash.toString())));
+    ArtifactCache artifactCache =
+        new FakeArtifactCacheThatWritesAZipFile(ImmutableMap.of(output.toString(), contents)) {
+          @Override
+          public CacheResult fetchAndExtract(
+              RuleKey ruleKey,
+              ProjectFilesystem filesystem,
+              Optional<Path> copyTo,
+              UnchangedFileFilter unchangedFiles) throws InterruptedException {
+            // Like a real cache, check which files can be left alone before writing the others.
+            assertFalse(unchangedFiles.getUnchangedFiles(metadata).apply(output));
+            super.fetchAndExtract(ruleKey, filesystem, copyTo, unchangedFiles);
+            return CacheResult.hit("dir", metadata);
+          }
+        };
+
+    DefaultFileHashCache fileHashCache = new DefaultFileHashCache(filesystem);
+    BuckEventBus buckEventBus = BuckEventBusFactory.newInstance();
+    BuildContext buildContext = ImmutableBuildContext.builder()
+        .setActionGraph(RuleMap.createGraphFromSingleRule(buildRule))
+        .setStepRunner(createStepRunner())
+        .setProjectFilesystem(filesystem)
+        .setClock(new DefaultClock())
+        .setBuildId(new BuildId())
+        .setArtifactCache(artifactCache)
+        .setJavaPackageFinder(createMock(JavaPackageFinder.class))
+        .setEventBus(buckEventBus)
+        .build();
+
+    replayAll();
+    CachingBuildEngine cachingBuildEngine =
+        new CachingBuildEngine(
+            MoreExecutors.newDirectExecutorService(),
+            fileHashCache,
+            CachingBuildEngine.BuildMode.SHALLOW,
+            CachingBuildEngine.DepFiles.ENABLED,
+            NOOP_RULE_KEY_FACTORY,
+            NOOP_RULE_KEY_FACTORY);
+    BuildResult result = cachingBuildEngine.build(buildContext, buildRule).get();
+    verifyAll();
+
+    assertEquals(BuildRuleSuccessType.FETCHED_FROM_CACHE, result.getSuccess());
+    assertEquals(Optional.of(contents), filesystem.readFileIfItExists(output));
+    assertEquals(hash, fileHashCache.get(output));
+  }
+
   @Test
   public void testMatchingTopLevelRuleKeyAvoidsProcessingDepInShallowMode() throws Exception {
     FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
@@ -729,8 +811,9 @@ public class CachingBuildEngineTest extends EasyMockSupport {
 
     // Verify the events logged to the BuckEventBus.
     List<BuckEvent> events = listener.getEvents();
-    assertThat(events, Matchers.hasSize(6));
+    assertThat(events, Matchers.hasSize(7));
     Iterator<BuckEvent> eventIter = events.iterator();
+    assertThat(eventIter.next(), Matchers.instanceOf(CriticalPathEvent.class));
     assertEquals(
         configureTestEvent(BuildRuleEvent.started(dep), buckEventBus),
         eventIter.next());
@@ -820,8 +903,9 @@ public class CachingBuildEngineTest extends EasyMockSupport {
 
     // Verify the events logged to the BuckEventBus.
     List<BuckEvent> events = listener.getEvents();
-    assertThat(events, Matchers.hasSize(8));
+    assertThat(events, Matchers.hasSize(9));
     Iterator<BuckEvent> eventIter = events.iterator();
+    assertThat(eventIter.next(), Matchers.instanceOf(CriticalPathEvent.class));
     assertEquals(
         configureTestEvent(BuildRuleEvent.started(dep), buckEventBus),
         eventIter.next());
@@ -945,8 +1029,9 @@ public class CachingBuildEngineTest extends EasyMockSupport {
 
     // Verify the events logged to the BuckEventBus.
     List<BuckEvent> events = listener.getEvents();
-    assertThat(events, Matchers.hasSize(12));
+    assertThat(events, Matchers.hasSize(13));
     Iterator<BuckEvent> eventIter = events.iterator();
+    assertThat(eventIter.next(), Matchers.instanceOf(CriticalPathEvent.class));
     assertEquals(
         configureTestEvent(BuildRuleEvent.started(ruleToTest), buckEventBus),
         eventIter.next());
@@ -1077,7 +1162,11 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     ArtifactCache cache =
         new NoopArtifactCache() {
           @Override
-          public CacheResult fetch(RuleKey ruleKey, Path output) {
+          public CacheResult fetchAndExtract(
+              RuleKey ruleKey,
+              ProjectFilesystem filesystem,
+              Optional<Path> copyTo,
+              UnchangedFileFilter unchangedFiles) {
             return CacheResult.error("cache", "error");
           }
         };
@@ -2155,6 +2244,36 @@ public class CachingBuildEngineTest extends EasyMockSupport {
       return CacheResult.hit("dir");
     }
 
+    @Override
+    public CacheResult fetchAndExtract(
+        RuleKey ruleKey,
+        ProjectFilesystem filesystem,
+        Optional<Path> copyTo,
+        UnchangedFileFilter unchangedFiles) throws InterruptedException {
+      try {
+        Path file = Files.createTempFile("buck_artifact_", ".zip");
+        writeEntriesToZip(file, ImmutableMap.copyOf(desiredEntries));
+        Unzip.extractZipFile(
+            file,
+            filesystem,
+            Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+        Files.delete(file);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return CacheResult.hit("dir");
+    }
+
+    @Override
+    public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, Path> outputs) {
+      throw new UnsupportedOperationException();
+    }
+
     @Override
     public void store(
         ImmutableSet<RuleKey> ruleKeys,
@@ -2168,6 +2287,11 @@ public class CachingBuildEngineTest extends EasyMockSupport {
       throw new UnsupportedOperationException();
     }
 
+    @Override
+    public ArtifactCompression getCompression() {
+      throw new UnsupportedOperationException();
+    }
+
     @Override
     public void close() throws IOException {
       throw new UnsupportedOperationException();
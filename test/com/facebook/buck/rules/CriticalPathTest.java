@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CriticalPathTest {
+
+  private SourcePathResolver resolver;
+
+  @Before
+  public void setUp() {
+    resolver = new SourcePathResolver(new BuildRuleResolver());
+  }
+
+  @Test
+  public void longestChainByHistoricalDurationsGoesFirst() {
+    //        top
+    //       /   \
+    //    dex    lib
+    //     |      |
+    //   proguard leaf
+    BuildRule proguard = new FakeBuildRule("//:proguard", resolver);
+    BuildRule leaf = new FakeBuildRule("//:leaf", resolver);
+    BuildRule dex = new FakeBuildRule("//:dex", resolver, proguard);
+    BuildRule lib = new FakeBuildRule("//:lib", resolver, leaf);
+    BuildRule top = new FakeBuildRule("//:top", resolver, dex, lib);
+    RuleDurationHistory history = new RuleDurationHistory(
+        ImmutableMap.of(
+            "//:top", 10L,
+            "//:dex", 200L,
+            "//:proguard", 300L,
+            "//:lib", 20L,
+            "//:leaf", 5L));
+
+    CriticalPath criticalPath = CriticalPath.of(top, history);
+
+    assertEquals(
+        ImmutableMap.<BuildTarget, Long>builder()
+            .put(target("//:top"), 10L)
+            .put(target("//:dex"), 210L)
+            .put(target("//:proguard"), 510L)
+            .put(target("//:lib"), 30L)
+            .put(target("//:leaf"), 35L)
+            .build(),
+        criticalPath.getRemainingMillis());
+    assertEquals(
+        ImmutableList.of(target("//:proguard"), target("//:dex"), target("//:top")),
+        criticalPath.getPath());
+    assertEquals(510L, criticalPath.getEstimatedMillis());
+  }
+
+  @Test
+  public void rulesWithoutHistoryTakeAsLongAsTheMedianRule() {
+    BuildRule unknown = new FakeBuildRule("//:unknown", resolver);
+    BuildRule shared = new FakeBuildRule("//:shared", resolver, unknown);
+    BuildRule top = new FakeBuildRule("//:top", resolver, shared, unknown);
+    RuleDurationHistory history = new RuleDurationHistory(
+        ImmutableMap.of("//:top", 10L, "//:shared", 30L, "//:other", 50L));
+
+    CriticalPath criticalPath = CriticalPath.of(top, history);
+
+    // The unknown rule is reached through the shared rule as well as directly, and takes its
+    // priority from the longer of the two.
+    assertEquals(70L, (long) criticalPath.getRemainingMillis().get(target("//:unknown")));
+    assertEquals(
+        ImmutableList.of(target("//:unknown"), target("//:shared"), target("//:top")),
+        criticalPath.getPath());
+  }
+
+  @Test
+  public void withoutAnyHistoryTheLongestChainIsTheOneWithTheMostRules() {
+    BuildRule deep = new FakeBuildRule("//:deep", resolver);
+    BuildRule middle = new FakeBuildRule("//:middle", resolver, deep);
+    BuildRule shallow = new FakeBuildRule("//:shallow", resolver);
+    BuildRule top = new FakeBuildRule("//:top", resolver, middle, shallow);
+
+    CriticalPath criticalPath = CriticalPath.of(top, RuleDurationHistory.empty());
+
+    assertEquals(3L, criticalPath.getEstimatedMillis());
+    assertEquals(
+        ImmutableList.of(target("//:deep"), target("//:middle"), target("//:top")),
+        criticalPath.getPath());
+  }
+
+  @Test
+  public void rulesSharedByTopsTakeTheirPriorityFromTheLongestChain() {
+    BuildRule shared = new FakeBuildRule("//:shared", resolver);
+    BuildRule slow = new FakeBuildRule("//:slow", resolver, shared);
+    BuildRule fast = new FakeBuildRule("//:fast", resolver, shared);
+    RuleDurationHistory history = new RuleDurationHistory(
+        ImmutableMap.of("//:shared", 5L, "//:slow", 100L, "//:fast", 10L));
+
+    CriticalPath criticalPath = CriticalPath.of(ImmutableList.of(fast, slow), history);
+
+    assertEquals(
+        ImmutableMap.of(
+            target("//:fast"), 10L,
+            target("//:slow"), 100L,
+            target("//:shared"), 105L),
+        criticalPath.getRemainingMillis());
+    assertEquals(
+        ImmutableList.of(target("//:shared"), target("//:slow")),
+        criticalPath.getPath());
+    assertEquals(target("//:slow"), criticalPath.getTop());
+  }
+
+  @Test
+  public void deepChainsDoNotOverflowTheStack() {
+    BuildRule rule = new FakeBuildRule("//:rule0", resolver);
+    for (int i = 1; i < 100000; i++) {
+      rule = new FakeBuildRule("//:rule" + i, resolver, rule);
+    }
+
+    CriticalPath criticalPath = CriticalPath.of(rule, RuleDurationHistory.empty());
+
+    assertEquals(100000L, criticalPath.getEstimatedMillis());
+  }
+
+  private static BuildTarget target(String name) {
+    return BuildTargetFactory.newInstance(name);
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class DirArtifactCacheIndexTest {
+  private static final String KEY_A = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+  private static final String KEY_B = "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb";
+
+  @Rule
+  public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  @Test
+  public void largeLogsAreCompactedWithoutASizeLimit() throws IOException {
+    Path indexFile = tmpDir.getRoot().resolve(DirArtifactCacheIndex.INDEX_FILE_NAME);
+    try (DirArtifactCacheIndex index = new DirArtifactCacheIndex(tmpDir.getRoot())) {
+      index.recordStore(KEY_A, 10);
+      index.recordStore(KEY_B, 20);
+      while (Files.size(indexFile) < 1024 * 1024) {
+        for (int i = 0; i < 1000; i++) {
+          index.recordAccess(KEY_A);
+        }
+      }
+
+      index.compact();
+
+      assertTrue(Files.size(indexFile) < 1024);
+      // The order of use survives compaction.
+      assertEquals(ImmutableList.of(KEY_B), index.evict(10));
+    }
+  }
+
+  @Test
+  public void writersReopenTheLogAfterAnotherProcessCompactsIt() throws IOException {
+    Path indexFile = tmpDir.getRoot().resolve(DirArtifactCacheIndex.INDEX_FILE_NAME);
+    try (DirArtifactCacheIndex writer = new DirArtifactCacheIndex(tmpDir.getRoot());
+         DirArtifactCacheIndex compactor = new DirArtifactCacheIndex(tmpDir.getRoot())) {
+      writer.recordStore(KEY_A, 10);
+      while (Files.size(indexFile) < 1024 * 1024) {
+        for (int i = 0; i < 1000; i++) {
+          writer.recordAccess(KEY_A);
+        }
+      }
+
+      compactor.compact();
+      writer.recordStore(KEY_B, 20);
+
+      assertEquals(ImmutableList.of(KEY_A, KEY_B), compactor.evict(0));
+    }
+  }
+}
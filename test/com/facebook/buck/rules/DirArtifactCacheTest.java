@@ -29,9 +29,8 @@ import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.cache.NullFileHashCache;
-import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
@@ -41,11 +40,13 @@ import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 
 public class DirArtifactCacheTest {
@@ -240,11 +241,11 @@ public class DirArtifactCacheTest {
     assertEquals(inputRuleY, new BuildRuleForTest(fileY));
     assertEquals(inputRuleZ, new BuildRuleForTest(fileZ));
 
-    assertEquals(6, cacheDir.toFile().listFiles().length);
+    assertEquals(6, listCachedFiles(cacheDir).size());
 
     dirArtifactCache.deleteOldFiles();
 
-    assertEquals(0, cacheDir.toFile().listFiles().length);
+    assertEquals(0, listCachedFiles(cacheDir).size());
   }
 
   @Test
@@ -372,42 +373,205 @@ public class DirArtifactCacheTest {
   @Test
   public void testDeleteSome() throws IOException {
     Path cacheDir = tmpDir.newFolder();
-    Path fileW = cacheDir.resolve("w");
-    Path fileX = cacheDir.resolve("x");
-    Path fileY = cacheDir.resolve("y");
-    Path fileZ = cacheDir.resolve("z");
+    Path file = tmpDir.newFile("file");
+    Files.write(file, "x".getBytes(UTF_8));
 
     dirArtifactCache = new DirArtifactCache(
         "dir",
         new ProjectFilesystem(cacheDir),
         Paths.get("."),
         /* doStore */ true,
-        /* maxCacheSizeBytes */ Optional.of(2L));
+        /* maxCacheSizeBytes */ Optional.of(10L));
+
+    // Each entry takes up five bytes: one for the artifact and four for its empty metadata.
+    for (String key : ImmutableList.of("aa", "bb", "cc", "dd")) {
+      dirArtifactCache.store(
+          ImmutableSet.of(new RuleKey(key)),
+          ImmutableMap.<String, String>of(),
+          file);
+    }
+    assertEquals(
+        CacheResult.Type.HIT,
+        dirArtifactCache.fetch(new RuleKey("aa"), tmpDir.getRoot().resolve("out")).getType());
 
-    Files.write(fileW, "w".getBytes(UTF_8));
-    Files.write(fileX, "x".getBytes(UTF_8));
-    Files.write(fileY, "y".getBytes(UTF_8));
-    Files.write(fileZ, "z".getBytes(UTF_8));
+    dirArtifactCache.deleteOldFiles();
+
+    assertEquals(
+        ImmutableSet.of(
+            Paths.get("aa/aa"),
+            Paths.get("aa/aa.metadata"),
+            Paths.get("dd/dd"),
+            Paths.get("dd/dd.metadata")),
+        listCachedFiles(cacheDir));
+  }
 
-    Files.setAttribute(fileW, "lastAccessTime", FileTime.fromMillis(9000));
-    Files.setAttribute(fileX, "lastAccessTime", FileTime.fromMillis(0));
-    Files.setAttribute(fileY, "lastAccessTime", FileTime.fromMillis(1000));
-    Files.setAttribute(fileZ, "lastAccessTime", FileTime.fromMillis(2000));
+  @Test
+  public void testEvictionOrderIsKeptBetweenRuns() throws IOException {
+    Path cacheDir = tmpDir.newFolder();
+    Path file = tmpDir.newFile("file");
+    Files.write(file, "x".getBytes(UTF_8));
 
-    assertEquals(4, cacheDir.toFile().listFiles().length);
+    DirArtifactCache firstRun = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(5L));
+    for (String key : ImmutableList.of("aa", "bb")) {
+      firstRun.store(ImmutableSet.of(new RuleKey(key)), ImmutableMap.<String, String>of(), file);
+    }
+    firstRun.fetch(new RuleKey("aa"), tmpDir.getRoot().resolve("out"));
+    firstRun.close();
 
+    dirArtifactCache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(5L));
     dirArtifactCache.deleteOldFiles();
 
     assertEquals(
-        ImmutableSet.of(fileZ, fileW),
-        FluentIterable.of(cacheDir.toFile().listFiles()).transform(
-            new Function<File, Path>() {
-              @Override
-              public Path apply(File input) {
-                return input.toPath();
-              }
-            })
-            .toSet());
+        ImmutableSet.of(Paths.get("aa/aa"), Paths.get("aa/aa.metadata")),
+        listCachedFiles(cacheDir));
+  }
+
+  @Test
+  public void testUnshardedEntriesAreMovedIntoPlace() throws IOException {
+    Path cacheDir = tmpDir.newFolder();
+    for (String key : ImmutableList.of("aaaa", "bbbb")) {
+      Files.write(cacheDir.resolve(key), "x".getBytes(UTF_8));
+      Files.write(cacheDir.resolve(key + ".metadata"), new byte[4]);
+    }
+    Files.setAttribute(
+        cacheDir.resolve("aaaa.metadata"),
+        "lastAccessTime",
+        FileTime.fromMillis(0));
+    Files.setAttribute(
+        cacheDir.resolve("bbbb.metadata"),
+        "lastAccessTime",
+        FileTime.fromMillis(1000));
+
+    dirArtifactCache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(5L));
+
+    assertEquals(
+        ImmutableSet.of(
+            Paths.get("aa/aaaa"),
+            Paths.get("aa/aaaa.metadata"),
+            Paths.get("bb/bbbb"),
+            Paths.get("bb/bbbb.metadata")),
+        listCachedFiles(cacheDir));
+
+    // The entries are indexed in the order they were last used.
+    dirArtifactCache.deleteOldFiles();
+    assertEquals(
+        ImmutableSet.of(Paths.get("bb/bbbb"), Paths.get("bb/bbbb.metadata")),
+        listCachedFiles(cacheDir));
+    assertEquals(
+        CacheResult.Type.HIT,
+        dirArtifactCache.fetch(new RuleKey("bbbb"), tmpDir.getRoot().resolve("out")).getType());
+  }
+
+  @Test
+  public void testArtifactsWithTheSameOutputHashShareTheirPayload() throws IOException {
+    Path cacheDir = tmpDir.newFolder();
+    Path file = tmpDir.newFile("file");
+    Files.write(file, "x".getBytes(UTF_8));
+
+    dirArtifactCache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    // The SHA-1 of "x".
+    ImmutableMap<String, String> metadata = ImmutableMap.of(
+        BuildInfo.METADATA_KEY_FOR_OUTPUT_HASH,
+        "11f6ad8ec52a2984abaafd7c3b516503785c2072");
+    dirArtifactCache.store(ImmutableSet.of(new RuleKey("aa")), metadata, file);
+    dirArtifactCache.store(ImmutableSet.of(new RuleKey("bb")), metadata, file);
+
+    assertEquals(
+        ImmutableSet.of(
+            Paths.get("aa/aa.metadata"),
+            Paths.get("bb/bb.metadata"),
+            Paths.get("blobs/11/11f6ad8ec52a2984abaafd7c3b516503785c2072")),
+        listCachedFiles(cacheDir));
+
+    Path output = tmpDir.getRoot().resolve("out");
+    CacheResult result = dirArtifactCache.fetch(new RuleKey("bb"), output);
+    assertEquals(CacheResult.Type.HIT, result.getType());
+    assertEquals(metadata, result.getMetadata());
+    assertEquals("x", new String(Files.readAllBytes(output), UTF_8));
+  }
+
+  @Test
+  public void testStoreTrustsTheRecordedOutputHash() throws IOException {
+    Path cacheDir = tmpDir.newFolder();
+    Path file = tmpDir.newFile("file");
+    Files.write(file, "y".getBytes(UTF_8));
+
+    dirArtifactCache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    // The SHA-1 of "x", which the payload is not hashed again to check.
+    ImmutableMap<String, String> metadata = ImmutableMap.of(
+        BuildInfo.METADATA_KEY_FOR_OUTPUT_HASH,
+        "11f6ad8ec52a2984abaafd7c3b516503785c2072");
+    dirArtifactCache.store(ImmutableSet.of(new RuleKey("aa")), metadata, file);
+
+    assertEquals(
+        ImmutableSet.of(
+            Paths.get("aa/aa.metadata"),
+            Paths.get("blobs/11/11f6ad8ec52a2984abaafd7c3b516503785c2072")),
+        listCachedFiles(cacheDir));
+
+    Path output = tmpDir.getRoot().resolve("out");
+    CacheResult result = dirArtifactCache.fetch(new RuleKey("aa"), output);
+    assertEquals(CacheResult.Type.HIT, result.getType());
+    assertEquals(metadata, result.getMetadata());
+    assertEquals("y", new String(Files.readAllBytes(output), UTF_8));
+  }
+
+  @Test
+  public void testEvictedPayloadsAreMisses() throws IOException {
+    Path cacheDir = tmpDir.newFolder();
+    Path file = tmpDir.newFile("file");
+    Files.write(file, "xxxxxxxxxx".getBytes(UTF_8));
+
+    dirArtifactCache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(66L));
+
+    // The payload takes up ten bytes and the metadata 61. The payload is stored before the
+    // metadata that refers to it, so it is evicted first.
+    ImmutableMap<String, String> metadata = ImmutableMap.of(
+        BuildInfo.METADATA_KEY_FOR_OUTPUT_HASH,
+        "ff9ee043d85595eb255c05dfe32ece02a53efbb2");
+    RuleKey ruleKey = new RuleKey("aa");
+    dirArtifactCache.store(ImmutableSet.of(ruleKey), metadata, file);
+    dirArtifactCache.deleteOldFiles();
+
+    assertEquals(ImmutableSet.of(Paths.get("aa/aa.metadata")), listCachedFiles(cacheDir));
+    assertEquals(
+        CacheResult.Type.MISS,
+        dirArtifactCache.multiContains(ImmutableSet.of(ruleKey)).get(ruleKey).getType());
+    assertEquals(
+        CacheResult.Type.MISS,
+        dirArtifactCache.fetch(ruleKey, tmpDir.getRoot().resolve("out")).getType());
   }
 
   @Test
@@ -472,6 +636,27 @@ public class DirArtifactCacheTest {
     cache.close();
   }
 
+  /**
+   * @return the artifacts and metadata in {@code cacheDir}, relative to it.
+   */
+  private static ImmutableSet<Path> listCachedFiles(final Path cacheDir) throws IOException {
+    final ImmutableSet.Builder<Path> files = ImmutableSet.builder();
+    Files.walkFileTree(
+        cacheDir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            String fileName = file.getFileName().toString();
+            if (!fileName.equals(DirArtifactCacheIndex.INDEX_FILE_NAME) &&
+                !fileName.equals(DirArtifactCacheIndex.LOCK_FILE_NAME)) {
+              files.add(cacheDir.relativize(file));
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return files.build();
+  }
+
   private static class BuildRuleForTest extends FakeBuildRule {
 
     @SuppressWarnings("PMD.UnusedPrivateField")
@@ -39,6 +39,10 @@ public class FakeBuildEngine implements BuildEngine {
     this.ruleKeys = ImmutableMap.copyOf(ruleKeys);
   }
 
+  @Override
+  public void prepare(BuildContext context, Iterable<? extends BuildRule> rules) {
+  }
+
   @Override
   public ListenableFuture<BuildResult> build(BuildContext context, BuildRule rule) {
     SettableFuture<BuildResult> future = SettableFuture.create();
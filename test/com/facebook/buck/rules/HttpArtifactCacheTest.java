@@ -18,12 +18,15 @@ package com.facebook.buck.rules;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.testutil.integration.HttpCacheHandler;
+import com.facebook.buck.testutil.integration.HttpdForTests;
 import com.facebook.buck.timing.IncrementingFakeClock;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
@@ -34,6 +37,7 @@ import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Protocol;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
@@ -62,6 +66,8 @@ public class HttpArtifactCacheTest {
       new BuckEventBus(new IncrementingFakeClock(), new BuildId());
   private static final HashFunction HASH_FUNCTION = Hashing.crc32();
   private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+  /** The SHA-1 of "data". */
+  private static final String DATA_SHA1 = "a17c9aaa61e80a1bf71d0d850af4e5baa9800bbd";
 
   private ResponseBody createResponseBody(
       ImmutableSet<RuleKey> ruleKeys,
@@ -254,6 +260,51 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testFetchAndExtractBadChecksumLeavesCopyUntouched() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    final RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    HttpArtifactCache cache =
+        new HttpArtifactCache(
+            "http",
+            null,
+            null,
+            new URL("http://localhost:8080"),
+            /* doStore */ true,
+            filesystem,
+            BUCK_EVENT_BUS,
+            HASH_FUNCTION) {
+          @Override
+          protected Response fetchCall(Request request) throws IOException {
+            return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(HttpURLConnection.HTTP_OK)
+                .body(
+                    createResponseBody(
+                        ImmutableSet.of(ruleKey),
+                        ImmutableMap.<String, String>of(),
+                        ByteSource.wrap(new byte[0]),
+                        "data"))
+                .build();
+          }
+        };
+    Path copy = Paths.get("output/file");
+    filesystem.writeContentsToPath("old", copy);
+    CacheResult result =
+        cache.fetchAndExtract(
+            ruleKey,
+            new FakeProjectFilesystem(),
+            Optional.of(copy),
+            UnchangedFileFilter.NONE);
+    assertEquals(CacheResult.Type.ERROR, result.getType());
+    assertEquals(Optional.of("old"), filesystem.readFileIfItExists(copy));
+    assertEquals(
+        ImmutableSet.of(copy),
+        ImmutableSet.copyOf(filesystem.getDirectoryContents(copy.getParent())));
+    cache.close();
+  }
+
   @Test
   public void testFetchIOException() throws Exception {
     FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
@@ -482,4 +533,146 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testMultiContainsAndMultiFetchAgainstServer() throws Exception {
+    RuleKey first = new RuleKey("00000000000000000000000000000001");
+    RuleKey second = new RuleKey("00000000000000000000000000000002");
+    RuleKey missing = new RuleKey("00000000000000000000000000000003");
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.writeContentsToPath("first", Paths.get("first"));
+    filesystem.writeContentsToPath("second", Paths.get("second"));
+
+    HttpCacheHandler handler = new HttpCacheHandler();
+    try (HttpdForTests httpd = new HttpdForTests()) {
+      httpd.addHandler(handler);
+      httpd.start();
+      HttpArtifactCache cache =
+          new HttpArtifactCache(
+              "http",
+              new OkHttpClient(),
+              new OkHttpClient(),
+              httpd.getRootUri().toURL(),
+              /* doStore */ true,
+              filesystem,
+              BUCK_EVENT_BUS,
+              HASH_FUNCTION);
+      cache.store(
+          ImmutableSet.of(first),
+          ImmutableMap.of("some", "metadata"),
+          Paths.get("first"));
+      cache.store(ImmutableSet.of(second), ImmutableMap.<String, String>of(), Paths.get("second"));
+
+      assertEquals(
+          ImmutableMap.of(
+              first, CacheResult.hit("http"),
+              second, CacheResult.hit("http"),
+              missing, CacheResult.miss()),
+          cache.multiContains(ImmutableSet.of(first, second, missing)));
+
+      ImmutableMap<RuleKey, CacheResult> fetched = cache.multiFetch(
+          ImmutableMap.of(
+              first, Paths.get("out/first"),
+              missing, Paths.get("out/missing"),
+              second, Paths.get("out/second")));
+      assertEquals(
+          ImmutableMap.of(
+              first,
+              CacheResult.hit("http", ImmutableMap.of("some", "metadata"))
+                  .withArtifactSizeBytes(5L),
+              missing, CacheResult.miss(),
+              second,
+              CacheResult.hit("http", ImmutableMap.<String, String>of())
+                  .withArtifactSizeBytes(6L)),
+          fetched);
+      assertEquals(Optional.of("first"), filesystem.readFileIfItExists(Paths.get("out/first")));
+      assertEquals(Optional.of("second"), filesystem.readFileIfItExists(Paths.get("out/second")));
+      assertFalse(filesystem.exists(Paths.get("out/missing")));
+
+      assertEquals(1, handler.getRequests().count("POST /artifacts/contains"));
+      assertEquals(1, handler.getRequests().count("POST /artifacts/multifetch"));
+      cache.close();
+    }
+  }
+
+  @Test
+  public void testStoreSendsEachPayloadOnce() throws Exception {
+    RuleKey first = new RuleKey("00000000000000000000000000000001");
+    RuleKey second = new RuleKey("00000000000000000000000000000002");
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.writeContentsToPath("data", Paths.get("first"));
+    filesystem.writeContentsToPath("data", Paths.get("second"));
+
+    HttpCacheHandler handler = new HttpCacheHandler();
+    try (HttpdForTests httpd = new HttpdForTests()) {
+      httpd.addHandler(handler);
+      httpd.start();
+      HttpArtifactCache cache =
+          new HttpArtifactCache(
+              "http",
+              new OkHttpClient(),
+              new OkHttpClient(),
+              httpd.getRootUri().toURL(),
+              /* doStore */ true,
+              filesystem,
+              BUCK_EVENT_BUS,
+              HASH_FUNCTION);
+      cache.store(
+          ImmutableSet.of(first),
+          ImmutableMap.of(BuildInfo.METADATA_KEY_FOR_OUTPUT_HASH, DATA_SHA1, "key", "first"),
+          Paths.get("first"));
+      cache.store(
+          ImmutableSet.of(second),
+          ImmutableMap.of(BuildInfo.METADATA_KEY_FOR_OUTPUT_HASH, DATA_SHA1, "key", "second"),
+          Paths.get("second"));
+
+      assertEquals(2, handler.getRequests().count("PUT /artifacts/manifest"));
+      assertEquals(1, handler.getRequests().count("PUT /artifacts/key"));
+
+      CacheResult result = cache.fetch(second, Paths.get("out/second"));
+      assertEquals(CacheResult.Type.HIT, result.getType());
+      assertEquals("second", result.getMetadata().get("key"));
+      assertEquals(Optional.of("data"), filesystem.readFileIfItExists(Paths.get("out/second")));
+      cache.close();
+    }
+  }
+
+  @Test
+  public void testServerOnlyReusesPayloadsThatMatchTheirOutputHash() throws Exception {
+    RuleKey first = new RuleKey("00000000000000000000000000000001");
+    RuleKey second = new RuleKey("00000000000000000000000000000002");
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.writeContentsToPath("other data", Paths.get("first"));
+    filesystem.writeContentsToPath("data", Paths.get("second"));
+
+    HttpCacheHandler handler = new HttpCacheHandler();
+    try (HttpdForTests httpd = new HttpdForTests()) {
+      httpd.addHandler(handler);
+      httpd.start();
+      HttpArtifactCache cache =
+          new HttpArtifactCache(
+              "http",
+              new OkHttpClient(),
+              new OkHttpClient(),
+              httpd.getRootUri().toURL(),
+              /* doStore */ true,
+              filesystem,
+              BUCK_EVENT_BUS,
+              HASH_FUNCTION);
+      cache.store(
+          ImmutableSet.of(first),
+          ImmutableMap.of(BuildInfo.METADATA_KEY_FOR_OUTPUT_HASH, DATA_SHA1),
+          Paths.get("first"));
+      cache.store(
+          ImmutableSet.of(second),
+          ImmutableMap.of(BuildInfo.METADATA_KEY_FOR_OUTPUT_HASH, DATA_SHA1),
+          Paths.get("second"));
+
+      assertEquals(2, handler.getRequests().count("PUT /artifacts/key"));
+
+      CacheResult result = cache.fetch(second, Paths.get("out/second"));
+      assertEquals(CacheResult.Type.HIT, result.getType());
+      assertEquals(Optional.of("data"), filesystem.readFileIfItExists(Paths.get("out/second")));
+      cache.close();
+    }
+  }
 }
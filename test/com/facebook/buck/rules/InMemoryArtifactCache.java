@@ -16,6 +16,9 @@
 
 package com.facebook.buck.rules;
 
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.zip.Unzip;
+import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -26,6 +29,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
 
 public class InMemoryArtifactCache implements ArtifactCache {
@@ -54,6 +58,55 @@ public class InMemoryArtifactCache implements ArtifactCache {
     return CacheResult.hit("in-memory", artifact.metadata);
   }
 
+  @Override
+  public CacheResult fetchAndExtract(
+      RuleKey ruleKey,
+      ProjectFilesystem filesystem,
+      Optional<Path> copyTo,
+      UnchangedFileFilter unchangedFiles) {
+    Artifact artifact = artifacts.get(ruleKey);
+    if (artifact == null) {
+      return CacheResult.miss();
+    }
+    try {
+      Path file = Files.createTempFile("buck_artifact_", ".zip");
+      Files.write(file, artifact.data);
+      Unzip.extractZipFile(
+          file,
+          filesystem,
+          Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES,
+          unchangedFiles.getUnchangedFiles(artifact.metadata));
+      if (copyTo.isPresent()) {
+        Files.move(file, copyTo.get(), StandardCopyOption.REPLACE_EXISTING);
+      } else {
+        Files.delete(file);
+      }
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+    return CacheResult.hit("in-memory", artifact.metadata);
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      results.put(
+          ruleKey,
+          artifacts.containsKey(ruleKey) ? CacheResult.hit("in-memory") : CacheResult.miss());
+    }
+    return results.build();
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, Path> outputs) {
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (Map.Entry<RuleKey, Path> output : outputs.entrySet()) {
+      results.put(output.getKey(), fetch(output.getKey(), output.getValue()));
+    }
+    return results.build();
+  }
+
   public void store(
       ImmutableSet<RuleKey> ruleKeys,
       ImmutableMap<String, String> metadata,
@@ -83,6 +136,11 @@ public class InMemoryArtifactCache implements ArtifactCache {
     return true;
   }
 
+  @Override
+  public ArtifactCompression getCompression() {
+    return ArtifactCompression.DEFAULT;
+  }
+
   @Override
   public void close() throws IOException {
   }
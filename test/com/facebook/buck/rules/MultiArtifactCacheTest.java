@@ -19,8 +19,10 @@ package com.facebook.buck.rules;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -31,8 +33,11 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
@@ -73,6 +78,26 @@ public class MultiArtifactCacheTest {
 
   }
 
+  class CompressingArtifactCache extends NoopArtifactCache {
+    private final boolean isStoreSupported;
+    private final ArtifactCompression compression;
+
+    public CompressingArtifactCache(boolean isStoreSupported, ArtifactCompression compression) {
+      this.isStoreSupported = isStoreSupported;
+      this.compression = compression;
+    }
+
+    @Override
+    public boolean isStoreSupported() {
+      return isStoreSupported;
+    }
+
+    @Override
+    public ArtifactCompression getCompression() {
+      return compression;
+    }
+  }
+
   // An cache which always returns errors from fetching.
   class ErroringArtifactCache extends NoopArtifactCache {
 
@@ -118,6 +143,31 @@ public class MultiArtifactCacheTest {
     multiArtifactCache.close();
   }
 
+  @Test
+  public void testCacheMultiFetch() throws InterruptedException, IOException {
+    RuleKey otherRuleKey = new RuleKey("2a3f6d3a8cc1f7b4b1d07e0e3c2b1e62a8e3c7d1");
+    DummyArtifactCache dummyArtifactCache1 = new DummyArtifactCache();
+    DummyArtifactCache dummyArtifactCache2 = new DummyArtifactCache();
+    MultiArtifactCache multiArtifactCache = new MultiArtifactCache(ImmutableList.<ArtifactCache>of(
+        dummyArtifactCache1,
+        dummyArtifactCache2));
+
+    dummyArtifactCache2.store(
+        ImmutableSet.of(dummyRuleKey),
+        ImmutableMap.<String, String>of(),
+        dummyFile);
+    ImmutableMap<RuleKey, CacheResult> results = multiArtifactCache.multiFetch(
+        ImmutableMap.of(dummyRuleKey, dummyFile, otherRuleKey, Paths.get("other")));
+    assertEquals(CacheResult.Type.HIT, results.get(dummyRuleKey).getType());
+    assertEquals(CacheResult.Type.MISS, results.get(otherRuleKey).getType());
+    assertEquals(
+        "MultiArtifactCache.multiFetch() should store hits to the caches that missed",
+        dummyRuleKey,
+        dummyArtifactCache1.storeKey);
+
+    multiArtifactCache.close();
+  }
+
   @Test
   public void testCacheStore() throws InterruptedException, IOException {
     DummyArtifactCache dummyArtifactCache1 = new DummyArtifactCache();
@@ -142,6 +192,16 @@ public class MultiArtifactCacheTest {
     multiArtifactCache.close();
   }
 
+  @Test
+  public void storesArtifactsWithTheFastestCompressionOfItsCaches() {
+    MultiArtifactCache multiArtifactCache = new MultiArtifactCache(
+        ImmutableList.<ArtifactCache>of(
+            new CompressingArtifactCache(true, ArtifactCompression.BEST),
+            new CompressingArtifactCache(true, ArtifactCompression.FAST),
+            new CompressingArtifactCache(false, ArtifactCompression.STORED)));
+    assertEquals(ArtifactCompression.FAST, multiArtifactCache.getCompression());
+  }
+
   @Test
   public void preserveErrorsFromInnerCache() throws InterruptedException, IOException {
     ErroringArtifactCache inner = new ErroringArtifactCache();
@@ -177,4 +237,53 @@ public class MultiArtifactCacheTest {
     multiArtifactCache.close();
   }
 
+  @Test
+  public void parallelFetchUsesFirstHitAndCancelsSlowerCaches() throws Exception {
+    final CountDownLatch slowFetchInterrupted = new CountDownLatch(1);
+    InMemoryArtifactCache slowCache = new InMemoryArtifactCache() {
+      @Override
+      public CacheResult fetch(RuleKey ruleKey, Path output) {
+        try {
+          new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+          slowFetchInterrupted.countDown();
+        }
+        return CacheResult.miss();
+      }
+    };
+    InMemoryArtifactCache fastCache = new InMemoryArtifactCache();
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(
+            ImmutableList.<ArtifactCache>of(slowCache, fastCache),
+            /* fetchInParallel */ true);
+
+    ImmutableMap<String, String> metadata = ImmutableMap.of("hello", "world");
+    fastCache.store(ImmutableSet.of(dummyRuleKey), metadata, "data".getBytes(Charsets.UTF_8));
+    Path output = tmp.newFile();
+    CacheResult result = multiArtifactCache.fetch(dummyRuleKey, output);
+
+    assertEquals(CacheResult.Type.HIT, result.getType());
+    assertEquals(metadata, result.getMetadata());
+    assertEquals("data", new String(Files.readAllBytes(output), Charsets.UTF_8));
+    assertTrue(slowFetchInterrupted.await(10, TimeUnit.SECONDS));
+
+    // Closing waits for the artifact to be stored to the earlier cache in the background.
+    multiArtifactCache.close();
+    assertTrue(slowCache.hasArtifact(dummyRuleKey));
+  }
+
+  @Test
+  public void parallelFetchReportsResultOfLastCacheWhenAllMiss() throws Exception {
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(
+            ImmutableList.<ArtifactCache>of(
+                new InMemoryArtifactCache(),
+                new ErroringArtifactCache()),
+            /* fetchInParallel */ true);
+    assertEquals(
+        CacheResult.Type.ERROR,
+        multiArtifactCache.fetch(dummyRuleKey, tmp.newFile()).getType());
+    multiArtifactCache.close();
+  }
+
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class ParallelRuleKeyCalculatorTest {
+
+  @Test
+  public void keysEveryTransitiveDepAfterItsOwnDeps() {
+    Set<BuildRule> keyed = Sets.newConcurrentHashSet();
+    List<String> errors = new CopyOnWriteArrayList<>();
+    SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+
+    BuildRule leaf = new OrderCheckingRule("//:leaf", resolver, keyed, errors);
+    BuildRule left = new OrderCheckingRule("//:left", resolver, keyed, errors, leaf);
+    BuildRule right = new OrderCheckingRule("//:right", resolver, keyed, errors, leaf);
+    BuildRule top = new OrderCheckingRule("//:top", resolver, keyed, errors, left, right);
+
+    ImmutableMap<BuildRule, RuleKey> ruleKeys = new ParallelRuleKeyCalculator(4)
+        .calculate(BuckEventBusFactory.newInstance(), ImmutableList.of(top));
+
+    assertEquals(ImmutableList.of(), ImmutableList.copyOf(errors));
+    assertEquals(
+        ImmutableMap.of(
+            top, top.getRuleKey(),
+            left, left.getRuleKey(),
+            right, right.getRuleKey(),
+            leaf, leaf.getRuleKey()),
+        ruleKeys);
+  }
+
+  private static class OrderCheckingRule extends FakeBuildRule {
+
+    private final Set<BuildRule> keyed;
+    private final List<String> errors;
+    private final RuleKey ruleKey;
+
+    public OrderCheckingRule(
+        String target,
+        SourcePathResolver resolver,
+        Set<BuildRule> keyed,
+        List<String> errors,
+        BuildRule... deps) {
+      super(target, resolver, deps);
+      this.keyed = keyed;
+      this.errors = errors;
+      this.ruleKey = new RuleKey(Hashing.sha1().hashUnencodedChars(target).toString());
+    }
+
+    @Override
+    public RuleKey getRuleKey() {
+      for (BuildRule dep : getDeps()) {
+        if (!keyed.contains(dep)) {
+          errors.add(getBuildTarget() + " was keyed before " + dep.getBuildTarget());
+        }
+      }
+      keyed.add(this);
+      return ruleKey;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class PrefetchingArtifactCacheTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  @Test
+  public void onlyRulesThatTheEngineWouldLookUpArePrefetched() throws Exception {
+    SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+    FakeBuildRule leaf = createRule("//:leaf", "aa", resolver);
+    FakeBuildRule hit = createRule("//:hit", "bb", resolver, leaf);
+    FakeBuildRule miss = createRule("//:miss", "cc", resolver);
+    FakeBuildRule top = createRule("//:top", "dd", resolver, hit, miss);
+
+    RecordingArtifactCache delegate = new RecordingArtifactCache();
+    ImmutableMap<String, String> metadata = ImmutableMap.of();
+    delegate.store(ImmutableSet.of(hit.getRuleKey()), metadata, bytes("h"));
+    delegate.store(ImmutableSet.of(leaf.getRuleKey()), metadata, bytes("l"));
+
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(delegate, filesystem, 10);
+    cache.prefetch(ImmutableList.<BuildRule>of(top)).get();
+
+    // The deps of a hit are never looked up, as the engine would not look them up either.
+    assertEquals(
+        ImmutableList.of(
+            ImmutableSet.of(top.getRuleKey()),
+            ImmutableSet.of(hit.getRuleKey(), miss.getRuleKey())),
+        delegate.containsRequests);
+
+    Path output = tmp.getRoot().toPath().resolve("hit");
+    assertEquals(CacheResult.Type.HIT, cache.fetch(hit.getRuleKey(), output).getType());
+    assertArrayEquals(bytes("h"), Files.readAllBytes(output));
+    assertEquals(CacheResult.Type.MISS, cache.fetch(top.getRuleKey(), output).getType());
+    assertEquals(
+        ImmutableList.of(ImmutableSet.of(hit.getRuleKey())),
+        delegate.fetchRequests);
+
+    // Anything that was not prefetched is fetched from the delegate.
+    assertEquals(
+        CacheResult.Type.HIT,
+        cache.fetch(leaf.getRuleKey(), tmp.getRoot().toPath().resolve("leaf")).getType());
+    assertEquals(
+        ImmutableList.of(ImmutableSet.of(hit.getRuleKey()), ImmutableSet.of(leaf.getRuleKey())),
+        delegate.fetchRequests);
+
+    cache.close();
+    assertFalse(filesystem.exists(cache.getScratchDir()));
+  }
+
+  @Test
+  public void lookupsAreBatched() throws Exception {
+    SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+    ImmutableList.Builder<BuildRule> rules = ImmutableList.builder();
+    for (int i = 0; i < 5; i++) {
+      rules.add(createRule("//:rule" + i, "0" + i, resolver));
+    }
+
+    RecordingArtifactCache delegate = new RecordingArtifactCache();
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(delegate, filesystem, 2);
+    cache.prefetch(rules.build()).get();
+
+    assertEquals(3, delegate.containsRequests.size());
+    assertEquals(0, delegate.fetchRequests.size());
+    cache.close();
+  }
+
+  private static FakeBuildRule createRule(
+      String target,
+      String ruleKey,
+      SourcePathResolver resolver,
+      BuildRule... deps) {
+    FakeBuildRule rule = new FakeBuildRule(target, resolver, deps);
+    rule.setRuleKey(new RuleKey(ruleKey));
+    return rule;
+  }
+
+  private static byte[] bytes(String data) {
+    return data.getBytes(Charsets.UTF_8);
+  }
+
+  private static class RecordingArtifactCache extends InMemoryArtifactCache {
+    private final List<ImmutableSet<RuleKey>> containsRequests = new CopyOnWriteArrayList<>();
+    private final List<ImmutableSet<RuleKey>> fetchRequests = new CopyOnWriteArrayList<>();
+
+    @Override
+    public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+      containsRequests.add(ruleKeys);
+      return super.multiContains(ruleKeys);
+    }
+
+    @Override
+    public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, Path> outputs) {
+      fetchRequests.add(outputs.keySet());
+      ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+      for (Map.Entry<RuleKey, Path> output : outputs.entrySet()) {
+        results.put(output.getKey(), super.fetch(output.getKey(), output.getValue()));
+      }
+      return results.build();
+    }
+
+    @Override
+    public CacheResult fetch(RuleKey ruleKey, Path output) {
+      fetchRequests.add(ImmutableSet.of(ruleKey));
+      return super.fetch(ruleKey, output);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.util.cache.FileHashCache;
+import com.facebook.buck.util.cache.NullFileHashCache;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class RuleKeyLogTest {
+
+  @Test
+  public void recordsTheInputsOfTheKeysThatBuildersBuild() {
+    RuleKeyLog log = new RuleKeyLog();
+    RuleKey ruleKey =
+        new RuleKey.Builder(
+            new SourcePathResolver(new BuildRuleResolver()),
+            new NullFileHashCache(),
+            Optional.of(log)) {
+          @Override
+          protected RuleKey getAppendableRuleKey(
+              SourcePathResolver resolver,
+              FileHashCache hashCache,
+              RuleKeyAppendable appendable) {
+            throw new UnsupportedOperationException();
+          }
+        }
+            .setReflectively("flags", "-O2")
+            .setInt("jobs", 4)
+            .build();
+
+    assertEquals(
+        Optional.of(
+            ImmutableList.of(":key(flags):", "string(\"-O2\"):", ":key(jobs):", "number(4):")),
+        log.getInputs(ruleKey));
+  }
+
+  @Test
+  public void roundTripsThroughItsBinaryForm() throws IOException {
+    RuleKey first = new RuleKey("aaaa");
+    RuleKey second = new RuleKey("bbbb");
+    RuleKeyLog log = new RuleKeyLog();
+    log.recordInputs(first, ImmutableList.of(":key(name):", "string(\"//:first\"):"));
+    log.recordInputs(second, ImmutableList.of(":key(name):", "string(\"//:second\"):"));
+    log.recordRule("//:first", first);
+    log.recordRule("//:second", second);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    log.writeTo(output);
+    RuleKeyLog read = RuleKeyLog.readFrom(new ByteArrayInputStream(output.toByteArray()));
+
+    assertEquals(ImmutableMap.of("//:first", first, "//:second", second), read.getRuleKeys());
+    assertEquals(log.getInputs(first), read.getInputs(first));
+    assertEquals(log.getInputs(second), read.getInputs(second));
+  }
+}
@@ -581,6 +581,11 @@ public class RuleKeyTest {
           public HashCode get(Path path) {
             return HashCode.fromString("deadbeef");
           }
+
+          @Override
+          public long prefetch(Iterable<Path> paths, int parallelism) {
+            return 0;
+          }
         };
     BuildTarget buildTarget = BuildTargetFactory.newInstance("//some:example");
     BuildRule buildRule = new FakeBuildRule(buildTarget, resolver);
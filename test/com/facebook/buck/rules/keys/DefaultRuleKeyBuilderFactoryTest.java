@@ -32,15 +32,18 @@ import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.RuleKeyAppendable;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.step.Step;
+import com.facebook.buck.testutil.FakeFileHashCache;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.cache.NullFileHashCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 
 import org.junit.Test;
 
 import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import javax.annotation.Nullable;
 
@@ -367,6 +370,58 @@ public class DefaultRuleKeyBuilderFactoryTest {
     assertEquals(expected, seen.build());
   }
 
+  @Test
+  public void fieldsOfSimpleTypesAreAddedAsIfSetReflectively() {
+    BuildTarget target = BuildTargetFactory.newInstance("//cheese:peas");
+    SourcePathResolver pathResolver = new SourcePathResolver(new BuildRuleResolver());
+    BuildRule rule = new EmptyRule(target);
+    FileHashCache fileHashCache = FakeFileHashCache.createFromStrings(
+        ImmutableMap.of("cheese/brie.txt", "3b1e7b8b4ee2e1ae5bbe5b7e8e7dcbd0e6d2e7b1"));
+
+    DefaultRuleKeyBuilderFactory factory =
+        new DefaultRuleKeyBuilderFactory(fileHashCache, pathResolver);
+    RuleKey.Builder builder = factory.newInstance(rule);
+
+    // Fields are added in name order.
+    builder.setReflectively("aBoolean", true);
+    builder.setReflectively("aLong", 42L);
+    builder.setReflectively("aNullString", null);
+    builder.setReflectively("aPath", Paths.get("cheese/brie.txt"));
+    builder.setReflectively("aString", "cake-walk");
+    builder.setReflectively("anInt", 7);
+    RuleKey expected = builder.build();
+
+    class SimpleFields extends EmptyRule {
+
+      @AddToRuleKey
+      private boolean aBoolean = true;
+
+      @AddToRuleKey
+      private long aLong = 42L;
+
+      @AddToRuleKey
+      @Nullable
+      private String aNullString = null;
+
+      @AddToRuleKey
+      private Path aPath = Paths.get("cheese/brie.txt");
+
+      @AddToRuleKey
+      private String aString = "cake-walk";
+
+      @AddToRuleKey
+      private int anInt = 7;
+
+      public SimpleFields(BuildTarget target) {
+        super(target);
+      }
+    }
+
+    RuleKey.Builder seen = factory.newInstance(new SimpleFields(target));
+
+    assertEquals(expected, seen.build());
+  }
+
   private static class Appender implements RuleKeyAppendable {
     @Override
     public RuleKey.Builder appendToRuleKey(RuleKey.Builder builder) {
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.RuleKeyLog;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.util.cache.NullFileHashCache;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+public class RuleKeyLogDiffTest {
+
+  private final SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+
+  @Test
+  public void explainsTheFirstInputThatDiffers() {
+    RuleKeyLog left = new RuleKeyLog();
+    record(left, "//:lib", "-O2", Optional.<RuleKey>absent());
+    RuleKeyLog right = new RuleKeyLog();
+    record(right, "//:lib", "-O3", Optional.<RuleKey>absent());
+
+    assertEquals(
+        ImmutableMap.of("//:lib", "flags: string(\"-O2\"): -> string(\"-O3\"):"),
+        RuleKeyLogDiff.diff(left, right));
+  }
+
+  @Test
+  public void namesTheDependencyWhoseKeyDiffers() {
+    RuleKeyLog left = new RuleKeyLog();
+    RuleKey leftLib = record(left, "//:lib", "-O2", Optional.<RuleKey>absent());
+    record(left, "//:bin", "", Optional.of(leftLib));
+    RuleKeyLog right = new RuleKeyLog();
+    RuleKey rightLib = record(right, "//:lib", "-O3", Optional.<RuleKey>absent());
+    record(right, "//:bin", "", Optional.of(rightLib));
+
+    assertEquals(
+        ImmutableMap.of(
+            "//:bin", "dep: //:lib changed",
+            "//:lib", "flags: string(\"-O2\"): -> string(\"-O3\"):"),
+        RuleKeyLogDiff.diff(left, right));
+  }
+
+  @Test
+  public void leavesOutRulesWithTheSameKey() {
+    RuleKeyLog left = new RuleKeyLog();
+    record(left, "//:lib", "-O2", Optional.<RuleKey>absent());
+    RuleKeyLog right = new RuleKeyLog();
+    record(right, "//:lib", "-O2", Optional.<RuleKey>absent());
+    record(right, "//:other", "-O2", Optional.<RuleKey>absent());
+
+    assertEquals(ImmutableMap.of(), RuleKeyLogDiff.diff(left, right));
+  }
+
+  private RuleKey record(RuleKeyLog log, String target, String flags, Optional<RuleKey> dep) {
+    DefaultRuleKeyBuilderFactory factory =
+        new DefaultRuleKeyBuilderFactory(new NullFileHashCache(), resolver, Optional.of(log));
+    RuleKey.Builder builder = factory.newInstance(new FakeBuildRule(target, resolver));
+    builder.setReflectively("flags", flags);
+    builder.setReflectively("dep", dep);
+    RuleKey ruleKey = builder.build();
+    log.recordRule(target, ruleKey);
+    return ruleKey;
+  }
+}
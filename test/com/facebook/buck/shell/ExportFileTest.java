@@ -70,6 +70,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 public class ExportFileTest {
 
@@ -249,6 +250,15 @@ public class ExportFileTest {
                 // Do nothing.
               }
 
+              @Override
+              public ListenableFuture<Void> runStepsForBuildTarget(
+                  List<Step> steps,
+                  Optional<BuildTarget> buildTarget,
+                  Executor executor) {
+                // Do nothing.
+                return Futures.immediateFuture(null);
+              }
+
               @Override
               public <T> ListenableFuture<T> runStepsAndYieldResult(
                   List<Step> steps,
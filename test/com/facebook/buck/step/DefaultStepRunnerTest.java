@@ -24,9 +24,12 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventBusFactory;
 import com.facebook.buck.event.FakeBuckEventListener;
 import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.util.concurrent.ResourceBudget;
+import com.facebook.buck.util.concurrent.ResourceClass;
 import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 
@@ -34,6 +37,7 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DefaultStepRunnerTest {
 
@@ -112,6 +116,32 @@ public class DefaultStepRunnerTest {
     // Success if the test timeout is not reached.
   }
 
+  @Test(timeout = 5000)
+  public void testStepsWithResourceRequirementsShareTheBudget()
+      throws StepFailedException, InterruptedException {
+    AtomicInteger running = new AtomicInteger(0);
+    AtomicInteger mostRunning = new AtomicInteger(0);
+    ImmutableList.Builder<Step> steps = ImmutableList.builder();
+    for (int i = 0; i < 6; i++) {
+      steps.add(new MemoryHungryStep(running, mostRunning));
+    }
+
+    ListeningExecutorService service =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(6));
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setResourceBudget(new ResourceBudget(ImmutableMap.of(ResourceClass.MEMORY, 2)))
+        .build();
+    DefaultStepRunner runner = new DefaultStepRunner(context);
+    runner.runStepsInParallelAndWait(
+        steps.build(),
+        Optional.<BuildTarget>absent(),
+        service,
+        StepRunner.NOOP_CALLBACK);
+    service.shutdown();
+
+    assertEquals(2, mostRunning.get());
+  }
+
   @Test
   public void testExplodingStep() throws InterruptedException, IOException {
     ExecutionContext context = TestExecutionContext.newInstance();
@@ -170,4 +200,40 @@ public class DefaultStepRunnerTest {
           exitCode == 0 ? "success" : "fail");
     }
   }
+
+  private static class MemoryHungryStep implements Step, HasResourceRequirements {
+    private final AtomicInteger running;
+    private final AtomicInteger mostRunning;
+
+    public MemoryHungryStep(AtomicInteger running, AtomicInteger mostRunning) {
+      this.running = running;
+      this.mostRunning = mostRunning;
+    }
+
+    @Override
+    public int execute(ExecutionContext context) throws InterruptedException {
+      int nowRunning = running.incrementAndGet();
+      synchronized (mostRunning) {
+        mostRunning.set(Math.max(mostRunning.get(), nowRunning));
+      }
+      Thread.sleep(50);
+      running.decrementAndGet();
+      return 0;
+    }
+
+    @Override
+    public ImmutableMap<ResourceClass, Integer> getResourceRequirements() {
+      return ImmutableMap.of(ResourceClass.MEMORY, 1);
+    }
+
+    @Override
+    public String getShortName() {
+      return "hungry";
+    }
+
+    @Override
+    public String getDescription(ExecutionContext context) {
+      return getShortName();
+    }
+  }
 }
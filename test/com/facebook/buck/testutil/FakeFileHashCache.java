@@ -70,4 +70,9 @@ public class FakeFileHashCache implements FileHashCache {
     return hashCode;
   }
 
+  @Override
+  public long prefetch(Iterable<Path> paths, int parallelism) {
+    return 0;
+  }
+
 }
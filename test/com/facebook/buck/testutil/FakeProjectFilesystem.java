@@ -34,6 +34,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
+import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 
@@ -523,6 +524,12 @@ public class FakeProjectFilesystem extends ProjectFilesystem {
   }
 
 
+  @Override
+  public HashCode computeSha1HashCode(Path pathRelativeToProjectRoot) throws IOException {
+    return Hashing.sha1().hashBytes(
+        fileContents.get(normalizePathToProjectRoot(pathRelativeToProjectRoot)));
+  }
+
   @Override
   public BufferedSource newSource(Path pathRelativeToProjectRoot) throws IOException {
     Buffer buffer = new Buffer();
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.testutil.integration;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A stand-in for an http cache server, which keeps artifacts in memory and speaks the protocol
+ * described in {@code docs/concept/http_cache_api.soy}, including the batched requests and storing
+ * payloads by their output hash.
+ */
+public class HttpCacheHandler extends AbstractHandler {
+
+  private static final String KEY_PATH = "/artifacts/key";
+  private static final String CONTAINS_PATH = "/artifacts/contains";
+  private static final String MULTI_FETCH_PATH = "/artifacts/multifetch";
+  private static final String MANIFEST_PATH = "/artifacts/manifest";
+
+  /** The metadata key that names the payload of an artifact. */
+  private static final String OUTPUT_HASH = "OUTPUT_HASH";
+
+  /** The bytes that a fetch of each key returns: the metadata, followed by the artifact. */
+  private final Map<String, byte[]> artifacts = Maps.newConcurrentMap();
+  /** The payloads of artifacts that were stored with an output hash, keyed by that hash. */
+  private final Map<String, byte[]> blobs = Maps.newConcurrentMap();
+  private final ConcurrentLinkedQueue<String> requests = new ConcurrentLinkedQueue<>();
+
+  @Override
+  public void handle(
+      String target,
+      Request request,
+      HttpServletRequest httpServletRequest,
+      HttpServletResponse httpServletResponse) throws IOException, ServletException {
+    requests.add(request.getMethod() + " " + target);
+    if (HttpMethod.GET.is(request.getMethod()) && target.startsWith(KEY_PATH + "/")) {
+      byte[] artifact = artifacts.get(target.substring(KEY_PATH.length() + 1));
+      if (artifact == null) {
+        httpServletResponse.setStatus(HttpServletResponse.SC_NOT_FOUND);
+      } else {
+        httpServletResponse.setContentType("application/octet-stream");
+        httpServletResponse.getOutputStream().write(artifact);
+      }
+    } else if (HttpMethod.PUT.is(request.getMethod()) && target.equals(KEY_PATH)) {
+      DataInputStream input = new DataInputStream(request.getInputStream());
+      ImmutableList<String> keys = readKeys(input);
+      byte[] rawMetadata = readMetadata(input);
+      byte[] payload = ByteStreams.toByteArray(input);
+      Optional<String> outputHash = getOutputHash(rawMetadata);
+      // Only payloads that really have their output hash may be reused by later manifests.
+      if (outputHash.isPresent() &&
+          outputHash.get().equals(Hashing.sha1().hashBytes(payload).toString())) {
+        blobs.put(outputHash.get(), payload);
+      }
+      putArtifact(keys, rawMetadata, payload);
+      httpServletResponse.setStatus(HttpServletResponse.SC_ACCEPTED);
+    } else if (HttpMethod.PUT.is(request.getMethod()) && target.equals(MANIFEST_PATH)) {
+      DataInputStream input = new DataInputStream(request.getInputStream());
+      ImmutableList<String> keys = readKeys(input);
+      byte[] rawMetadata = readMetadata(input);
+      Optional<String> outputHash = getOutputHash(rawMetadata);
+      byte[] payload = outputHash.isPresent() ? blobs.get(outputHash.get()) : null;
+      if (payload == null) {
+        httpServletResponse.setStatus(HttpServletResponse.SC_NOT_FOUND);
+      } else {
+        putArtifact(keys, rawMetadata, payload);
+        httpServletResponse.setStatus(HttpServletResponse.SC_ACCEPTED);
+      }
+    } else if (HttpMethod.POST.is(request.getMethod()) && target.equals(CONTAINS_PATH)) {
+      ImmutableList<String> keys = readKeys(new DataInputStream(request.getInputStream()));
+      httpServletResponse.setContentType("application/octet-stream");
+      DataOutputStream output = new DataOutputStream(httpServletResponse.getOutputStream());
+      output.writeInt(keys.size());
+      for (String key : keys) {
+        output.writeBoolean(artifacts.containsKey(key));
+      }
+      output.flush();
+    } else if (HttpMethod.POST.is(request.getMethod()) && target.equals(MULTI_FETCH_PATH)) {
+      ImmutableList<String> keys = readKeys(new DataInputStream(request.getInputStream()));
+      httpServletResponse.setContentType("application/octet-stream");
+      DataOutputStream output = new DataOutputStream(httpServletResponse.getOutputStream());
+      for (String key : keys) {
+        byte[] artifact = artifacts.get(key);
+        output.writeBoolean(artifact != null);
+        if (artifact != null) {
+          output.writeLong(artifact.length);
+          output.write(artifact);
+        }
+      }
+      output.flush();
+    } else {
+      return;
+    }
+    request.setHandled(true);
+  }
+
+  private static ImmutableList<String> readKeys(DataInputStream input) throws IOException {
+    ImmutableList.Builder<String> keys = ImmutableList.builder();
+    int size = input.readInt();
+    for (int i = 0; i < size; i++) {
+      keys.add(input.readUTF());
+    }
+    return keys.build();
+  }
+
+  private static byte[] readMetadata(DataInputStream input) throws IOException {
+    byte[] rawMetadata = new byte[input.readInt()];
+    ByteStreams.readFully(input, rawMetadata);
+    return rawMetadata;
+  }
+
+  /**
+   * Finds the output hash in metadata made up of the keys, the metadata map and a checksum.
+   */
+  private static Optional<String> getOutputHash(byte[] rawMetadata) throws IOException {
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(rawMetadata));
+    readKeys(input);
+    int size = input.readInt();
+    for (int i = 0; i < size; i++) {
+      String key = input.readUTF();
+      byte[] value = new byte[input.readInt()];
+      ByteStreams.readFully(input, value);
+      if (key.equals(OUTPUT_HASH)) {
+        return Optional.of(new String(value, Charsets.UTF_8));
+      }
+    }
+    return Optional.absent();
+  }
+
+  private void putArtifact(ImmutableList<String> keys, byte[] rawMetadata, byte[] payload)
+      throws IOException {
+    ByteArrayOutputStream artifact = new ByteArrayOutputStream();
+    try (DataOutputStream output = new DataOutputStream(artifact)) {
+      output.writeInt(rawMetadata.length);
+      output.write(rawMetadata);
+      output.write(payload);
+    }
+    for (String key : keys) {
+      artifacts.put(key, artifact.toByteArray());
+    }
+  }
+
+  public boolean hasArtifact(String key) {
+    return artifacts.containsKey(key);
+  }
+
+  /**
+   * @return each request that has been handled, as its method and path, e.g.
+   *     {@code POST /artifacts/contains}.
+   */
+  public ImmutableMultiset<String> getRequests() {
+    return ImmutableMultiset.copyOf(requests);
+  }
+}
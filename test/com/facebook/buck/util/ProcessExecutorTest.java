@@ -138,4 +138,31 @@ public class ProcessExecutorTest {
         "process was reported as timed out",
         result.isTimedOut());
   }
+
+  @Test
+  public void testProcessTimeoutHandlerIsNotInvokedIfProcessFinishesInTime()
+      throws IOException, InterruptedException {
+    Console console = new Console(
+        Verbosity.ALL, new CapturingPrintStream(), new CapturingPrintStream(), Ansi.withoutTty());
+    ProcessExecutor executor = new ProcessExecutor(console);
+
+    final AtomicBoolean called = new AtomicBoolean(false);
+    Function<Process, Void> handler = new Function<Process, Void>() {
+      @Override
+      public Void apply(Process input) {
+        called.set(true);
+        return null;
+      }
+    };
+
+    ProcessExecutor.Result result = executor.execute(
+        Runtime.getRuntime().exec("echo Hello"),
+        EnumSet.of(ProcessExecutor.Option.EXPECTING_STD_OUT),
+        /* stdin */ Optional.<String>absent(),
+        /* timeOutMs */ Optional.of((long) 60000),
+        /* timeOutHandler */ Optional.of(handler));
+    assertFalse("process was not reported as timed out", result.isTimedOut());
+    assertFalse("timeOutHandler was not called", called.get());
+    assertEquals("Hello\n", result.getStdout().get());
+  }
 }
@@ -28,7 +28,9 @@ import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
 import com.facebook.buck.util.HashCodeAndFileType;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 
 import org.hamcrest.junit.ExpectedException;
@@ -41,6 +43,7 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardWatchEventKinds;
+import java.util.Random;
 
 public class DefaultFileHashCacheTest {
 
@@ -147,6 +150,32 @@ public class DefaultFileHashCacheTest {
     assertNotEquals(dirHash, dirHash2);
   }
 
+  @Test
+  public void prefetchHashesSmallAndMappedFilesAndSkipsMissingOnes()
+      throws IOException, InterruptedException {
+    DefaultFileHashCache cache =
+        new DefaultFileHashCache(
+            new ProjectFilesystem(
+                tmp.getRoot().toPath()));
+    byte[] small = "Hello world".getBytes(Charsets.UTF_8);
+    byte[] large = new byte[3 * 1024 * 1024 + 17];
+    new Random(0).nextBytes(large);
+    Files.write(small, tmp.newFile("small"));
+    Files.write(large, tmp.newFile("large"));
+
+    long bytesRead = cache.prefetch(
+        ImmutableList.of(Paths.get("small"), Paths.get("large"), Paths.get("missing")),
+        2);
+
+    assertEquals(small.length + large.length, bytesRead);
+    assertTrue(cache.contains(Paths.get("small")));
+    assertTrue(cache.contains(Paths.get("large")));
+    assertFalse(cache.contains(Paths.get("missing")));
+    assertEquals(Hashing.sha1().hashBytes(small), cache.get(Paths.get("small")));
+    assertEquals(Hashing.sha1().hashBytes(large), cache.get(Paths.get("large")));
+    assertEquals(0, cache.prefetch(ImmutableList.of(Paths.get("small")), 2));
+  }
+
   @Test
   public void whenNotifiedOfChangeToSubPathThenDirCacheEntryIsRemoved() throws IOException {
     DefaultFileHashCache cache =
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.facebook.buck.timing.Clock;
+import com.facebook.buck.timing.SettableFakeClock;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+public class PersistentFileHashIndexTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private Path path;
+  private FileTime oldMtime;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmp.getRootPath());
+    path = Paths.get("lib.jar");
+    filesystem.writeContentsToPath("original", path);
+    oldMtime = FileTime.fromMillis(
+        System.currentTimeMillis() - 10 * PersistentFileHashIndex.MTIME_GRANULARITY_MILLIS);
+    Files.setLastModifiedTime(filesystem.resolve(path), oldMtime);
+  }
+
+  @Test
+  public void savedHashesAreReusedWhileFileAttributesAreUnchanged() throws IOException {
+    HashCode originalHash = hash("original");
+    DefaultFileHashCache cache = newCache();
+    assertEquals(originalHash, cache.get(path));
+    cache.savePersistentIndex();
+
+    // Same size and modification time: the recorded hash is trusted without rereading the file.
+    filesystem.writeContentsToPath("modified", path);
+    Files.setLastModifiedTime(filesystem.resolve(path), oldMtime);
+    assertEquals(originalHash, newCache().get(path));
+
+    // A new modification time makes the file be hashed again.
+    Files.setLastModifiedTime(
+        filesystem.resolve(path),
+        FileTime.fromMillis(oldMtime.toMillis() + 1000));
+    assertEquals(hash("modified"), newCache().get(path));
+  }
+
+  @Test
+  public void recentlyModifiedFilesAreNotRecorded() throws IOException {
+    Files.setLastModifiedTime(
+        filesystem.resolve(path),
+        FileTime.fromMillis(System.currentTimeMillis()));
+    DefaultFileHashCache cache = newCache();
+    assertEquals(hash("original"), cache.get(path));
+    cache.savePersistentIndex();
+
+    assertEquals(
+        Optional.<HashCode>absent(),
+        new PersistentFileHashIndex(filesystem).get(
+            path,
+            filesystem.readAttributes(path, BasicFileAttributes.class)));
+  }
+
+  @Test
+  public void entriesUnusedForTooLongAreDroppedOnSave() throws IOException {
+    Path other = Paths.get("other.jar");
+    filesystem.writeContentsToPath("other", other);
+    Files.setLastModifiedTime(filesystem.resolve(other), oldMtime);
+    SettableFakeClock clock = new SettableFakeClock(System.currentTimeMillis(), 0);
+    DefaultFileHashCache cache = newCache(clock);
+    cache.get(path);
+    cache.get(other);
+    cache.savePersistentIndex();
+    assertEquals(2, new PersistentFileHashIndex(filesystem).size());
+
+    // Deleted files are never looked up again, so their entries age out, while the entries of
+    // files that are still in use are kept.
+    filesystem.deleteFileAtPath(other);
+    clock.setCurrentTimeMillis(
+        clock.currentTimeMillis() + PersistentFileHashIndex.MAX_UNUSED_MILLIS + 1);
+    Path added = Paths.get("added.jar");
+    filesystem.writeContentsToPath("added", added);
+    Files.setLastModifiedTime(filesystem.resolve(added), oldMtime);
+    cache = newCache(clock);
+    cache.get(path);
+    cache.get(added);
+    cache.savePersistentIndex();
+
+    assertEquals(2, new PersistentFileHashIndex(filesystem).size());
+  }
+
+  private DefaultFileHashCache newCache() {
+    return new DefaultFileHashCache(
+        filesystem,
+        Optional.of(new PersistentFileHashIndex(filesystem)));
+  }
+
+  private DefaultFileHashCache newCache(Clock clock) {
+    return new DefaultFileHashCache(
+        filesystem,
+        Optional.of(new PersistentFileHashIndex(filesystem, clock)));
+  }
+
+  private static HashCode hash(String contents) {
+    return Hashing.sha1().hashString(contents, Charsets.UTF_8);
+  }
+}
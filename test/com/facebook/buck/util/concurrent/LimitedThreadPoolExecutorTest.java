@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class LimitedThreadPoolExecutorTest {
+
+  @Test
+  public void queuedWorkRunsByPriorityThenInSubmissionOrder() throws InterruptedException {
+    LimitedThreadPoolExecutor executor =
+        new LimitedThreadPoolExecutor(
+            new ThreadFactoryBuilder().setNameFormat("test-%d").build(),
+            new ConcurrencyLimit(/* threadLimit */ 1, /* loadLimit */ Double.POSITIVE_INFINITY));
+    final List<String> order = Collections.synchronizedList(Lists.<String>newArrayList());
+
+    // Keep the only thread busy until everything else is queued.
+    final CountDownLatch queued = new CountDownLatch(1);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              queued.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+    executor.execute(record(order, "plain1"));
+    executor.execute(new PrioritizedRunnable(5, record(order, "low")));
+    executor.execute(new PrioritizedRunnable(50, record(order, "high")));
+    executor.execute(record(order, "plain2"));
+    executor.execute(new PrioritizedRunnable(5, record(order, "low2")));
+    queued.countDown();
+
+    MoreExecutors.shutdown(executor, 10, TimeUnit.SECONDS);
+    assertEquals(ImmutableList.of("high", "low", "low2", "plain1", "plain2"), order);
+  }
+
+  private static Runnable record(final List<String> order, final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        order.add(name);
+      }
+    };
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.util.concurrent;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ResourceBudgetTest {
+
+  @Test(timeout = 5000)
+  public void waitsForTokensToBeReturned() throws InterruptedException {
+    final ResourceBudget budget = new ResourceBudget(ImmutableMap.of(ResourceClass.MEMORY, 2));
+    ResourceBudget.Allocation first = budget.acquire(ImmutableMap.of(ResourceClass.MEMORY, 2));
+
+    final CountDownLatch acquired = new CountDownLatch(1);
+    Thread waiting = new Thread(
+        new Runnable() {
+          @Override
+          public void run() {
+            try (ResourceBudget.Allocation second =
+                     budget.acquire(ImmutableMap.of(ResourceClass.MEMORY, 1))) {
+              acquired.countDown();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+    waiting.start();
+    assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+
+    first.close();
+    assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    waiting.join();
+  }
+
+  @Test(timeout = 5000)
+  public void askingForMoreThanTheLimitTakesEverything() throws InterruptedException {
+    ResourceBudget budget = new ResourceBudget(ImmutableMap.of(ResourceClass.DISK_IO, 2));
+    try (ResourceBudget.Allocation allocation =
+             budget.acquire(ImmutableMap.of(ResourceClass.DISK_IO, 10))) {
+      // Doesn't block forever.
+    }
+    try (ResourceBudget.Allocation allocation =
+             budget.acquire(ImmutableMap.of(ResourceClass.DISK_IO, 2))) {
+      // Everything was returned.
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void classesWithoutALimitAreUnlimited() throws InterruptedException {
+    ResourceBudget budget = new ResourceBudget(ImmutableMap.of(ResourceClass.MEMORY, 1));
+    ResourceBudget.Allocation first = budget.acquire(ImmutableMap.of(ResourceClass.CPU, 100));
+    ResourceBudget.Allocation second = budget.acquire(ImmutableMap.of(ResourceClass.CPU, 100));
+    first.close();
+    second.close();
+  }
+
+  @Test
+  public void asyncRequestsAreGrantedInOrderAsTokensAreReturned() throws Exception {
+    ResourceBudget budget = new ResourceBudget(ImmutableMap.of(ResourceClass.MEMORY, 2));
+    ListenableFuture<ResourceBudget.Allocation> first =
+        budget.acquireAsync(ImmutableMap.of(ResourceClass.MEMORY, 2));
+    ListenableFuture<ResourceBudget.Allocation> second =
+        budget.acquireAsync(ImmutableMap.of(ResourceClass.MEMORY, 2));
+    ListenableFuture<ResourceBudget.Allocation> third =
+        budget.acquireAsync(ImmutableMap.of(ResourceClass.MEMORY, 1));
+    assertTrue(first.isDone());
+    assertFalse(second.isDone());
+    // Waits behind the request before it, even though there's no room for either yet.
+    assertFalse(third.isDone());
+
+    first.get().close();
+    assertTrue(second.isDone());
+    assertFalse(third.isDone());
+
+    second.get().close();
+    assertTrue(third.isDone());
+    third.get().close();
+  }
+
+  @Test
+  public void cancelledAsyncRequestsDoNotHoldOnToTokens() throws Exception {
+    ResourceBudget budget = new ResourceBudget(ImmutableMap.of(ResourceClass.MEMORY, 1));
+    ResourceBudget.Allocation first = budget.acquire(ImmutableMap.of(ResourceClass.MEMORY, 1));
+    ListenableFuture<ResourceBudget.Allocation> cancelled =
+        budget.acquireAsync(ImmutableMap.of(ResourceClass.MEMORY, 1));
+    ListenableFuture<ResourceBudget.Allocation> waiting =
+        budget.acquireAsync(ImmutableMap.of(ResourceClass.MEMORY, 1));
+    assertTrue(cancelled.cancel(false));
+
+    first.close();
+    assertTrue(waiting.isDone());
+    waiting.get().close();
+  }
+}
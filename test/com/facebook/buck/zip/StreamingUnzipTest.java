@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+public class StreamingUnzipTest {
+
+  @Rule
+  public TemporaryPaths tmpFolder = new TemporaryPaths();
+
+  @Test
+  public void entriesOnlyAppearOnCommitAndKeepTheirExecutableBit() throws IOException {
+    ProjectFilesystem source = new ProjectFilesystem(tmpFolder.newFolder("source"));
+    byte[] large = new byte[256 * 1024];
+    new Random(0).nextBytes(large);
+    Path largeFile = Paths.get("out/large.so");
+    Path script = Paths.get("out/bin/run.sh");
+    Path emptyDir = Paths.get("out/empty");
+    source.mkdirs(largeFile.getParent());
+    Files.write(source.resolve(largeFile), large);
+    source.mkdirs(script.getParent());
+    source.writeContentsToPath("#!/bin/sh\n", script);
+    MoreFiles.makeExecutable(source.resolve(script));
+    source.mkdirs(emptyDir);
+    Path zip = tmpFolder.getRoot().resolve("artifact.zip");
+    source.createZip(ImmutableList.of(emptyDir, largeFile, script), zip);
+
+    ProjectFilesystem destination = new ProjectFilesystem(tmpFolder.newFolder("destination"));
+    Path stagingDir = Paths.get("buck-out/staging");
+    try (InputStream input = Files.newInputStream(zip);
+         StreamingUnzip unzip = StreamingUnzip.stage(input, destination, stagingDir)) {
+      assertFalse(destination.exists(largeFile));
+      assertFalse(destination.exists(script));
+
+      ImmutableList<Path> filesWritten =
+          unzip.commit(Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+      assertEquals(ImmutableList.of(largeFile, script), filesWritten);
+    }
+
+    assertArrayEquals(large, Files.readAllBytes(destination.resolve(largeFile)));
+    assertTrue(destination.isExecutable(script));
+    assertFalse(destination.isExecutable(largeFile));
+    assertTrue(destination.isDirectory(emptyDir));
+    assertFalse(destination.exists(stagingDir));
+  }
+
+  @Test
+  public void closingWithoutCommittingDiscardsTheStagedEntries() throws IOException {
+    ProjectFilesystem source = new ProjectFilesystem(tmpFolder.newFolder("source"));
+    Path file = Paths.get("out/file.txt");
+    source.mkdirs(file.getParent());
+    source.writeContentsToPath("contents", file);
+    Path zip = tmpFolder.getRoot().resolve("artifact.zip");
+    source.createZip(ImmutableList.of(file), zip);
+
+    ProjectFilesystem destination = new ProjectFilesystem(tmpFolder.newFolder("destination"));
+    Path stagingDir = Paths.get("buck-out/staging");
+    try (InputStream input = Files.newInputStream(zip);
+         StreamingUnzip unzip = StreamingUnzip.stage(input, destination, stagingDir)) {
+      assertTrue(destination.exists(stagingDir));
+    }
+
+    assertFalse(destination.exists(file));
+    assertFalse(destination.exists(stagingDir));
+  }
+}
@@ -16,12 +16,16 @@
 
 package com.facebook.buck.zip;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.MorePosixFilePermissions;
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.testutil.Zip;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
@@ -34,6 +38,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.zip.ZipEntry;
 
@@ -110,4 +116,34 @@ public class UnzipTest {
     assertTrue(Files.isExecutable(exe));
     assertEquals(ImmutableList.of(extractFolder.resolve("test.exe")), result);
   }
+
+  @Test
+  public void testExtractZipFileLeavesUnchangedFilesAlone() throws IOException {
+    try (Zip zip = new Zip(zipFile, true)) {
+      zip.addDir("dir");
+      zip.add("dir/same.bin", DUMMY_FILE_CONTENTS);
+      zip.add("dir/changed.bin", DUMMY_FILE_CONTENTS);
+    }
+
+    Path extractFolder = tmpFolder.newFolder();
+    Path same = extractFolder.resolve("dir/same.bin");
+    Path changed = extractFolder.resolve("dir/changed.bin");
+    Path stale = extractFolder.resolve("dir/stale.bin");
+    Files.createDirectories(same.getParent());
+    Files.write(same, DUMMY_FILE_CONTENTS);
+    Files.write(changed, "old".getBytes());
+    Files.write(stale, "stale".getBytes());
+    Files.setLastModifiedTime(same, FileTime.fromMillis(0));
+
+    ImmutableList<Path> result = Unzip.extractZipFile(
+        zipFile.toAbsolutePath(),
+        new ProjectFilesystem(extractFolder),
+        Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES,
+        Predicates.equalTo(Paths.get("dir/same.bin")));
+
+    assertEquals(ImmutableList.of(Paths.get("dir/changed.bin")), result);
+    assertEquals(FileTime.fromMillis(0), Files.getLastModifiedTime(same));
+    assertArrayEquals(DUMMY_FILE_CONTENTS, Files.readAllBytes(changed));
+    assertFalse(Files.exists(stale));
+  }
 }